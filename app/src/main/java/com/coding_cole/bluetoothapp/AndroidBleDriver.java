@@ -0,0 +1,55 @@
+package com.coding_cole.bluetoothapp;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+
+import java.util.Collection;
+
+/*
+ * BleDriver on the Android Bluetooth stack: LeScanner for scanning, an
+ * AndroidGattLink per connection.
+ */
+class AndroidBleDriver implements BleDriver, BluetoothAdapter.LeScanCallback {
+
+	private final Context mContext;
+	private final BluetoothAdapter mAdapter;
+	private final LeScanner mScanner;
+
+	private volatile ScanCallback mScanCallback;
+
+	AndroidBleDriver(Context context, BluetoothAdapter adapter, String deviceName) {
+		mContext = context;
+		mAdapter = adapter;
+		mScanner = new LeScanner(adapter, deviceName, this);
+	}
+
+	@Override
+	public void setScanCallback(ScanCallback callback) {
+		mScanCallback = callback;
+	}
+
+	@Override
+	public void startScan(int mode, Collection<String> addresses) {
+		mScanner.startScan(mode, addresses);
+	}
+
+	@Override
+	public void stopScan() {
+		mScanner.stopScan();
+	}
+
+	@Override
+	public GattLink connect(String address, GattLink.Callback callback) {
+		BluetoothDevice device = mAdapter.getRemoteDevice(address);
+		return AndroidGattLink.connect(mContext, device, callback);
+	}
+
+	@Override
+	public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+		ScanCallback callback = mScanCallback;
+		if (callback != null) {
+			callback.onAdvertisement(device.getAddress(), device.getName(), rssi);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package com.coding_cole.bluetoothapp;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * GattLink on top of a BluetoothGatt.
+ *
+ * The characteristics are looked up once, when the services are discovered, and
+ * every operation after that finds its characteristic in a map. The GATT callback
+ * arrives on Binder threads; the characteristic it hands over is shared and
+ * mutable, so its value is copied before it is passed on.
+ *
+ * Connection priority and MTU can only be asked for from Lollipop on; before
+ * that the link runs at the stack's defaults.
+ */
+class AndroidGattLink implements GattLink {
+	private static final String TAG = "AndroidGattLink";
+
+	private final String mAddress;
+	private final Callback mCallback;
+
+	// set once connectGatt() returns, callbacks may come before that
+	private volatile BluetoothGatt mGatt;
+
+	// keyed by service, then characteristic; replaced whole after each discovery
+	private volatile Map<UUID, Map<UUID, BluetoothGattCharacteristic>> mCharacteristics =
+			new HashMap<UUID, Map<UUID, BluetoothGattCharacteristic>>();
+
+	private AndroidGattLink(String address, Callback callback) {
+		mAddress = address;
+		mCallback = callback;
+	}
+
+	/*
+	 * Make a connection with the device using the special LE-specific connectGatt()
+	 * method. A direct connection is much faster to establish than autoConnect, and
+	 * the session does the retrying. Returns null if the stack refused.
+	 */
+	static AndroidGattLink connect(Context context, BluetoothDevice device, Callback callback) {
+		AndroidGattLink link = new AndroidGattLink(device.getAddress(), callback);
+		link.mGatt = device.connectGatt(context, false, link.mGattCallback);
+		return link.mGatt != null ? link : null;
+	}
+
+	@Override
+	public String getAddress() {
+		return mAddress;
+	}
+
+	/*
+	 * BluetoothGatt.connect() always connects in the background, at the slow scan
+	 * rate of autoConnect; the session gives it a short while before it opens a
+	 * fresh direct link instead.
+	 */
+	@Override
+	public boolean reconnect() {
+		return mGatt.connect();
+	}
+
+	@Override
+	public boolean discoverServices() {
+		return mGatt.discoverServices();
+	}
+
+	@Override
+	public boolean requestConnectionPriority(int priority) {
+		// GattLink's priorities have the values of BluetoothGatt's
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mGatt.requestConnectionPriority(priority);
+	}
+
+	@Override
+	public boolean requestMtu(int mtu) {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mGatt.requestMtu(mtu);
+	}
+
+	@Override
+	public void disconnect() {
+		mGatt.disconnect();
+	}
+
+	@Override
+	public void close() {
+		mGatt.close();
+	}
+
+	// whether the tag has the characteristic, e.g. the data of a sensor its firmware may lack
+	@Override
+	public boolean hasCharacteristic(UUID service, UUID characteristic) {
+		Map<UUID, BluetoothGattCharacteristic> characteristics = mCharacteristics.get(service);
+		return characteristics != null && characteristics.containsKey(characteristic);
+	}
+
+	@Override
+	public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+		BluetoothGattCharacteristic c = characteristic(service, characteristic);
+		if (c == null) return false;
+
+		c.setValue(value);
+		return mGatt.writeCharacteristic(c);
+	}
+
+	@Override
+	public boolean readCharacteristic(UUID service, UUID characteristic) {
+		BluetoothGattCharacteristic c = characteristic(service, characteristic);
+		return c != null && mGatt.readCharacteristic(c);
+	}
+
+	@Override
+	public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+		BluetoothGattCharacteristic c = characteristic(service, characteristic);
+		return c != null && mGatt.setCharacteristicNotification(c, enable);
+	}
+
+	@Override
+	public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+		BluetoothGattCharacteristic c = characteristic(service, characteristic);
+		if (c == null) return false;
+
+		BluetoothGattDescriptor desc = c.getDescriptor(descriptor);
+		if (desc == null) {
+			Log.w(TAG, "No descriptor " + descriptor + " on " + characteristic);
+			return false;
+		}
+		desc.setValue(value);
+		return mGatt.writeDescriptor(desc);
+	}
+
+	private BluetoothGattCharacteristic characteristic(UUID service, UUID characteristic) {
+		Map<UUID, BluetoothGattCharacteristic> characteristics = mCharacteristics.get(service);
+		BluetoothGattCharacteristic c = characteristics == null ? null : characteristics.get(characteristic);
+		if (c == null) {
+			Log.w(TAG, "No characteristic " + characteristic + " in " + service);
+		}
+		return c;
+	}
+
+	private void indexServices(BluetoothGatt gatt) {
+		Map<UUID, Map<UUID, BluetoothGattCharacteristic>> index = new HashMap<UUID, Map<UUID, BluetoothGattCharacteristic>>();
+		for (BluetoothGattService service : gatt.getServices()) {
+			Map<UUID, BluetoothGattCharacteristic> characteristics = new HashMap<UUID, BluetoothGattCharacteristic>();
+			for (BluetoothGattCharacteristic c : service.getCharacteristics()) {
+				characteristics.put(c.getUuid(), c);
+			}
+			index.put(service.getUuid(), characteristics);
+		}
+		mCharacteristics = index;
+	}
+
+	private static byte[] copy(BluetoothGattCharacteristic characteristic) {
+		byte[] value = characteristic.getValue();
+		return value != null ? value.clone() : null;
+	}
+
+	private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+
+		@Override
+		public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+			Log.d(TAG, mAddress + " onConnection State Change: " + status + " -> " + connectionState(newState));
+			if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
+				/*
+				 * Once sucessfully connected, we must next discover the services on the
+				 * device before we can read and write their characteristics, unless this
+				 * link has seen them before.
+				 */
+				mCallback.onConnected(!gatt.getServices().isEmpty());
+			} else if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_DISCONNECTED) {
+				mCallback.onDisconnected(false);
+			} else if (status != BluetoothGatt.GATT_SUCCESS) {
+				// If there is a failure at any stage, the session drops the link and starts over.
+				mCallback.onDisconnected(true);
+			}
+		}
+
+		@Override
+		public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+			Log.d(TAG, "onServices Discovered: " + status);
+			if (status == BluetoothGatt.GATT_SUCCESS) {
+				indexServices(gatt);
+			}
+			mCallback.onServicesDiscovered(status == BluetoothGatt.GATT_SUCCESS);
+		}
+
+		@Override
+		public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+			mCallback.onCharacteristicRead(characteristic.getUuid(),
+					status == BluetoothGatt.GATT_SUCCESS ? copy(characteristic) : null, status);
+		}
+
+		@Override
+		public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+			mCallback.onCharacteristicWrite(characteristic.getUuid(), status);
+		}
+
+		@Override
+		public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+			// the bytes are copied before this callback returns and the next notification overwrites them
+			byte[] value = copy(characteristic);
+			if (value == null) {
+				Log.w(TAG, "Error obtaining value for " + characteristic.getUuid());
+				return;
+			}
+			mCallback.onCharacteristicChanged(characteristic.getUuid(), value);
+		}
+
+		@Override
+		public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+			mCallback.onDescriptorWrite(descriptor.getCharacteristic().getUuid(), descriptor.getUuid(), status);
+		}
+
+		@Override
+		public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+			Log.d(TAG, mAddress + " onMtu Changed: " + mtu + " " + status);
+			mCallback.onMtuChanged(mtu, status);
+		}
+
+		@Override
+		public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+			Log.d(TAG, "onReadRemote RSSI: " + rssi);
+		}
+
+		private String connectionState(int status) {
+			switch (status) {
+				case BluetoothProfile.STATE_CONNECTED:
+					return "Connected";
+
+				case BluetoothProfile.STATE_DISCONNECTED:
+					return "Disconnected";
+
+				case BluetoothProfile.STATE_CONNECTING:
+					return "Connecting";
+
+				case BluetoothProfile.STATE_DISCONNECTING:
+					return "Disconnecting";
+
+				default:
+					return String.valueOf(status);
+			}
+		}
+	};
+}
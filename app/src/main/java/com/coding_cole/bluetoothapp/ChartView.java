@@ -0,0 +1,252 @@
+package com.coding_cole.bluetoothapp;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A live chart of one channel of several tags, read from the ReadingHistory.
+ *
+ * The chart looks at the history from a Choreographer callback, once per column
+ * of time, since nothing it draws can change faster, and only redraws when a
+ * trace took in samples or scrolled by a column, so it never draws more often
+ * than the display refreshes and not at all while nothing moves. The callback
+ * only runs while the window is visible and there is something to chart. Each trace is decimated to one column per pixel by a
+ * ChartTrace, which only recomputes the columns that changed and hands over its
+ * segments for a single drawLines() call; nothing is allocated per frame.
+ *
+ * Used on the main thread only.
+ */
+public class ChartView extends View implements Choreographer.FrameCallback {
+
+	// what the chart spans unless told otherwise
+	static final long DEFAULT_SPAN_MS = 60 * 1000;
+
+	// a trace per tag, one color each
+	private static final int[] COLORS = {
+			0xFF008577, 0xFFD81B60, 0xFF1E88E5, 0xFFF4511E, 0xFF7CB342, 0xFF8E24AA, 0xFFFFB300
+	};
+
+	private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mGridPaint = new Paint();
+
+	private ReadingHistory mHistory;
+	private int mChannel;
+	private long mSpan = DEFAULT_SPAN_MS;
+
+	// the smallest range of values the y axis shows, so noise doesn't fill the chart
+	private double mMinRange = 1;
+
+	private final List<String> mDevices = new ArrayList<String>();
+	private ChartTrace[] mTraces = new ChartTrace[0];
+
+	// the y axis, widened in steps so it doesn't wobble with every sample
+	private double mLow = Double.NaN;
+	private double mHigh = Double.NaN;
+	private String mLowLabel = "";
+	private String mHighLabel = "";
+
+	private boolean mAttached;
+	// the frame callback is posted
+	private boolean mRunning;
+
+	public ChartView(Context context) {
+		this(context, null);
+	}
+
+	public ChartView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		float density = context.getResources().getDisplayMetrics().density;
+		mLinePaint.setStyle(Paint.Style.STROKE);
+		mLinePaint.setStrokeWidth(1.5f * density);
+		mGridPaint.setColor(Color.LTGRAY);
+		mTextPaint.setColor(Color.GRAY);
+		mTextPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12,
+				context.getResources().getDisplayMetrics()));
+	}
+
+	// chart a channel of the history; call setDevices() for what to show of it
+	void setSource(ReadingHistory history, int channel) {
+		mHistory = history;
+		mChannel = channel;
+		resetTraces();
+		start();
+	}
+
+	void setSpan(long millis) {
+		mSpan = millis;
+		createTraces(getWidth() - getPaddingLeft() - getPaddingRight());
+		start();
+	}
+
+	void setMinRange(double range) {
+		mMinRange = range;
+	}
+
+	// the tags to draw, in the order of their colors
+	void setDevices(List<String> devices) {
+		List<String> shown = devices.subList(0, Math.min(devices.size(), COLORS.length));
+		if (mDevices.equals(shown)) return;
+		mDevices.clear();
+		mDevices.addAll(shown);
+		createTraces(getWidth() - getPaddingLeft() - getPaddingRight());
+		start();
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		mAttached = true;
+		start();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		mAttached = false;
+		stop();
+	}
+
+	// the activity went to the background or came back
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+		if (visibility == VISIBLE) {
+			start();
+		} else {
+			stop();
+		}
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		createTraces(w - getPaddingLeft() - getPaddingRight());
+		start();
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		mRunning = false;
+		if (!canChange()) return;
+		// the next look once time moved by a column
+		mRunning = true;
+		Choreographer.getInstance().postFrameCallbackDelayed(this, Math.max(1, mSpan / columns()));
+
+		long now = SystemClock.elapsedRealtime();
+		boolean changed = false;
+		for (int i = 0; i < mTraces.length; i++) {
+			changed |= mTraces[i].update(mHistory.get(mDevices.get(i), mChannel), now);
+		}
+		if (changed) {
+			updateAxis();
+			invalidate();
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		float left = getPaddingLeft();
+		float top = getPaddingTop();
+		float width = getWidth() - left - getPaddingRight();
+		float height = getHeight() - top - getPaddingBottom();
+
+		canvas.drawLine(left, top + height, left + width, top + height, mGridPaint);
+		if (Double.isNaN(mLow)) return;
+
+		for (int i = 0; i < mTraces.length; i++) {
+			ChartTrace trace = mTraces[i];
+			float[] lines = trace.lines(left, top, width, height, mLow, mHigh);
+			if (trace.count() == 0) continue;
+			mLinePaint.setColor(COLORS[i]);
+			canvas.drawLines(lines, 0, trace.count(), mLinePaint);
+		}
+		canvas.drawText(mHighLabel, left, top + mTextPaint.getTextSize(), mTextPaint);
+		canvas.drawText(mLowLabel, left, top + height - mTextPaint.getTextSize() / 2, mTextPaint);
+	}
+
+	// a trace can take in samples or scroll, and someone can see it
+	private boolean canChange() {
+		return mAttached && mHistory != null && mTraces.length > 0 && getWindowVisibility() == VISIBLE;
+	}
+
+	private int columns() {
+		return Math.max(1, getWidth() - getPaddingLeft() - getPaddingRight());
+	}
+
+	private void start() {
+		if (mRunning || !canChange()) return;
+		mRunning = true;
+		Choreographer.getInstance().postFrameCallback(this);
+	}
+
+	private void stop() {
+		if (!mRunning) return;
+		mRunning = false;
+		Choreographer.getInstance().removeFrameCallback(this);
+	}
+
+	// only when the chart is resized or shows other tags
+	private void createTraces(int columns) {
+		if (columns <= 0) {
+			mTraces = new ChartTrace[0];
+			return;
+		}
+		ChartTrace[] traces = new ChartTrace[mDevices.size()];
+		for (int i = 0; i < traces.length; i++) {
+			traces[i] = new ChartTrace(columns, mSpan);
+		}
+		mTraces = traces;
+		mLow = Double.NaN;
+		mHigh = Double.NaN;
+	}
+
+	private void resetTraces() {
+		for (ChartTrace trace : mTraces) {
+			trace.reset();
+		}
+		mLow = Double.NaN;
+		mHigh = Double.NaN;
+		invalidate();
+	}
+
+	/*
+	 * Fit the axis to what's on screen, with a margin. It only changes when the
+	 * values leave it or shrink to less than half of it, and the labels are
+	 * only formatted then.
+	 */
+	private void updateAxis() {
+		double low = Double.POSITIVE_INFINITY;
+		double high = Double.NEGATIVE_INFINITY;
+		for (ChartTrace trace : mTraces) {
+			if (Double.isNaN(trace.getLow())) continue;
+			low = Math.min(low, trace.getLow());
+			high = Math.max(high, trace.getHigh());
+		}
+		if (low > high) {
+			mLow = Double.NaN;
+			mHigh = Double.NaN;
+			return;
+		}
+		double range = Math.max(mMinRange, (high - low) * 1.25);
+		boolean inside = !Double.isNaN(mLow) && low >= mLow && high <= mHigh;
+		if (inside && mHigh - mLow <= range * 2) return;
+
+		double middle = (low + high) / 2;
+		mLow = middle - range / 2;
+		mHigh = middle + range / 2;
+		mLowLabel = String.format("%.2f", mLow);
+		mHighLabel = String.format("%.2f", mHigh);
+	}
+}
@@ -0,0 +1,721 @@
+package com.coding_cole.bluetoothapp;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothManager;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Owns everything that collects data: the scanner, the tag sessions, decoding,
+ * the reading history and the frame log.
+ *
+ * While any tag is connected the service runs in the foreground, so collection
+ * goes on with the activity stopped or gone. Activities bind to it, subscribe to
+ * the ReadingStream for readings and get events through a Client for as long as
+ * they are bound; with no client the data still lands in the history, the
+ * HistoryStore on disk, the frame log and, if a collector is configured, the
+ * upload spool.
+ *
+ * The tags that streamed before are remembered in a TagCache file, with their
+ * calibrations and layout, so on the next start they can be connected to right
+ * away, all at once and without a scan. A tag that drops is hunted for with a
+ * scan filtered on the lost tags, and reconnected to as soon as it is heard
+ * instead of when its backoff runs out. The time from the service's creation to
+ * the first reading is in the startup.first_reading metric.
+ *
+ * Metrics of the whole path from scan to screen are collected all the time; they
+ * are on the debug screen and in `adb shell dumpsys activity service
+ * com.coding_cole.bluetoothapp/.CollectionService`.
+ *
+ * Everything here runs on the main thread.
+ */
+public class CollectionService extends Service implements BleDriver.ScanCallback {
+	private static final String TAG = "CollectionService";
+
+	static final String DEVICE_NAME = "SensorTag";
+
+	// an hour and 49 minutes of 10 Hz samples per channel, 1 MB per ring
+	private static final int HISTORY_CAPACITY = 1 << 16;
+
+	// the humidity, temperature and pressure of seven tags at full capacity with
+	// room to spare; channels of other sensors get what is left
+	private static final long HISTORY_BUDGET_BYTES = 24L * 1024 * 1024;
+
+	// about the noise of each sensor: %RH, degrees C, and 0.01 % of the pressure (~10 Pa)
+	private static final double HUMIDITY_DEADBAND = 0.2;
+	private static final double TEMPERATURE_DEADBAND = 0.05;
+	private static final double PRESSURE_DEADBAND_PERCENT = 0.01;
+
+	private static final String FRAME_LOG_DIR = "frames";
+	private static final String UPLOAD_DIR = "upload";
+	private static final String STORE_DIR = "history";
+	private static final String KNOWN_TAGS_FILE = "tags";
+
+	// what the history store keeps of each value: 1/128 %RH, 1/1024 degree, 1/16384 in. Hg
+	private static final int HUMIDITY_BITS = 7;
+	private static final int TEMPERATURE_BITS = 10;
+	private static final int PRESSURE_BITS = 14;
+
+	// readings waiting for the store's thread, and how much a crash may lose of them
+	private static final int STORE_BUFFER = 4096;
+	private static final long STORE_FLUSH_MS = 5 * 60 * 1000;
+
+	// readings waiting for the upload thread before the oldest are dropped
+	private static final int UPLOAD_BUFFER = 4096;
+
+	// how often the background collection wants a reading of each sensor it records
+	private static final long RECORD_INTERVAL_MS = 1000;
+
+	private static final String CHANNEL_ID = "collection";
+	private static final int NOTIFICATION_ID = 1;
+
+	// the notification's stop button
+	static final String ACTION_STOP = "com.coding_cole.bluetoothapp.action.STOP_COLLECTION";
+
+	/*
+	 * What a bound activity sees, called on the main thread.
+	 */
+	interface Client {
+		// the tags found by the scan, strongest first, each with its name
+		void onDevicesChanged(List<ScanAggregator.Entry<String>> devices);
+
+		void onScanStateChanged(boolean scanning);
+
+		void onProgress(String message);
+
+		void onReady(String address);
+
+		void onDisconnected(String address);
+	}
+
+	class LocalBinder extends Binder {
+		CollectionService getService() {
+			return CollectionService.this;
+		}
+	}
+
+	private final IBinder mBinder = new LocalBinder();
+
+	private final Metrics mMetrics = new Metrics();
+	private final Metrics.Counter mScanHits = mMetrics.counter("scan.advertisements");
+
+	// when the service was created, for the startup metrics
+	private long mCreatedNanos;
+	private boolean mStarted;
+	private ReadingStream.Subscription mFirstReading;
+
+	private BleDriver mDriver;
+	private ScanAggregator<String> mScanResults;
+	private ScanScheduler mScanScheduler;
+	// when the current scan window started, main thread only
+	private long mWindowStarted;
+	private HandlerScheduler mScheduler;
+
+	// tags that dropped and are reconnecting, and what the scanner did before hunting for them
+	private final Set<String> mLost = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private int mModeBeforeHunt = ScanScheduler.MODE_OFF;
+	private SensorPipeline mPipeline;
+	private FrameLogWriter mFrameLog;
+	private SessionManager mSessions;
+	private Uploader mUploader;
+	private ExecutorService mUploadExecutor;
+	private ReadingStream.Subscription mUploadReadings;
+	private ExecutorService mNetworkExecutor;
+	private HistoryStore mStore;
+	private ExecutorService mStoreExecutor;
+	private ReadingStream.Subscription mStoreReadings;
+
+	private Client mClient;
+	private boolean mForeground;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		mCreatedNanos = System.nanoTime();
+
+		BluetoothManager manager = (BluetoothManager) getSystemService(BLUETOOTH_SERVICE);
+		mDriver = new AndroidBleDriver(this, manager.getAdapter(), DEVICE_NAME);
+		mDriver.setScanCallback(this);
+
+		/*
+		 * We are looking for sensor tag devices only, so validate the name each new
+		 * device reports before adding it to our collection. Clients only hear
+		 * about that collection when it changes, not for every advertisement.
+		 */
+		HandlerScheduler scheduler = new HandlerScheduler(new Handler(Looper.getMainLooper()));
+		mScheduler = scheduler;
+		mScanResults = new ScanAggregator<String>(scheduler,
+				new ScanAggregator.Filter<String>() {
+					@Override
+					public boolean accept(String name) {
+						if (!DEVICE_NAME.equals(name)) return false;
+						// a new tag, the scanner keeps looking at this pace
+						mScanScheduler.onNewDevice();
+						return true;
+					}
+				},
+				new ScanAggregator.Listener<String>() {
+					@Override
+					public void onDevicesChanged(List<ScanAggregator.Entry<String>> devices) {
+						if (mClient != null) mClient.onDevicesChanged(devices);
+					}
+				});
+
+		mScanScheduler = new ScanScheduler(scheduler, mDriver,
+				new ScanScheduler.Listener() {
+					@Override
+					public void onScanStateChanged(int mode, boolean scanning) {
+						long now = SystemClock.elapsedRealtime();
+						if (scanning) {
+							mWindowStarted = now;
+						} else if (mode == ScanScheduler.MODE_BURST || mode == ScanScheduler.MODE_LOW_POWER) {
+							// a whole window went by without a word from these, they left
+							mScanResults.expire(mWindowStarted, now);
+						}
+						if (mClient != null) mClient.onScanStateChanged(scanning);
+					}
+				});
+
+		// notifications are decoded off the main thread, consumers subscribe to the readings
+		ReadingHistory history = new ReadingHistory(HISTORY_CAPACITY, HISTORY_BUDGET_BYTES);
+		final ReadingStream stream = new ReadingStream();
+		// steady humidity and pressure only come through when they move
+		DeadbandFilter deadband = new DeadbandFilter(SessionManager.MAX_SESSIONS)
+				.filter(SensorRegistry.HUMIDITY, DeadbandFilter.DEFAULT_HEARTBEAT_MS)
+				.filter(SensorRegistry.BAROMETER, DeadbandFilter.DEFAULT_HEARTBEAT_MS)
+				.deadband(Channel.HUMIDITY, HUMIDITY_DEADBAND, 0)
+				.deadband(Channel.TEMPERATURE, TEMPERATURE_DEADBAND, 0)
+				.deadband(Channel.PRESSURE, 0, PRESSURE_DEADBAND_PERCENT);
+		mPipeline = new SensorPipeline(SessionManager.MAX_SESSIONS, deadband, history, stream, mMetrics);
+
+		// every raw frame the tags send is kept on disk
+		mFrameLog = new FrameLogWriter(new File(getFilesDir(), FRAME_LOG_DIR));
+		mFrameLog.start();
+
+		mSessions = new SessionManager(mDriver, mPipeline, mFrameLog, loadKnownTags(), mMetrics, mSessionCallback);
+
+		startStore();
+		startUploads(scheduler);
+
+		// once, to see how long a start takes to show anything
+		mFirstReading = stream.subscribe(ReadingStream.ALL, 1, ReadingStream.CONFLATE,
+				scheduler, new ReadingStream.Subscriber() {
+					@Override
+					public void onReading(Reading reading) {
+						if (mFirstReading == null) return;
+						mFirstReading.cancel();
+						mFirstReading = null;
+						long nanos = reading.createdNanos - mCreatedNanos;
+						mMetrics.histogram("startup.first_reading").record(nanos);
+						Log.i(TAG, "First reading " + nanos / 1000000 + " ms after start");
+					}
+				});
+
+		mMetrics.gauge("sessions", new Metrics.Gauge() {
+			@Override
+			public long get() {
+				return mSessions.size();
+			}
+		});
+		mMetrics.gauge("scan.devices", new Metrics.Gauge() {
+			@Override
+			public long get() {
+				return mScanResults.getDevices().size();
+			}
+		});
+		mMetrics.gauge("stream.dropped", new Metrics.Gauge() {
+			@Override
+			public long get() {
+				return stream.getDropped();
+			}
+		});
+		mMetrics.gauge("store.bytes", new Metrics.Gauge() {
+			@Override
+			public long get() {
+				return mStore.sizeBytes();
+			}
+		});
+		if (mUploader != null) {
+			mMetrics.gauge("upload.pending", new Metrics.Gauge() {
+				@Override
+				public long get() {
+					return mUploader.getPending();
+				}
+			});
+			mMetrics.gauge("upload.sent", new Metrics.Gauge() {
+				@Override
+				public long get() {
+					return mUploader.getSentBatches();
+				}
+			});
+			mMetrics.gauge("upload.failures", new Metrics.Gauge() {
+				@Override
+				public long get() {
+					return mUploader.getFailures();
+				}
+			});
+		}
+
+		// what we record with nobody watching, the other sensors stay off until someone asks
+		SamplingPolicy sampling = mSessions.getSampling();
+		sampling.request(SensorRegistry.HUMIDITY, RECORD_INTERVAL_MS, false);
+		sampling.request(SensorRegistry.BAROMETER, RECORD_INTERVAL_MS, false);
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+			stopCollection();
+			return START_NOT_STICKY;
+		}
+		if (intent == null && mSessions.size() == 0) {
+			// restarted after the process died, the sessions died with it
+			stopSelf();
+			return START_NOT_STICKY;
+		}
+		startForeground(NOTIFICATION_ID, buildNotification());
+		mForeground = true;
+		return START_STICKY;
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return mBinder;
+	}
+
+	@Override
+	public boolean onUnbind(Intent intent) {
+		mClient = null;
+		if (mSessions.size() == 0) {
+			// nobody to show the scan to and nothing to collect
+			mScanScheduler.stop();
+		}
+		return false;
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+
+		mScanScheduler.stop();
+		mSessions.disconnectAll();
+		/*
+		 * Nothing is published once the pipeline is gone. The readings already
+		 * offered are drained on the executors before their subscriptions are
+		 * cancelled, and the executors shut down after that.
+		 */
+		mPipeline.quit();
+		if (mFirstReading != null) {
+			mFirstReading.cancel();
+			mFirstReading = null;
+		}
+		if (mUploader != null) {
+			// what is left goes out with the next run
+			mUploader.close();
+			// once the close ran, nothing is sent anymore
+			mUploadExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					mUploadReadings.cancel();
+					mNetworkExecutor.shutdown();
+				}
+			});
+			mUploadExecutor.shutdown();
+		}
+		mStoreExecutor.execute(mSaveKnownTags);
+		mStoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mStoreReadings.cancel();
+				try {
+					mStore.close();
+				} catch (IOException e) {
+					Log.w(TAG, "Error closing history store", e);
+				}
+			}
+		});
+		mStoreExecutor.shutdown();
+		try {
+			mFrameLog.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Error closing frame log", e);
+		}
+	}
+
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		writer.print(mMetrics.dump());
+	}
+
+	// readings and events go to this client until it is replaced or cleared
+	void setClient(Client client) {
+		mClient = client;
+	}
+
+	void startScan() {
+		// scan hard for a little while, then keep looking in the background
+		mScanResults.clear(SystemClock.elapsedRealtime());
+		mScanScheduler.setMode(ScanScheduler.MODE_BURST);
+	}
+
+	void stopScan() {
+		mScanScheduler.stop();
+		// lost tags are still looked for
+		updateHunt();
+	}
+
+	ScanAggregator<String> getScanResults() {
+		return mScanResults;
+	}
+
+	ReadingHistory getHistory() {
+		return mPipeline.getHistory();
+	}
+
+	HistoryStore getStore() {
+		return mStore;
+	}
+
+	// every decoded reading, on the decoding thread until a subscription's executor takes over
+	ReadingStream getReadings() {
+		return mPipeline.getStream();
+	}
+
+	FrameLogWriter getFrameLog() {
+		return mFrameLog;
+	}
+
+	SessionManager getSessions() {
+		return mSessions;
+	}
+
+	Metrics getMetrics() {
+		return mMetrics;
+	}
+
+	// null without a collector to upload to
+	Uploader getUploader() {
+		return mUploader;
+	}
+
+	// consumers ask for the sensors they use here, and cancel when they are done
+	SamplingPolicy getSampling() {
+		return mSessions.getSampling();
+	}
+
+	// returns false if every session slot is taken
+	boolean connect(String address, String name) {
+		if (mSessions.connect(address, name) == null) {
+			return false;
+		}
+		collectionChanged();
+		return true;
+	}
+
+	// a session per discovered tag, all connecting at once
+	int connectAll() {
+		int started = mSessions.connectAll(mScanResults.getDevices());
+		collectionChanged();
+		return started;
+	}
+
+	// a session per tag that streamed before, all connecting at once without a scan
+	int connectKnown() {
+		int started = mSessions.connectKnown();
+		if (started > 0) collectionChanged();
+		return started;
+	}
+
+	// the next start connects to nothing until tags are picked again
+	void forgetKnown() {
+		mSessions.getCache().clear();
+		mStoreExecutor.execute(mSaveKnownTags);
+	}
+
+	void disconnect(String address) {
+		mSessions.disconnect(address);
+		if (mLost.remove(address)) updateHunt();
+		collectionChanged();
+	}
+
+	// disconnect every tag and leave the foreground
+	void stopCollection() {
+		mLost.clear();
+		mScanScheduler.stop();
+		mSessions.disconnectAll();
+		if (mUploader != null) mUploader.flush();
+		mStoreExecutor.execute(mFlushStore);
+		collectionChanged();
+	}
+
+	@Override
+	public void onAdvertisement(final String address, String name, int rssi) {
+		// called for every advertisement, the aggregator dedupes by address
+		mScanHits.increment();
+		mScanResults.onAdvertisement(address, name, rssi, SystemClock.elapsedRealtime());
+		if (mLost.contains(address)) {
+			// a lost tag is back in range, no use waiting for its next reconnect
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					mSessions.onSeen(address);
+				}
+			}, 0);
+		}
+	}
+
+	/*
+	 * Scan for the tags that dropped while there are any, then go back to what the
+	 * scanner did before. A burst scan for every tag hears them as well, it is left
+	 * running.
+	 */
+	private void updateHunt() {
+		int mode = mScanScheduler.getMode();
+		boolean hunting = mode == ScanScheduler.MODE_RECONNECT;
+		if (!mLost.isEmpty()) {
+			if (mode == ScanScheduler.MODE_BURST) return;
+			if (!hunting) mModeBeforeHunt = mode;
+			mScanScheduler.hunt(mLost);
+		} else if (hunting) {
+			mScanScheduler.setMode(mModeBeforeHunt);
+		}
+	}
+
+	/*
+	 * Keep the humidity and barometer readings for weeks, compressed on disk. The
+	 * store is written on a thread of its own and flushed every few minutes.
+	 */
+	private void startStore() {
+		mStore = new HistoryStore(new File(getFilesDir(), STORE_DIR))
+				.setPrecision(Channel.HUMIDITY, HUMIDITY_BITS)
+				.setPrecision(Channel.TEMPERATURE, TEMPERATURE_BITS)
+				.setPrecision(Channel.PRESSURE, PRESSURE_BITS);
+		mStoreExecutor = Executors.newSingleThreadExecutor();
+		mStoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mStore.open();
+				} catch (IOException e) {
+					Log.w(TAG, "Error opening history store", e);
+				}
+			}
+		});
+		mStoreReadings = mPipeline.getStream().subscribe(
+				ReadingStream.sensors(SensorRegistry.HUMIDITY, SensorRegistry.BAROMETER),
+				STORE_BUFFER, ReadingStream.DROP_OLDEST, mStoreExecutor, new ReadingStream.Subscriber() {
+					private long mFlushed = SystemClock.elapsedRealtime();
+
+					@Override
+					public void onReading(Reading reading) {
+						// the store keeps wall clock time, readings are stamped since boot
+						long now = SystemClock.elapsedRealtime();
+						long time = reading.timestamp + System.currentTimeMillis() - now;
+						try {
+							for (int channel : reading.sensor.getChannels()) {
+								mStore.add(reading.device, channel, time, reading.get(channel));
+							}
+						} catch (IOException e) {
+							Log.w(TAG, "Error storing " + reading, e);
+						}
+						if (now - mFlushed >= STORE_FLUSH_MS) {
+							mFlushed = now;
+							mFlushStore.run();
+						}
+					}
+				});
+	}
+
+	/*
+	 * The tags used before. A small file, read on the main thread since the
+	 * sessions need it before anything can connect.
+	 */
+	private TagCache loadKnownTags() {
+		try {
+			return TagCache.load(new File(getFilesDir(), KNOWN_TAGS_FILE));
+		} catch (IOException e) {
+			Log.w(TAG, "Error reading known tags", e);
+			return new TagCache();
+		}
+	}
+
+	// on the store's thread
+	private final Runnable mSaveKnownTags = new Runnable() {
+		@Override
+		public void run() {
+			TagCache cache = mSessions.getCache();
+			if (!cache.isDirty()) return;
+			try {
+				cache.save(new File(getFilesDir(), KNOWN_TAGS_FILE));
+			} catch (IOException e) {
+				Log.w(TAG, "Error saving known tags", e);
+			}
+		}
+	};
+
+	// on the store's thread
+	private final Runnable mFlushStore = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				mStore.flush();
+			} catch (IOException e) {
+				Log.w(TAG, "Error flushing history store", e);
+			}
+		}
+	};
+
+	/*
+	 * Send every reading to the collector in R.string.collector_url, if there is one.
+	 * Readings are batched and spooled on a thread of their own, and sent on
+	 * another, so neither the decoder nor the main thread waits on the disk or the
+	 * network, and a slow collector doesn't back up the readings. Looking at the
+	 * spool is left to the spooling thread too, so it doesn't hold up the start.
+	 */
+	private void startUploads(TaskScheduler scheduler) {
+		String url = getString(R.string.collector_url);
+		if (url.length() == 0) return;
+
+		URL endpoint;
+		try {
+			endpoint = new URL(url);
+		} catch (MalformedURLException e) {
+			Log.w(TAG, "Bad collector url " + url, e);
+			return;
+		}
+		mUploadExecutor = Executors.newSingleThreadExecutor();
+		mNetworkExecutor = Executors.newSingleThreadExecutor();
+		final Uploader uploader = new Uploader(endpoint, new File(getFilesDir(), UPLOAD_DIR), scheduler,
+				mUploadExecutor, mNetworkExecutor);
+		mUploader = uploader;
+		// subscribed right away so no reading is missed, the start runs before the first of them
+		final ReadingStream.Subscription subscription = mPipeline.getStream().subscribe(ReadingStream.ALL,
+				UPLOAD_BUFFER, ReadingStream.DROP_OLDEST, mUploadExecutor,
+				new ReadingStream.Subscriber() {
+					@Override
+					public void onReading(Reading reading) {
+						// the collector wants wall clock time like the store, readings are stamped since boot
+						uploader.add(reading, System.currentTimeMillis() - SystemClock.elapsedRealtime());
+					}
+				});
+		mUploadReadings = subscription;
+		mUploadExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					uploader.start();
+				} catch (IOException e) {
+					Log.w(TAG, "Uploads disabled", e);
+					subscription.cancel();
+				}
+			}
+		});
+	}
+
+	/*
+	 * Run in the foreground while there is something to collect, and let the
+	 * system stop the service once there isn't and nobody is bound.
+	 */
+	private void collectionChanged() {
+		if (mSessions.size() > 0) {
+			if (!mForeground) {
+				Intent intent = new Intent(this, CollectionService.class);
+				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+					startForegroundService(intent);
+				} else {
+					startService(intent);
+				}
+			} else {
+				NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+				nm.notify(NOTIFICATION_ID, buildNotification());
+			}
+		} else if (mForeground) {
+			mForeground = false;
+			stopForeground(true);
+			stopSelf();
+		}
+	}
+
+	private Notification buildNotification() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+			NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+					getString(R.string.collection_channel), NotificationManager.IMPORTANCE_LOW);
+			channel.setShowBadge(false);
+			NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+			nm.createNotificationChannel(channel);
+		}
+
+		PendingIntent open = PendingIntent.getActivity(this, 0,
+				new Intent(this, MainActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+		PendingIntent stop = PendingIntent.getService(this, 0,
+				new Intent(this, CollectionService.class).setAction(ACTION_STOP), PendingIntent.FLAG_UPDATE_CURRENT);
+
+		return new NotificationCompat.Builder(this, CHANNEL_ID)
+				.setSmallIcon(R.drawable.ic_stat_name)
+				.setContentTitle(getString(R.string.app_name))
+				.setContentText(getString(R.string.collection_running, mSessions.size()))
+				.setContentIntent(open)
+				.addAction(0, getString(R.string.collection_stop), stop)
+				.setOngoing(true)
+				.setOnlyAlertOnce(true)
+				.setShowWhen(false)
+				.setPriority(NotificationCompat.PRIORITY_LOW)
+				.build();
+	}
+
+	/*
+	 * Session events arrive on the main thread, pass them on to the client
+	 */
+	private final TagSession.Callback mSessionCallback = new TagSession.Callback() {
+		@Override
+		public void onProgress(TagSession session, String message) {
+			if (mClient != null) mClient.onProgress(session.getName() + ": " + message);
+		}
+
+		@Override
+		public void onReady(TagSession session) {
+			if (!mStarted) {
+				mStarted = true;
+				long nanos = System.nanoTime() - mCreatedNanos;
+				mMetrics.histogram("startup.ready").record(nanos);
+				Log.i(TAG, "First tag ready " + nanos / 1000000 + " ms after start");
+			}
+			// the tag is remembered for the next start, with what was read from it
+			mStoreExecutor.execute(mSaveKnownTags);
+			if (mLost.remove(session.getAddress())) updateHunt();
+			if (mClient != null) mClient.onReady(session.getAddress());
+		}
+
+		@Override
+		public void onDisconnected(TagSession session) {
+			mLost.add(session.getAddress());
+			updateHunt();
+			if (mClient != null) mClient.onDisconnected(session.getAddress());
+		}
+	};
+}
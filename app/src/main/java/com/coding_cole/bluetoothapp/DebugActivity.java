@@ -0,0 +1,71 @@
+package com.coding_cole.bluetoothapp;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+/*
+ * Shows the CollectionService's metrics, refreshed every second while visible.
+ */
+public class DebugActivity extends AppCompatActivity {
+
+	private static final long REFRESH_MS = 1000;
+
+	private final Handler mHandler = new Handler();
+
+	private TextView mText;
+
+	// bound while the activity is started, null otherwise
+	private CollectionService mService;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.activity_debug);
+		mText = (TextView) findViewById(R.id.debug_text);
+	}
+
+	@Override
+	protected void onStart() {
+		super.onStart();
+		bindService(new Intent(this, CollectionService.class), mConnection, Context.BIND_AUTO_CREATE);
+	}
+
+	@Override
+	protected void onStop() {
+		super.onStop();
+		mHandler.removeCallbacks(mRefresh);
+		mService = null;
+		unbindService(mConnection);
+	}
+
+	private final Runnable mRefresh = new Runnable() {
+		@Override
+		public void run() {
+			if (mService == null) return;
+			mText.setText(mService.getMetrics().dump());
+			mHandler.postDelayed(this, REFRESH_MS);
+		}
+	};
+
+	private final ServiceConnection mConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			mService = ((CollectionService.LocalBinder) binder).getService();
+			mRefresh.run();
+		}
+
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			mHandler.removeCallbacks(mRefresh);
+			mService = null;
+		}
+	};
+}
@@ -0,0 +1,68 @@
+package com.coding_cole.bluetoothapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/*
+ * Executor running its tasks on the main thread at most once per display frame.
+ *
+ * Tasks handed over within a frame of the last run wait for the next one and
+ * then run together, so a subscription drained here wakes the main thread at
+ * the frame rate at most, however fast the readings come. Paced with a delayed
+ * post rather than the Choreographer, which only takes callbacks on the main
+ * thread, and tasks come from any thread.
+ */
+final class FrameExecutor implements Executor {
+
+	// tasks run at most this often
+	static final long FRAME_INTERVAL_MS = 16;
+
+	private final Handler mMain = new Handler(Looper.getMainLooper());
+
+	// guarded by itself; swapped with mRunning so nothing is allocated per frame
+	private final Object mLock = new Object();
+	private ArrayList<Runnable> mQueued = new ArrayList<Runnable>();
+	private boolean mPending;
+	private long mLastRun;
+
+	// main thread only
+	private ArrayList<Runnable> mRunning = new ArrayList<Runnable>();
+
+	@Override
+	public void execute(Runnable task) {
+		long delay;
+		synchronized (mLock) {
+			mQueued.add(task);
+			if (mPending) return;
+			mPending = true;
+			delay = Math.max(0, mLastRun + FRAME_INTERVAL_MS - SystemClock.uptimeMillis());
+		}
+		mMain.postDelayed(mRun, delay);
+	}
+
+	private final Runnable mRun = new Runnable() {
+		@Override
+		public void run() {
+			ArrayList<Runnable> tasks;
+			synchronized (mLock) {
+				// anything handed over from here on goes in the next frame
+				tasks = mQueued;
+				mQueued = mRunning;
+				mRunning = tasks;
+				mPending = false;
+				mLastRun = SystemClock.uptimeMillis();
+			}
+			try {
+				for (int i = 0; i < tasks.size(); i++) {
+					tasks.get(i).run();
+				}
+			} finally {
+				tasks.clear();
+			}
+		}
+	};
+}
@@ -0,0 +1,34 @@
+package com.coding_cole.bluetoothapp;
+
+import android.os.Handler;
+
+import java.util.concurrent.Executor;
+
+/*
+ * TaskScheduler running its tasks on an Android Handler, and an Executor
+ * posting to it.
+ */
+class HandlerScheduler implements TaskScheduler, Executor {
+
+	private final Handler mHandler;
+
+	HandlerScheduler(Handler handler) {
+		mHandler = handler;
+	}
+
+	@Override
+	public Object schedule(Runnable task, long delayMillis) {
+		mHandler.postDelayed(task, delayMillis);
+		return task;
+	}
+
+	@Override
+	public void cancel(Object handle) {
+		mHandler.removeCallbacks((Runnable) handle);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		mHandler.post(task);
+	}
+}
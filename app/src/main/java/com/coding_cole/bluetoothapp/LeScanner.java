@@ -0,0 +1,120 @@
+package com.coding_cole.bluetoothapp;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * ScanScheduler.Scanner on the Android LE scanner.
+ *
+ * From Lollipop on the scan is filtered by the controller, on the tag name or
+ * on the addresses we are reconnecting to, so the app isn't woken up for every
+ * other device around. Older releases only have startLeScan(), whose filter can
+ * only match advertised service UUIDs and the SensorTag doesn't advertise any,
+ * so there the name is checked in software. Either way every result ends up in
+ * the LeScanCallback.
+ */
+class LeScanner implements ScanScheduler.Scanner {
+	private static final String TAG = "LeScanner";
+
+	private final BluetoothAdapter mAdapter;
+	private final String mDeviceName;
+	private final BluetoothAdapter.LeScanCallback mCallback;
+
+	// the Lollipop callback, created on first use
+	private Object mScanCallback;
+
+	LeScanner(BluetoothAdapter adapter, String deviceName, BluetoothAdapter.LeScanCallback callback) {
+		mAdapter = adapter;
+		mDeviceName = deviceName;
+		mCallback = callback;
+	}
+
+	@Override
+	public void startScan(int mode, Collection<String> addresses) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			startFiltered(mode, addresses);
+		} else {
+			mAdapter.startLeScan(mCallback);
+		}
+	}
+
+	@Override
+	public void stopScan() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			BluetoothLeScanner scanner = mAdapter.getBluetoothLeScanner();
+			// null once bluetooth is turned off, which stops the scan anyway
+			if (scanner != null && mScanCallback != null) {
+				scanner.stopScan((ScanCallback) mScanCallback);
+			}
+		} else {
+			mAdapter.stopLeScan(mCallback);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private void startFiltered(int mode, Collection<String> addresses) {
+		BluetoothLeScanner scanner = mAdapter.getBluetoothLeScanner();
+		if (scanner == null) {
+			Log.w(TAG, "Bluetooth is off, not scanning");
+			return;
+		}
+
+		List<ScanFilter> filters = new ArrayList<ScanFilter>();
+		if (addresses.isEmpty()) {
+			filters.add(new ScanFilter.Builder().setDeviceName(mDeviceName).build());
+		} else {
+			for (String address : addresses) {
+				filters.add(new ScanFilter.Builder().setDeviceAddress(address).build());
+			}
+		}
+
+		int scanMode;
+		switch (mode) {
+			case ScanScheduler.MODE_BURST:
+				scanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+				break;
+			case ScanScheduler.MODE_RECONNECT:
+				scanMode = ScanSettings.SCAN_MODE_BALANCED;
+				break;
+			default:
+				scanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+				break;
+		}
+		ScanSettings settings = new ScanSettings.Builder().setScanMode(scanMode).build();
+
+		if (mScanCallback == null) {
+			mScanCallback = new ScanCallback() {
+				@Override
+				public void onScanResult(int callbackType, ScanResult result) {
+					ScanRecord record = result.getScanRecord();
+					mCallback.onLeScan(result.getDevice(), result.getRssi(), record != null ? record.getBytes() : null);
+				}
+
+				@Override
+				public void onBatchScanResults(List<ScanResult> results) {
+					for (ScanResult result : results) {
+						onScanResult(0, result);
+					}
+				}
+
+				@Override
+				public void onScanFailed(int errorCode) {
+					Log.w(TAG, "Scan failed: " + errorCode);
+				}
+			};
+		}
+		scanner.startScan(filters, settings, (ScanCallback) mScanCallback);
+	}
+}
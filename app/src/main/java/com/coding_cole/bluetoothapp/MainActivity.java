@@ -1,61 +1,79 @@
 package com.coding_cole.bluetoothapp;
 
-import android.annotation.SuppressLint;
 import android.app.ProgressDialog;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
-import android.os.Handler;
-import android.os.Message;
+import android.os.IBinder;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.Window;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.UUID;
-
-
-public class MainActivity extends AppCompatActivity implements BluetoothAdapter.LeScanCallback {
+import java.util.ArrayList;
+import java.util.List;
+
+
+/*
+ * Shows the readings of one tag. Scanning, connections and decoding live in the
+ * CollectionService, which keeps collecting while this activity is stopped; the
+ * activity binds to it while started and only renders what it is sent.
+ *
+ * On the first start of the process, the tags used last time are connected to as
+ * soon as the service is bound, and the most recent one is shown. Later binds,
+ * e.g. after a rotation or coming back from the background, leave that alone, so
+ * once the user stopped collecting it stays stopped.
+ */
+public class MainActivity extends AppCompatActivity {
 	private static final String TAG = "BluetoothGattActivity";
 
-	private static final String DEVICE_NAME = "SensorTag";
+	// how often the readings on screen update
+	private static final long DISPLAY_INTERVAL_MS = 500;
 
-	// Humidity service
-	private static final UUID HUMIDITY_SERVICE = UUID.fromString("f000aa20-0451-4000-b000-000000000");
-	private static final UUID HUMIDITY_DATA_CHAR = UUID.fromString("f000aa21-0451-4000-b000-000000000");
-	private static final UUID HUMIDITY_CONFIG_CHAR = UUID.fromString("f000aa22-0451-4000-b000-000000000");
+	// the known tags were connected to, once per process
+	private static boolean sConnectedKnown;
 
-	// Barometric pressure service
-	private static final UUID PRESSURE_SERVICE = UUID.fromString("f000aa40-0451-4000-b000-000000000");
-	private static final UUID PRESSURE_DATA_CHAR = UUID.fromString("f000aa41-0451-4000-b000-000000000");
-	private static final UUID PRESSURE_CONFIG_CHAR = UUID.fromString("f000aa42-0451-4000-b000-000000000");
-	private static final UUID PRESSURE_CAL_CHAR = UUID.fromString("f000aa43-0451-4000-b000-000000000");
+	private BluetoothAdapter mBluetoothAdapter;
 
-	// Client configuration description
-	private static final UUID CONFIG_DESCRIPTOR = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+	// bound while the activity is started, null otherwise
+	private CollectionService mService;
 
-	private BluetoothAdapter mBluetoothAdapter;
-	private SparseArray<BluetoothDevice> mDevices;
+	// the tags in the menu right now
+	private List<ScanAggregator.Entry<String>> mMenuDevices =
+			new ArrayList<ScanAggregator.Entry<String>>();
 
-	private BluetoothGatt mConnectedGatt;
+	// the tag whose readings are on screen
+	private String mDisplayedAddress;
+
+	// the tag the user picked, progress is shown until it streams
+	private String mConnectingAddress;
 
 	private TextView mTemperature, mHumidity, mPressure;
 
+	// the history of every connected tag, drawn straight from the service
+	private ChartView mHumidityChart, mTemperatureChart, mPressureChart;
+
+	// faster readings of what's on screen, while we are bound
+	private final List<SamplingPolicy.Request> mSampling = new ArrayList<SamplingPolicy.Request>();
+
+	// the latest reading of each tag and sensor, while we are bound, handed over once per frame
+	private ReadingStream.Subscription mReadings;
+	private final FrameExecutor mFrameExecutor = new FrameExecutor();
+
+	// from decoding a reading to showing it, while we are bound
+	private Metrics.Histogram mUiLatency;
+
+	// created the first time a connection shows progress
 	private ProgressDialog mProgress;
 
 	@Override
@@ -83,18 +101,22 @@ public class MainActivity extends AppCompatActivity implements BluetoothAdapter.
 		mHumidity = (TextView) findViewById(R.id.text_humidity);
 		mPressure = (TextView) findViewById(R.id.text_pressure);
 
+		mHumidityChart = (ChartView) findViewById(R.id.chart_humidity);
+		mTemperatureChart = (ChartView) findViewById(R.id.chart_temperature);
+		mPressureChart = (ChartView) findViewById(R.id.chart_pressure);
+		// the least each axis shows: 5 %RH, 1 degree and 0.05 in. Hg
+		mHumidityChart.setMinRange(5);
+		mTemperatureChart.setMinRange(1);
+		mPressureChart.setMinRange(0.05);
+
 		BluetoothManager manager = (BluetoothManager) getSystemService(BLUETOOTH_SERVICE);
 		mBluetoothAdapter = manager.getAdapter();
+	}
 
-		mDevices = new SparseArray<BluetoothDevice>();
-
-		/* a progress dialog will be needed while the
-		 * connection process is taking place
-		 */
-
-		mProgress = new ProgressDialog(this);
-		mProgress.setIndeterminate(true);
-		mProgress.setCancelable(false);
+	@Override
+	protected void onStart() {
+		super.onStart();
+		bindService(new Intent(this, CollectionService.class), mConnection, Context.BIND_AUTO_CREATE);
 	}
 
 	@Override
@@ -129,23 +151,26 @@ public class MainActivity extends AppCompatActivity implements BluetoothAdapter.
 		super.onPause();
 
 		// make sure that dialog is hidden
-		mProgress.dismiss();
-
-		// cancel any scan in progress
-		mHandler.removeCallbacks(mStopRunnable);
-		mHandler.removeCallbacks(mStartRunnable);
-		mBluetoothAdapter.stopLeScan(this);
+		if (mProgress != null) mProgress.dismiss();
 	}
 
 	@Override
 	protected void onStop() {
 		super.onStop();
 
-		// diconnect from any active tag connection
-		if (mConnectedGatt != null) {
-			mConnectedGatt.disconnect();
-			mConnectedGatt = null;
+		// the service keeps collecting from every connected tag, we just stop listening
+		if (mService != null) {
+			for (SamplingPolicy.Request request : mSampling) {
+				mService.getSampling().cancel(request);
+			}
+			mSampling.clear();
+			mReadings.cancel();
+			mReadings = null;
+			mService.setClient(null);
+			mService = null;
+			updateCharts();
 		}
+		unbindService(mConnection);
 	}
 
 	@Override
@@ -154,9 +179,8 @@ public class MainActivity extends AppCompatActivity implements BluetoothAdapter.
 		// add the scan option to the menu
 		getMenuInflater().inflate(R.menu.menu_main, menu);
 		// add any device we've discovered to the overflow menu
-		for (int i = 0; i < mDevices.size(); i++) {
-			BluetoothDevice device = mDevices.valueAt(i);
-			menu.add(0, mDevices.keyAt(i), 0, device.getName());
+		for (ScanAggregator.Entry<String> entry : mMenuDevices) {
+			menu.add(0, entry.id, 0, entry.device);
 		}
 
 		return true;
@@ -167,392 +191,196 @@ public class MainActivity extends AppCompatActivity implements BluetoothAdapter.
 
 		switch (item.getItemId()) {
 			case R.id.action_scan:
-				mDevices.clear();
-				startScan();
+				if (mService != null) mService.startScan();
 				return true;
 
-			default:
-				// obtain the discovered devices to connect with
-				BluetoothDevice device = mDevices.get(item.getItemId());
-				Log.i(TAG, "Connecting to  " + device.getName());
+			case R.id.action_connect_all:
+				if (mService == null) return true;
+				int started = mService.connectAll();
+				Log.i(TAG, "Connecting to " + started + " tags");
+				if (mDisplayedAddress == null && !mMenuDevices.isEmpty()) {
+					mDisplayedAddress = mMenuDevices.get(0).address;
+				}
+				return true;
+
+			case R.id.action_stop:
+				// disconnect everything and let the service go
+				if (mService != null) mService.stopCollection();
+				mDisplayedAddress = null;
+				clearDisplayValue();
+				updateCharts();
+				return true;
+
+			case R.id.action_forget:
+				if (mService != null) mService.forgetKnown();
+				Toast.makeText(this, R.string.forgotten, Toast.LENGTH_SHORT).show();
+				return true;
 
-				/*
-				 * Make a connection with the device uding the special LE-specific
-				 * connectGatt() method, passing in a callback for GATT events
-				 */
-				mConnectedGatt = device.connectGatt(this, true, mGattCallback);
+			case R.id.action_debug:
+				startActivity(new Intent(this, DebugActivity.class));
+				return true;
 
-				// display progress ui
-				mHandler.sendMessage(Message.obtain(null, MSG_PROGRESS, "Connecting to " + device.getName() + "..."));
+			default:
+				// obtain the discovered devices to connect with, and show its readings
+				ScanAggregator.Entry<String> entry =
+						mService != null ? mService.getScanResults().get(item.getItemId()) : null;
+				if (entry == null) {
+					return super.onOptionsItemSelected(item);
+				}
+				if (!mService.connect(entry.address, entry.device)) {
+					Toast.makeText(this, "Too many tags connected", Toast.LENGTH_SHORT).show();
+					return true;
+				}
+				mDisplayedAddress = entry.address;
+				mConnectingAddress = entry.address;
+				clearDisplayValue();
 
 				return super.onOptionsItemSelected(item);
 		}
 	}
 
+	/* a progress dialog will be needed while the
+	 * connection process is taking place
+	 */
+	private ProgressDialog progress() {
+		if (mProgress == null) {
+			mProgress = new ProgressDialog(this);
+			mProgress.setIndeterminate(true);
+			// reconnects happen on their own, so don't lock the user in
+			mProgress.setCancelable(true);
+		}
+		return mProgress;
+	}
+
 	private void clearDisplayValue() {
 		mTemperature.setText("___");
 		mHumidity.setText("___");
 		mPressure.setText("___");
 	}
 
-	private Runnable mStopRunnable = new Runnable() {
-		@Override
-		public void run() {
-			stopScan();
-		}
-	};
-
-	private Runnable mStartRunnable = new Runnable() {
-		@Override
-		public void run() {
-			startScan();
+	// one line per connected tag
+	private void updateCharts() {
+		List<String> devices = new ArrayList<String>();
+		if (mService != null) {
+			for (TagSession session : mService.getSessions().getSessions()) {
+				devices.add(session.getAddress());
+			}
 		}
-	};
-
-	private void startScan() {
-		mBluetoothAdapter.startLeScan(this);
-		setProgressBarIndeterminateVisibility(true);
-
-		mHandler.postDelayed(mStopRunnable, 2500);
-	}
-
-	private void stopScan() {
-		mBluetoothAdapter.stopLeScan(this);
-		setProgressBarIndeterminateVisibility(false);
+		mHumidityChart.setDevices(devices);
+		mTemperatureChart.setDevices(devices);
+		mPressureChart.setDevices(devices);
 	}
 
-	// BluetootAdapter.LeScanCallback
-
-
-	@Override
-	public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
-		Log.i(TAG, "New LE Device: " + device.getName() + " @ " + rssi);
-		/*
-		 * We are looking for sensory tag devices only, so validate th name
-		 * that each device reports before adding it to our collection
-		 */
-		if (DEVICE_NAME.equals(device.getName())) {
-			mDevices.put(device.hashCode(), device);
-			invalidateOptionsMenu();
+	private void updateDisplayValues(Reading reading) {
+		if (reading.sensor == SensorRegistry.HUMIDITY) {
+			mHumidity.setText(String.format("%.0f%%", reading.get(Channel.HUMIDITY)));
+		} else if (reading.sensor == SensorRegistry.BAROMETER) {
+			mTemperature.setText(String.format("%.1f\u0000C", reading.get(Channel.TEMPERATURE)));
+			mPressure.setText(String.format("%.2f", reading.get(Channel.PRESSURE)));
 		}
 	}
 
-	/*
-	 * In this callback we've created a bit of a state machine to enforce that only
-	 * one characteristic be read or written at a time until all of our sensors
-	 * are enabled and we are registered to get notification
-	 */
-
-	private BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
-
-		// state machine tracking
-		private int mState = 0;
-
-		private void reset() {
-			mState = 0;
-		}
-
-		private void advance() {
-			mState++;
-		}
-
-		/*
-		 * Send an enable command to each sensor by writing a config
-		 * characteristic. This is specific to the SensorTag to keep power
-		 * low by disableing sensors you arent using.
-		 */
-		private void enableNextSensor(BluetoothGatt gatt) {
-			BluetoothGattCharacteristic characteristic;
-
-			switch (mState) {
-				case 0:
-					Log.d(TAG, "Enabling pressure cal");
-					characteristic = gatt.getService(PRESSURE_SERVICE)
-							.getCharacteristic(PRESSURE_CONFIG_CHAR);
-					characteristic.setValue(new byte[]{0x02});
-					break;
-
-				case 1:
-					Log.d(TAG, "Enabling Pressure");
-					characteristic = gatt.getService(PRESSURE_SERVICE)
-							.getCharacteristic(PRESSURE_CONFIG_CHAR);
-					characteristic.setValue(new byte[]{0x01});
-					break;
-
-				case 2:
-					Log.d(TAG, "Enabling humidity");
-					characteristic = gatt.getService(HUMIDITY_SERVICE)
-							.getCharacteristic(HUMIDITY_CONFIG_CHAR);
-					characteristic.setValue(new byte[]{0x01});
-					break;
-
-				default:
-					mHandler.sendEmptyMessage(MSG_DISMISS);
-					Log.i(TAG, "All Sensors Enabled");
-					return;
-			}
-			gatt.writeCharacteristic(characteristic);
-		}
-
-		// read the data characteristic's value for each sensor explicitly
-		private void readNextSensor(BluetoothGatt gatt) {
-			BluetoothGattCharacteristic characteristic;
-
-			switch (mState) {
-				case 0:
-					Log.d(TAG, "Reading pressure cal");
-					characteristic = gatt.getService(PRESSURE_SERVICE)
-							.getCharacteristic(PRESSURE_CAL_CHAR);
-					break;
-
-				case 1:
-					Log.d(TAG, "Reading pressure");
-					characteristic = gatt.getService(PRESSURE_SERVICE)
-							.getCharacteristic(PRESSURE_DATA_CHAR);
-					break;
-
-				case 2:
-					Log.d(TAG, "Reading humidity");
-					characteristic = gatt.getService(HUMIDITY_SERVICE)
-							.getCharacteristic(HUMIDITY_DATA_CHAR);
-					break;
-
-				default:
-					return;
-			}
-			gatt.readCharacteristic(characteristic);
-		}
-
-		/*
-		 * Enable notification of cahnges on the data characteristic for each sensor
-		 * by writing the ENABLE_NOTIFICATION_VALUE flag to that characteristic's
-		 * configuration descriptor
-		 */
-		private void setNotifyNextSensor(BluetoothGatt gatt) {
-			BluetoothGattCharacteristic characteristic;
-
-			switch (mState) {
-				case 0:
-					Log.d(TAG, "Set notify pressure cal");
-					characteristic = gatt.getService(PRESSURE_SERVICE)
-							.getCharacteristic(PRESSURE_CAL_CHAR);
-					break;
-
-				case 1:
-					Log.d(TAG, "Set notify Pressure");
-					characteristic = gatt.getService(PRESSURE_SERVICE)
-							.getCharacteristic(PRESSURE_DATA_CHAR);
-					break;
-
-				case 2:
-					Log.d(TAG, "Set notify humidity");
-					characteristic = gatt.getService(HUMIDITY_SERVICE)
-							.getCharacteristic(HUMIDITY_CONFIG_CHAR);
-					break;
-
-				default:
-					mHandler.sendEmptyMessage(MSG_DISMISS);
-					Log.i(TAG, "All Sensors Enabled");
-					return;
-			}
-
-			// Enable local notification
-			gatt.setCharacteristicNotification(characteristic, true);
-
-			// Enabled remote notification
-			BluetoothGattDescriptor desc = characteristic.getDescriptor(CONFIG_DESCRIPTOR);
-			desc.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-			gatt.writeDescriptor(desc);
-		}
-
+	// on the main thread
+	private final ReadingStream.Subscriber mReadingSubscriber = new ReadingStream.Subscriber() {
 		@Override
-		public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-			Log.d(TAG, "onConnection State Change: " + status + " -> " + connectionState(newState));
-			if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothGatt.STATE_CONNECTED) {
-
-				/*
-				 * Once sucessfully connected, we must next discover the services on the
-				 * device before we can read and write their characteristics.
-				 */
-				gatt.discoverServices();
-				mHandler.sendMessage(Message.obtain(null, MSG_PROGRESS, "Discovering Services..."));
-			} else if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
-
-				// If at any point we disconnect, send a message to clear the whether values out of the ui.
-				mHandler.sendEmptyMessage(MSG_CLEAR);
-			} else if (status != BluetoothGatt.GATT_SUCCESS) {
-
-				// If there is a failure at any stage, simply disconnect.
-				gatt.disconnect();
+		public void onReading(Reading reading) {
+			if (mService != null && reading.device.equals(mDisplayedAddress)) {
+				updateDisplayValues(reading);
+				mUiLatency.recordSince(reading.createdNanos);
 			}
 		}
+	};
 
+	private final ServiceConnection mConnection = new ServiceConnection() {
 		@Override
-		public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-			Log.d(TAG, "onServices Discovered: " + status);
-			mHandler.sendMessage(Message.obtain(null, MSG_PROGRESS, "Enabling sensors..."));
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			mService = ((CollectionService.LocalBinder) binder).getService();
+			mService.setClient(mClient);
+			mUiLatency = mService.getMetrics().histogram("ui.latency");
+			SamplingPolicy sampling = mService.getSampling();
+			mSampling.add(sampling.request(SensorRegistry.HUMIDITY, DISPLAY_INTERVAL_MS, true));
+			mSampling.add(sampling.request(SensorRegistry.BAROMETER, DISPLAY_INTERVAL_MS, true));
+
 			/*
-			 * with services discovered, we are going to reset our state and start working
-			 * through the sensors we need to enable.
+			 * Only the newest value matters on screen, so readings are handed over once
+			 * per display frame, and the ones that came in between are replaced
+			 * instead of queued up.
 			 */
-			reset();
-			enableNextSensor(gatt);
-		}
-
-		@Override
-		public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-			// for each read, pass the data up to the ui thread to update the display
-			if (HUMIDITY_DATA_CHAR.equals(characteristic.getUuid())) {
-				mHandler.sendMessage(Message.obtain(null, MSG_HUMIDITY, characteristic));
-			}
-			if (PRESSURE_DATA_CHAR.equals(characteristic.getUuid())) {
-				mHandler.sendMessage(Message.obtain(null, MSG_PRESSURE, characteristic));
-			}
-			if (PRESSURE_CAL_CHAR.equals(characteristic.getUuid())) {
-				mHandler.sendMessage(Message.obtain(null, MSG_PRESSURE_CAL, characteristic));
+			mReadings = mService.getReadings().subscribe(
+					ReadingStream.sensors(SensorRegistry.HUMIDITY, SensorRegistry.BAROMETER),
+					2 * SessionManager.MAX_SESSIONS, ReadingStream.CONFLATE, mFrameExecutor, mReadingSubscriber);
+			ReadingHistory history = mService.getHistory();
+			mHumidityChart.setSource(history, Channel.HUMIDITY);
+			mTemperatureChart.setSource(history, Channel.TEMPERATURE);
+			mPressureChart.setSource(history, Channel.PRESSURE);
+
+			if (!sConnectedKnown) {
+				sConnectedKnown = true;
+				if (mService.getSessions().size() == 0) {
+					// straight back to the tags of last time, no scan needed
+					int started = mService.connectKnown();
+					if (started > 0) {
+						Log.i(TAG, "Connecting to " + started + " known tags");
+						mDisplayedAddress = mService.getSessions().getCache().getKnown().get(0).address;
+					}
+				}
 			}
+			updateCharts();
 
-			// After reading the initial value, next we enable notification
-			setNotifyNextSensor(gatt);
+			// catch up with what happened while we were away
+			mMenuDevices = mService.getScanResults().getDevices();
+			invalidateOptionsMenu();
 		}
 
 		@Override
-		public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-
-			// After writing the enable tag, we read the initial value
-			readNextSensor(gatt);
+		public void onServiceDisconnected(ComponentName name) {
+			// the requests went with the service
+			mSampling.clear();
+			mReadings = null;
+			mService = null;
+			updateCharts();
 		}
+	};
 
+	/*
+	 * Service events, all on the main thread
+	 */
+	private final CollectionService.Client mClient = new CollectionService.Client() {
 		@Override
-		public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-
-			/*
-			 * After notifications are enabled, all updates from the device on characteristic
-			 * value changes will be posted here. Similar to read, we hand this up to
-			 * the ui thread to update the display
-			 */
-			if (HUMIDITY_DATA_CHAR.equals(characteristic.getUuid())) {
-				mHandler.sendMessage(Message.obtain(null, MSG_HUMIDITY, characteristic));
-			}
-			if (PRESSURE_DATA_CHAR.equals(characteristic.getUuid())) {
-				mHandler.sendMessage(Message.obtain(null, MSG_PRESSURE, characteristic));
-			}
-			if (PRESSURE_CAL_CHAR.equals(characteristic.getUuid())) {
-				mHandler.sendMessage(Message.obtain(null, MSG_PRESSURE_CAL, characteristic));
-			}
+		public void onDevicesChanged(List<ScanAggregator.Entry<String>> devices) {
+			mMenuDevices = devices;
+			invalidateOptionsMenu();
 		}
 
 		@Override
-		public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-
-			// once notifications are enabled, we move to the next sensor and start over with enable
-			advance();
-			enableNextSensor(gatt);
+		public void onScanStateChanged(boolean scanning) {
+			setProgressBarIndeterminateVisibility(scanning);
 		}
 
-
 		@Override
-		public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-			Log.d(TAG, "onReadRemote RSSI: " + rssi);
-		}
-
-		private String connectionState(int status) {
-			switch (status) {
-				case BluetoothProfile.STATE_CONNECTED:
-					return "Connected";
-
-				case BluetoothProfile.STATE_DISCONNECTED:
-					return "Disconnected";
-
-				case BluetoothProfile.STATE_CONNECTING:
-					return "Connecting";
-
-				case BluetoothProfile.STATE_DISCONNECTING:
-					return "Disconnecting";
-
-				default:
-					return String.valueOf(status);
+		public void onProgress(String message) {
+			if (mConnectingAddress == null) return;
+			ProgressDialog progress = progress();
+			progress.setMessage(message);
+			if (!progress.isShowing()) {
+				progress.show();
 			}
 		}
-	};
-
-	// we have Handler to process event result on the main thresd
-	private static final int MSG_HUMIDITY = 101;
-	private static final int MSG_PRESSURE = 102;
-	private static final int MSG_PRESSURE_CAL = 103;
-	private static final int MSG_PROGRESS = 201;
-	private static final int MSG_DISMISS = 202;
-	private static final int MSG_CLEAR = 301;
 
-	private Handler mHandler = new Handler() {
 		@Override
-		public void handleMessage(Message msg) {
-			BluetoothGattCharacteristic characteristic;
-			switch (msg.what) {
-				case MSG_HUMIDITY:
-					characteristic = (BluetoothGattCharacteristic) msg.obj;
-					if (characteristic.getValue() == null) {
-						Log.w(TAG, "Error obtaining humidity value");
-						return;
-					}
-					updateHumidityValues(characteristic);
-					break;
-
-				case MSG_PRESSURE:
-					characteristic = (BluetoothGattCharacteristic) msg.obj;
-					if (characteristic.getValue() == null) {
-						Log.w(TAG, "Error obtaining pressure value");
-						return;
-					}
-					updatePressureValues(characteristic);
-					break;
-
-				case MSG_PRESSURE_CAL:
-					characteristic = (BluetoothGattCharacteristic) msg.obj;
-					if (characteristic.getValue() == null) {
-						Log.w(TAG, "Error obtaining cal value");
-						return;
-					}
-					updatePressureCals(characteristic);
-					break;
-
-				case MSG_PROGRESS:
-					mProgress.setMessage((String) msg.obj);
-					if (!mProgress.isShowing()) {
-						mProgress.show();
-					}
-
-				case MSG_DISMISS:
-					mProgress.hide();
-					break;
-
-				case MSG_CLEAR:
-					clearDisplayValue();
-					break;
+		public void onReady(String address) {
+			updateCharts();
+			if (address.equals(mConnectingAddress)) {
+				mConnectingAddress = null;
+				if (mProgress != null) mProgress.hide();
 			}
-
-		}
-
-		;
-
-		private void updateHumidityValues(BluetoothGattCharacteristic characteristic) {
-			double humidity = SensorTagData.extractHumidity(characteristic);
-			mHumidity.setText(String.format("%.0f%%", humidity));
-		}
-
-		private int[] mPressureCals;
-
-		private void updatePressureCals(BluetoothGattCharacteristic characteristic) {
-			mPressureCals = SensorTagData.extractCalibrationCoefficients(characteristic);
 		}
 
-		private void updatePressureValues(BluetoothGattCharacteristic characteristic) {
-			if (mPressureCals == null) return;
-			double pressure = SensorTagData.extractBarometer(characteristic, mPressureCals);
-			double temp = SensorTagData.extractBarTemp(characteristic, mPressureCals);
-
-			mTemperature.setText(String.format("%.1f\u0000C", temp));
-			mPressure.setText(String.format("%.2f", pressure));
+		@Override
+		public void onDisconnected(String address) {
+			if (address.equals(mDisplayedAddress)) {
+				clearDisplayValue();
+			}
 		}
 	};
-}
\ No newline at end of file
+}
@@ -0,0 +1,187 @@
+package com.coding_cole.bluetoothapp;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+
+/*
+ * Moves decoding of GATT notifications off the main thread.
+ *
+ * Frames arrive from the sessions on the links' callback threads and are decoded
+ * on a background worker, which publishes every decoded frame to the ReadingStream;
+ * consumers take them from there on their own threads and at their own pace.
+ *
+ * Each connected tag owns a slot, which holds its decoder (and so its calibration)
+ * and its latest readings. Slots are assigned by the SessionManager.
+ *
+ * Every decoded value is also appended to the ReadingHistory on the worker, which
+ * makes the worker its single writer.
+ *
+ * Frames of steady sensors are thinned out by a DeadbandFilter on the worker:
+ * repeated frames before they are decoded, values within their deadband after.
+ * Neither reaches the history, the stream or anything downstream of them.
+ *
+ * Each frame carries the time its callback arrived, so the time it spent waiting
+ * for and in the decoder goes into the metrics, as does each tag's notification count.
+ */
+class SensorPipeline implements FrameSink {
+	private static final String TAG = "SensorPipeline";
+
+	private static final int MSG_FRAME = 1;
+	private static final int MSG_RESET = 2;
+	private static final int MSG_ATTACH = 3;
+
+	// longest quit() waits for the frames in the queue
+	private static final long QUIT_TIMEOUT_MS = 1000;
+
+	private final ReadingHistory mHistory;
+	private final ReadingStream mStream;
+	private final Metrics mMetrics;
+	private final Metrics.Histogram mDecodeLatency;
+	private final Metrics.Counter mRejected;
+	private final Metrics.Counter mDuplicates;
+	private final Metrics.Counter mSuppressed;
+
+	private final HandlerThread mWorkerThread;
+	private final Handler mWorker;
+
+	// worker thread only
+	private final DeadbandFilter mDeadband;
+	private final TagDecoder[] mDecoders;
+	private final TagReadings[] mDecoded;
+	private final String[] mWorkerAddresses;
+	private final Metrics.Counter[] mNotifications;
+
+	// a notification's value and when its callback arrived
+	private static final class Frame {
+		final byte[] value;
+		final long receivedNanos;
+
+		Frame(byte[] value, long receivedNanos) {
+			this.value = value;
+			this.receivedNanos = receivedNanos;
+		}
+	}
+
+	SensorPipeline(int slots, DeadbandFilter deadband, ReadingHistory history, ReadingStream stream,
+			Metrics metrics) {
+		mDeadband = deadband;
+		mHistory = history;
+		mStream = stream;
+		mMetrics = metrics;
+		mDecodeLatency = metrics.histogram("decode.latency");
+		mRejected = metrics.counter("decode.rejected");
+		mDuplicates = metrics.counter("deadband.duplicates");
+		mSuppressed = metrics.counter("deadband.suppressed");
+
+		mDecoders = new TagDecoder[slots];
+		mDecoded = new TagReadings[slots];
+		mWorkerAddresses = new String[slots];
+		mNotifications = new Metrics.Counter[slots];
+		for (int i = 0; i < slots; i++) {
+			mDecoders[i] = new TagDecoder();
+			mDecoded[i] = new TagReadings();
+		}
+
+		mWorkerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		mWorkerThread.start();
+		mWorker = new Handler(mWorkerThread.getLooper(), new Handler.Callback() {
+			@Override
+			public boolean handleMessage(Message msg) {
+				switch (msg.what) {
+					case MSG_FRAME:
+						Frame frame = (Frame) msg.obj;
+						// every notification the tag sent, whatever the filters make of it; calibrations are reads
+						Metrics.Counter notifications = mNotifications[msg.arg1];
+						if (notifications != null && !SensorRegistry.isCalibration(msg.arg2)) {
+							notifications.increment();
+						}
+						decode(msg.arg1, msg.arg2, frame.value);
+						mDecodeLatency.recordSince(frame.receivedNanos);
+						return true;
+
+					case MSG_ATTACH:
+						mWorkerAddresses[msg.arg1] = (String) msg.obj;
+						mNotifications[msg.arg1] = mMetrics.counter("notifications." + msg.obj);
+						// fall through
+
+					case MSG_RESET:
+						mDeadband.reset(msg.arg1);
+						mDecoders[msg.arg1].reset();
+						mDecoded[msg.arg1].clear();
+						return true;
+				}
+				return false;
+			}
+		});
+	}
+
+	// main thread, bind a slot to the tag whose readings it will carry
+	void attach(int slot, String address) {
+		mWorker.obtainMessage(MSG_ATTACH, slot, 0, address).sendToTarget();
+	}
+
+	// on the link's callback thread; the value is a copy nobody else modifies
+	@Override
+	public void onFrame(int slot, int kind, byte[] value, long receivedNanos) {
+		mWorker.obtainMessage(MSG_FRAME, slot, kind, new Frame(value, receivedNanos)).sendToTarget();
+	}
+
+	// drop the calibration and the decoded values of a slot, e.g. after a disconnect
+	@Override
+	public void reset(int slot) {
+		mWorker.obtainMessage(MSG_RESET, slot, 0, null).sendToTarget();
+	}
+
+	ReadingHistory getHistory() {
+		return mHistory;
+	}
+
+	ReadingStream getStream() {
+		return mStream;
+	}
+
+	/*
+	 * Decode the frames already queued, then stop the worker and wait for it, so
+	 * nothing is published once this returns. Frames that come in later are
+	 * dropped.
+	 */
+	void quit() {
+		mWorkerThread.quitSafely();
+		try {
+			mWorkerThread.join(QUIT_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void decode(int slot, int kind, byte[] value) {
+		long now = SystemClock.elapsedRealtime();
+		if (mDeadband.isDuplicate(slot, kind, value, now)) {
+			mDuplicates.increment();
+			return;
+		}
+		TagReadings decoded = mDecoded[slot];
+		if (!mDecoders[slot].decode(kind, value, now, decoded)) {
+			// too short, or no calibration yet; a calibration is taken in, not rejected
+			if (!SensorRegistry.isCalibration(kind)) mRejected.increment();
+			return;
+		}
+		String address = mWorkerAddresses[slot];
+		if (address == null) return;
+
+		Sensor sensor = SensorRegistry.sensorOf(kind);
+		if (!mDeadband.isSignificant(slot, sensor, decoded.values, now)) {
+			mSuppressed.increment();
+			return;
+		}
+
+		// only the channels of the frame's sensor changed
+		for (int channel : sensor.getChannels()) {
+			mHistory.add(address, channel, decoded.timestamp, decoded.values[channel]);
+		}
+		mStream.publish(address, sensor, decoded.timestamp, decoded.values);
+	}
+}
@@ -0,0 +1,157 @@
+package com.coding_cole.bluetoothapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Owns one TagSession per connected tag, keyed by device address.
+ *
+ * The number of sessions is bounded, Android controllers typically run out of
+ * connection slots around seven simultaneous LE links. All methods must be
+ * called from the main thread.
+ */
+class SessionManager {
+	private static final String TAG = "SessionManager";
+
+	static final int MAX_SESSIONS = 7;
+
+	private final BleDriver mDriver;
+	private final SensorPipeline mPipeline;
+	private final FrameLogWriter mFrameLog;
+	private final Metrics mMetrics;
+	private final TagSession.Callback mCallback;
+
+	// GATT operation timeouts of every session
+	private final TaskScheduler mScheduler = new HandlerScheduler(new Handler(Looper.getMainLooper()));
+
+	// calibration and layout of every tag used, kept across starts
+	private final TagCache mCache;
+
+	// how the sensors of every tag are sampled, changes go out to all sessions
+	private final SamplingPolicy mSampling = new SamplingPolicy(new SamplingPolicy.Listener() {
+		@Override
+		public void onSamplingChanged(Sensor sensor) {
+			Log.d(TAG, sensor + " " + SamplingPolicy.name(mSampling.getMode(sensor))
+					+ " every " + mSampling.getPeriod(sensor) + " ms");
+			for (TagSession session : mSessions.values()) {
+				session.onSamplingChanged(sensor);
+			}
+		}
+	});
+
+	private final Map<String, TagSession> mSessions = new HashMap<String, TagSession>();
+	private final TagSession[] mSlots = new TagSession[MAX_SESSIONS];
+
+	SessionManager(BleDriver driver, SensorPipeline pipeline, FrameLogWriter frameLog, TagCache cache,
+			Metrics metrics, TagSession.Callback callback) {
+		mDriver = driver;
+		mCache = cache;
+		mPipeline = pipeline;
+		mFrameLog = frameLog;
+		mMetrics = metrics;
+		mCallback = callback;
+	}
+
+	/*
+	 * Connect to a tag, returns the existing session if it is already connected
+	 * or null if every session slot is taken.
+	 */
+	TagSession connect(String address, String name) {
+		TagSession session = mSessions.get(address);
+		if (session != null) {
+			return session;
+		}
+
+		int slot = freeSlot();
+		if (slot < 0) {
+			Log.w(TAG, "No free session for " + address + ", " + MAX_SESSIONS + " connected");
+			return null;
+		}
+
+		session = new TagSession(mDriver, address, name, slot, mPipeline, mScheduler, mFrameLog, mCache, mSampling,
+				mMetrics, mCallback);
+		mSlots[slot] = session;
+		mSessions.put(address, session);
+		mPipeline.attach(slot, address);
+		session.connect();
+		return session;
+	}
+
+	// connect to every device at once, returns the number of sessions started
+	int connectAll(Iterable<ScanAggregator.Entry<String>> devices) {
+		int started = 0;
+		for (ScanAggregator.Entry<String> device : devices) {
+			if (mSessions.containsKey(device.address)) continue;
+			if (connect(device.address, device.device) == null) break;
+			started++;
+		}
+		return started;
+	}
+
+	/*
+	 * Connect to the tags that streamed before, most recently used first, without
+	 * waiting for a scan. Returns the number of sessions started.
+	 */
+	int connectKnown() {
+		int started = 0;
+		for (TagCache.Tag tag : mCache.getKnown()) {
+			if (mSessions.containsKey(tag.address)) continue;
+			if (connect(tag.address, tag.getName()) == null) break;
+			started++;
+		}
+		return started;
+	}
+
+	void disconnect(String address) {
+		TagSession session = mSessions.remove(address);
+		if (session != null) {
+			mSlots[session.getSlot()] = null;
+			session.disconnect();
+		}
+	}
+
+	// a scan heard this tag
+	void onSeen(String address) {
+		TagSession session = mSessions.get(address);
+		if (session != null) session.onSeen();
+	}
+
+	void disconnectAll() {
+		for (TagSession session : new ArrayList<TagSession>(mSessions.values())) {
+			disconnect(session.getAddress());
+		}
+	}
+
+	TagCache getCache() {
+		return mCache;
+	}
+
+	SamplingPolicy getSampling() {
+		return mSampling;
+	}
+
+	TagSession get(String address) {
+		return mSessions.get(address);
+	}
+
+	List<TagSession> getSessions() {
+		return new ArrayList<TagSession>(mSessions.values());
+	}
+
+	int size() {
+		return mSessions.size();
+	}
+
+	private int freeSlot() {
+		for (int i = 0; i < mSlots.length; i++) {
+			if (mSlots[i] == null) return i;
+		}
+		return -1;
+	}
+}
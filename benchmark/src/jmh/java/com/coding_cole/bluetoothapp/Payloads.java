@@ -0,0 +1,66 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.Random;
+
+/*
+ * Raw characteristic payloads to feed the decoders.
+ *
+ * "fixed" frames are typical indoor readings (about 21 C, 45 %RH, 1013 hPa) laid out the
+ * way the tag sends them, "synthetic" frames cover the whole raw range from a seeded
+ * random generator so results are repeatable between runs.
+ */
+final class Payloads {
+
+	static final String FIXED = "fixed";
+	static final String SYNTHETIC = "synthetic";
+
+	// power of two so the benchmarks can cycle with a mask
+	static final int COUNT = 1024;
+
+	static final byte[] CALIBRATION = {
+			(byte) 0xCB, (byte) 0xB4, (byte) 0x62, (byte) 0x0C, (byte) 0xC3, (byte) 0x83, (byte) 0x71, (byte) 0x12,
+			(byte) 0x3C, (byte) 0x00, (byte) 0x06, (byte) 0xF7, (byte) 0x0B, (byte) 0xD2, (byte) 0x1E, (byte) 0xFD
+	};
+
+	private static final byte[][] FIXED_HUMIDITY = {
+			{(byte) 0x5C, (byte) 0x66, (byte) 0x80, (byte) 0x7A},
+			{(byte) 0x60, (byte) 0x66, (byte) 0xA8, (byte) 0x7A},
+			{(byte) 0x64, (byte) 0x66, (byte) 0xD0, (byte) 0x7A},
+			{(byte) 0x60, (byte) 0x66, (byte) 0xF8, (byte) 0x7A}
+	};
+
+	private static final byte[][] FIXED_BAROMETER = {
+			{(byte) 0x00, (byte) 0x19, (byte) 0xC1, (byte) 0xC3},
+			{(byte) 0x04, (byte) 0x19, (byte) 0xC3, (byte) 0xC3},
+			{(byte) 0x08, (byte) 0x19, (byte) 0xBE, (byte) 0xC3},
+			{(byte) 0x04, (byte) 0x19, (byte) 0xC0, (byte) 0xC3}
+	};
+
+	private Payloads() {
+	}
+
+	static byte[][] humidity(String source) {
+		return FIXED.equals(source) ? repeat(FIXED_HUMIDITY) : random(1);
+	}
+
+	static byte[][] barometer(String source) {
+		return FIXED.equals(source) ? repeat(FIXED_BAROMETER) : random(2);
+	}
+
+	private static byte[][] repeat(byte[][] frames) {
+		byte[][] payloads = new byte[COUNT][];
+		for (int i = 0; i < COUNT; i++) {
+			payloads[i] = frames[i % frames.length].clone();
+		}
+		return payloads;
+	}
+
+	private static byte[][] random(long seed) {
+		Random random = new Random(seed);
+		byte[][] payloads = new byte[COUNT][4];
+		for (byte[] payload : payloads) {
+			random.nextBytes(payload);
+		}
+		return payloads;
+	}
+}
@@ -0,0 +1,74 @@
+package com.coding_cole.bluetoothapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Cost of decoding one notification payload. Each invocation decodes the next
+ * payload of a pre-built set, so the JIT cannot constant fold the input.
+ */
+@State(Scope.Thread)
+public class SensorTagDataBenchmark {
+
+	@Param({Payloads.FIXED, Payloads.SYNTHETIC})
+	public String source;
+
+	private byte[][] mHumidity;
+	private byte[][] mBarometer;
+	private int[] mCoefficients;
+	private CalibratedBarometer mCalibrated;
+	private double[] mValues;
+	private int mIndex;
+
+	@Setup
+	public void setup() {
+		mHumidity = Payloads.humidity(source);
+		mBarometer = Payloads.barometer(source);
+		mCoefficients = new int[8];
+		SensorTagData.extractCalibrationCoefficients(Payloads.CALIBRATION, 0, mCoefficients);
+		mCalibrated = CalibratedBarometer.fromCoefficients(mCoefficients);
+		mValues = new double[2];
+	}
+
+	private int next() {
+		return mIndex = (mIndex + 1) & (Payloads.COUNT - 1);
+	}
+
+	@Benchmark
+	public double humidity() {
+		return SensorTagData.extractHumidity(mHumidity[next()], 0);
+	}
+
+	@Benchmark
+	public double humAmbientTemp() {
+		return SensorTagData.extractHumAmbientTemp(mHumidity[next()], 0);
+	}
+
+	@Benchmark
+	public int[] calibrationCoefficients() {
+		SensorTagData.extractCalibrationCoefficients(Payloads.CALIBRATION, 0, mCoefficients);
+		return mCoefficients;
+	}
+
+	@Benchmark
+	public void barometerReference(Blackhole bh) {
+		byte[] payload = mBarometer[next()];
+		bh.consume(SensorTagData.extractBarTemp(payload, 0, mCoefficients));
+		bh.consume(SensorTagData.extractBarometer(payload, 0, mCoefficients));
+	}
+
+	@Benchmark
+	public double[] barometerCalibrated() {
+		mCalibrated.convert(mBarometer[next()], 0, mValues);
+		return mValues;
+	}
+
+	@Benchmark
+	public CalibratedBarometer calibratedSetup() {
+		return CalibratedBarometer.fromCalibration(Payloads.CALIBRATION, 0);
+	}
+}
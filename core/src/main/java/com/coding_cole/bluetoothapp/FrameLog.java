@@ -0,0 +1,250 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Append-only segment files of raw notification payloads, written by FrameLogWriter.
+ *
+ * A segment starts with a header and holds a stream of records. Devices and
+ * characteristics are defined once per segment and referenced by small ids after
+ * that, so every segment can be read on its own:
+ *
+ *   header:          'S' 'T' 'F' 'L', u8 version, i64 base time (ms)
+ *   device:          0x01, varint id, u8 length, address (UTF-8)
+ *   characteristic:  0x02, varint id, i64 msb, i64 lsb
+ *   frame:           0x03, zigzag varint time delta (ms), varint device id,
+ *                    varint characteristic id, varint length, payload
+ *
+ * Frame times are relative to the previous frame of the segment (the base time
+ * for the first), which keeps a 4 byte payload at about 10 bytes on disk.
+ * A segment cut short by a crash is read up to its last complete record.
+ */
+public final class FrameLog {
+
+	static final byte[] MAGIC = {'S', 'T', 'F', 'L'};
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = MAGIC.length + 1 + 8;
+
+	static final int RECORD_DEVICE = 0x01;
+	static final int RECORD_CHARACTERISTIC = 0x02;
+	static final int RECORD_FRAME = 0x03;
+
+	static final String SEGMENT_PREFIX = "frames-";
+	static final String SEGMENT_SUFFIX = ".log";
+
+	// largest payload a frame can carry, more than any ATT MTU
+	public static final int MAX_PAYLOAD = 512;
+
+	private FrameLog() {
+	}
+
+	/*
+	 * One frame read back from a segment. The reader reuses the holder, and its
+	 * value array, for every frame; only the first length bytes of value are valid.
+	 */
+	public static final class Frame {
+		public long timestamp;
+		public String device;
+		public UUID characteristic;
+
+		// ids of device and characteristic, only unique within a segment
+		public int deviceId;
+		public int characteristicId;
+
+		public final byte[] value = new byte[MAX_PAYLOAD];
+		public int length;
+
+		public byte[] copyValue() {
+			return Arrays.copyOf(value, length);
+		}
+	}
+
+	// segments in a directory, oldest first
+	public static List<File> segments(File dir) {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		List<File> segments = new ArrayList<File>();
+		if (files != null) {
+			// names carry a zero padded start time and sequence, so they sort in time
+			Arrays.sort(files);
+			segments.addAll(Arrays.asList(files));
+		}
+		return segments;
+	}
+
+	static String segmentName(long startMillis, int sequence) {
+		return String.format("%s%013d-%04d%s", SEGMENT_PREFIX, startMillis, sequence, SEGMENT_SUFFIX);
+	}
+
+	/*
+	 * Sequential reader of one segment. The segment is mapped (or, for a stream,
+	 * read) into memory once and parsed from there, so reading a frame costs no
+	 * I/O calls and no allocation.
+	 */
+	public static final class Reader implements Closeable {
+
+		private final ByteBuffer mIn;
+		private final long mBaseTime;
+
+		private final List<String> mDevices = new ArrayList<String>();
+		private final List<UUID> mCharacteristics = new ArrayList<UUID>();
+		private long mLastTime;
+
+		public Reader(File segment) throws IOException {
+			this(map(segment));
+		}
+
+		public Reader(InputStream in) throws IOException {
+			this(ByteBuffer.wrap(readFully(in)));
+		}
+
+		private Reader(ByteBuffer in) throws IOException {
+			mIn = in;
+			try {
+				byte[] magic = new byte[MAGIC.length];
+				mIn.get(magic);
+				if (!Arrays.equals(magic, MAGIC)) {
+					throw new IOException("Not a frame log segment");
+				}
+				int version = mIn.get() & 0xFF;
+				if (version != VERSION) {
+					throw new IOException("Unsupported frame log version " + version);
+				}
+				mBaseTime = mIn.getLong();
+				mLastTime = mBaseTime;
+			} catch (BufferUnderflowException e) {
+				throw new IOException("Not a frame log segment");
+			}
+		}
+
+		public long getBaseTime() {
+			return mBaseTime;
+		}
+
+		/*
+		 * Read the next frame into out, returns false at the end of the segment.
+		 */
+		public boolean next(Frame out) throws IOException {
+			try {
+				while (mIn.hasRemaining()) {
+					int type = mIn.get();
+					switch (type) {
+						case RECORD_DEVICE: {
+							int id = readVarint(mIn);
+							byte[] name = new byte[mIn.get() & 0xFF];
+							mIn.get(name);
+							define(mDevices, id, new String(name, "UTF-8"));
+							break;
+						}
+
+						case RECORD_CHARACTERISTIC: {
+							int id = readVarint(mIn);
+							define(mCharacteristics, id, new UUID(mIn.getLong(), mIn.getLong()));
+							break;
+						}
+
+						case RECORD_FRAME: {
+							long time = mLastTime + zigzagDecode(readVarint(mIn));
+							int device = readVarint(mIn);
+							int characteristic = readVarint(mIn);
+							int length = readVarint(mIn);
+							if (length > MAX_PAYLOAD || device >= mDevices.size() || mDevices.get(device) == null
+									|| characteristic >= mCharacteristics.size() || mCharacteristics.get(characteristic) == null) {
+								throw new IOException("Corrupt frame record");
+							}
+							mIn.get(out.value, 0, length);
+
+							mLastTime = time;
+							out.timestamp = time;
+							out.deviceId = device;
+							out.device = mDevices.get(device);
+							out.characteristicId = characteristic;
+							out.characteristic = mCharacteristics.get(characteristic);
+							out.length = length;
+							return true;
+						}
+
+						default:
+							throw new IOException("Unknown record type " + type);
+					}
+				}
+			} catch (BufferUnderflowException e) {
+				// the last record was cut short, everything before it is good
+				mIn.position(mIn.limit());
+			}
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// mapped buffers are released by the garbage collector
+		}
+
+		// ids are shared by all segments of a writer, so a segment may not use all of them
+		private static <T> void define(List<T> table, int id, T value) {
+			while (table.size() <= id) {
+				table.add(null);
+			}
+			table.set(id, value);
+		}
+
+		private static ByteBuffer map(File segment) throws IOException {
+			RandomAccessFile file = new RandomAccessFile(segment, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				file.close();
+			}
+		}
+
+		private static byte[] readFully(InputStream in) throws IOException {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[64 * 1024];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+				}
+				return out.toByteArray();
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	static int readVarint(ByteBuffer in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static int zigzagEncode(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	static int zigzagDecode(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
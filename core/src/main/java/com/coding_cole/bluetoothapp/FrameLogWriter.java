@@ -0,0 +1,325 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Writes raw notification payloads to FrameLog segments on a background thread.
+ *
+ * append() is called from the GATT callback threads and never blocks on I/O: it
+ * copies the frame into an in-memory staging buffer under a short lock and returns.
+ * The writer thread swaps the staging buffers on a timer (or when one fills up),
+ * encodes the batch, and writes it through a FileChannel. Segments roll over by
+ * size and are fsynced on a schedule, not per frame. If the disk falls behind far
+ * enough that the staging buffer is full, frames are dropped and counted.
+ */
+public final class FrameLogWriter implements Closeable {
+	private static final Logger LOG = Logger.getLogger("FrameLogWriter");
+
+	public static final int DEFAULT_BUFFER_BYTES = 256 * 1024;
+	public static final long DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 250;
+	public static final long DEFAULT_SYNC_INTERVAL_MS = 5000;
+
+	// staged frame: time, device id, characteristic id, length, payload
+	private static final int STAGED_HEADER_BYTES = 8 + 4 + 4 + 2;
+
+	private final File mDir;
+	private final long mSegmentBytes;
+	private final long mFlushInterval;
+	private final long mSyncInterval;
+
+	// guarded by this
+	private ByteBuffer mStaging;
+	private ByteBuffer mDraining;
+	private final HashMap<String, Integer> mDeviceIds = new HashMap<String, Integer>();
+	private final HashMap<UUID, Integer> mCharacteristicIds = new HashMap<UUID, Integer>();
+	private final List<String> mDevices = new ArrayList<String>();
+	private final List<UUID> mCharacteristics = new ArrayList<UUID>();
+	private boolean mClosed;
+	private long mDropped;
+	private long mAppended;
+
+	// writer thread only
+	private final Thread mThread;
+	private final ByteBuffer mOut;
+	private FileChannel mChannel;
+	private File mSegment;
+	private long mSegmentSize;
+	private long mLastTime;
+	private long mLastSync;
+	private int mSegmentSequence;
+	private boolean[] mDeviceDefined = new boolean[16];
+	private boolean[] mCharacteristicDefined = new boolean[16];
+
+	public FrameLogWriter(File dir) {
+		this(dir, DEFAULT_BUFFER_BYTES, DEFAULT_SEGMENT_BYTES, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_SYNC_INTERVAL_MS);
+	}
+
+	public FrameLogWriter(File dir, int bufferBytes, long segmentBytes, long flushIntervalMillis, long syncIntervalMillis) {
+		mDir = dir;
+		mSegmentBytes = segmentBytes;
+		mFlushInterval = flushIntervalMillis;
+		mSyncInterval = syncIntervalMillis;
+
+		mStaging = ByteBuffer.allocate(bufferBytes);
+		mDraining = ByteBuffer.allocate(bufferBytes);
+		// an encoded frame is never larger than its staged form
+		mOut = ByteBuffer.allocateDirect(bufferBytes + 64 * 1024);
+
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "FrameLogWriter");
+		mThread.setDaemon(true);
+	}
+
+	public void start() {
+		mThread.start();
+	}
+
+	/*
+	 * Stage a frame for writing, returns false if it was dropped. Safe to call from
+	 * any thread; the value is copied before this returns.
+	 */
+	public boolean append(long timeMillis, String device, UUID characteristic, byte[] value) {
+		return append(timeMillis, device, characteristic, value, 0, value.length);
+	}
+
+	public boolean append(long timeMillis, String device, UUID characteristic, byte[] value, int offset, int length) {
+		if (length > FrameLog.MAX_PAYLOAD) {
+			throw new IllegalArgumentException("Frame of " + length + " bytes");
+		}
+		boolean wake;
+		synchronized (this) {
+			if (mClosed) return false;
+			if (mStaging.remaining() < STAGED_HEADER_BYTES + length) {
+				mDropped++;
+				return false;
+			}
+			mStaging.putLong(timeMillis);
+			mStaging.putInt(id(mDeviceIds, mDevices, device));
+			mStaging.putInt(id(mCharacteristicIds, mCharacteristics, characteristic));
+			mStaging.putShort((short) length);
+			mStaging.put(value, offset, length);
+			mAppended++;
+
+			// don't wait for the timer once half the buffer is used
+			wake = mStaging.position() > mStaging.capacity() / 2;
+			if (wake) notifyAll();
+		}
+		return true;
+	}
+
+	public synchronized long getDropped() {
+		return mDropped;
+	}
+
+	public synchronized long getAppended() {
+		return mAppended;
+	}
+
+	// the segment currently written, null before the first frame
+	public synchronized File getSegment() {
+		return mSegment;
+	}
+
+	/*
+	 * Write out everything staged so far and stop the writer thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (mClosed) return;
+			mClosed = true;
+			notifyAll();
+		}
+		if (mThread.isAlive()) {
+			try {
+				mThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			// never started, write on the caller's thread
+			drain(true);
+			closeSegment();
+		}
+	}
+
+	private static <T> int id(HashMap<T, Integer> ids, List<T> values, T value) {
+		Integer id = ids.get(value);
+		if (id == null) {
+			id = values.size();
+			ids.put(value, id);
+			values.add(value);
+		}
+		return id;
+	}
+
+	private void writeLoop() {
+		try {
+			boolean closed = false;
+			while (!closed) {
+				synchronized (this) {
+					if (!mClosed && mStaging.position() <= mStaging.capacity() / 2) {
+						wait(mFlushInterval);
+					}
+					closed = mClosed;
+				}
+				drain(closed);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Frame log stopped", e);
+			synchronized (this) {
+				mClosed = true;
+			}
+		} finally {
+			closeSegment();
+		}
+	}
+
+	private void drain(boolean sync) throws IOException {
+		ByteBuffer batch;
+		List<String> devices;
+		List<UUID> characteristics;
+		synchronized (this) {
+			batch = mStaging;
+			mStaging = mDraining;
+			mDraining = batch;
+			devices = new ArrayList<String>(mDevices);
+			characteristics = new ArrayList<UUID>(mCharacteristics);
+		}
+
+		batch.flip();
+		while (batch.hasRemaining()) {
+			long time = batch.getLong();
+			int device = batch.getInt();
+			int characteristic = batch.getInt();
+			int length = batch.getShort();
+
+			if (mChannel == null || mSegmentSize + mOut.position() >= mSegmentBytes
+					|| time - mLastTime > Integer.MAX_VALUE / 2 || mLastTime - time > Integer.MAX_VALUE / 2) {
+				rollSegment(time);
+			}
+			if (mOut.remaining() < 64 + length) {
+				writeOut();
+			}
+			mDeviceDefined = defineIfNeeded(mDeviceDefined, device, devices, characteristics, true);
+			mCharacteristicDefined = defineIfNeeded(mCharacteristicDefined, characteristic, devices, characteristics, false);
+
+			mOut.put((byte) FrameLog.RECORD_FRAME);
+			putVarint(FrameLog.zigzagEncode((int) (time - mLastTime)));
+			putVarint(device);
+			putVarint(characteristic);
+			putVarint(length);
+			int end = batch.position() + length;
+			ByteBuffer payload = batch.duplicate();
+			payload.limit(end);
+			mOut.put(payload);
+			batch.position(end);
+			mLastTime = time;
+		}
+		batch.clear();
+
+		writeOut();
+		long now = System.currentTimeMillis();
+		if (mChannel != null && (sync || now - mLastSync >= mSyncInterval)) {
+			mChannel.force(false);
+			mLastSync = now;
+		}
+	}
+
+	private boolean[] defineIfNeeded(boolean[] defined, int id, List<String> devices, List<UUID> characteristics,
+			boolean device) throws IOException {
+		if (id >= defined.length) {
+			boolean[] grown = new boolean[Math.max(defined.length * 2, id + 1)];
+			System.arraycopy(defined, 0, grown, 0, defined.length);
+			defined = grown;
+		}
+		if (!defined[id]) {
+			if (device) {
+				byte[] name = devices.get(id).getBytes("UTF-8");
+				mOut.put((byte) FrameLog.RECORD_DEVICE);
+				putVarint(id);
+				mOut.put((byte) name.length);
+				mOut.put(name);
+			} else {
+				UUID uuid = characteristics.get(id);
+				mOut.put((byte) FrameLog.RECORD_CHARACTERISTIC);
+				putVarint(id);
+				mOut.putLong(uuid.getMostSignificantBits());
+				mOut.putLong(uuid.getLeastSignificantBits());
+			}
+			defined[id] = true;
+		}
+		return defined;
+	}
+
+	private void rollSegment(long time) throws IOException {
+		writeOut();
+		closeSegment();
+
+		if (!mDir.isDirectory() && !mDir.mkdirs()) {
+			throw new IOException("Cannot create " + mDir);
+		}
+		File segment;
+		do {
+			segment = new File(mDir, FrameLog.segmentName(time, mSegmentSequence++ % 10000));
+		} while (segment.exists());
+
+		mChannel = new FileOutputStream(segment).getChannel();
+		synchronized (this) {
+			mSegment = segment;
+		}
+		mSegmentSize = 0;
+		mLastTime = time;
+		mDeviceDefined = new boolean[mDeviceDefined.length];
+		mCharacteristicDefined = new boolean[mCharacteristicDefined.length];
+
+		mOut.put(FrameLog.MAGIC);
+		mOut.put((byte) FrameLog.VERSION);
+		mOut.putLong(time);
+	}
+
+	private void writeOut() throws IOException {
+		mOut.flip();
+		while (mOut.hasRemaining()) {
+			mSegmentSize += mChannel.write(mOut);
+		}
+		mOut.clear();
+	}
+
+	private void closeSegment() {
+		if (mChannel == null) return;
+		try {
+			mChannel.force(false);
+			mChannel.close();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Closing " + mSegment, e);
+		}
+		mChannel = null;
+	}
+
+	private void putVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			mOut.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		mOut.put((byte) value);
+	}
+}
@@ -0,0 +1,16 @@
+package com.coding_cole.bluetoothapp;
+
+/*
+ * Where a TagSession hands the values its tag sends, to be decoded.
+ *
+ * Each session owns a slot, so a sink can keep per-tag decoding state such as
+ * the calibration in an array instead of a map.
+ */
+public interface FrameSink {
+
+	// a value of a characteristic of the given SensorRegistry kind, on any thread; value is not modified later
+	void onFrame(int slot, int kind, byte[] value, long receivedNanos);
+
+	// drop the slot's calibration and decoded values, e.g. after a disconnect
+	void reset(int slot);
+}
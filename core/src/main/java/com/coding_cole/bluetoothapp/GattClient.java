@@ -0,0 +1,23 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.UUID;
+
+/*
+ * The GATT operations GattQueue issues against one connection.
+ *
+ * Each call starts an asynchronous operation and returns false if it could not
+ * be started. Completion is reported back through the queue's on*() methods.
+ */
+public interface GattClient {
+
+	boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value);
+
+	boolean readCharacteristic(UUID service, UUID characteristic);
+
+	// enables or disables local delivery of notifications, completes synchronously
+	boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+
+	boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+
+	boolean requestMtu(int mtu);
+}
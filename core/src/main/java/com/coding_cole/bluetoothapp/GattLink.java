@@ -0,0 +1,61 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.UUID;
+
+/*
+ * One GATT connection to one device, opened by a BleDriver.
+ *
+ * The link reports everything that happens on it to its Callback, which may be
+ * called on any thread, including from within a link method. A link can be
+ * disconnected and connected again, and keeps the services it discovered
+ * across that; close() releases it for good.
+ */
+public interface GattLink extends GattClient {
+
+	int GATT_SUCCESS = 0;
+
+	// connection priorities, as Android has them: about 30-50, 7.5-15 and 100-125 ms intervals
+	int PRIORITY_BALANCED = 0;
+	int PRIORITY_HIGH = 1;
+	int PRIORITY_LOW_POWER = 2;
+
+	interface Callback {
+		// the link is up; servicesKnown if it still has them from an earlier connection
+		void onConnected(boolean servicesKnown);
+
+		// the link went down, failed if it didn't go down on request or never came up
+		void onDisconnected(boolean failed);
+
+		void onServicesDiscovered(boolean success);
+
+		// value is a copy the callee may keep, null unless status is GATT_SUCCESS
+		void onCharacteristicRead(UUID characteristic, byte[] value, int status);
+
+		void onCharacteristicWrite(UUID characteristic, int status);
+
+		void onDescriptorWrite(UUID characteristic, UUID descriptor, int status);
+
+		// a notification; value is a copy the callee may keep
+		void onCharacteristicChanged(UUID characteristic, byte[] value);
+
+		// the MTU both ends agreed on
+		void onMtuChanged(int mtu, int status);
+	}
+
+	String getAddress();
+
+	// connect again after a disconnect, returns false if the link can't be reused
+	boolean reconnect();
+
+	boolean discoverServices();
+
+	// a shorter or longer connection interval from now on, false if the stack can't
+	boolean requestConnectionPriority(int priority);
+
+	// whether the device has it, false before the services are discovered
+	boolean hasCharacteristic(UUID service, UUID characteristic);
+
+	void disconnect();
+
+	void close();
+}
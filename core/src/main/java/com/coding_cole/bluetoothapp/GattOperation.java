@@ -0,0 +1,140 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.UUID;
+
+/*
+ * One queued GATT request, see GattQueue.
+ */
+public final class GattOperation {
+
+	public static final int WRITE = 1;
+	public static final int READ = 2;
+	public static final int WRITE_DESCRIPTOR = 3;
+	public static final int MTU = 4;
+
+	// what every link starts with, 20 bytes of payload per packet
+	public static final int DEFAULT_MTU = 23;
+
+	// Client configuration description
+	public static final UUID CONFIG_DESCRIPTOR = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+	public static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+	public static final byte[] DISABLE_NOTIFICATION_VALUE = {0x00, 0x00};
+
+	private final int mType;
+	private final UUID mService;
+	private final UUID mCharacteristic;
+	private final UUID mDescriptor;
+	private final byte[] mValue;
+	private int mMtu;
+
+	// 0 and -1 mean use the queue defaults
+	private long mTimeout;
+	private int mRetries = -1;
+
+	// how often it has been started, and when it was last, managed by the queue
+	int attempts;
+	long startedNanos;
+	// how often the client refused to start it in a row, managed by the queue
+	int refusals;
+
+	private GattOperation(int type, UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+		mType = type;
+		mService = service;
+		mCharacteristic = characteristic;
+		mDescriptor = descriptor;
+		mValue = value;
+	}
+
+	public static GattOperation write(UUID service, UUID characteristic, byte[] value) {
+		return new GattOperation(WRITE, service, characteristic, null, value);
+	}
+
+	public static GattOperation read(UUID service, UUID characteristic) {
+		return new GattOperation(READ, service, characteristic, null, null);
+	}
+
+	// ask for larger packets, the device answers with what it can do
+	public static GattOperation requestMtu(int mtu) {
+		GattOperation operation = new GattOperation(MTU, null, null, null, null);
+		operation.mMtu = mtu;
+		return operation;
+	}
+
+	public static GattOperation writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+		return new GattOperation(WRITE_DESCRIPTOR, service, characteristic, descriptor, value);
+	}
+
+	/*
+	 * Enable notifications locally and on the remote by writing the client
+	 * configuration descriptor.
+	 */
+	public static GattOperation enableNotification(UUID service, UUID characteristic) {
+		return writeDescriptor(service, characteristic, CONFIG_DESCRIPTOR, ENABLE_NOTIFICATION_VALUE);
+	}
+
+	public static GattOperation disableNotification(UUID service, UUID characteristic) {
+		return writeDescriptor(service, characteristic, CONFIG_DESCRIPTOR, DISABLE_NOTIFICATION_VALUE);
+	}
+
+	public GattOperation setTimeout(long timeoutMillis) {
+		mTimeout = timeoutMillis;
+		return this;
+	}
+
+	public GattOperation setRetries(int retries) {
+		mRetries = retries;
+		return this;
+	}
+
+	public int getType() {
+		return mType;
+	}
+
+	public UUID getService() {
+		return mService;
+	}
+
+	public UUID getCharacteristic() {
+		return mCharacteristic;
+	}
+
+	public UUID getDescriptor() {
+		return mDescriptor;
+	}
+
+	public byte[] getValue() {
+		return mValue;
+	}
+
+	public int getMtu() {
+		return mMtu;
+	}
+
+	long getTimeout() {
+		return mTimeout;
+	}
+
+	int getRetries() {
+		return mRetries;
+	}
+
+	boolean isNotificationEnable() {
+		return mType == WRITE_DESCRIPTOR && CONFIG_DESCRIPTOR.equals(mDescriptor)
+				&& mValue != null && mValue.length > 0 && mValue[0] != 0;
+	}
+
+	@Override
+	public String toString() {
+		switch (mType) {
+			case WRITE:
+				return "write " + mCharacteristic;
+			case READ:
+				return "read " + mCharacteristic;
+			case MTU:
+				return "request mtu " + mMtu;
+			default:
+				return "write descriptor " + mDescriptor + " of " + mCharacteristic;
+		}
+	}
+}
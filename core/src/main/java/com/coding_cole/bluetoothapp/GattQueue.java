@@ -0,0 +1,265 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/*
+ * Runs GATT operations of one connection strictly one at a time.
+ *
+ * Android allows only one outstanding GATT request per connection and silently
+ * drops the next one otherwise. Operations are queued, started in order, and each
+ * one waits for its completion callback. If the callback never arrives the
+ * operation is retried after a timeout, and eventually given up on, so a lost
+ * callback cannot stall the connection.
+ *
+ * An operation the client refuses to start, because the stack is still busy
+ * with something of its own, is not an attempt: it is started again after a
+ * growing delay, with a budget of its own that outlasts a busy stack.
+ *
+ * The queue is thread safe. The GATT callbacks may arrive on any thread, including
+ * from within a GattClient call.
+ */
+public final class GattQueue {
+
+	public static final long DEFAULT_TIMEOUT_MS = 2000;
+	public static final int DEFAULT_RETRIES = 2;
+
+	// wait before retrying an operation the client refused to start, doubled on each refusal
+	static final long START_RETRY_DELAY_MS = 50;
+	static final long MAX_START_RETRY_DELAY_MS = 1000;
+
+	// refusals in a row before the operation is given up on, over 5 s of a busy stack
+	static final int MAX_START_REFUSALS = 10;
+
+	public interface Listener {
+		void onOperationComplete(GattOperation operation, int status);
+
+		// the operation did not complete after all of its retries
+		void onOperationFailed(GattOperation operation);
+
+		// the last queued operation has finished
+		void onQueueIdle();
+	}
+
+	private final GattClient mClient;
+	private final TaskScheduler mScheduler;
+	private final Listener mListener;
+
+	private final long mTimeout;
+	private final int mRetries;
+
+	private final ArrayDeque<GattOperation> mPending = new ArrayDeque<GattOperation>();
+	private GattOperation mCurrent;
+	private Object mTimeoutHandle;
+	private boolean mDraining;
+
+	// completion latency by operation type, null if nobody is measuring
+	private Metrics.Histogram[] mLatency;
+	private Metrics.Counter mTimeouts;
+	private Metrics.Counter mFailures;
+
+	public GattQueue(GattClient client, TaskScheduler scheduler, Listener listener) {
+		this(client, scheduler, listener, DEFAULT_TIMEOUT_MS, DEFAULT_RETRIES);
+	}
+
+	public GattQueue(GattClient client, TaskScheduler scheduler, Listener listener, long timeoutMillis, int retries) {
+		mClient = client;
+		mScheduler = scheduler;
+		mListener = listener;
+		mTimeout = timeoutMillis;
+		mRetries = retries;
+	}
+
+	/*
+	 * Record how long operations take from start to callback, per type, along
+	 * with the timeouts and the operations given up on.
+	 */
+	public synchronized void setMetrics(Metrics metrics) {
+		mLatency = new Metrics.Histogram[GattOperation.MTU + 1];
+		mLatency[GattOperation.WRITE] = metrics.histogram("gatt.write");
+		mLatency[GattOperation.READ] = metrics.histogram("gatt.read");
+		mLatency[GattOperation.WRITE_DESCRIPTOR] = metrics.histogram("gatt.write_descriptor");
+		mLatency[GattOperation.MTU] = metrics.histogram("gatt.mtu");
+		mTimeouts = metrics.counter("gatt.timeouts");
+		mFailures = metrics.counter("gatt.failures");
+	}
+
+	public synchronized void enqueue(GattOperation operation) {
+		operation.attempts = 0;
+		operation.refusals = 0;
+		mPending.add(operation);
+		drain();
+	}
+
+	// drop everything queued, e.g. when the connection is lost
+	public synchronized void clear() {
+		mPending.clear();
+		cancelTimeout();
+		mCurrent = null;
+	}
+
+	public synchronized boolean isIdle() {
+		return mCurrent == null && mPending.isEmpty();
+	}
+
+	public synchronized int size() {
+		return mPending.size() + (mCurrent == null ? 0 : 1);
+	}
+
+	// GATT callbacks
+
+	public void onCharacteristicWrite(UUID characteristic, int status) {
+		complete(GattOperation.WRITE, characteristic, null, status);
+	}
+
+	public void onCharacteristicRead(UUID characteristic, int status) {
+		complete(GattOperation.READ, characteristic, null, status);
+	}
+
+	public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+		complete(GattOperation.WRITE_DESCRIPTOR, characteristic, descriptor, status);
+	}
+
+	public void onMtuChanged(int mtu, int status) {
+		complete(GattOperation.MTU, null, null, status);
+	}
+
+	private synchronized void complete(int type, UUID characteristic, UUID descriptor, int status) {
+		GattOperation operation = mCurrent;
+		if (operation == null || operation.getType() != type
+				|| (characteristic != null && !characteristic.equals(operation.getCharacteristic()))
+				|| (descriptor != null && !descriptor.equals(operation.getDescriptor()))) {
+			// a late callback of an operation that already timed out
+			return;
+		}
+
+		cancelTimeout();
+		mCurrent = null;
+		if (mLatency != null) mLatency[type].recordSince(operation.startedNanos);
+		mListener.onOperationComplete(operation, status);
+		drain();
+	}
+
+	private synchronized void onTimeout(GattOperation operation) {
+		if (mCurrent != operation) {
+			return;
+		}
+		mTimeoutHandle = null;
+		mCurrent = null;
+		if (mTimeouts != null) mTimeouts.increment();
+		retryOrFail(operation);
+		drain();
+	}
+
+	private synchronized void onStartRetry(GattOperation operation) {
+		if (mCurrent != operation) {
+			return;
+		}
+		mTimeoutHandle = null;
+		mCurrent = null;
+		mPending.addFirst(operation);
+		drain();
+	}
+
+	/*
+	 * Start pending operations until one is in flight. A loop rather than recursion,
+	 * since a client may complete an operation from within the call that started it.
+	 */
+	private void drain() {
+		if (mDraining) return;
+		mDraining = true;
+		try {
+			while (mCurrent == null) {
+				GattOperation operation = mPending.poll();
+				if (operation == null) {
+					mListener.onQueueIdle();
+					return;
+				}
+				start(operation);
+			}
+		} finally {
+			mDraining = false;
+		}
+	}
+
+	private void start(final GattOperation operation) {
+		mCurrent = operation;
+		operation.startedNanos = System.nanoTime();
+
+		if (!dispatch(operation)) {
+			// usually the stack is still busy, give it a moment; the operation keeps its place
+			if (++operation.refusals >= MAX_START_REFUSALS) {
+				mCurrent = null;
+				if (mFailures != null) mFailures.increment();
+				mListener.onOperationFailed(operation);
+				return;
+			}
+			long delay = Math.min(MAX_START_RETRY_DELAY_MS, START_RETRY_DELAY_MS << (operation.refusals - 1));
+			mTimeoutHandle = mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					onStartRetry(operation);
+				}
+			}, delay);
+			return;
+		}
+		operation.attempts++;
+		operation.refusals = 0;
+
+		long timeout = operation.getTimeout() > 0 ? operation.getTimeout() : mTimeout;
+		// the client may have completed it already
+		if (mCurrent == operation) {
+			mTimeoutHandle = mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					onTimeout(operation);
+				}
+			}, timeout);
+		}
+	}
+
+	private boolean dispatch(GattOperation operation) {
+		switch (operation.getType()) {
+			case GattOperation.WRITE:
+				return mClient.writeCharacteristic(operation.getService(), operation.getCharacteristic(), operation.getValue());
+
+			case GattOperation.READ:
+				return mClient.readCharacteristic(operation.getService(), operation.getCharacteristic());
+
+			case GattOperation.WRITE_DESCRIPTOR:
+				if (GattOperation.CONFIG_DESCRIPTOR.equals(operation.getDescriptor())) {
+					// notifications need to be routed locally as well as enabled on the remote
+					if (!mClient.setCharacteristicNotification(operation.getService(), operation.getCharacteristic(),
+							operation.isNotificationEnable())) {
+						return false;
+					}
+				}
+				return mClient.writeDescriptor(operation.getService(), operation.getCharacteristic(),
+						operation.getDescriptor(), operation.getValue());
+
+			case GattOperation.MTU:
+				return mClient.requestMtu(operation.getMtu());
+
+			default:
+				return false;
+		}
+	}
+
+	private void retryOrFail(GattOperation operation) {
+		int retries = operation.getRetries() >= 0 ? operation.getRetries() : mRetries;
+		if (operation.attempts <= retries) {
+			// retry before anything else, later operations may depend on it
+			mPending.addFirst(operation);
+		} else {
+			if (mFailures != null) mFailures.increment();
+			mListener.onOperationFailed(operation);
+		}
+	}
+
+	private void cancelTimeout() {
+		if (mTimeoutHandle != null) {
+			mScheduler.cancel(mTimeoutHandle);
+			mTimeoutHandle = null;
+		}
+	}
+}
@@ -0,0 +1,469 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/*
+ * Weeks of readings on disk, compressed and indexed by time.
+ *
+ * Each device's channel is a series of SampleBlocks, kept in one file per day:
+ *
+ *   dir/<address with - for :>/<channel>/<day since the epoch>.blocks
+ *
+ * Every block in a file is a fixed header (count, first and last time, min, max,
+ * sum, length) followed by its compressed samples. The headers of a day are read
+ * the first time a query touches it and kept, which makes them a sparse index:
+ * a query binary searches them for its time range and only decodes the blocks
+ * it overlaps, aggregates take whole blocks from their headers without decoding
+ * them, and value filters skip blocks whose min and max are out of range.
+ *
+ * Timestamps are wall clock milliseconds. Each series has an open block in memory
+ * that is written when full, at the end of its day, or on flush(); what was not
+ * flushed is lost if the process dies. A torn block at the end of a file is cut
+ * off when the file is read. Days older than the retention are deleted as new
+ * days start. Values can be rounded to a binary step per channel, which zeroes
+ * the low bits of the doubles and is where most of the compression comes from.
+ *
+ * Thread safe, every method holds the store's lock.
+ */
+public final class HistoryStore {
+	private static final Logger LOG = Logger.getLogger("HistoryStore");
+
+	public static final long DAY_MS = 24 * 60 * 60 * 1000L;
+	public static final int DEFAULT_RETENTION_DAYS = 28;
+
+	private static final String SUFFIX = ".blocks";
+	private static final int HEADER_BYTES = 4 + 8 + 8 + 8 + 8 + 8 + 4;
+
+	// where a block is and what it holds
+	private static final class Block {
+		long offset;
+		int count;
+		long firstTime;
+		long lastTime;
+		double min;
+		double max;
+		double sum;
+		int length;
+	}
+
+	private static final class Day {
+		final File file;
+		// read on first use
+		List<Block> blocks;
+
+		Day(File file) {
+			this.file = file;
+		}
+	}
+
+	private final class Series {
+		final File dir;
+		final TreeMap<Long, Day> days = new TreeMap<Long, Day>();
+		final SampleBlock open = new SampleBlock(mBlockBytes);
+		long openDay = Long.MIN_VALUE;
+
+		Series(File dir) {
+			this.dir = dir;
+		}
+	}
+
+	private final File mDir;
+	private final int mBlockBytes;
+	private int mRetentionDays = DEFAULT_RETENTION_DAYS;
+	// 2^bits by channel, 0 to store values as they are
+	private final double[] mScales = new double[Channel.COUNT];
+
+	// by device, then channel
+	private final Map<String, Series[]> mSeries = new HashMap<String, Series[]>();
+
+	private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_BYTES);
+	private byte[] mScratch = new byte[0];
+
+	public HistoryStore(File dir) {
+		this(dir, SampleBlock.DEFAULT_BYTES);
+	}
+
+	public HistoryStore(File dir, int blockBytes) {
+		mDir = dir;
+		mBlockBytes = blockBytes;
+	}
+
+	public synchronized HistoryStore setRetentionDays(int days) {
+		mRetentionDays = days;
+		return this;
+	}
+
+	// round the channel's values to multiples of 2^-bits
+	public synchronized HistoryStore setPrecision(int channel, int bits) {
+		mScales[channel] = Math.scalb(1.0, bits);
+		return this;
+	}
+
+	/*
+	 * Finds the series already on disk. Their blocks are only read when queried.
+	 */
+	public synchronized void open() throws IOException {
+		if (!mDir.isDirectory() && !mDir.mkdirs()) {
+			throw new IOException("Can't create " + mDir);
+		}
+		File[] devices = mDir.listFiles();
+		if (devices == null) return;
+		for (File device : devices) {
+			File[] channels = device.listFiles();
+			if (channels == null) continue;
+			for (File channel : channels) {
+				int c = parse(channel.getName(), -1);
+				if (c < 0 || c >= Channel.COUNT) continue;
+				Series series = series(device.getName().replace('-', ':'), c);
+				File[] files = channel.listFiles();
+				if (files == null) continue;
+				for (File file : files) {
+					String name = file.getName();
+					if (!name.endsWith(SUFFIX)) continue;
+					long day = parse(name.substring(0, name.length() - SUFFIX.length()), -1);
+					if (day >= 0) series.days.put(day, new Day(file));
+				}
+			}
+		}
+	}
+
+	public synchronized void add(String device, int channel, long time, double value) throws IOException {
+		double scale = mScales[channel];
+		if (scale > 0) value = Math.rint(value * scale) / scale;
+
+		Series series = series(device, channel);
+		long day = time / DAY_MS;
+		if (series.openDay != day) {
+			seal(series);
+			series.openDay = day;
+		}
+		if (!series.open.add(time, value)) {
+			seal(series);
+			series.open.add(time, value);
+		}
+	}
+
+	// write every open block
+	public synchronized void flush() throws IOException {
+		for (Series[] channels : mSeries.values()) {
+			for (Series series : channels) {
+				if (series != null) seal(series);
+			}
+		}
+	}
+
+	public synchronized List<String> getDevices() {
+		return new ArrayList<String>(mSeries.keySet());
+	}
+
+	/*
+	 * Visit the samples of a channel with from <= time < to, oldest first. Returns
+	 * the number visited.
+	 */
+	public synchronized int read(String device, int channel, long from, long to, SampleBlock.Visitor visitor)
+			throws IOException {
+		return read(device, channel, from, to, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, visitor);
+	}
+
+	/*
+	 * Like read(), but only visits the blocks that have a value within low..high.
+	 * Their other samples are visited too, the caller filters.
+	 */
+	public synchronized int read(String device, int channel, long from, long to, double low, double high,
+			SampleBlock.Visitor visitor) throws IOException {
+		Series series = find(device, channel);
+		if (series == null) return 0;
+
+		int visited = 0;
+		for (Map.Entry<Long, Day> entry : days(series, from, to)) {
+			Day day = entry.getValue();
+			List<Block> blocks = blocks(day);
+			RandomAccessFile file = null;
+			try {
+				for (int i = firstBlock(blocks, from); i < blocks.size(); i++) {
+					Block block = blocks.get(i);
+					if (block.firstTime >= to) break;
+					if (block.max < low || block.min > high) continue;
+					if (file == null) file = new RandomAccessFile(day.file, "r");
+					byte[] data = readBlock(file, block);
+					visited += SampleBlock.decode(data, 0, block.count, from, to, visitor);
+				}
+			} finally {
+				if (file != null) file.close();
+			}
+		}
+		SampleBlock open = series.open;
+		if (!open.isEmpty() && open.getLastTime() >= from && open.getFirstTime() < to
+				&& open.getMax() >= low && open.getMin() <= high) {
+			visited += SampleBlock.decode(open.buffer(), 0, open.count(), from, to, visitor);
+		}
+		return visited;
+	}
+
+	/*
+	 * Count, min, max and mean of a channel over from <= time < to. Blocks within
+	 * the range are taken from their headers, only the ones it cuts are decoded.
+	 * Returns false and leaves out cleared if there are no samples.
+	 */
+	public synchronized boolean aggregate(String device, int channel, long from, long to, SampleRing.Stats out)
+			throws IOException {
+		out.clear();
+		Series series = find(device, channel);
+		if (series == null) return false;
+
+		final double[] acc = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0};
+		final long[] times = {Long.MAX_VALUE, Long.MIN_VALUE, 0};
+		SampleBlock.Visitor visitor = new SampleBlock.Visitor() {
+			@Override
+			public void onSample(long time, double value) {
+				accumulate(acc, times, 1, time, time, value, value, value);
+			}
+		};
+		for (Map.Entry<Long, Day> entry : days(series, from, to)) {
+			Day day = entry.getValue();
+			List<Block> blocks = blocks(day);
+			RandomAccessFile file = null;
+			try {
+				for (int i = firstBlock(blocks, from); i < blocks.size(); i++) {
+					Block block = blocks.get(i);
+					if (block.firstTime >= to) break;
+					if (block.firstTime >= from && block.lastTime < to) {
+						accumulate(acc, times, block.count, block.firstTime, block.lastTime,
+								block.min, block.max, block.sum);
+						continue;
+					}
+					if (file == null) file = new RandomAccessFile(day.file, "r");
+					byte[] data = readBlock(file, block);
+					SampleBlock.decode(data, 0, block.count, from, to, visitor);
+				}
+			} finally {
+				if (file != null) file.close();
+			}
+		}
+		SampleBlock open = series.open;
+		if (!open.isEmpty() && open.getLastTime() >= from && open.getFirstTime() < to) {
+			SampleBlock.decode(open.buffer(), 0, open.count(), from, to, visitor);
+		}
+
+		int count = (int) times[2];
+		if (count == 0) return false;
+		out.count = count;
+		out.min = acc[0];
+		out.max = acc[1];
+		out.mean = acc[2] / count;
+		out.firstTime = times[0];
+		out.lastTime = times[1];
+		return true;
+	}
+
+	// bytes on disk, plus the open blocks
+	public synchronized long sizeBytes() {
+		long bytes = 0;
+		for (Series[] channels : mSeries.values()) {
+			for (Series series : channels) {
+				if (series == null) continue;
+				for (Day day : series.days.values()) {
+					bytes += day.file.length();
+				}
+				bytes += series.open.size();
+			}
+		}
+		return bytes;
+	}
+
+	public synchronized void close() throws IOException {
+		flush();
+	}
+
+	private static void accumulate(double[] acc, long[] times, int count, long first, long last,
+			double min, double max, double sum) {
+		if (min < acc[0]) acc[0] = min;
+		if (max > acc[1]) acc[1] = max;
+		acc[2] += sum;
+		if (first < times[0]) times[0] = first;
+		if (last > times[1]) times[1] = last;
+		times[2] += count;
+	}
+
+	private Series series(String device, int channel) {
+		Series[] channels = mSeries.get(device);
+		if (channels == null) {
+			channels = new Series[Channel.COUNT];
+			mSeries.put(device, channels);
+		}
+		Series series = channels[channel];
+		if (series == null) {
+			series = new Series(new File(new File(mDir, device.replace(':', '-')), String.valueOf(channel)));
+			channels[channel] = series;
+		}
+		return series;
+	}
+
+	private Series find(String device, int channel) {
+		Series[] channels = mSeries.get(device);
+		return channels != null ? channels[channel] : null;
+	}
+
+	// the days that can hold samples in from..to
+	private Iterable<Map.Entry<Long, Day>> days(Series series, long from, long to) {
+		if (to <= from) return new ArrayList<Map.Entry<Long, Day>>();
+		return series.days.subMap(Math.max(0, from) / DAY_MS, true, (to - 1) / DAY_MS, true).entrySet();
+	}
+
+	// index of the first block whose last sample is at or after time
+	private static int firstBlock(List<Block> blocks, long time) {
+		int lo = 0;
+		int hi = blocks.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (blocks.get(mid).lastTime < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private List<Block> blocks(Day day) throws IOException {
+		if (day.blocks == null) {
+			day.blocks = readIndex(day.file);
+		}
+		return day.blocks;
+	}
+
+	// the headers of a day's file, cutting off a block that was torn while written
+	private List<Block> readIndex(File file) throws IOException {
+		List<Block> blocks = new ArrayList<Block>();
+		long length = file.length();
+		long offset = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (offset + HEADER_BYTES <= length) {
+				Block block = new Block();
+				block.offset = offset;
+				block.count = in.readInt();
+				block.firstTime = in.readLong();
+				block.lastTime = in.readLong();
+				block.min = in.readDouble();
+				block.max = in.readDouble();
+				block.sum = in.readDouble();
+				block.length = in.readInt();
+				if (block.count <= 0 || block.length < 0 || offset + HEADER_BYTES + block.length > length) break;
+				skipFully(in, block.length);
+				blocks.add(block);
+				offset += HEADER_BYTES + block.length;
+			}
+		} catch (EOFException e) {
+			// torn, handled below
+		} finally {
+			in.close();
+		}
+		if (offset < length) {
+			LOG.warning("Cutting " + (length - offset) + " bytes of a torn block off " + file);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(offset);
+			} finally {
+				raf.close();
+			}
+		}
+		return blocks;
+	}
+
+	// the compressed samples of a block, in a buffer reused by the next call
+	private byte[] readBlock(RandomAccessFile file, Block block) throws IOException {
+		if (mScratch.length < block.length) {
+			mScratch = new byte[Math.max(block.length, mBlockBytes)];
+		}
+		file.seek(block.offset + HEADER_BYTES);
+		file.readFully(mScratch, 0, block.length);
+		return mScratch;
+	}
+
+	private static void skipFully(DataInputStream in, int n) throws IOException {
+		while (n > 0) {
+			int skipped = in.skipBytes(n);
+			if (skipped <= 0) throw new EOFException();
+			n -= skipped;
+		}
+	}
+
+	// write the open block to its day's file
+	private void seal(Series series) throws IOException {
+		SampleBlock open = series.open;
+		if (open.isEmpty()) return;
+
+		long day = series.openDay;
+		Day d = series.days.get(day);
+		if (d == null) {
+			if (!series.dir.isDirectory() && !series.dir.mkdirs()) {
+				throw new IOException("Can't create " + series.dir);
+			}
+			d = new Day(new File(series.dir, day + SUFFIX));
+			d.blocks = new ArrayList<Block>();
+			series.days.put(day, d);
+			expire(series, day);
+		}
+		List<Block> blocks = blocks(d);
+
+		Block block = new Block();
+		block.offset = d.file.length();
+		block.count = open.count();
+		block.firstTime = open.getFirstTime();
+		block.lastTime = open.getLastTime();
+		block.min = open.getMin();
+		block.max = open.getMax();
+		block.sum = open.getSum();
+		block.length = open.size();
+
+		mHeader.clear();
+		mHeader.putInt(block.count).putLong(block.firstTime).putLong(block.lastTime)
+				.putDouble(block.min).putDouble(block.max).putDouble(block.sum).putInt(block.length);
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(d.file, true));
+		try {
+			out.write(mHeader.array(), 0, HEADER_BYTES);
+			out.write(open.buffer(), 0, block.length);
+		} finally {
+			out.close();
+		}
+		blocks.add(block);
+		open.clear();
+	}
+
+	// drop the days of a series that are past the retention, as of day
+	private void expire(Series series, long day) {
+		Iterator<Map.Entry<Long, Day>> it = series.days.headMap(day - mRetentionDays, false).entrySet().iterator();
+		while (it.hasNext()) {
+			File file = it.next().getValue().file;
+			if (!file.delete()) {
+				LOG.warning("Can't delete " + file);
+			}
+			it.remove();
+		}
+	}
+
+	private static int parse(String s, int fallback) {
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/*
+ * Tunes the link of one TagSession: its connection priority and its MTU.
+ *
+ * Setting up a tag is a burst of a dozen requests, each waiting an interval or two
+ * for its answer, so it runs at high priority with the shortest interval, and asks
+ * for a larger MTU on the way. Once the tag streams, a short interval costs radio
+ * time for nothing, and the policy picks the longest one that still carries what
+ * the tag sends; several notifications then share a connection event instead of
+ * each getting one.
+ *
+ * What the link has to carry is measured, not guessed: every EVALUATE_MS the
+ * policy looks at the notifications that came in and how long the GATT requests
+ * took. It moves to a shorter interval at once when the rate needs it or requests
+ * took longer than the latency budget, and to a longer one only after it looked
+ * twice in a row and found room there, so it doesn't flap.
+ *
+ * Used on the scheduler's thread, except onNotification(), onRoundTrip() and
+ * onMtuChanged(), which come from the link's callbacks on any thread.
+ */
+public final class LinkPolicy {
+	private static final Logger LOG = Logger.getLogger("LinkPolicy");
+
+	public static final long EVALUATE_MS = 5000;
+
+	// what to ask for during setup, the most Android and the tags' controllers do
+	public static final int DEFAULT_MTU = 247;
+
+	// longest a request may take while streaming before the interval is shortened
+	public static final long DEFAULT_MAX_LATENCY_MS = 500;
+
+	// the priorities from the longest interval to the shortest
+	private static final int[] STEPS = {
+			GattLink.PRIORITY_LOW_POWER, GattLink.PRIORITY_BALANCED, GattLink.PRIORITY_HIGH
+	};
+	private static final int TOP = STEPS.length - 1;
+
+	// the longest interval Android picks for each step, ms
+	private static final long[] INTERVALS_MS = {125, 50, 15};
+
+	// notifications a connection event carries for sure; most phones take more
+	static final int PACKETS_PER_EVENT = 2;
+
+	// share of a step's capacity the notifications may use, the rest is for requests and retries
+	private static final double HEADROOM = 0.5;
+
+	// looks in a row with room on the step below before going there
+	private static final int STEP_DOWN_AFTER = 2;
+
+	private final TaskScheduler mScheduler;
+	private final Metrics.Counter mChanges;
+
+	private int mMtu = DEFAULT_MTU;
+	private long mMaxLatency = DEFAULT_MAX_LATENCY_MS;
+
+	// scheduler thread only
+	private GattLink mLink;
+	// index in STEPS of the priority asked for, -1 while the link runs at the stack's default
+	private int mStep = -1;
+	private boolean mMtuRequested;
+	private Object mTimer;
+	private int mRoomBelow;
+
+	private volatile int mAgreedMtu = GattOperation.DEFAULT_MTU;
+	// the tag can't do more than the default, no use asking on every connection
+	private volatile boolean mMtuUnsupported;
+
+	// what happened on the link since the last look
+	private final AtomicInteger mNotifications = new AtomicInteger();
+	private long mLatencySum;
+	private int mLatencyCount;
+
+	public LinkPolicy(TaskScheduler scheduler, Metrics metrics) {
+		mScheduler = scheduler;
+		mChanges = metrics.counter("link.priority_changes");
+	}
+
+	// the MTU to ask for during setup, 0 not to ask
+	public LinkPolicy setMtu(int mtu) {
+		mMtu = mtu;
+		return this;
+	}
+
+	public LinkPolicy setMaxLatency(long millis) {
+		mMaxLatency = millis;
+		return this;
+	}
+
+	// the priority asked for last
+	public int getPriority() {
+		return mStep >= 0 ? STEPS[mStep] : GattLink.PRIORITY_BALANCED;
+	}
+
+	// the MTU both ends agreed on for the current connection
+	public int getMtu() {
+		return mAgreedMtu;
+	}
+
+	/*
+	 * The link is up and about to be set up: shortest interval until it streams.
+	 * Called again for each step of the setup, it only asks once.
+	 */
+	public void onSetup(GattLink link) {
+		stopEvaluating();
+		mLink = link;
+		setStep(TOP, "setup");
+	}
+
+	// queue the MTU exchange, first thing of a connection's setup
+	public void requestMtu(GattQueue queue) {
+		if (mMtuRequested || mMtu <= GattOperation.DEFAULT_MTU || mMtuUnsupported) return;
+		mMtuRequested = true;
+		// a tag that doesn't answer keeps the default, that's no reason to drop the link
+		queue.enqueue(GattOperation.requestMtu(mMtu).setRetries(0));
+	}
+
+	public void onMtuChanged(int mtu, int status) {
+		if (status != GattLink.GATT_SUCCESS) return;
+		mAgreedMtu = mtu;
+		if (mtu <= GattOperation.DEFAULT_MTU) mMtuUnsupported = true;
+		LOG.fine(address() + " mtu " + mtu);
+	}
+
+	/*
+	 * The setup is done, the tag streams. The link goes back to the stack's default
+	 * interval until the first look at what it carries.
+	 */
+	public void onStreaming() {
+		stopEvaluating();
+		setStep(TOP - 1, "streaming");
+		mRoomBelow = 0;
+		resetWindow();
+		mTimer = mScheduler.schedule(mEvaluate, EVALUATE_MS);
+	}
+
+	public void onNotification() {
+		mNotifications.incrementAndGet();
+	}
+
+	// a GATT request took this long from start to answer
+	public synchronized void onRoundTrip(long millis) {
+		mLatencySum += millis;
+		mLatencyCount++;
+	}
+
+	// the link went down, the next one starts at the stack's defaults
+	public void onDisconnected() {
+		stopEvaluating();
+		mLink = null;
+		mStep = -1;
+		mMtuRequested = false;
+		mAgreedMtu = GattOperation.DEFAULT_MTU;
+	}
+
+	/*
+	 * Look at the last window: the step the notification rate needs, or one more
+	 * if requests were too slow, right away; one step less when there was room
+	 * there twice in a row.
+	 */
+	void evaluate() {
+		double rate = mNotifications.getAndSet(0) * 1000.0 / EVALUATE_MS;
+		long latency;
+		synchronized (this) {
+			latency = mLatencyCount > 0 ? mLatencySum / mLatencyCount : 0;
+			mLatencySum = 0;
+			mLatencyCount = 0;
+		}
+
+		int needed = 0;
+		while (needed < TOP && rate > capacity(needed)) {
+			needed++;
+		}
+		if (latency > mMaxLatency) {
+			needed = Math.max(needed, Math.min(TOP, mStep + 1));
+		}
+
+		if (needed > mStep) {
+			mRoomBelow = 0;
+			setStep(needed, String.format("%.1f notifications/s, %d ms requests", rate, latency));
+		} else if (needed < mStep && latency * INTERVALS_MS[mStep - 1] / INTERVALS_MS[mStep] <= mMaxLatency) {
+			// requests take longer on the longer interval, it has to be in budget there too
+			if (++mRoomBelow >= STEP_DOWN_AFTER) {
+				mRoomBelow = 0;
+				setStep(mStep - 1, String.format("%.1f notifications/s, %d ms requests", rate, latency));
+			}
+		} else {
+			mRoomBelow = 0;
+		}
+	}
+
+	// notifications per second a step carries with headroom
+	static double capacity(int step) {
+		return PACKETS_PER_EVENT * 1000.0 / INTERVALS_MS[step] * HEADROOM;
+	}
+
+	private void setStep(int step, String reason) {
+		if (mLink == null || step == mStep) return;
+		mStep = step;
+		if (mLink.requestConnectionPriority(STEPS[step])) {
+			mChanges.increment();
+			LOG.fine(address() + " priority " + name(STEPS[step]) + " for " + reason);
+		}
+	}
+
+	private void resetWindow() {
+		mNotifications.set(0);
+		synchronized (this) {
+			mLatencySum = 0;
+			mLatencyCount = 0;
+		}
+	}
+
+	private void stopEvaluating() {
+		if (mTimer != null) {
+			mScheduler.cancel(mTimer);
+			mTimer = null;
+		}
+	}
+
+	private String address() {
+		GattLink link = mLink;
+		return link != null ? link.getAddress() : "";
+	}
+
+	private final Runnable mEvaluate = new Runnable() {
+		@Override
+		public void run() {
+			mTimer = mScheduler.schedule(mEvaluate, EVALUATE_MS);
+			evaluate();
+		}
+	};
+
+	public static String name(int priority) {
+		switch (priority) {
+			case GattLink.PRIORITY_HIGH:
+				return "high";
+			case GattLink.PRIORITY_LOW_POWER:
+				return "low power";
+			default:
+				return "balanced";
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Named counters and latency histograms, cheap enough to leave on.
+ *
+ * Look a metric up once and keep it: recording into a Counter is one atomic
+ * add, into a Histogram a handful, with no allocation and no locks, so it costs
+ * nanoseconds on any thread. Histograms bucket by powers of two, which is
+ * precise enough to tell 50 us from 5 ms and needs no configuration. Gauges are
+ * only read when the metrics are dumped, so they cost nothing in between.
+ *
+ * Names are dotted, e.g. "gatt.write" or "notifications.AA:BB:CC:DD:EE:FF".
+ * Thread safe.
+ */
+public final class Metrics {
+
+	public static final class Counter {
+		private final AtomicLong mValue = new AtomicLong();
+
+		public void increment() {
+			mValue.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			mValue.addAndGet(delta);
+		}
+
+		public long get() {
+			return mValue.get();
+		}
+
+		void reset() {
+			mValue.set(0);
+		}
+	}
+
+	/*
+	 * Durations in nanoseconds. Bucket i holds the values with i significant
+	 * bits, so bucket 20 is about 0.5 to 1 ms.
+	 */
+	public static final class Histogram {
+		private final AtomicLongArray mBuckets = new AtomicLongArray(64);
+		private final AtomicLong mCount = new AtomicLong();
+		private final AtomicLong mSum = new AtomicLong();
+		private final AtomicLong mMax = new AtomicLong();
+
+		public void record(long nanos) {
+			if (nanos < 0) nanos = 0;
+			mBuckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+			mCount.incrementAndGet();
+			mSum.addAndGet(nanos);
+			long max = mMax.get();
+			while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+				max = mMax.get();
+			}
+		}
+
+		// time since a System.nanoTime() taken earlier
+		public void recordSince(long startNanos) {
+			record(System.nanoTime() - startNanos);
+		}
+
+		public long getCount() {
+			return mCount.get();
+		}
+
+		public long getMax() {
+			return mMax.get();
+		}
+
+		public double getMean() {
+			long count = mCount.get();
+			return count == 0 ? 0 : (double) mSum.get() / count;
+		}
+
+		/*
+		 * The value below which the fraction of the recorded values falls, as the
+		 * upper edge of its bucket, so at most twice the real value.
+		 */
+		public long getPercentile(double fraction) {
+			long count = 0;
+			for (int i = 0; i < 64; i++) {
+				count += mBuckets.get(i);
+			}
+			if (count == 0) return 0;
+			long rank = (long) Math.ceil(fraction * count);
+			long seen = 0;
+			for (int i = 0; i < 64; i++) {
+				seen += mBuckets.get(i);
+				if (seen >= rank && seen > 0) {
+					return Math.min(upperEdge(i), mMax.get());
+				}
+			}
+			return mMax.get();
+		}
+
+		private static long upperEdge(int bucket) {
+			return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+		}
+
+		void reset() {
+			for (int i = 0; i < 64; i++) {
+				mBuckets.set(i, 0);
+			}
+			mCount.set(0);
+			mSum.set(0);
+			mMax.set(0);
+		}
+	}
+
+	// a value read when the metrics are dumped
+	public interface Gauge {
+		long get();
+	}
+
+	private final ConcurrentHashMap<String, Counter> mCounters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentHashMap<String, Gauge> mGauges = new ConcurrentHashMap<String, Gauge>();
+
+	private volatile long mSince = System.nanoTime();
+
+	// the counter of that name, created on first use
+	public Counter counter(String name) {
+		Counter counter = mCounters.get(name);
+		if (counter == null) {
+			Counter created = new Counter();
+			counter = mCounters.putIfAbsent(name, created);
+			if (counter == null) counter = created;
+		}
+		return counter;
+	}
+
+	// the histogram of that name, created on first use
+	public Histogram histogram(String name) {
+		Histogram histogram = mHistograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = mHistograms.putIfAbsent(name, created);
+			if (histogram == null) histogram = created;
+		}
+		return histogram;
+	}
+
+	public void gauge(String name, Gauge gauge) {
+		mGauges.put(name, gauge);
+	}
+
+	public void removeGauge(String name) {
+		mGauges.remove(name);
+	}
+
+	// zero every counter and histogram; the metrics already handed out stay valid
+	public void reset() {
+		for (Counter counter : mCounters.values()) {
+			counter.reset();
+		}
+		for (Histogram histogram : mHistograms.values()) {
+			histogram.reset();
+		}
+		mSince = System.nanoTime();
+	}
+
+	/*
+	 * Every metric as text, one per line and sorted by name. Counters show their
+	 * rate since the last reset, histograms their percentiles in milliseconds.
+	 */
+	public void dump(Appendable out) throws IOException {
+		double seconds = Math.max(1e-3, (System.nanoTime() - mSince) / 1e9);
+		out.append(String.format("uptime %.1f s\n", seconds));
+
+		for (String name : sorted(mCounters.keySet())) {
+			long value = mCounters.get(name).get();
+			out.append(String.format("%-40s %10d  %8.2f/s\n", name, value, value / seconds));
+		}
+		for (String name : sorted(mGauges.keySet())) {
+			Gauge gauge = mGauges.get(name);
+			if (gauge == null) continue;
+			out.append(String.format("%-40s %10d\n", name, gauge.get()));
+		}
+		for (String name : sorted(mHistograms.keySet())) {
+			Histogram h = mHistograms.get(name);
+			out.append(String.format("%-40s %10d  mean %s  p50 %s  p90 %s  p99 %s  max %s\n", name, h.getCount(),
+					millis(h.getMean()), millis(h.getPercentile(0.5)), millis(h.getPercentile(0.9)),
+					millis(h.getPercentile(0.99)), millis(h.getMax())));
+		}
+	}
+
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			dump(sb);
+		} catch (IOException e) {
+			// not from a StringBuilder
+		}
+		return sb.toString();
+	}
+
+	private static String millis(double nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+
+	private static List<String> sorted(Iterable<String> names) {
+		List<String> list = new ArrayList<String>();
+		for (String name : names) {
+			list.add(name);
+		}
+		Collections.sort(list);
+		return list;
+	}
+}
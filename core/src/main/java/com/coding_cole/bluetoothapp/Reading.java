@@ -0,0 +1,46 @@
+package com.coding_cole.bluetoothapp;
+
+/*
+ * The values one frame of a sensor decoded to. Readings are handed to any
+ * number of subscribers on any number of threads, so they are never modified
+ * once published.
+ */
+public final class Reading {
+
+	public final String device;
+	public final Sensor sensor;
+	public final long timestamp;
+
+	// one value per channel of the sensor, in the order of sensor.getChannels(); do not modify
+	public final double[] values;
+
+	// System.nanoTime() when the reading was made, to measure how long it takes to reach a consumer
+	public final long createdNanos;
+
+	public Reading(String device, Sensor sensor, long timestamp, double[] values) {
+		this.device = device;
+		this.sensor = sensor;
+		this.timestamp = timestamp;
+		this.values = values;
+		createdNanos = System.nanoTime();
+	}
+
+	// the value of a Channel, NaN if the sensor doesn't have it
+	public double get(int channel) {
+		int[] channels = sensor.getChannels();
+		for (int i = 0; i < channels.length; i++) {
+			if (channels[i] == channel) return values[i];
+		}
+		return Double.NaN;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder().append(device).append(' ').append(sensor).append(" @").append(timestamp);
+		int[] channels = sensor.getChannels();
+		for (int i = 0; i < channels.length; i++) {
+			sb.append(' ').append(Channel.name(channels[i])).append('=').append(values[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,91 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * In-memory history of every tag's readings, one SampleRing per device and channel.
+ *
+ * Rings are created on the first sample and never resized. Only the channels
+ * that get samples have one, so the memory is shared out by a budget rather than
+ * sized for every channel a tag could have: each new ring gets the full capacity
+ * while the budget has room for it, and the largest that still fits after that,
+ * but never less than MIN_CAPACITY. Samples of one device must all be written
+ * from the same thread.
+ */
+public final class ReadingHistory {
+
+	// a ring made once the budget ran out, still enough for a chart
+	public static final int MIN_CAPACITY = 1 << 10;
+
+	private final int mCapacity;
+	private final long mBudget;
+	private final AtomicLong mAllocated = new AtomicLong();
+	private final ConcurrentHashMap<String, AtomicReferenceArray<SampleRing>> mDevices =
+			new ConcurrentHashMap<String, AtomicReferenceArray<SampleRing>>();
+
+	/*
+	 * capacity is the samples a ring holds with the budget to spare, budgetBytes
+	 * what all rings together may take.
+	 */
+	public ReadingHistory(int capacity, long budgetBytes) {
+		// what the ring will round it up to
+		mCapacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mBudget = budgetBytes;
+	}
+
+	public void add(String address, int channel, long timestamp, double value) {
+		AtomicReferenceArray<SampleRing> rings = mDevices.get(address);
+		if (rings == null) {
+			AtomicReferenceArray<SampleRing> created = new AtomicReferenceArray<SampleRing>(Channel.COUNT);
+			rings = mDevices.putIfAbsent(address, created);
+			if (rings == null) rings = created;
+		}
+		SampleRing ring = rings.get(channel);
+		if (ring == null) {
+			ring = new SampleRing(nextCapacity());
+			mAllocated.addAndGet(ring.memoryBytes());
+			rings.set(channel, ring);
+		}
+		ring.add(timestamp, value);
+	}
+
+	// the ring of a device's channel, null until it has a sample
+	public SampleRing get(String address, int channel) {
+		AtomicReferenceArray<SampleRing> rings = mDevices.get(address);
+		return rings == null ? null : rings.get(channel);
+	}
+
+	public List<String> getDevices() {
+		return new ArrayList<String>(mDevices.keySet());
+	}
+
+	public void remove(String address) {
+		AtomicReferenceArray<SampleRing> rings = mDevices.remove(address);
+		if (rings == null) return;
+		for (int i = 0; i < rings.length(); i++) {
+			SampleRing ring = rings.get(i);
+			if (ring != null) mAllocated.addAndGet(-ring.memoryBytes());
+		}
+	}
+
+	// bytes currently allocated for samples
+	public long memoryBytes() {
+		return mAllocated.get();
+	}
+
+	public long getBudgetBytes() {
+		return mBudget;
+	}
+
+	// the full capacity while it fits in what is left of the budget, the largest power of two that does after that
+	private int nextCapacity() {
+		long left = (mBudget - mAllocated.get()) / SampleRing.BYTES_PER_SAMPLE;
+		if (left >= mCapacity) return mCapacity;
+		if (left < MIN_CAPACITY) return Math.min(mCapacity, MIN_CAPACITY);
+		return (int) Long.highestOneBit(left);
+	}
+}
@@ -0,0 +1,257 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Decoded readings, fanned out to any number of subscribers.
+ *
+ * Every subscription has its own bounded buffer and its own Executor, so a
+ * chart on the main thread, a database writer and an uploader each take
+ * readings at their own pace. When a buffer is full the subscription's
+ * overflow policy decides what gives:
+ *
+ *   DROP_OLDEST  the oldest buffered reading is dropped for the new one
+ *   CONFLATE     only the newest reading of each device and sensor is kept,
+ *                for consumers that want the current state, not every sample
+ *   BLOCK        the publisher waits for room, which slows decoding down for
+ *                every subscriber, only for consumers that must see everything;
+ *                the executor must not run on the publishing thread
+ *
+ * A subscription is drained by one task at a time on its executor, so its
+ * subscriber is never called concurrently and sees readings in order.
+ * Thread safe.
+ */
+public final class ReadingStream {
+
+	public static final int DROP_OLDEST = 1;
+	public static final int CONFLATE = 2;
+	public static final int BLOCK = 3;
+
+	public interface Subscriber {
+		void onReading(Reading reading);
+	}
+
+	public interface Filter {
+		boolean accept(String device, Sensor sensor);
+	}
+
+	public static final Filter ALL = new Filter() {
+		@Override
+		public boolean accept(String device, Sensor sensor) {
+			return true;
+		}
+	};
+
+	private final List<Subscription> mSubscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	// readings dropped for room by every subscription there ever was, conflated ones don't count
+	private final AtomicLong mTotalDropped = new AtomicLong();
+
+	// readings of one device, or of one sensor, null for any
+	public static Filter filter(final String device, final Sensor sensor) {
+		return new Filter() {
+			@Override
+			public boolean accept(String d, Sensor s) {
+				return (device == null || device.equals(d)) && (sensor == null || sensor == s);
+			}
+		};
+	}
+
+	// readings of any of the sensors, from every device
+	public static Filter sensors(Sensor... sensors) {
+		final List<Sensor> accepted = Arrays.asList(sensors);
+		return new Filter() {
+			@Override
+			public boolean accept(String device, Sensor sensor) {
+				return accepted.contains(sensor);
+			}
+		};
+	}
+
+	/*
+	 * Deliver the readings that pass the filter to subscriber on executor,
+	 * keeping at most capacity of them waiting.
+	 */
+	public Subscription subscribe(Filter filter, int capacity, int overflow, Executor executor, Subscriber subscriber) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+		}
+		if (overflow != DROP_OLDEST && overflow != CONFLATE && overflow != BLOCK) {
+			throw new IllegalArgumentException("Unknown overflow policy " + overflow);
+		}
+		Subscription subscription = new Subscription(filter, capacity, overflow, executor, subscriber);
+		mSubscriptions.add(subscription);
+		return subscription;
+	}
+
+	public boolean hasSubscribers() {
+		return !mSubscriptions.isEmpty();
+	}
+
+	// readings lost to full buffers, over all subscriptions
+	public long getDropped() {
+		return mTotalDropped.get();
+	}
+
+	/*
+	 * Publish the values of one decoded frame, taken from a Channel indexed array.
+	 * Nothing is allocated if nobody wants the reading.
+	 */
+	public void publish(String device, Sensor sensor, long timestamp, double[] channelValues) {
+		Reading reading = null;
+		for (Subscription subscription : mSubscriptions) {
+			if (!subscription.mFilter.accept(device, sensor)) continue;
+			if (reading == null) {
+				int[] channels = sensor.getChannels();
+				double[] values = new double[channels.length];
+				for (int i = 0; i < channels.length; i++) {
+					values[i] = channelValues[channels[i]];
+				}
+				reading = new Reading(device, sensor, timestamp, values);
+			}
+			subscription.offer(reading);
+		}
+	}
+
+	public void publish(Reading reading) {
+		for (Subscription subscription : mSubscriptions) {
+			if (subscription.mFilter.accept(reading.device, reading.sensor)) {
+				subscription.offer(reading);
+			}
+		}
+	}
+
+	/*
+	 * One subscriber's buffer. Cancelling drops whatever is still buffered.
+	 */
+	public final class Subscription {
+		private final Filter mFilter;
+		private final int mOverflow;
+		private final Executor mExecutor;
+		private final Subscriber mSubscriber;
+
+		// a ring of buffered readings, guarded by this
+		private final Reading[] mBuffer;
+		private int mHead;
+		private int mSize;
+		private boolean mDraining;
+		private boolean mCancelled;
+		private long mDelivered;
+		private long mDropped;
+
+		Subscription(Filter filter, int capacity, int overflow, Executor executor, Subscriber subscriber) {
+			mFilter = filter;
+			mOverflow = overflow;
+			mExecutor = executor;
+			mSubscriber = subscriber;
+			mBuffer = new Reading[capacity];
+		}
+
+		public void cancel() {
+			mSubscriptions.remove(this);
+			synchronized (this) {
+				mCancelled = true;
+				Arrays.fill(mBuffer, null);
+				mSize = 0;
+				notifyAll();
+			}
+		}
+
+		// readings waiting for the subscriber
+		public synchronized int getBuffered() {
+			return mSize;
+		}
+
+		public synchronized long getDelivered() {
+			return mDelivered;
+		}
+
+		// readings that were dropped or conflated away
+		public synchronized long getDropped() {
+			return mDropped;
+		}
+
+		void offer(Reading reading) {
+			synchronized (this) {
+				if (mCancelled) return;
+				if (mOverflow == CONFLATE && replace(reading)) return;
+
+				if (mSize == mBuffer.length) {
+					if (mOverflow == BLOCK) {
+						boolean interrupted = false;
+						while (mSize == mBuffer.length && !mCancelled) {
+							try {
+								wait();
+							} catch (InterruptedException e) {
+								interrupted = true;
+							}
+						}
+						if (interrupted) Thread.currentThread().interrupt();
+						if (mCancelled) return;
+					} else {
+						// conflate falls back to this with more keys than room
+						mBuffer[mHead] = null;
+						mHead = (mHead + 1) % mBuffer.length;
+						mSize--;
+						mDropped++;
+						mTotalDropped.incrementAndGet();
+					}
+				}
+				mBuffer[(mHead + mSize) % mBuffer.length] = reading;
+				mSize++;
+
+				if (mDraining) return;
+				mDraining = true;
+			}
+			mExecutor.execute(mDrain);
+		}
+
+		// swap in the newer reading of the same device and sensor, keeping its place
+		private boolean replace(Reading reading) {
+			for (int i = 0; i < mSize; i++) {
+				int slot = (mHead + i) % mBuffer.length;
+				Reading buffered = mBuffer[slot];
+				if (buffered.sensor == reading.sensor && buffered.device.equals(reading.device)) {
+					mBuffer[slot] = reading;
+					mDropped++;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private final Runnable mDrain = new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					Reading reading;
+					synchronized (Subscription.this) {
+						if (mSize == 0 || mCancelled) {
+							mDraining = false;
+							return;
+						}
+						reading = mBuffer[mHead];
+						mBuffer[mHead] = null;
+						mHead = (mHead + 1) % mBuffer.length;
+						mSize--;
+						mDelivered++;
+						Subscription.this.notifyAll();
+					}
+					try {
+						mSubscriber.onReading(reading);
+					} catch (RuntimeException e) {
+						// let the next offer start a new drain
+						synchronized (Subscription.this) {
+							mDraining = false;
+						}
+						throw e;
+					}
+				}
+			}
+		};
+	}
+}
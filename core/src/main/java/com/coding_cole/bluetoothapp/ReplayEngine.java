@@ -0,0 +1,422 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Decodes recorded FrameLog segments again, through the same TagDecoder the
+ * app uses live.
+ *
+ * At full speed the segments are decoded in parallel, one task per segment.
+ * Barometer frames need the calibration the tag sent when it connected, which
+ * may be in an earlier segment, so a first pass finds the last calibration of
+ * every device in every segment and the second pass starts each segment with
+ * the calibration carried over from the ones before it. Every segment holds
+ * the frames of all the devices recorded at that time, so the parallelism is
+ * across time, and within a segment the devices share one pass over the file.
+ *
+ * In scaled real time the segments are replayed in order on the calling
+ * thread, with frames spaced out by their recorded times divided by the speed.
+ */
+public final class ReplayEngine {
+
+	/*
+	 * Receives every decoded value. At full speed it is called from several
+	 * worker threads at once, and values are only in time order per segment.
+	 */
+	public interface Sink {
+		void onReading(String device, int channel, long timestamp, double value);
+	}
+
+	private static final int BAROMETER_CAL = SensorRegistry.BAROMETER.getCalibrationKind();
+
+	private final int mThreads;
+	private double mSpeed;
+	private final Map<String, CalibratedBarometer> mOverrides = new HashMap<String, CalibratedBarometer>();
+
+	public ReplayEngine(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one thread");
+		}
+		mThreads = threads;
+	}
+
+	/*
+	 * Replay in scaled real time, e.g. 60 plays an hour of recording in a minute.
+	 * 0, the default, decodes as fast as possible.
+	 */
+	public void setSpeed(double speed) {
+		if (speed < 0 || Double.isNaN(speed)) {
+			throw new IllegalArgumentException("Speed " + speed);
+		}
+		mSpeed = speed;
+	}
+
+	/*
+	 * Decode a device's barometer frames with this calibration instead of the
+	 * one it recorded, to try out corrected coefficients.
+	 */
+	public void setCalibration(String device, CalibratedBarometer barometer) {
+		mOverrides.put(device, barometer);
+	}
+
+	public Summary replay(File dir, Sink sink) throws IOException, InterruptedException {
+		return replay(FrameLog.segments(dir), sink);
+	}
+
+	/*
+	 * Decode the segments, oldest first, into the sink (which may be null) and
+	 * return the totals of every device and channel.
+	 */
+	public Summary replay(List<File> segments, Sink sink) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Summary summary = mSpeed > 0 ? replayPaced(segments, sink) : replayParallel(segments, sink);
+		summary.elapsedNanos = System.nanoTime() - start;
+		return summary;
+	}
+
+	private Summary replayPaced(List<File> segments, Sink sink) throws IOException, InterruptedException {
+		Pacer pacer = new Pacer(mSpeed);
+		Map<String, CalibratedBarometer> carried = new HashMap<String, CalibratedBarometer>();
+		Summary summary = new Summary();
+		for (File file : segments) {
+			Segment segment = new Segment(file, carried, sink, pacer);
+			summary.merge(segment.decode());
+			carried.putAll(segment.mCalibrations);
+		}
+		return summary;
+	}
+
+	private Summary replayParallel(List<File> segments, final Sink sink) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(mThreads, Math.max(1, segments.size())));
+		try {
+			// first pass, the last calibration of each device in each segment
+			List<Future<Map<String, CalibratedBarometer>>> scans = new ArrayList<Future<Map<String, CalibratedBarometer>>>();
+			for (final File file : segments) {
+				scans.add(pool.submit(new Callable<Map<String, CalibratedBarometer>>() {
+					@Override
+					public Map<String, CalibratedBarometer> call() throws IOException {
+						return scanCalibrations(file);
+					}
+				}));
+			}
+
+			// second pass, each segment starts out with what the segments before it left
+			Map<String, CalibratedBarometer> carried = new HashMap<String, CalibratedBarometer>();
+			List<Future<Summary>> decodes = new ArrayList<Future<Summary>>();
+			for (int i = 0; i < segments.size(); i++) {
+				final Segment segment = new Segment(segments.get(i), new HashMap<String, CalibratedBarometer>(carried), sink, null);
+				decodes.add(pool.submit(new Callable<Summary>() {
+					@Override
+					public Summary call() throws IOException, InterruptedException {
+						return segment.decode();
+					}
+				}));
+				carried.putAll(get(scans.get(i)));
+			}
+
+			Summary summary = new Summary();
+			for (Future<Summary> decode : decodes) {
+				summary.merge(get(decode));
+			}
+			return summary;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static Map<String, CalibratedBarometer> scanCalibrations(File file) throws IOException {
+		Map<String, CalibratedBarometer> calibrations = new HashMap<String, CalibratedBarometer>();
+		FrameLog.Reader reader = new FrameLog.Reader(file);
+		FrameLog.Frame frame = new FrameLog.Frame();
+		while (reader.next(frame)) {
+			if (frame.length >= SensorRegistry.BAROMETER.getCalibrationLength()
+					&& SensorRegistry.BAROMETER.getCalibration().equals(frame.characteristic)) {
+				calibrations.put(frame.device, CalibratedBarometer.fromCalibration(frame.value, 0));
+			}
+		}
+		reader.close();
+		return calibrations;
+	}
+
+	private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/*
+	 * Decoding of one segment. Devices and characteristics are looked up by their
+	 * ids in the segment, so the per frame work is array indexing and the decode.
+	 */
+	private final class Segment {
+		private final File mFile;
+		private final Map<String, CalibratedBarometer> mSeed;
+		private final Sink mSink;
+		private final Pacer mPacer;
+
+		// calibration of every device at the end of the segment
+		final Map<String, CalibratedBarometer> mCalibrations = new HashMap<String, CalibratedBarometer>();
+
+		private TagDecoder[] mDecoders = new TagDecoder[8];
+		private String[] mAddresses = new String[8];
+		private Totals[][] mTotals = new Totals[8][];
+		private boolean[] mOverridden = new boolean[8];
+		private int[] mKinds = new int[8];
+
+		Segment(File file, Map<String, CalibratedBarometer> seed, Sink sink, Pacer pacer) {
+			mFile = file;
+			mSeed = seed;
+			mSink = sink;
+			mPacer = pacer;
+			Arrays.fill(mKinds, -1);
+		}
+
+		Summary decode() throws IOException, InterruptedException {
+			Summary summary = new Summary();
+			TagReadings readings = new TagReadings();
+			FrameLog.Reader reader = new FrameLog.Reader(mFile);
+			FrameLog.Frame frame = new FrameLog.Frame();
+			try {
+				while (reader.next(frame)) {
+					summary.frames++;
+					int kind = kind(frame.characteristicId, frame.characteristic);
+					if (kind == 0) continue;
+					if (frame.length < SensorRegistry.minLength(kind)) {
+						summary.skipped++;
+						continue;
+					}
+
+					int device = frame.deviceId;
+					TagDecoder decoder = decoder(device, frame.device);
+					// a replaced calibration stays in place for the whole replay
+					Sensor sensor = SensorRegistry.sensorOf(kind);
+					if (kind == BAROMETER_CAL && mOverridden[device]) continue;
+					if (!decoder.decode(kind, frame.value, frame.timestamp, readings)) {
+						// a data frame that came before its calibration
+						if (kind == sensor.getDataKind()) summary.skipped++;
+						continue;
+					}
+					summary.decoded++;
+
+					if (mPacer != null) {
+						mPacer.await(frame.timestamp);
+					}
+					for (int channel : sensor.getChannels()) {
+						emit(device, frame.device, channel, frame.timestamp, readings.values[channel]);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+
+			for (int i = 0; i < mDecoders.length; i++) {
+				if (mDecoders[i] == null) continue;
+				summary.add(mAddresses[i], mTotals[i]);
+				if (mDecoders[i].isCalibrated()) {
+					mCalibrations.put(mAddresses[i], mDecoders[i].getCalibration());
+				}
+			}
+			summary.segments = 1;
+			return summary;
+		}
+
+		private void emit(int device, String address, int channel, long timestamp, double value) {
+			mTotals[device][channel].add(timestamp, value);
+			if (mSink != null) {
+				mSink.onReading(address, channel, timestamp, value);
+			}
+		}
+
+		private int kind(int id, UUID characteristic) {
+			if (id >= mKinds.length) {
+				int length = mKinds.length;
+				mKinds = Arrays.copyOf(mKinds, Math.max(length * 2, id + 1));
+				Arrays.fill(mKinds, length, mKinds.length, -1);
+			}
+			int kind = mKinds[id];
+			if (kind < 0) {
+				kind = mKinds[id] = SensorRegistry.kindOf(characteristic);
+			}
+			return kind;
+		}
+
+		private TagDecoder decoder(int id, String address) {
+			if (id >= mDecoders.length) {
+				int length = Math.max(mDecoders.length * 2, id + 1);
+				mDecoders = Arrays.copyOf(mDecoders, length);
+				mAddresses = Arrays.copyOf(mAddresses, length);
+				mTotals = Arrays.copyOf(mTotals, length);
+				mOverridden = Arrays.copyOf(mOverridden, length);
+			}
+			TagDecoder decoder = mDecoders[id];
+			if (decoder == null) {
+				decoder = mDecoders[id] = new TagDecoder();
+				mAddresses[id] = address;
+				CalibratedBarometer override = mOverrides.get(address);
+				if (override != null) {
+					decoder.setCalibration(override);
+					mOverridden[id] = true;
+				} else {
+					decoder.setCalibration(mSeed.get(address));
+				}
+				mTotals[id] = Totals.channels();
+			}
+			return decoder;
+		}
+	}
+	/*
+	 * Waits out the recorded gaps between frames, divided by the speed.
+	 */
+	private static final class Pacer {
+		private final double mSpeed;
+		private boolean mStarted;
+		private long mStartTime;
+		private long mStartNanos;
+
+		Pacer(double speed) {
+			mSpeed = speed;
+		}
+
+		void await(long timestamp) throws InterruptedException {
+			if (!mStarted) {
+				mStarted = true;
+				mStartTime = timestamp;
+				mStartNanos = System.nanoTime();
+				return;
+			}
+			long due = mStartNanos + (long) ((timestamp - mStartTime) * 1e6 / mSpeed);
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+		}
+	}
+
+	/*
+	 * Count, range and mean of one channel of one device.
+	 */
+	public static final class Totals {
+		public long count;
+		public double min = Double.POSITIVE_INFINITY;
+		public double max = Double.NEGATIVE_INFINITY;
+		public double sum;
+		public long firstTime = Long.MAX_VALUE;
+		public long lastTime = Long.MIN_VALUE;
+
+		static Totals[] channels() {
+			Totals[] totals = new Totals[Channel.COUNT];
+			for (int i = 0; i < totals.length; i++) {
+				totals[i] = new Totals();
+			}
+			return totals;
+		}
+
+		public double mean() {
+			return count > 0 ? sum / count : Double.NaN;
+		}
+
+		void add(long timestamp, double value) {
+			count++;
+			if (value < min) min = value;
+			if (value > max) max = value;
+			sum += value;
+			if (timestamp < firstTime) firstTime = timestamp;
+			if (timestamp > lastTime) lastTime = timestamp;
+		}
+
+		void merge(Totals other) {
+			count += other.count;
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+			sum += other.sum;
+			firstTime = Math.min(firstTime, other.firstTime);
+			lastTime = Math.max(lastTime, other.lastTime);
+		}
+	}
+
+	/*
+	 * What a replay decoded, per device and channel.
+	 */
+	public static final class Summary {
+		public int segments;
+		public long frames;
+		public long decoded;
+
+		// frames that could not be decoded: too short, or barometer data before any calibration
+		public long skipped;
+		public long elapsedNanos;
+
+		private final Map<String, Totals[]> mDevices = new TreeMap<String, Totals[]>();
+
+		public Set<String> getDevices() {
+			return Collections.unmodifiableSet(mDevices.keySet());
+		}
+
+		public Totals get(String device, int channel) {
+			Totals[] totals = mDevices.get(device);
+			return totals != null ? totals[channel] : null;
+		}
+
+		public double framesPerSecond() {
+			return elapsedNanos > 0 ? frames * 1e9 / elapsedNanos : 0;
+		}
+
+		// one CSV line per device and channel that has values
+		public void write(Writer out) throws IOException {
+			out.write("device,channel,count,min,max,mean,first,last\n");
+			for (Map.Entry<String, Totals[]> entry : mDevices.entrySet()) {
+				for (int channel = 0; channel < Channel.COUNT; channel++) {
+					Totals t = entry.getValue()[channel];
+					if (t.count == 0) continue;
+					out.write(entry.getKey() + "," + Channel.name(channel) + "," + t.count + "," + t.min + ","
+							+ t.max + "," + t.mean() + "," + t.firstTime + "," + t.lastTime + "\n");
+				}
+			}
+			out.flush();
+		}
+
+		void add(String device, Totals[] totals) {
+			Totals[] existing = mDevices.get(device);
+			if (existing == null) {
+				existing = Totals.channels();
+				mDevices.put(device, existing);
+			}
+			for (int i = 0; i < totals.length; i++) {
+				existing[i].merge(totals[i]);
+			}
+		}
+
+		void merge(Summary other) {
+			segments += other.segments;
+			frames += other.frames;
+			decoded += other.decoded;
+			skipped += other.skipped;
+			for (Map.Entry<String, Totals[]> entry : other.mDevices.entrySet()) {
+				add(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Command line front end of ReplayEngine, run with
+ *   ./gradlew :core:replay --args="<frame log dir> [options]"
+ *
+ *   --threads n              decoding threads, default one per core
+ *   --speed x                scaled real time instead of full speed, 60 = an hour per minute
+ *   --out file               write the summary CSV there instead of stdout
+ *   --calibration dev=c1,..,c8
+ *                            decode a device's barometer with these coefficients
+ */
+public final class ReplayMain {
+
+	private ReplayMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			usage();
+			return;
+		}
+
+		File dir = null;
+		File out = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		double speed = 0;
+		Map<String, CalibratedBarometer> calibrations = new HashMap<String, CalibratedBarometer>();
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--threads".equals(arg) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("--speed".equals(arg) && i + 1 < args.length) {
+				speed = Double.parseDouble(args[++i]);
+			} else if ("--out".equals(arg) && i + 1 < args.length) {
+				out = new File(args[++i]);
+			} else if ("--calibration".equals(arg) && i + 1 < args.length) {
+				String value = args[++i];
+				int split = value.lastIndexOf('=');
+				if (split < 0) {
+					usage();
+					return;
+				}
+				String[] parts = value.substring(split + 1).split(",");
+				int[] c = new int[parts.length];
+				for (int j = 0; j < parts.length; j++) {
+					c[j] = Integer.parseInt(parts[j].trim());
+				}
+				calibrations.put(value.substring(0, split), CalibratedBarometer.fromCoefficients(c));
+			} else if (!arg.startsWith("--") && dir == null) {
+				dir = new File(arg);
+			} else {
+				usage();
+				return;
+			}
+		}
+		if (dir == null || !dir.isDirectory()) {
+			System.err.println("No frame log directory " + dir);
+			System.exit(1);
+		}
+
+		ReplayEngine engine = new ReplayEngine(threads);
+		engine.setSpeed(speed);
+		for (Map.Entry<String, CalibratedBarometer> entry : calibrations.entrySet()) {
+			engine.setCalibration(entry.getKey(), entry.getValue());
+		}
+
+		ReplayEngine.Summary summary = engine.replay(dir, null);
+
+		Writer writer = new OutputStreamWriter(out != null ? new FileOutputStream(out) : System.out, "UTF-8");
+		summary.write(writer);
+		if (out != null) {
+			writer.close();
+		}
+
+		System.err.println(String.format("%d segments, %d frames, %d decoded, %d skipped in %.3f s (%.0f frames/s)",
+				summary.segments, summary.frames, summary.decoded, summary.skipped,
+				summary.elapsedNanos / 1e9, summary.framesPerSecond()));
+	}
+
+	private static void usage() {
+		System.err.println("usage: replay <frame log dir> [--threads n] [--speed x] [--out file]"
+				+ " [--calibration device=c1,...,c8]");
+	}
+}
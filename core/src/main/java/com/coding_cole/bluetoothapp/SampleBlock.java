@@ -0,0 +1,257 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.Arrays;
+
+/*
+ * A block of (timestamp, value) samples of one series, compressed the Gorilla way.
+ *
+ * The first sample is stored whole. After that each timestamp is stored as the
+ * change of its delta to the previous one, which for samples at a steady rate is
+ * a single 0 bit and otherwise a short prefix and 7 to 64 bits. Each value is
+ * XORed with the previous one: an unchanged value is a 0 bit, and a changed one
+ * only stores the bits between the XOR's leading and trailing zeros, reusing the
+ * previous window when they fit in it. Slowly moving sensor values come out at
+ * a few bytes per sample, and much less once rounded to a binary step.
+ *
+ * A block is filled up to a fixed number of bytes. The writer keeps the count,
+ * time range, min, max and sum, so a store can pick and summarize blocks without
+ * decoding them. Not thread safe.
+ */
+public final class SampleBlock {
+
+	public static final int DEFAULT_BYTES = 4096;
+
+	// worst case for one sample: 5 + 64 bits of time, 2 + 5 + 6 + 64 bits of value
+	private static final int MAX_SAMPLE_BYTES = 19;
+
+	public interface Visitor {
+		void onSample(long time, double value);
+	}
+
+	private final byte[] mBuffer;
+	private int mBit;
+
+	private int mCount;
+	private long mFirstTime;
+	private long mLastTime;
+	private long mLastDelta;
+	private long mLastBits;
+	private int mLeading = -1;
+	private int mTrailing;
+
+	private double mMin;
+	private double mMax;
+	private double mSum;
+
+	public SampleBlock(int capacityBytes) {
+		if (capacityBytes < 2 * MAX_SAMPLE_BYTES) {
+			throw new IllegalArgumentException("Block too small: " + capacityBytes);
+		}
+		mBuffer = new byte[capacityBytes];
+	}
+
+	/*
+	 * Append a sample, returns false without adding it if the block is full.
+	 * Timestamps should not decrease.
+	 */
+	public boolean add(long time, double value) {
+		if (mBuffer.length - size() < MAX_SAMPLE_BYTES) return false;
+
+		long bits = Double.doubleToLongBits(value);
+		if (mCount == 0) {
+			write(time, 64);
+			write(bits, 64);
+			mFirstTime = time;
+			mMin = value;
+			mMax = value;
+			mSum = 0;
+		} else {
+			long delta = time - mLastTime;
+			writeTime(delta - mLastDelta);
+			writeValue(bits ^ mLastBits);
+			mLastDelta = delta;
+			if (value < mMin) mMin = value;
+			if (value > mMax) mMax = value;
+		}
+		mSum += value;
+		mLastTime = time;
+		mLastBits = bits;
+		mCount++;
+		return true;
+	}
+
+	public int count() {
+		return mCount;
+	}
+
+	public boolean isEmpty() {
+		return mCount == 0;
+	}
+
+	// bytes of encoded samples in buffer()
+	public int size() {
+		return (mBit + 7) >>> 3;
+	}
+
+	public byte[] buffer() {
+		return mBuffer;
+	}
+
+	public long getFirstTime() {
+		return mFirstTime;
+	}
+
+	public long getLastTime() {
+		return mLastTime;
+	}
+
+	public double getMin() {
+		return mMin;
+	}
+
+	public double getMax() {
+		return mMax;
+	}
+
+	public double getSum() {
+		return mSum;
+	}
+
+	// empty it for reuse
+	public void clear() {
+		Arrays.fill(mBuffer, 0, size(), (byte) 0);
+		mBit = 0;
+		mCount = 0;
+		mLastDelta = 0;
+		mLeading = -1;
+		mTrailing = 0;
+	}
+
+	/*
+	 * Visit the samples of an encoded block with from <= time < to, in order.
+	 * Returns the number visited. Stops early once past to.
+	 */
+	public static int decode(byte[] data, int offset, int count, long from, long to, Visitor visitor) {
+		Reader in = new Reader(data, offset);
+		int visited = 0;
+		long time = 0;
+		long delta = 0;
+		long bits = 0;
+		int leading = 0;
+		int trailing = 0;
+		for (int i = 0; i < count; i++) {
+			if (i == 0) {
+				time = in.read(64);
+				bits = in.read(64);
+			} else {
+				delta += in.readTime();
+				time += delta;
+				if (in.read(1) != 0) {
+					if (in.read(1) != 0) {
+						leading = (int) in.read(5);
+						int length = (int) in.read(6) + 1;
+						trailing = 64 - leading - length;
+					}
+					bits ^= in.read(64 - leading - trailing) << trailing;
+				}
+			}
+			if (time >= to) break;
+			if (time >= from) {
+				visitor.onSample(time, Double.longBitsToDouble(bits));
+				visited++;
+			}
+		}
+		return visited;
+	}
+
+	private void writeTime(long dod) {
+		if (dod == 0) {
+			write(0, 1);
+		} else if (dod >= -64 && dod < 64) {
+			write(0x2, 2);
+			write(dod, 7);
+		} else if (dod >= -256 && dod < 256) {
+			write(0x6, 3);
+			write(dod, 9);
+		} else if (dod >= -2048 && dod < 2048) {
+			write(0xE, 4);
+			write(dod, 12);
+		} else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+			write(0x1E, 5);
+			write(dod, 32);
+		} else {
+			write(0x1F, 5);
+			write(dod, 64);
+		}
+	}
+
+	private void writeValue(long xor) {
+		if (xor == 0) {
+			write(0, 1);
+			return;
+		}
+		int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+		int trailing = Long.numberOfTrailingZeros(xor);
+		if (mLeading >= 0 && leading >= mLeading && trailing >= mTrailing) {
+			// fits in the previous window
+			write(0x2, 2);
+			write(xor >>> mTrailing, 64 - mLeading - mTrailing);
+			return;
+		}
+		int length = 64 - leading - trailing;
+		write(0x3, 2);
+		write(leading, 5);
+		write(length - 1, 6);
+		write(xor >>> trailing, length);
+		mLeading = leading;
+		mTrailing = trailing;
+	}
+
+	// the n low bits of value, most significant first
+	private void write(long value, int n) {
+		while (n > 0) {
+			int free = 8 - (mBit & 7);
+			int take = Math.min(free, n);
+			int chunk = (int) (value >>> (n - take)) & ((1 << take) - 1);
+			mBuffer[mBit >>> 3] |= chunk << (free - take);
+			mBit += take;
+			n -= take;
+		}
+	}
+
+	private static final class Reader {
+		private final byte[] mData;
+		private long mBit;
+
+		Reader(byte[] data, int offset) {
+			mData = data;
+			mBit = (long) offset << 3;
+		}
+
+		long read(int n) {
+			long value = 0;
+			while (n > 0) {
+				int used = (int) (mBit & 7);
+				int take = Math.min(8 - used, n);
+				int chunk = (mData[(int) (mBit >>> 3)] >>> (8 - used - take)) & ((1 << take) - 1);
+				value = (value << take) | chunk;
+				mBit += take;
+				n -= take;
+			}
+			return value;
+		}
+
+		long readTime() {
+			if (read(1) == 0) return 0;
+			if (read(1) == 0) return signed(read(7), 7);
+			if (read(1) == 0) return signed(read(9), 9);
+			if (read(1) == 0) return signed(read(12), 12);
+			if (read(1) == 0) return signed(read(32), 32);
+			return read(64);
+		}
+
+		private static long signed(long value, int bits) {
+			return (value << (64 - bits)) >> (64 - bits);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Fixed capacity ring of (timestamp, value) samples in parallel arrays of longs,
+ * the values as their raw bits.
+ *
+ * One thread writes, any number of threads read without locking. The writer
+ * publishes every sample through a volatile sequence number. Readers copy what
+ * they need, then check the sequence again and retry if the writer lapped them,
+ * so a reader never returns a sample that was overwritten while it was reading.
+ * That check only holds if the copies can't be reordered after it, and a long
+ * can't tear on 32 bit ARM, so the slots are read and written atomically: a
+ * reader that saw a slot overwritten then sees the sequence that lapped it.
+ *
+ * Timestamps must not decrease, window queries binary search on them.
+ * Memory use is 16 bytes per sample of capacity, allocated up front.
+ */
+public final class SampleRing {
+
+	public static final int BYTES_PER_SAMPLE = 16;
+
+	// give up on retrying a read that keeps getting lapped, the writer is too fast
+	private static final int MAX_READ_ATTEMPTS = 8;
+
+	private final AtomicLongArray mTimes;
+	private final AtomicLongArray mValues;
+	private final int mMask;
+
+	// number of samples ever written; written by the writer thread only
+	private volatile long mCount;
+
+	/*
+	 * Aggregates of a window query, reused between queries.
+	 */
+	public static final class Stats {
+		public int count;
+		public double min;
+		public double max;
+		public double mean;
+		public long firstTime;
+		public long lastTime;
+
+		void clear() {
+			count = 0;
+			min = Double.NaN;
+			max = Double.NaN;
+			mean = Double.NaN;
+			firstTime = 0;
+			lastTime = 0;
+		}
+	}
+
+	public SampleRing(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Capacity must be at least 2");
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		mTimes = new AtomicLongArray(size);
+		mValues = new AtomicLongArray(size);
+		mMask = size - 1;
+	}
+
+	// capacity needed for a duration at a sample rate
+	public static int capacityFor(long durationMillis, double rateHz) {
+		return (int) Math.min(1 << 30, Math.ceil(durationMillis / 1000.0 * rateHz));
+	}
+
+	public int capacity() {
+		return mTimes.length();
+	}
+
+	public long memoryBytes() {
+		return (long) mTimes.length() * BYTES_PER_SAMPLE;
+	}
+
+	// total samples written, including those already overwritten
+	public long count() {
+		return mCount;
+	}
+
+	// writer thread only
+	public void add(long timestamp, double value) {
+		long count = mCount;
+		int index = (int) count & mMask;
+		// ordered after the publish of the sample before, that's all a reader needs
+		mTimes.lazySet(index, timestamp);
+		mValues.lazySet(index, Double.doubleToRawLongBits(value));
+		mCount = count + 1;
+	}
+
+	// writer thread only
+	public void clear() {
+		mCount = 0;
+	}
+
+	/*
+	 * Copy the newest samples, oldest first, into the arrays. Returns the number
+	 * copied, at most the length of the arrays.
+	 */
+	public int snapshot(long[] times, double[] values) {
+		int max = Math.min(times.length, values.length);
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+			long end = mCount;
+			long start = Math.max(oldest(end), end - max);
+			int n = (int) (end - start);
+			for (int i = 0; i < n; i++) {
+				int index = (int) (start + i) & mMask;
+				times[i] = mTimes.get(index);
+				values[i] = value(index);
+			}
+			if (start >= oldest(mCount)) {
+				return n;
+			}
+		}
+		return 0;
+	}
+
+	/*
+	 * Copy the samples with timestamp >= fromTime, oldest first. Returns the number
+	 * copied; if there are more than fit, the newest ones are kept.
+	 */
+	public int snapshotSince(long fromTime, long[] times, double[] values) {
+		int max = Math.min(times.length, values.length);
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+			long end = mCount;
+			long start = Math.max(firstAtOrAfter(fromTime, oldest(end), end), end - max);
+			int n = (int) (end - start);
+			for (int i = 0; i < n; i++) {
+				int index = (int) (start + i) & mMask;
+				times[i] = mTimes.get(index);
+				values[i] = value(index);
+			}
+			if (start >= oldest(mCount)) {
+				return n;
+			}
+		}
+		return 0;
+	}
+
+	/*
+	 * Count, min, max and mean of the samples with fromTime <= timestamp < toTime.
+	 * Returns false and leaves out cleared if there are none.
+	 */
+	public boolean window(long fromTime, long toTime, Stats out) {
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+			out.clear();
+			long end = mCount;
+			long oldest = oldest(end);
+			long start = firstAtOrAfter(fromTime, oldest, end);
+			long stop = firstAtOrAfter(toTime, start, end);
+
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			double sum = 0;
+			for (long i = start; i < stop; i++) {
+				double v = value((int) i & mMask);
+				if (v < min) min = v;
+				if (v > max) max = v;
+				sum += v;
+			}
+			int n = (int) (stop - start);
+			long firstTime = n > 0 ? mTimes.get((int) start & mMask) : 0;
+			long lastTime = n > 0 ? mTimes.get((int) (stop - 1) & mMask) : 0;
+
+			if (start >= oldest(mCount)) {
+				if (n == 0) return false;
+				out.count = n;
+				out.min = min;
+				out.max = max;
+				out.mean = sum / n;
+				out.firstTime = firstTime;
+				out.lastTime = lastTime;
+				return true;
+			}
+		}
+		out.clear();
+		return false;
+	}
+
+	// newest sample's timestamp, or Long.MIN_VALUE if empty
+	public long lastTime() {
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+			long end = mCount;
+			if (end == 0) return Long.MIN_VALUE;
+			long time = mTimes.get((int) (end - 1) & mMask);
+			if (end - 1 >= oldest(mCount)) return time;
+		}
+		return Long.MIN_VALUE;
+	}
+
+	/*
+	 * Index of the oldest sample that is safe to read once count samples are published.
+	 * The slot of the sample after the newest may already be in the middle of a write.
+	 */
+	private long oldest(long count) {
+		return Math.max(0, count - mTimes.length() + 1);
+	}
+
+	private double value(int index) {
+		return Double.longBitsToDouble(mValues.get(index));
+	}
+
+	// first index in [from, to) whose timestamp is >= time, to if there is none
+	private long firstAtOrAfter(long time, long from, long to) {
+		long lo = from;
+		long hi = to;
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (mTimes.get((int) mid & mMask) < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
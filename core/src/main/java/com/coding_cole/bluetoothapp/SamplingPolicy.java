@@ -0,0 +1,160 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Decides how each sensor of the tags is sampled, from what the consumers of
+ * its readings asked for.
+ *
+ * A consumer asks for a value every so often, and says whether it wants each
+ * sample as soon as it is taken (live) or is fine with the latest one whenever
+ * it gets around to it, like a log. A sensor nobody asked for is switched off,
+ * the others measure at the shortest interval asked for, as far as the sensor
+ * can go.
+ *
+ * A notification costs one packet per sample and a read costs two, so samples
+ * are notified unless every request is slower than the sensor's longest
+ * period. Then notifications are switched off and the sensor is read at the
+ * requested interval instead. The polled sensors of a tag are read on a common
+ * tick, so they go out together and the radio wakes up once for all of them.
+ *
+ * Not thread safe, used on the main thread.
+ */
+public final class SamplingPolicy {
+
+	public static final int OFF = 0;
+	public static final int POLL = 1;
+	public static final int NOTIFY = 2;
+
+	private static final String[] NAMES = {"off", "poll", "notify"};
+
+	public interface Listener {
+		// the mode, period or poll interval of a sensor changed
+		void onSamplingChanged(Sensor sensor);
+	}
+
+	/*
+	 * One consumer's interest in a sensor, until it is cancelled.
+	 */
+	public static final class Request {
+		public final Sensor sensor;
+		public final long intervalMillis;
+		public final boolean live;
+
+		Request(Sensor sensor, long intervalMillis, boolean live) {
+			this.sensor = sensor;
+			this.intervalMillis = intervalMillis;
+			this.live = live;
+		}
+	}
+
+	private final Listener mListener;
+
+	// by sensor index
+	private final List<List<Request>> mRequests = new ArrayList<List<Request>>();
+	private final int[] mModes;
+	private final long[] mPeriods;
+	private final long[] mPollIntervals;
+
+	public SamplingPolicy(Listener listener) {
+		mListener = listener;
+		int sensors = SensorRegistry.all().size();
+		for (int i = 0; i < sensors; i++) {
+			mRequests.add(new ArrayList<Request>());
+		}
+		mModes = new int[sensors];
+		mPeriods = new long[sensors];
+		mPollIntervals = new long[sensors];
+	}
+
+	public static String name(int mode) {
+		return mode >= 0 && mode < NAMES.length ? NAMES[mode] : String.valueOf(mode);
+	}
+
+	// ask for a value of the sensor every intervalMillis, until cancelled
+	public Request request(Sensor sensor, long intervalMillis, boolean live) {
+		if (intervalMillis <= 0) {
+			throw new IllegalArgumentException("Interval must be positive: " + intervalMillis);
+		}
+		Request request = new Request(sensor, intervalMillis, live);
+		mRequests.get(sensor.getIndex()).add(request);
+		update(sensor);
+		return request;
+	}
+
+	public void cancel(Request request) {
+		if (request != null && mRequests.get(request.sensor.getIndex()).remove(request)) {
+			update(request.sensor);
+		}
+	}
+
+	public int getMode(Sensor sensor) {
+		return mModes[sensor.getIndex()];
+	}
+
+	// the measurement period on the tag, 0 while the sensor is off
+	public long getPeriod(Sensor sensor) {
+		return mPeriods[sensor.getIndex()];
+	}
+
+	// how often a polled sensor is read, 0 unless it is polled
+	public long getPollInterval(Sensor sensor) {
+		return mPollIntervals[sensor.getIndex()];
+	}
+
+	// the interval of the common poll tick, 0 if nothing is polled
+	public long getPollTick() {
+		long tick = 0;
+		for (long interval : mPollIntervals) {
+			if (interval > 0 && (tick == 0 || interval < tick)) tick = interval;
+		}
+		return tick;
+	}
+
+	/*
+	 * Every how many ticks a polled sensor is read. The intervals are rounded to
+	 * whole ticks, so sensors polled at the same rate are always read together.
+	 */
+	public int getPollTicks(Sensor sensor) {
+		long tick = getPollTick();
+		long interval = getPollInterval(sensor);
+		if (tick == 0 || interval == 0) return 0;
+		return (int) Math.max(1, (interval + tick / 2) / tick);
+	}
+
+	private void update(Sensor sensor) {
+		long live = Long.MAX_VALUE;
+		long logged = Long.MAX_VALUE;
+		for (Request request : mRequests.get(sensor.getIndex())) {
+			if (request.live) {
+				live = Math.min(live, request.intervalMillis);
+			} else {
+				logged = Math.min(logged, request.intervalMillis);
+			}
+		}
+
+		int mode;
+		long period;
+		long poll = 0;
+		if (live == Long.MAX_VALUE && logged == Long.MAX_VALUE) {
+			mode = OFF;
+			period = 0;
+		} else if (live == Long.MAX_VALUE && logged > sensor.getMaxPeriod()) {
+			// nobody needs more than the sensor's slowest rate, reading is cheaper
+			mode = POLL;
+			period = sensor.getMaxPeriod();
+			poll = logged;
+		} else {
+			mode = NOTIFY;
+			period = sensor.clampPeriod(Math.min(live, logged));
+		}
+
+		int i = sensor.getIndex();
+		if (mode == mModes[i] && period == mPeriods[i] && poll == mPollIntervals[i]) return;
+		mModes[i] = mode;
+		mPeriods[i] = period;
+		mPollIntervals[i] = poll;
+		mListener.onSamplingChanged(sensor);
+	}
+}
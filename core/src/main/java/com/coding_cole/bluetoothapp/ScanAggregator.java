@@ -0,0 +1,194 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Collects the devices seen by a scan, one entry per address.
+ *
+ * Every advertisement goes through onAdvertisement(), which may be called at
+ * thousands per second from the scan callback thread. A device that was seen
+ * before costs a map lookup and an RSSI update, the filter only runs the first
+ * time an address shows up (and again after a while for devices it rejected, in
+ * case they were missing a name). The listener hears about new devices at most
+ * once per update interval, on the scheduler's thread, and not at all while the
+ * set of devices stays the same.
+ */
+public final class ScanAggregator<T> {
+
+	public static final long DEFAULT_UPDATE_INTERVAL_MS = 300;
+
+	// weight of a new RSSI sample in the running average
+	public static final double DEFAULT_RSSI_ALPHA = 0.25;
+
+	// how long a rejected address is ignored before the filter is asked again
+	static final long REJECT_RETRY_MS = 2000;
+
+	public interface Filter<T> {
+		boolean accept(T device);
+	}
+
+	public interface Listener<T> {
+		// the current devices, strongest signal first
+		void onDevicesChanged(List<Entry<T>> devices);
+	}
+
+	/*
+	 * One device of the scan. Only the scan callback thread writes to it.
+	 */
+	public static final class Entry<T> {
+		// small id, unique within this aggregator, usable as a menu item id
+		public final int id;
+		public final String address;
+		public final T device;
+		final boolean accepted;
+
+		private volatile double mRssi;
+		private volatile long mLastSeen;
+
+		Entry(int id, String address, T device, boolean accepted, int rssi, long now) {
+			this.id = id;
+			this.address = address;
+			this.device = device;
+			this.accepted = accepted;
+			mRssi = rssi;
+			mLastSeen = now;
+		}
+
+		// smoothed RSSI in dBm
+		public double getRssi() {
+			return mRssi;
+		}
+
+		public long getLastSeen() {
+			return mLastSeen;
+		}
+	}
+
+	private static final Comparator<Entry<?>> BY_RSSI = new Comparator<Entry<?>>() {
+		@Override
+		public int compare(Entry<?> a, Entry<?> b) {
+			return Double.compare(b.mRssi, a.mRssi);
+		}
+	};
+
+	private final TaskScheduler mScheduler;
+	private final Filter<T> mFilter;
+	private final Listener<T> mListener;
+	private final long mUpdateInterval;
+	private final double mAlpha;
+
+	private final ConcurrentHashMap<String, Entry<T>> mEntries = new ConcurrentHashMap<String, Entry<T>>();
+
+	// guarded by this
+	private int mNextId = 1;
+	private boolean mUpdatePending;
+	private long mLastUpdate = Long.MIN_VALUE / 2;
+
+	public ScanAggregator(TaskScheduler scheduler, Filter<T> filter, Listener<T> listener) {
+		this(scheduler, filter, listener, DEFAULT_UPDATE_INTERVAL_MS, DEFAULT_RSSI_ALPHA);
+	}
+
+	public ScanAggregator(TaskScheduler scheduler, Filter<T> filter, Listener<T> listener,
+			long updateIntervalMillis, double rssiAlpha) {
+		mScheduler = scheduler;
+		mFilter = filter;
+		mListener = listener;
+		mUpdateInterval = updateIntervalMillis;
+		mAlpha = rssiAlpha;
+	}
+
+	/*
+	 * Record one advertisement, returns true if the device is an accepted one.
+	 * now is any monotonic clock in milliseconds, the same for every call.
+	 */
+	public boolean onAdvertisement(String address, T device, int rssi, long now) {
+		Entry<T> entry = mEntries.get(address);
+		if (entry != null && (entry.accepted || now - entry.mLastSeen < REJECT_RETRY_MS)) {
+			if (entry.accepted) {
+				entry.mRssi += mAlpha * (rssi - entry.mRssi);
+				entry.mLastSeen = now;
+			}
+			return entry.accepted;
+		}
+
+		boolean accepted = mFilter.accept(device);
+		synchronized (this) {
+			mEntries.put(address, new Entry<T>(accepted ? mNextId++ : 0, address, device, accepted, rssi, now));
+			if (accepted) {
+				scheduleUpdate(now);
+			}
+		}
+		return accepted;
+	}
+
+	// the entry with this id, null if there is none
+	public Entry<T> get(int id) {
+		for (Entry<T> entry : mEntries.values()) {
+			if (entry.accepted && entry.id == id) return entry;
+		}
+		return null;
+	}
+
+	public Entry<T> get(String address) {
+		Entry<T> entry = mEntries.get(address);
+		return entry != null && entry.accepted ? entry : null;
+	}
+
+	// accepted devices, strongest signal first
+	public List<Entry<T>> getDevices() {
+		List<Entry<T>> devices = new ArrayList<Entry<T>>();
+		for (Entry<T> entry : mEntries.values()) {
+			if (entry.accepted) devices.add(entry);
+		}
+		Collections.sort(devices, BY_RSSI);
+		return devices;
+	}
+
+	/*
+	 * Drop devices not seen since olderThan, e.g. at the end of a scan. Returns
+	 * the number of accepted devices removed.
+	 */
+	public int expire(long olderThan, long now) {
+		int removed = 0;
+		for (Entry<T> entry : mEntries.values()) {
+			if (entry.mLastSeen < olderThan && mEntries.remove(entry.address, entry) && entry.accepted) {
+				removed++;
+			}
+		}
+		if (removed > 0) {
+			synchronized (this) {
+				scheduleUpdate(now);
+			}
+		}
+		return removed;
+	}
+
+	public void clear(long now) {
+		mEntries.clear();
+		synchronized (this) {
+			scheduleUpdate(now);
+		}
+	}
+
+	private void scheduleUpdate(long now) {
+		if (mUpdatePending) return;
+		mUpdatePending = true;
+		long delay = Math.max(0, mLastUpdate + mUpdateInterval - now);
+		mLastUpdate = now + delay;
+		mScheduler.schedule(mUpdate, delay);
+	}
+
+	private final Runnable mUpdate = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ScanAggregator.this) {
+				mUpdatePending = false;
+			}
+			mListener.onDevicesChanged(getDevices());
+		}
+	};
+}
@@ -0,0 +1,173 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Duty cycles the LE scanner in windows of scanning and idling.
+ *
+ *   burst       finding tags right now: long windows with short gaps. Falls back
+ *               to low power once a couple of windows in a row find nothing new.
+ *   low power   background discovery on a gateway: short windows, long gaps.
+ *   reconnect   looking for tags we know and lost, filtered on their addresses.
+ *
+ * After a window that found no new device the gap before the next one doubles,
+ * up to a limit per mode, and it drops back to the shortest gap as soon as a
+ * window finds something. Android 7 and later block an app that starts more
+ * than five scans in 30 seconds, so no mode starts a window more often than
+ * every six seconds.
+ *
+ * All methods except onNewDevice() are called on the scheduler's thread.
+ */
+public final class ScanScheduler {
+
+	public static final int MODE_OFF = 0;
+	public static final int MODE_BURST = 1;
+	public static final int MODE_LOW_POWER = 2;
+	public static final int MODE_RECONNECT = 3;
+
+	// per mode: scan window, shortest and longest gap between windows
+	private static final long[] SCAN_MS = {0, 6000, 2000, 4000};
+	private static final long[] MIN_IDLE_MS = {0, 1500, 15000, 3000};
+	private static final long[] MAX_IDLE_MS = {0, 1500, 5 * 60 * 1000, 60 * 1000};
+
+	// empty burst windows before giving up on finding more tags quickly
+	static final int BURST_QUIET_WINDOWS = 2;
+
+	public interface Scanner {
+		// addresses is empty unless reconnecting, then only those devices are reported
+		void startScan(int mode, Collection<String> addresses);
+
+		void stopScan();
+	}
+
+	public interface Listener {
+		void onScanStateChanged(int mode, boolean scanning);
+	}
+
+	private final TaskScheduler mScheduler;
+	private final Scanner mScanner;
+	private final Listener mListener;
+
+	private int mMode = MODE_OFF;
+	private boolean mScanning;
+	private long mIdle;
+	private int mQuietWindows;
+	private int mNewDevices;
+	private Object mPending;
+	private List<String> mAddresses = Collections.emptyList();
+
+	public ScanScheduler(TaskScheduler scheduler, Scanner scanner, Listener listener) {
+		mScheduler = scheduler;
+		mScanner = scanner;
+		mListener = listener;
+	}
+
+	public synchronized void setMode(int mode) {
+		if (mode == MODE_RECONNECT) {
+			throw new IllegalArgumentException("Use hunt() to reconnect");
+		}
+		switchTo(mode, Collections.<String>emptyList());
+	}
+
+	// scan only for these tags until the mode is changed again
+	public synchronized void hunt(Collection<String> addresses) {
+		if (addresses.isEmpty()) {
+			switchTo(MODE_OFF, Collections.<String>emptyList());
+		} else {
+			switchTo(MODE_RECONNECT, new ArrayList<String>(addresses));
+		}
+	}
+
+	public void stop() {
+		setMode(MODE_OFF);
+	}
+
+	public synchronized int getMode() {
+		return mMode;
+	}
+
+	public synchronized boolean isScanning() {
+		return mScanning;
+	}
+
+	// the gap before the next window
+	public synchronized long getIdleMillis() {
+		return mIdle;
+	}
+
+	// a device we didn't know showed up, may be called from the scan callback thread
+	public synchronized void onNewDevice() {
+		mNewDevices++;
+	}
+
+	private void switchTo(int mode, List<String> addresses) {
+		if (mPending != null) {
+			mScheduler.cancel(mPending);
+			mPending = null;
+		}
+		if (mScanning) {
+			mScanner.stopScan();
+			mScanning = false;
+		}
+		mMode = mode;
+		mAddresses = addresses;
+		mIdle = MIN_IDLE_MS[mode];
+		mQuietWindows = 0;
+		if (mode != MODE_OFF) {
+			startWindow();
+		} else {
+			mListener.onScanStateChanged(mMode, false);
+		}
+	}
+
+	private void startWindow() {
+		mNewDevices = 0;
+		mScanning = true;
+		mScanner.startScan(mMode, mAddresses);
+		mListener.onScanStateChanged(mMode, true);
+		mPending = mScheduler.schedule(mEndWindow, SCAN_MS[mMode]);
+	}
+
+	private void endWindow() {
+		mScanner.stopScan();
+		mScanning = false;
+
+		if (mNewDevices > 0) {
+			mIdle = MIN_IDLE_MS[mMode];
+			mQuietWindows = 0;
+		} else {
+			mIdle = Math.min(mIdle * 2, MAX_IDLE_MS[mMode]);
+			mQuietWindows++;
+		}
+
+		if (mMode == MODE_BURST && mQuietWindows >= BURST_QUIET_WINDOWS) {
+			switchTo(MODE_LOW_POWER, Collections.<String>emptyList());
+			return;
+		}
+		mListener.onScanStateChanged(mMode, false);
+		mPending = mScheduler.schedule(mStartWindow, mIdle);
+	}
+
+	private final Runnable mEndWindow = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ScanScheduler.this) {
+				mPending = null;
+				endWindow();
+			}
+		}
+	};
+
+	private final Runnable mStartWindow = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ScanScheduler.this) {
+				mPending = null;
+				startWindow();
+			}
+		}
+	};
+}
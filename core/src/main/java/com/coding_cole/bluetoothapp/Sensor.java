@@ -0,0 +1,186 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.UUID;
+
+/*
+ * Everything needed to run one of the tag's sensors: where it lives in the
+ * GATT table, how to switch it on and how to decode what it sends. The
+ * instances are in the SensorRegistry.
+ */
+public final class Sensor {
+
+	/*
+	 * Turns the sensor's frames into values. Decoders are shared by every tag
+	 * and thread, so whatever a tag needs to keep goes in its calibration.
+	 */
+	public abstract static class Decoder {
+		// parse a calibration frame, only called for sensors that have one
+		public Object calibrate(byte[] value) {
+			return null;
+		}
+
+		// write the values of a data frame into out, indexed by Channel
+		public abstract void decode(byte[] value, Object calibration, double[] out);
+	}
+
+	// the usual config value to start measuring
+	static final byte[] ENABLE = {0x01};
+	static final byte[] DISABLE = {0x00};
+
+	// the period characteristic counts in 10 ms steps, in a single byte
+	public static final long PERIOD_UNIT_MS = 10;
+	public static final long MAX_PERIOD_MS = 255 * PERIOD_UNIT_MS;
+	public static final long DEFAULT_MIN_PERIOD_MS = 100;
+
+	private final String mName;
+	private final UUID mService;
+	private final UUID mData;
+	private final UUID mConfig;
+	private final UUID mPeriod;
+	private final byte[] mEnable;
+	private final int mDataLength;
+	private final int[] mChannels;
+	private final Decoder mDecoder;
+
+	private long mMinPeriod = DEFAULT_MIN_PERIOD_MS;
+
+	private UUID mCalibration;
+	private byte[] mCalibrationMode;
+	private int mCalibrationLength;
+
+	// assigned by the registry
+	int index;
+	int dataKind;
+	int calibrationKind;
+
+	Sensor(String name, UUID service, UUID data, UUID config, UUID period, byte[] enable,
+			int dataLength, int[] channels, Decoder decoder) {
+		mName = name;
+		mService = service;
+		mData = data;
+		mConfig = config;
+		mPeriod = period;
+		mEnable = enable;
+		mDataLength = dataLength;
+		mChannels = channels;
+		mDecoder = decoder;
+	}
+
+	/*
+	 * Data frames can't be decoded without the calibration, which is read from
+	 * characteristic after writing mode to the config characteristic.
+	 */
+	Sensor setCalibration(UUID characteristic, byte[] mode, int length) {
+		mCalibration = characteristic;
+		mCalibrationMode = mode;
+		mCalibrationLength = length;
+		return this;
+	}
+
+	// some sensors can't measure as fast as others
+	Sensor setMinPeriod(long millis) {
+		mMinPeriod = millis;
+		return this;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public UUID getService() {
+		return mService;
+	}
+
+	public UUID getData() {
+		return mData;
+	}
+
+	public UUID getConfig() {
+		return mConfig;
+	}
+
+	public UUID getPeriod() {
+		return mPeriod;
+	}
+
+	// the config value that starts the sensor, do not modify
+	public byte[] getEnable() {
+		return mEnable;
+	}
+
+	// the config value that stops the sensor, do not modify
+	public byte[] getDisable() {
+		return DISABLE;
+	}
+
+	// the measurement periods the sensor supports
+	public long getMinPeriod() {
+		return mMinPeriod;
+	}
+
+	public long getMaxPeriod() {
+		return MAX_PERIOD_MS;
+	}
+
+	// the supported period closest to millis
+	public long clampPeriod(long millis) {
+		long period = Math.max(mMinPeriod, Math.min(MAX_PERIOD_MS, millis));
+		return period / PERIOD_UNIT_MS * PERIOD_UNIT_MS;
+	}
+
+	// the value of the period characteristic for a period
+	public byte[] encodePeriod(long millis) {
+		return new byte[]{(byte) (clampPeriod(millis) / PERIOD_UNIT_MS)};
+	}
+
+	// the shortest data frame that can be decoded
+	public int getDataLength() {
+		return mDataLength;
+	}
+
+	public UUID getCalibration() {
+		return mCalibration;
+	}
+
+	// the config value that makes the calibration readable, do not modify
+	public byte[] getCalibrationMode() {
+		return mCalibrationMode;
+	}
+
+	public int getCalibrationLength() {
+		return mCalibrationLength;
+	}
+
+	public boolean needsCalibration() {
+		return mCalibration != null;
+	}
+
+	// the channels a data frame updates, do not modify
+	public int[] getChannels() {
+		return mChannels;
+	}
+
+	public Decoder getDecoder() {
+		return mDecoder;
+	}
+
+	// position in SensorRegistry.all()
+	public int getIndex() {
+		return index;
+	}
+
+	// the frame kind of the data characteristic
+	public int getDataKind() {
+		return dataKind;
+	}
+
+	// the frame kind of the calibration characteristic, 0 if there is none
+	public int getCalibrationKind() {
+		return calibrationKind;
+	}
+
+	@Override
+	public String toString() {
+		return mName;
+	}
+}
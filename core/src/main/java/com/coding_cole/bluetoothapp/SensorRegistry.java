@@ -0,0 +1,141 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.coding_cole.bluetoothapp.SensorTagGatt.*;
+
+/*
+ * The SensorTag sensors we know how to run.
+ *
+ * Every characteristic that carries frames gets a kind, a small int that
+ * stands for it in queues and decoders. A sensor is added by adding it here,
+ * the connection setup and decoding work from the descriptors.
+ */
+public final class SensorRegistry {
+
+	public static final Sensor HUMIDITY = new Sensor("humidity",
+			HUMIDITY_SERVICE, HUMIDITY_DATA_CHAR, HUMIDITY_CONFIG_CHAR, HUMIDITY_PERIOD_CHAR,
+			Sensor.ENABLE, 4, new int[]{Channel.HUMIDITY}, new Sensor.Decoder() {
+				@Override
+				public void decode(byte[] value, Object calibration, double[] out) {
+					out[Channel.HUMIDITY] = SensorTagData.extractHumidity(value, 0);
+				}
+			});
+
+	public static final Sensor BAROMETER = new Sensor("barometer",
+			PRESSURE_SERVICE, PRESSURE_DATA_CHAR, PRESSURE_CONFIG_CHAR, PRESSURE_PERIOD_CHAR,
+			Sensor.ENABLE, 4, new int[]{Channel.TEMPERATURE, Channel.PRESSURE}, new Sensor.Decoder() {
+				@Override
+				public Object calibrate(byte[] value) {
+					return CalibratedBarometer.fromCalibration(value, 0);
+				}
+
+				@Override
+				public void decode(byte[] value, Object calibration, double[] out) {
+					CalibratedBarometer barometer = (CalibratedBarometer) calibration;
+					int t_r = SensorTagData.shortSignedAtOffset(value, 0);
+					out[Channel.TEMPERATURE] = barometer.temperature(t_r);
+					out[Channel.PRESSURE] = barometer.pressure(t_r, SensorTagData.shortUnsignedAtOffset(value, 2));
+				}
+			}).setCalibration(PRESSURE_CAL_CHAR, new byte[]{0x02}, 16);
+
+	public static final Sensor IR_TEMPERATURE = new Sensor("ir temperature",
+			IR_TEMPERATURE_SERVICE, IR_TEMPERATURE_DATA_CHAR, IR_TEMPERATURE_CONFIG_CHAR, IR_TEMPERATURE_PERIOD_CHAR,
+			Sensor.ENABLE, 4, new int[]{Channel.IR_OBJECT, Channel.IR_AMBIENT}, new Sensor.Decoder() {
+				@Override
+				public void decode(byte[] value, Object calibration, double[] out) {
+					double ambient = SensorTagData.extractIrAmbientTemp(value, 0);
+					out[Channel.IR_AMBIENT] = ambient;
+					out[Channel.IR_OBJECT] = SensorTagData.extractIrObjectTemp(value, 0, ambient);
+				}
+			}).setMinPeriod(300);
+
+	public static final Sensor ACCELEROMETER = new Sensor("accelerometer",
+			ACCELEROMETER_SERVICE, ACCELEROMETER_DATA_CHAR, ACCELEROMETER_CONFIG_CHAR, ACCELEROMETER_PERIOD_CHAR,
+			Sensor.ENABLE, 3, new int[]{Channel.ACCEL_X, Channel.ACCEL_Y, Channel.ACCEL_Z}, new Sensor.Decoder() {
+				@Override
+				public void decode(byte[] value, Object calibration, double[] out) {
+					SensorTagData.extractAccelerometer(value, 0, out, Channel.ACCEL_X);
+				}
+			});
+
+	public static final Sensor MAGNETOMETER = new Sensor("magnetometer",
+			MAGNETOMETER_SERVICE, MAGNETOMETER_DATA_CHAR, MAGNETOMETER_CONFIG_CHAR, MAGNETOMETER_PERIOD_CHAR,
+			Sensor.ENABLE, 6, new int[]{Channel.MAG_X, Channel.MAG_Y, Channel.MAG_Z}, new Sensor.Decoder() {
+				@Override
+				public void decode(byte[] value, Object calibration, double[] out) {
+					SensorTagData.extractMagnetometer(value, 0, out, Channel.MAG_X);
+				}
+			});
+
+	// the config value is a bit mask of the axes to run
+	public static final Sensor GYROSCOPE = new Sensor("gyroscope",
+			GYROSCOPE_SERVICE, GYROSCOPE_DATA_CHAR, GYROSCOPE_CONFIG_CHAR, GYROSCOPE_PERIOD_CHAR,
+			new byte[]{0x07}, 6, new int[]{Channel.GYRO_X, Channel.GYRO_Y, Channel.GYRO_Z}, new Sensor.Decoder() {
+				@Override
+				public void decode(byte[] value, Object calibration, double[] out) {
+					SensorTagData.extractGyroscope(value, 0, out, Channel.GYRO_X);
+				}
+			});
+
+	private static final List<Sensor> SENSORS = Collections.unmodifiableList(Arrays.asList(
+			HUMIDITY, BAROMETER, IR_TEMPERATURE, ACCELEROMETER, MAGNETOMETER, GYROSCOPE));
+
+	// sensor of each kind, kinds start at 1
+	private static final Sensor[] BY_KIND;
+	private static final Map<UUID, Integer> KINDS = new HashMap<UUID, Integer>();
+
+	static {
+		List<Sensor> byKind = new ArrayList<Sensor>();
+		byKind.add(null);
+		for (int i = 0; i < SENSORS.size(); i++) {
+			Sensor sensor = SENSORS.get(i);
+			sensor.index = i;
+			sensor.dataKind = byKind.size();
+			byKind.add(sensor);
+			KINDS.put(sensor.getData(), sensor.dataKind);
+			if (sensor.needsCalibration()) {
+				sensor.calibrationKind = byKind.size();
+				byKind.add(sensor);
+				KINDS.put(sensor.getCalibration(), sensor.calibrationKind);
+			}
+		}
+		BY_KIND = byKind.toArray(new Sensor[byKind.size()]);
+	}
+
+	private SensorRegistry() {
+	}
+
+	public static List<Sensor> all() {
+		return SENSORS;
+	}
+
+	// the kind of a characteristic's frames, 0 if it isn't decoded
+	public static int kindOf(UUID characteristic) {
+		Integer kind = KINDS.get(characteristic);
+		return kind != null ? kind : 0;
+	}
+
+	// the sensor a kind of frame belongs to, null for an unknown kind
+	public static Sensor sensorOf(int kind) {
+		return kind > 0 && kind < BY_KIND.length ? BY_KIND[kind] : null;
+	}
+
+	public static boolean isCalibration(int kind) {
+		Sensor sensor = sensorOf(kind);
+		return sensor != null && sensor.calibrationKind == kind;
+	}
+
+	// the shortest frame of a kind that can be decoded
+	public static int minLength(int kind) {
+		Sensor sensor = sensorOf(kind);
+		if (sensor == null) return Integer.MAX_VALUE;
+		return sensor.calibrationKind == kind ? sensor.getCalibrationLength() : sensor.getDataLength();
+	}
+}
@@ -0,0 +1,198 @@
+package com.coding_cole.bluetoothapp;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Decoding of the raw SensorTag characteristic payloads.
+ *
+ * Everything here works directly on the notification bytes and never allocates,
+ * so it can be called for every sample. There are no Android dependencies, the
+ * app passes BluetoothGattCharacteristic.getValue() in.
+ */
+public class SensorTagData {
+
+	public static double extractHumAmbientTemp(byte[] value, int offset) {
+		int rawT = shortSignedAtOffset(value, offset);
+
+		return humAmbientTemp(rawT);
+	}
+
+	public static double extractHumAmbientTemp(ByteBuffer value, int offset) {
+		int rawT = shortSignedAtOffset(value, offset);
+
+		return humAmbientTemp(rawT);
+	}
+
+	public static double extractHumidity(byte[] value, int offset) {
+		return humidity(shortSignedAtOffset(value, offset + 2));
+	}
+
+	public static double extractHumidity(ByteBuffer value, int offset) {
+		return humidity(shortSignedAtOffset(value, offset + 2));
+	}
+
+	/*
+	 * Fills the caller's array with the eight calibration coefficients, the first
+	 * four are unsigned and the last four signed.
+	 */
+	public static void extractCalibrationCoefficients(byte[] value, int offset, int[] coefficient) {
+		coefficient[0] = shortUnsignedAtOffset(value, offset);
+		coefficient[1] = shortUnsignedAtOffset(value, offset + 2);
+		coefficient[2] = shortUnsignedAtOffset(value, offset + 4);
+		coefficient[3] = shortUnsignedAtOffset(value, offset + 6);
+		coefficient[4] = shortSignedAtOffset(value, offset + 8);
+		coefficient[5] = shortSignedAtOffset(value, offset + 10);
+		coefficient[6] = shortSignedAtOffset(value, offset + 12);
+		coefficient[7] = shortSignedAtOffset(value, offset + 14);
+	}
+
+	public static void extractCalibrationCoefficients(ByteBuffer value, int offset, int[] coefficient) {
+		coefficient[0] = shortUnsignedAtOffset(value, offset);
+		coefficient[1] = shortUnsignedAtOffset(value, offset + 2);
+		coefficient[2] = shortUnsignedAtOffset(value, offset + 4);
+		coefficient[3] = shortUnsignedAtOffset(value, offset + 6);
+		coefficient[4] = shortSignedAtOffset(value, offset + 8);
+		coefficient[5] = shortSignedAtOffset(value, offset + 10);
+		coefficient[6] = shortSignedAtOffset(value, offset + 12);
+		coefficient[7] = shortSignedAtOffset(value, offset + 14);
+	}
+
+	public static double extractBarTemp(byte[] value, int offset, final int[] c) {
+		return barTemp(shortSignedAtOffset(value, offset), c);
+	}
+
+	public static double extractBarTemp(ByteBuffer value, int offset, final int[] c) {
+		return barTemp(shortSignedAtOffset(value, offset), c);
+	}
+
+	public static double extractBarometer(byte[] value, int offset, final int[] c) {
+		return barometer(shortSignedAtOffset(value, offset), shortUnsignedAtOffset(value, offset + 2), c);
+	}
+
+	public static double extractBarometer(ByteBuffer value, int offset, final int[] c) {
+		return barometer(shortSignedAtOffset(value, offset), shortUnsignedAtOffset(value, offset + 2), c);
+	}
+
+	public static double extractIrAmbientTemp(byte[] value, int offset) {
+		return shortUnsignedAtOffset(value, offset + 2) / 128.0;
+	}
+
+	public static double extractIrObjectTemp(byte[] value, int offset, double ambient) {
+		return irObjectTemp(shortSignedAtOffset(value, offset), ambient);
+	}
+
+	/*
+	 * The motion sensors fill x, y and z into out from index at on. The axes are
+	 * turned to match the tag's printed orientation, like TI's own app does.
+	 */
+	public static void extractAccelerometer(byte[] value, int offset, double[] out, int at) {
+		// signed bytes, 1/64 g each in the 2 g range
+		out[at] = value[offset] / 64.0;
+		out[at + 1] = value[offset + 1] / 64.0;
+		out[at + 2] = -value[offset + 2] / 64.0;
+	}
+
+	public static void extractMagnetometer(byte[] value, int offset, double[] out, int at) {
+		// micro Tesla
+		out[at] = -shortSignedAtOffset(value, offset) * (2000.0 / 65536);
+		out[at + 1] = -shortSignedAtOffset(value, offset + 2) * (2000.0 / 65536);
+		out[at + 2] = shortSignedAtOffset(value, offset + 4) * (2000.0 / 65536);
+	}
+
+	public static void extractGyroscope(byte[] value, int offset, double[] out, int at) {
+		// degrees per second, the first value is the y axis
+		out[at] = shortSignedAtOffset(value, offset + 2) * (500.0 / 65536);
+		out[at + 1] = -shortSignedAtOffset(value, offset) * (500.0 / 65536);
+		out[at + 2] = shortSignedAtOffset(value, offset + 4) * (500.0 / 65536);
+	}
+
+	static double humAmbientTemp(int rawT) {
+		return -46.85 + 175.72/65536 *(double)rawT;
+	}
+
+	static double humidity(int a) {
+		// bit (1..0) are status bts and need to be cleared
+		a = a - (a % 40);
+
+		return ((-6f) + 125f * (a / 65535f));
+	}
+
+	static double barTemp(int t_r, final int[] c) {
+		// c holds the calibration coefficients
+
+		double t_a;
+
+		t_a = (100 * (c[0] * t_r / Math.pow(2,8) + c[1] * Math.pow(2,6))) / Math.pow(2,16);
+
+		return t_a / 100;
+	}
+
+	static double barometer(int t_r, int p_r, final int[] c) {
+		// c holds the calibration coefficients
+		// t_r: Temperature raw value from sensor
+		// p_r: Pressure raw value from sensor
+
+		double S;	// Interim value in calculation
+		double O;	// Interim value in calculation
+		double p_a; 	// Pressure actual value in unit Pascal.
+
+		S = c[2] + c[3] * t_r / Math.pow(2,17) + ((c[4] * t_r / Math.pow(2,15)) * t_r) / Math.pow(2,19);
+		O = c[5] * Math.pow(2,14) + c[6] * t_r / Math.pow(2,3) + ((c[7] * t_r / Math.pow(2,15)) * t_r) / Math.pow(2,4);
+		p_a = (S * p_r + O) / Math.pow(2,14);
+
+		//Convert pascal to in. Hg
+		double p_hg = p_a * 0.000296;
+
+		return p_hg;
+	}
+
+	static double irObjectTemp(int rawObject, double ambient) {
+		// the TMP006 thermopile model from the datasheet
+		double Tdie = ambient + 273.15;
+		double Vobj2 = rawObject * 0.00000015625;
+
+		double S0 = 5.593E-14;
+		double a1 = 1.75E-3;
+		double a2 = -1.678E-5;
+		double b0 = -2.94E-5;
+		double b1 = -5.7E-7;
+		double b2 = 4.63E-9;
+		double c2 = 13.4;
+		double Tref = 298.15;
+
+		double S = S0 * (1 + a1 * (Tdie - Tref) + a2 * Math.pow((Tdie - Tref), 2));
+		double Vos = b0 + b1 * (Tdie - Tref) + b2 * Math.pow((Tdie - Tref), 2);
+		double fObj = (Vobj2 - Vos) + c2 * Math.pow((Vobj2 - Vos), 2);
+		double tObj = Math.pow(Math.pow(Tdie, 4) + (fObj / S), .25);
+
+		return tObj - 273.15;
+	}
+
+	public static int shortSignedAtOffset(byte[] value, int offset) {
+		int lowerByte = value[offset] & 0xFF;
+		int upperByte = value[offset + 1]; // Note: interpret MSB as signed.
+
+		return (upperByte << 8) + lowerByte;
+	}
+
+	public static int shortUnsignedAtOffset(byte[] value, int offset) {
+		int lowerByte = value[offset] & 0xFF;
+		int upperByte = value[offset + 1] & 0xFF; // Note: interpret MSB as unsigned.
+
+		return (upperByte << 8) + lowerByte;
+	}
+
+	public static int shortSignedAtOffset(ByteBuffer value, int offset) {
+		int lowerByte = value.get(offset) & 0xFF;
+		int upperByte = value.get(offset + 1); // Note: interpret MSB as signed.
+
+		return (upperByte << 8) + lowerByte;
+	}
+
+	public static int shortUnsignedAtOffset(ByteBuffer value, int offset) {
+		int lowerByte = value.get(offset) & 0xFF;
+		int upperByte = value.get(offset + 1) & 0xFF; // Note: interpret MSB as unsigned.
+
+		return (upperByte << 8) + lowerByte;
+	}
+}
@@ -0,0 +1,50 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.UUID;
+
+/*
+ * GATT layout of the SensorTag services. What each sensor needs from them is
+ * described in the SensorRegistry.
+ */
+public final class SensorTagGatt {
+
+	// IR temperature service
+	public static final UUID IR_TEMPERATURE_SERVICE = UUID.fromString("f000aa00-0451-4000-b000-000000000");
+	public static final UUID IR_TEMPERATURE_DATA_CHAR = UUID.fromString("f000aa01-0451-4000-b000-000000000");
+	public static final UUID IR_TEMPERATURE_CONFIG_CHAR = UUID.fromString("f000aa02-0451-4000-b000-000000000");
+	public static final UUID IR_TEMPERATURE_PERIOD_CHAR = UUID.fromString("f000aa03-0451-4000-b000-000000000");
+
+	// Accelerometer service
+	public static final UUID ACCELEROMETER_SERVICE = UUID.fromString("f000aa10-0451-4000-b000-000000000");
+	public static final UUID ACCELEROMETER_DATA_CHAR = UUID.fromString("f000aa11-0451-4000-b000-000000000");
+	public static final UUID ACCELEROMETER_CONFIG_CHAR = UUID.fromString("f000aa12-0451-4000-b000-000000000");
+	public static final UUID ACCELEROMETER_PERIOD_CHAR = UUID.fromString("f000aa13-0451-4000-b000-000000000");
+
+	// Humidity service
+	public static final UUID HUMIDITY_SERVICE = UUID.fromString("f000aa20-0451-4000-b000-000000000");
+	public static final UUID HUMIDITY_DATA_CHAR = UUID.fromString("f000aa21-0451-4000-b000-000000000");
+	public static final UUID HUMIDITY_CONFIG_CHAR = UUID.fromString("f000aa22-0451-4000-b000-000000000");
+	public static final UUID HUMIDITY_PERIOD_CHAR = UUID.fromString("f000aa23-0451-4000-b000-000000000");
+
+	// Magnetometer service
+	public static final UUID MAGNETOMETER_SERVICE = UUID.fromString("f000aa30-0451-4000-b000-000000000");
+	public static final UUID MAGNETOMETER_DATA_CHAR = UUID.fromString("f000aa31-0451-4000-b000-000000000");
+	public static final UUID MAGNETOMETER_CONFIG_CHAR = UUID.fromString("f000aa32-0451-4000-b000-000000000");
+	public static final UUID MAGNETOMETER_PERIOD_CHAR = UUID.fromString("f000aa33-0451-4000-b000-000000000");
+
+	// Barometric pressure service
+	public static final UUID PRESSURE_SERVICE = UUID.fromString("f000aa40-0451-4000-b000-000000000");
+	public static final UUID PRESSURE_DATA_CHAR = UUID.fromString("f000aa41-0451-4000-b000-000000000");
+	public static final UUID PRESSURE_CONFIG_CHAR = UUID.fromString("f000aa42-0451-4000-b000-000000000");
+	public static final UUID PRESSURE_CAL_CHAR = UUID.fromString("f000aa43-0451-4000-b000-000000000");
+	public static final UUID PRESSURE_PERIOD_CHAR = UUID.fromString("f000aa44-0451-4000-b000-000000000");
+
+	// Gyroscope service
+	public static final UUID GYROSCOPE_SERVICE = UUID.fromString("f000aa50-0451-4000-b000-000000000");
+	public static final UUID GYROSCOPE_DATA_CHAR = UUID.fromString("f000aa51-0451-4000-b000-000000000");
+	public static final UUID GYROSCOPE_CONFIG_CHAR = UUID.fromString("f000aa52-0451-4000-b000-000000000");
+	public static final UUID GYROSCOPE_PERIOD_CHAR = UUID.fromString("f000aa53-0451-4000-b000-000000000");
+
+	private SensorTagGatt() {
+	}
+}
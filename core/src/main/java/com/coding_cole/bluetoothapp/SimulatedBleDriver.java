@@ -0,0 +1,131 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * A BleDriver over SimulatedSensorTags instead of a radio.
+ *
+ * While scanning, every tag that isn't connected advertises once per advertising
+ * interval, with its own phase so a room full of them doesn't report in lockstep.
+ * Connecting to an address no tag has fails the way a device out of range does.
+ *
+ * Runs on the scheduler's thread, like the tags. With a ManualScheduler, a test
+ * can bring up hundreds of tags and sessions and drive them through hours of
+ * streaming in milliseconds.
+ */
+public final class SimulatedBleDriver implements BleDriver {
+
+	public static final long DEFAULT_ADVERTISING_INTERVAL_MS = 100;
+
+	private final TaskScheduler mScheduler;
+	private final Map<String, SimulatedSensorTag> mTags = new LinkedHashMap<String, SimulatedSensorTag>();
+	private long mSeed;
+	private long mAdvertisingInterval = DEFAULT_ADVERTISING_INTERVAL_MS;
+
+	private ScanCallback mScanCallback;
+	private boolean mScanning;
+	private Set<String> mFilter = Collections.emptySet();
+	// the pending advertisement of each tag
+	private final Map<String, Object> mAdvertisers = new HashMap<String, Object>();
+
+	public SimulatedBleDriver(TaskScheduler scheduler, long seed) {
+		mScheduler = scheduler;
+		mSeed = seed;
+	}
+
+	public SimulatedBleDriver setAdvertisingInterval(long millis) {
+		mAdvertisingInterval = millis;
+		return this;
+	}
+
+	// a new tag in range, with the default behaviour until it's configured
+	public SimulatedSensorTag addTag(String address) {
+		SimulatedSensorTag tag = new SimulatedSensorTag(address, mScheduler, mSeed++);
+		mTags.put(address, tag);
+		if (mScanning) advertise(tag, mTags.size() - 1);
+		return tag;
+	}
+
+	// adds count tags with made up addresses
+	public List<SimulatedSensorTag> addTags(int count) {
+		List<SimulatedSensorTag> tags = new ArrayList<SimulatedSensorTag>(count);
+		for (int i = 0; i < count; i++) {
+			int n = mTags.size();
+			tags.add(addTag(String.format("5A:1D:00:%02X:%02X:%02X", (n >> 16) & 0xFF, (n >> 8) & 0xFF, n & 0xFF)));
+		}
+		return tags;
+	}
+
+	public SimulatedSensorTag getTag(String address) {
+		return mTags.get(address);
+	}
+
+	public Collection<SimulatedSensorTag> getTags() {
+		return Collections.unmodifiableCollection(mTags.values());
+	}
+
+	public boolean isScanning() {
+		return mScanning;
+	}
+
+	@Override
+	public void setScanCallback(ScanCallback callback) {
+		mScanCallback = callback;
+	}
+
+	@Override
+	public void startScan(int mode, Collection<String> addresses) {
+		stopScan();
+		mScanning = true;
+		mFilter = new HashSet<String>(addresses);
+		int i = 0;
+		for (SimulatedSensorTag tag : mTags.values()) {
+			advertise(tag, i++);
+		}
+	}
+
+	@Override
+	public void stopScan() {
+		mScanning = false;
+		for (Object handle : mAdvertisers.values()) {
+			mScheduler.cancel(handle);
+		}
+		mAdvertisers.clear();
+	}
+
+	@Override
+	public GattLink connect(String address, GattLink.Callback callback) {
+		SimulatedSensorTag tag = mTags.get(address);
+		if (tag == null) {
+			// nothing answers, the connection attempt times out
+			return new SimulatedSensorTag(address, mScheduler, 0).refuseConnections(1).connect(callback);
+		}
+		return tag.connect(callback);
+	}
+
+	private void advertise(final SimulatedSensorTag tag, int index) {
+		if (!mFilter.isEmpty() && !mFilter.contains(tag.getAddress())) return;
+
+		final Runnable advertisement = new Runnable() {
+			@Override
+			public void run() {
+				if (!mScanning) return;
+				if (!tag.isConnected() && mScanCallback != null) {
+					mScanCallback.onAdvertisement(tag.getAddress(), SimulatedSensorTag.NAME, tag.getRssi());
+				}
+				mAdvertisers.put(tag.getAddress(), mScheduler.schedule(this, mAdvertisingInterval));
+			}
+		};
+		// spread the first advertisements over one interval
+		long phase = mTags.size() > 1 ? index * mAdvertisingInterval / mTags.size() : 0;
+		mAdvertisers.put(tag.getAddress(), mScheduler.schedule(advertisement, Math.max(1, phase)));
+	}
+}
@@ -0,0 +1,510 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/*
+ * A SensorTag that only exists in memory, with the humidity and barometer services.
+ *
+ * It behaves like the firmware as far as a TagSession can tell: sensors are off
+ * until their config is written, the barometer calibration can only be read after
+ * the calibration mode was written, periods are in 10 ms units, and notifications
+ * flow at the period once the client configuration descriptor is written. Every
+ * GATT request is answered after the link latency, which is for the balanced
+ * connection priority and scales with the interval of the one asked for. Like
+ * the CC2541 firmware it keeps the default MTU unless told otherwise. The tag
+ * forgets all of it when the link drops.
+ *
+ * The values are a slow random walk around indoor conditions, encoded into raw
+ * frames the way the sensors do, so they decode to realistic readings. Frames
+ * come with jitter, and can be dropped at random, alone or in bursts. Links can
+ * be refused or dropped to exercise reconnects.
+ *
+ * Everything runs on the scheduler's thread, so with a ManualScheduler a test
+ * controls time completely. Made and found through a SimulatedBleDriver.
+ */
+public final class SimulatedSensorTag {
+
+	public static final String NAME = "SensorTag";
+
+	// coefficients read off a real tag
+	public static final byte[] DEFAULT_CALIBRATION = {
+			(byte) 0xCB, (byte) 0xB4, (byte) 0x62, (byte) 0x0C, (byte) 0xC3, (byte) 0x83, (byte) 0x71, (byte) 0x12,
+			(byte) 0x3C, (byte) 0x00, (byte) 0x06, (byte) 0xF7, (byte) 0x0B, (byte) 0xD2, (byte) 0x1E, (byte) 0xFD
+	};
+
+	public static final long DEFAULT_LATENCY_MS = 15;
+
+	// the firmware's period before one is written
+	static final long DEFAULT_PERIOD_MS = 1000;
+
+	private static final int STATUS_NOT_PERMITTED = 2;
+
+	// request latency at each connection priority, relative to balanced
+	private static final double[] PRIORITY_LATENCY = {1, 0.25, 2.5};
+
+	private static final Sensor[] SENSORS = {SensorRegistry.HUMIDITY, SensorRegistry.BAROMETER};
+
+	private final String mAddress;
+	private final TaskScheduler mScheduler;
+	private final Random mRandom;
+
+	private int mRssi = -60;
+	private long mLatency = DEFAULT_LATENCY_MS;
+	private int mMaxMtu = GattOperation.DEFAULT_MTU;
+	private long mJitter;
+	private double mDropRate;
+	private int mDropBurst = 1;
+	private int mRefuse;
+	private byte[] mCalibration = DEFAULT_CALIBRATION;
+	private CalibratedBarometer mBarometer = CalibratedBarometer.fromCalibration(DEFAULT_CALIBRATION, 0);
+
+	// what the sensors measure, in % RH, degrees C and Pa
+	private double mHumidity = 45;
+	private double mTemperature = 22;
+	private double mPressure = 101325;
+
+	// the link currently connected, null when advertising
+	private Link mLink;
+
+	// reset when the link drops
+	private int mPriority = GattLink.PRIORITY_BALANCED;
+	private int mMtu = GattOperation.DEFAULT_MTU;
+
+	// per sensor, reset when the link drops
+	private final boolean[] mEnabled = new boolean[SENSORS.length];
+	private final boolean[] mCalibrating = new boolean[SENSORS.length];
+	private final boolean[] mNotifying = new boolean[SENSORS.length];
+	private final long[] mPeriods = new long[SENSORS.length];
+	private final Object[] mTimers = new Object[SENSORS.length];
+
+	private int mDropsLeft;
+	private long mSent;
+	private long mDropped;
+
+	SimulatedSensorTag(String address, TaskScheduler scheduler, long seed) {
+		mAddress = address;
+		mScheduler = scheduler;
+		mRandom = new Random(seed);
+		reset();
+	}
+
+	public String getAddress() {
+		return mAddress;
+	}
+
+	public int getRssi() {
+		return mRssi;
+	}
+
+	public SimulatedSensorTag setRssi(int rssi) {
+		mRssi = rssi;
+		return this;
+	}
+
+	// how long every GATT request takes to be answered
+	public SimulatedSensorTag setLatency(long millis) {
+		mLatency = millis;
+		return this;
+	}
+
+	// frames come up to this early or late
+	// the largest MTU the tag agrees to
+	public SimulatedSensorTag setMaxMtu(int mtu) {
+		mMaxMtu = mtu;
+		return this;
+	}
+
+	public SimulatedSensorTag setJitter(long millis) {
+		mJitter = millis;
+		return this;
+	}
+
+	// the chance a frame is lost, and how many in a row are lost when one is
+	public SimulatedSensorTag setDrops(double rate, int burst) {
+		mDropRate = rate;
+		mDropBurst = Math.max(1, burst);
+		return this;
+	}
+
+	public SimulatedSensorTag setCalibration(byte[] calibration) {
+		mCalibration = calibration.clone();
+		mBarometer = CalibratedBarometer.fromCalibration(mCalibration, 0);
+		return this;
+	}
+
+	// where the random walk of the readings starts, in % RH, degrees C and Pa
+	public SimulatedSensorTag setEnvironment(double humidity, double temperature, double pressure) {
+		mHumidity = humidity;
+		mTemperature = temperature;
+		mPressure = pressure;
+		return this;
+	}
+
+	// refuse the next connection attempts
+	public SimulatedSensorTag refuseConnections(int count) {
+		mRefuse = count;
+		return this;
+	}
+
+	public boolean isConnected() {
+		return mLink != null;
+	}
+
+	// the link drops as if the tag went out of range
+	public void dropLink() {
+		if (mLink == null) return;
+		Link link = mLink;
+		disconnected();
+		link.mCallback.onDisconnected(true);
+	}
+
+	// notifications sent and lost, over all links
+	public long getSent() {
+		return mSent;
+	}
+
+	public long getDropped() {
+		return mDropped;
+	}
+
+	// the period the sensor runs at, or 0 while it is off
+	public long getPeriod(Sensor sensor) {
+		int i = indexOf(sensor);
+		return i >= 0 && mEnabled[i] ? mPeriods[i] : 0;
+	}
+
+	// the connection priority of the current link
+	public int getPriority() {
+		return mPriority;
+	}
+
+	public int getMtu() {
+		return mMtu;
+	}
+
+	// running, or in calibration mode, either way drawing current
+	public boolean isPowered(Sensor sensor) {
+		int i = indexOf(sensor);
+		return i >= 0 && (mEnabled[i] || mCalibrating[i]);
+	}
+
+	public boolean isNotifying(Sensor sensor) {
+		int i = indexOf(sensor);
+		return i >= 0 && mNotifying[i];
+	}
+
+	/*
+	 * The raw frames the sensors would send right now.
+	 */
+	byte[] humidityFrame() {
+		int rawT = (int) Math.round((mTemperature + 46.85) * 65536 / 175.72);
+		// the two low bits are status bits
+		int rawH = (int) Math.round((mHumidity + 6) * 65535 / 125) & ~3;
+		return new byte[]{(byte) rawT, (byte) (rawT >> 8), (byte) rawH, (byte) (rawH >> 8)};
+	}
+
+	byte[] barometerFrame() {
+		// both conversions are linear in the raw values, so they invert exactly
+		double t0 = mBarometer.temperature(0);
+		int rawT = (int) Math.round((mTemperature - t0) / (mBarometer.temperature(1) - t0));
+		double p0 = mBarometer.pressure(rawT, 0);
+		double target = mPressure * CalibratedBarometer.PASCAL_TO_HG;
+		int rawP = (int) Math.round((target - p0) / (mBarometer.pressure(rawT, 1) - p0));
+		rawP = Math.max(0, Math.min(0xFFFF, rawP));
+		return new byte[]{(byte) rawT, (byte) (rawT >> 8), (byte) rawP, (byte) (rawP >> 8)};
+	}
+
+	// a connection attempt from the driver
+	GattLink connect(GattLink.Callback callback) {
+		Link link = new Link(callback);
+		open(link);
+		return link;
+	}
+
+	private void open(final Link link) {
+		mScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (mRefuse > 0 || (mLink != null && mLink != link)) {
+					// out of reach, or somebody else has it
+					if (mRefuse > 0) mRefuse--;
+					link.mCallback.onDisconnected(true);
+					return;
+				}
+				mLink = link;
+				link.mConnected = true;
+				link.mCallback.onConnected(link.mDiscovered);
+			}
+		}, mLatency);
+	}
+
+	private void disconnected() {
+		if (mLink != null) mLink.mConnected = false;
+		mLink = null;
+		reset();
+	}
+
+	private void reset() {
+		mPriority = GattLink.PRIORITY_BALANCED;
+		mMtu = GattOperation.DEFAULT_MTU;
+		for (int i = 0; i < SENSORS.length; i++) {
+			mEnabled[i] = false;
+			mCalibrating[i] = false;
+			mNotifying[i] = false;
+			mPeriods[i] = DEFAULT_PERIOD_MS;
+			if (mTimers[i] != null) {
+				mScheduler.cancel(mTimers[i]);
+				mTimers[i] = null;
+			}
+		}
+	}
+
+	private static int indexOf(Sensor sensor) {
+		for (int i = 0; i < SENSORS.length; i++) {
+			if (SENSORS[i] == sensor) return i;
+		}
+		return -1;
+	}
+
+	private static int sensorOf(UUID characteristic) {
+		for (int i = 0; i < SENSORS.length; i++) {
+			Sensor s = SENSORS[i];
+			if (characteristic.equals(s.getData()) || characteristic.equals(s.getConfig())
+					|| characteristic.equals(s.getPeriod()) || characteristic.equals(s.getCalibration())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private byte[] frame(int sensor) {
+		return SENSORS[sensor] == SensorRegistry.HUMIDITY ? humidityFrame() : barometerFrame();
+	}
+
+	// the weather moves a little between frames
+	private void drift() {
+		mHumidity = Math.max(20, Math.min(55, mHumidity + mRandom.nextGaussian() * 0.02));
+		mTemperature = Math.max(10, Math.min(35, mTemperature + mRandom.nextGaussian() * 0.005));
+		mPressure = Math.max(95000, Math.min(105000, mPressure + mRandom.nextGaussian() * 0.5));
+	}
+
+	private void updateNotifications(int i) {
+		if (mTimers[i] != null) {
+			mScheduler.cancel(mTimers[i]);
+			mTimers[i] = null;
+		}
+		if (mEnabled[i] && mNotifying[i]) {
+			scheduleFrame(i);
+		}
+	}
+
+	private void scheduleFrame(final int i) {
+		long delay = mPeriods[i];
+		if (mJitter > 0) {
+			delay += (long) ((mRandom.nextDouble() * 2 - 1) * mJitter);
+		}
+		mTimers[i] = mScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				mTimers[i] = null;
+				Link link = mLink;
+				if (link == null) return;
+				drift();
+				if (mDropsLeft == 0 && mDropRate > 0 && mRandom.nextDouble() < mDropRate) {
+					mDropsLeft = mDropBurst;
+				}
+				if (mDropsLeft > 0) {
+					mDropsLeft--;
+					mDropped++;
+				} else if (link.mLocalNotify[i]) {
+					mSent++;
+					link.mCallback.onCharacteristicChanged(SENSORS[i].getData(), frame(i));
+				}
+				scheduleFrame(i);
+			}
+		}, Math.max(1, delay));
+	}
+
+	/*
+	 * The central's end of a connection.
+	 */
+	private final class Link implements GattLink {
+		final GattLink.Callback mCallback;
+		boolean mConnected;
+		boolean mDiscovered;
+		final boolean[] mLocalNotify = new boolean[SENSORS.length];
+		boolean mClosed;
+
+		Link(GattLink.Callback callback) {
+			mCallback = callback;
+		}
+
+		@Override
+		public String getAddress() {
+			return mAddress;
+		}
+
+		@Override
+		public boolean reconnect() {
+			if (mClosed || mConnected) return false;
+			open(this);
+			return true;
+		}
+
+		@Override
+		public boolean discoverServices() {
+			if (!mConnected) return false;
+			answer(new Runnable() {
+				@Override
+				public void run() {
+					mDiscovered = true;
+					mCallback.onServicesDiscovered(true);
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public boolean requestConnectionPriority(int priority) {
+			if (!mConnected || mLink != this) return false;
+			mPriority = priority;
+			return true;
+		}
+
+		@Override
+		public boolean requestMtu(final int mtu) {
+			if (!mConnected || mLink != this) return false;
+			answer(new Runnable() {
+				@Override
+				public void run() {
+					mMtu = Math.max(GattOperation.DEFAULT_MTU, Math.min(mtu, mMaxMtu));
+					mCallback.onMtuChanged(mMtu, GATT_SUCCESS);
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public boolean hasCharacteristic(UUID service, UUID characteristic) {
+			int i = sensorOf(characteristic);
+			return mDiscovered && i >= 0 && SENSORS[i].getService().equals(service);
+		}
+
+		@Override
+		public void disconnect() {
+			if (mLink != this) return;
+			disconnected();
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (!mClosed) mCallback.onDisconnected(false);
+				}
+			}, mLatency);
+		}
+
+		@Override
+		public void close() {
+			mClosed = true;
+			if (mLink == this) disconnected();
+		}
+
+		@Override
+		public boolean writeCharacteristic(UUID service, final UUID characteristic, byte[] value) {
+			if (!usable(service, characteristic)) return false;
+			final byte[] written = value.clone();
+			answer(new Runnable() {
+				@Override
+				public void run() {
+					mCallback.onCharacteristicWrite(characteristic, write(characteristic, written));
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public boolean readCharacteristic(UUID service, final UUID characteristic) {
+			if (!usable(service, characteristic)) return false;
+			answer(new Runnable() {
+				@Override
+				public void run() {
+					byte[] value = read(characteristic);
+					mCallback.onCharacteristicRead(characteristic, value,
+							value != null ? GATT_SUCCESS : STATUS_NOT_PERMITTED);
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+			if (!usable(service, characteristic)) return false;
+			mLocalNotify[sensorOf(characteristic)] = enable;
+			return true;
+		}
+
+		@Override
+		public boolean writeDescriptor(UUID service, final UUID characteristic, final UUID descriptor, byte[] value) {
+			if (!usable(service, characteristic) || !GattOperation.CONFIG_DESCRIPTOR.equals(descriptor)) return false;
+			final boolean enable = value.length > 0 && value[0] != 0;
+			answer(new Runnable() {
+				@Override
+				public void run() {
+					int i = sensorOf(characteristic);
+					mNotifying[i] = enable;
+					updateNotifications(i);
+					mCallback.onDescriptorWrite(characteristic, descriptor, GATT_SUCCESS);
+				}
+			});
+			return true;
+		}
+
+		private boolean usable(UUID service, UUID characteristic) {
+			return mConnected && mLink == this && hasCharacteristic(service, characteristic);
+		}
+
+		// run the tag's side of a request after the link latency, unless the link is gone by then
+		private void answer(final Runnable response) {
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (mLink == Link.this) response.run();
+				}
+			}, Math.max(1, Math.round(mLatency * PRIORITY_LATENCY[mPriority])));
+		}
+
+		private int write(UUID characteristic, byte[] value) {
+			int i = sensorOf(characteristic);
+			Sensor sensor = SENSORS[i];
+			if (characteristic.equals(sensor.getConfig())) {
+				mCalibrating[i] = sensor.needsCalibration() && Arrays.equals(value, sensor.getCalibrationMode());
+				mEnabled[i] = !mCalibrating[i] && value.length > 0 && value[0] != 0;
+				updateNotifications(i);
+				return GATT_SUCCESS;
+			}
+			if (characteristic.equals(sensor.getPeriod()) && value.length == 1) {
+				mPeriods[i] = Math.max(sensor.getMinPeriod(), (value[0] & 0xFF) * Sensor.PERIOD_UNIT_MS);
+				updateNotifications(i);
+				return GATT_SUCCESS;
+			}
+			return STATUS_NOT_PERMITTED;
+		}
+
+		private byte[] read(UUID characteristic) {
+			int i = sensorOf(characteristic);
+			Sensor sensor = SENSORS[i];
+			if (characteristic.equals(sensor.getCalibration())) {
+				return mCalibrating[i] ? mCalibration.clone() : null;
+			}
+			if (characteristic.equals(sensor.getData())) {
+				// a sensor that is off reads as zeros, like on the tag
+				return mEnabled[i] ? frame(i) : new byte[sensor.getDataLength()];
+			}
+			if (characteristic.equals(sensor.getPeriod())) {
+				return new byte[]{(byte) (mPeriods[i] / Sensor.PERIOD_UNIT_MS)};
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * What we learned about each tag that doesn't change between connections,
+ * so a reconnect doesn't have to ask the tag again. Thread safe.
+ *
+ * It is also the registry of the tags that were used before: their name, when
+ * they last streamed, and which characteristics they have. Saved to a file, it
+ * lets the next start connect straight to them without a scan, and skip reading
+ * their calibrations. If a tag comes back with other characteristics than were
+ * saved, its firmware changed and its calibrations are dropped.
+ */
+public final class TagCache {
+
+	// the layout of a tag nobody looked at yet
+	public static final int UNKNOWN_LAYOUT = 0;
+
+	private static final int MAGIC = 0x54414753; // "TAGS"
+	private static final int VERSION = 1;
+
+	private static final int SENSORS = SensorRegistry.all().size();
+
+	/*
+	 * A tag we know.
+	 */
+	public static final class Tag {
+		public final String address;
+
+		private volatile String mName;
+		private volatile long mLastUsed;
+		private volatile int mLayout = UNKNOWN_LAYOUT;
+
+		// raw calibration frames by sensor index
+		private final AtomicReferenceArray<byte[]> mCalibrations = new AtomicReferenceArray<byte[]>(SENSORS);
+
+		Tag(String address) {
+			this.address = address;
+		}
+
+		// null until the tag streamed
+		public String getName() {
+			return mName;
+		}
+
+		// wall clock time it last streamed, 0 if it never did
+		public long getLastUsed() {
+			return mLastUsed;
+		}
+
+		public int getLayout() {
+			return mLayout;
+		}
+
+		@Override
+		public String toString() {
+			return mName + " " + address;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Tag> mTags = new ConcurrentHashMap<String, Tag>();
+
+	// something changed since the last save
+	private volatile boolean mDirty;
+
+	// a copy of the sensor's calibration frame from the tag, null if we don't have it
+	public byte[] getCalibration(String address, Sensor sensor) {
+		Tag tag = mTags.get(address);
+		byte[] calibration = tag == null ? null : tag.mCalibrations.get(sensor.getIndex());
+		return calibration != null ? calibration.clone() : null;
+	}
+
+	public void putCalibration(String address, Sensor sensor, byte[] calibration) {
+		tag(address).mCalibrations.set(sensor.getIndex(), calibration.clone());
+		mDirty = true;
+	}
+
+	// the tag streamed, it will be connected to on the next start
+	public void remember(String address, String name, long time) {
+		Tag tag = tag(address);
+		tag.mName = name;
+		tag.mLastUsed = time;
+		mDirty = true;
+	}
+
+	public int getLayout(String address) {
+		Tag tag = mTags.get(address);
+		return tag != null ? tag.mLayout : UNKNOWN_LAYOUT;
+	}
+
+	/*
+	 * The characteristics found on the tag, as a bit mask of the caller's making.
+	 * Returns true if they differ from the ones known before, in which case the
+	 * cached calibrations are dropped.
+	 */
+	public boolean updateLayout(String address, int layout) {
+		Tag tag = tag(address);
+		int was = tag.mLayout;
+		if (was == layout) return false;
+
+		tag.mLayout = layout;
+		mDirty = true;
+		if (was == UNKNOWN_LAYOUT) return false;
+		for (int i = 0; i < SENSORS; i++) {
+			tag.mCalibrations.set(i, null);
+		}
+		return true;
+	}
+
+	// the tags that streamed before, most recently used first
+	public List<Tag> getKnown() {
+		List<Tag> known = new ArrayList<Tag>();
+		for (Tag tag : mTags.values()) {
+			if (tag.mLastUsed > 0) known.add(tag);
+		}
+		Collections.sort(known, new Comparator<Tag>() {
+			@Override
+			public int compare(Tag a, Tag b) {
+				return a.mLastUsed < b.mLastUsed ? 1 : a.mLastUsed > b.mLastUsed ? -1 : 0;
+			}
+		});
+		return known;
+	}
+
+	public void forget(String address) {
+		if (mTags.remove(address) != null) mDirty = true;
+	}
+
+	public void clear() {
+		mTags.clear();
+		mDirty = true;
+	}
+
+	// true if anything changed since the cache was loaded or saved
+	public boolean isDirty() {
+		return mDirty;
+	}
+
+	/*
+	 * Write the cache to file, through a temporary file so a crash leaves either
+	 * the old or the new one.
+	 */
+	public synchronized void save(File file) throws IOException {
+		mDirty = false;
+		List<Tag> tags = new ArrayList<Tag>(mTags.values());
+
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tags.size());
+			for (Tag tag : tags) {
+				out.writeUTF(tag.address);
+				out.writeUTF(tag.mName != null ? tag.mName : "");
+				out.writeLong(tag.mLastUsed);
+				out.writeInt(tag.mLayout);
+				out.writeInt(SENSORS);
+				for (int i = 0; i < SENSORS; i++) {
+					byte[] calibration = tag.mCalibrations.get(i);
+					out.writeShort(calibration != null ? calibration.length : -1);
+					if (calibration != null) out.write(calibration);
+				}
+			}
+		} catch (IOException e) {
+			mDirty = true;
+			throw e;
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			mDirty = true;
+			throw new IOException("Can't rename " + tmp + " to " + file);
+		}
+	}
+
+	// the cache saved in file, empty if there is none
+	public static TagCache load(File file) throws IOException {
+		TagCache cache = new TagCache();
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return cache;
+		}
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a tag cache: " + file);
+			}
+			int count = in.readInt();
+			for (int n = 0; n < count; n++) {
+				Tag tag = cache.tag(in.readUTF());
+				String name = in.readUTF();
+				tag.mName = name.length() > 0 ? name : null;
+				tag.mLastUsed = in.readLong();
+				tag.mLayout = in.readInt();
+				int sensors = in.readInt();
+				for (int i = 0; i < sensors; i++) {
+					int length = in.readShort();
+					if (length < 0) continue;
+					byte[] calibration = new byte[length];
+					in.readFully(calibration);
+					// sensors added since the file was written have no calibration yet
+					if (i < SENSORS) tag.mCalibrations.set(i, calibration);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		cache.mDirty = false;
+		return cache;
+	}
+
+	private Tag tag(String address) {
+		Tag tag = mTags.get(address);
+		if (tag == null) {
+			Tag created = new Tag(address);
+			tag = mTags.putIfAbsent(address, created);
+			if (tag == null) tag = created;
+		}
+		return tag;
+	}
+}
@@ -0,0 +1,62 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.List;
+
+/*
+ * Decodes raw frames of one tag into a TagReadings holder, with the decoders
+ * of the SensorRegistry.
+ *
+ * The decoder keeps the tag's calibrations, so frames of a sensor that needs
+ * one are only converted once its calibration frame has been seen. It is not
+ * thread safe, every frame of a tag has to be decoded on the same thread.
+ */
+public final class TagDecoder {
+
+	private static final List<Sensor> SENSORS = SensorRegistry.all();
+
+	// calibration of each sensor, by index
+	private final Object[] mCalibrations = new Object[SENSORS.size()];
+
+	/*
+	 * Decode one frame of a kind from SensorRegistry.kindOf() into out, returns
+	 * true if any value in out changed. A frame too short for its kind, e.g. a
+	 * truncated notification, is ignored.
+	 */
+	public boolean decode(int kind, byte[] value, long timestamp, TagReadings out) {
+		Sensor sensor = SensorRegistry.sensorOf(kind);
+		if (sensor == null) return false;
+		if (value == null || value.length < SensorRegistry.minLength(kind)) return false;
+
+		if (kind == sensor.calibrationKind) {
+			mCalibrations[sensor.index] = sensor.getDecoder().calibrate(value);
+			return false;
+		}
+		Object calibration = mCalibrations[sensor.index];
+		if (calibration == null && sensor.needsCalibration()) return false;
+
+		sensor.getDecoder().decode(value, calibration, out.values);
+		out.timestamp = timestamp;
+		return true;
+	}
+
+	public boolean isCalibrated() {
+		return mCalibrations[SensorRegistry.BAROMETER.index] != null;
+	}
+
+	// the barometer calibration in use, null until a calibration frame was decoded
+	public CalibratedBarometer getCalibration() {
+		return (CalibratedBarometer) mCalibrations[SensorRegistry.BAROMETER.index];
+	}
+
+	// use a known calibration, e.g. one carried over from an earlier log segment
+	public void setCalibration(CalibratedBarometer barometer) {
+		mCalibrations[SensorRegistry.BAROMETER.index] = barometer;
+	}
+
+	// forget the calibrations, e.g. after the tag disconnected
+	public void reset() {
+		for (int i = 0; i < mCalibrations.length; i++) {
+			mCalibrations[i] = null;
+		}
+	}
+}
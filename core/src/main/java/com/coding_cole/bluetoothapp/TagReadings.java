@@ -0,0 +1,34 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.Arrays;
+
+/*
+ * Latest decoded values of one tag, kept as primitives so the holder can be
+ * reused for every sample. Values are indexed by Channel, the ones that have
+ * not been received yet are NaN.
+ */
+public final class TagReadings {
+
+	public final double[] values = new double[Channel.COUNT];
+
+	// time of the last update, in the clock of whoever decoded it
+	public long timestamp;
+
+	public TagReadings() {
+		Arrays.fill(values, Double.NaN);
+	}
+
+	public double get(int channel) {
+		return values[channel];
+	}
+
+	public void copyFrom(TagReadings other) {
+		System.arraycopy(other.values, 0, values, 0, Channel.COUNT);
+		timestamp = other.timestamp;
+	}
+
+	public void clear() {
+		Arrays.fill(values, Double.NaN);
+		timestamp = 0;
+	}
+}
@@ -0,0 +1,566 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/*
+ * One connection to one SensorTag.
+ *
+ * Every session has its own GATT link and its own GattQueue, so any number of
+ * tags can be set up and streamed at the same time. Values go to the shared
+ * FrameSink under the session's slot.
+ *
+ * The ConnectionLifecycle decides when to connect, discover and configure, and
+ * reconnects on its own when the tag drops. Link callbacks may arrive on any
+ * thread and are handed to it on the scheduler's (main) thread. On the first
+ * reconnect the link is reused, so its services and characteristics are already
+ * known; if that is slow a fresh link discovers them again. Either way the
+ * calibration comes from the TagCache. What's left is enabling the sensors
+ * and notifications again, which the tag forgets when the link drops.
+ *
+ * The TagCache also remembers each tag's characteristics, and the tags that
+ * streamed, so the next start of the app can connect to them right away with
+ * their calibrations known.
+ *
+ * Which sensors run, how fast, and whether they notify or are polled comes from
+ * the SamplingPolicy all sessions share, and changes to it are applied to the
+ * live link.
+ *
+ * How the link runs, its connection interval and MTU, is up to the session's
+ * LinkPolicy: short for the setup, then as long as what the tag sends allows.
+ *
+ * The link comes from a BleDriver, so a session runs the same against a real
+ * tag and a SimulatedSensorTag. All methods are called on the scheduler's thread.
+ */
+public final class TagSession {
+	private static final Logger LOG = Logger.getLogger("TagSession");
+
+	/*
+	 * Session events, called on the scheduler's thread.
+	 */
+	public interface Callback {
+		void onProgress(TagSession session, String message);
+
+		// all sensors are enabled and notifying
+		void onReady(TagSession session);
+
+		// the tag dropped, the session is trying to get it back
+		void onDisconnected(TagSession session);
+	}
+
+	private final BleDriver mDriver;
+	private final String mAddress;
+	private final String mName;
+	private final int mSlot;
+	private final FrameSink mSink;
+	private final TaskScheduler mScheduler;
+	private final FrameLogWriter mFrameLog;
+	private final TagCache mCache;
+	private final SamplingPolicy mSampling;
+	private final Metrics mMetrics;
+	private final Metrics.Counter mReconnects;
+	private final Callback mCallback;
+	private final ConnectionLifecycle mLifecycle;
+	private final LinkPolicy mLinkPolicy;
+
+	// scheduler thread only
+	private GattLink mLink;
+	private LinkCallback mLinkCallback;
+	private boolean mWasStreaming;
+
+	// nothing was read from the tag yet, the first setup reads every sensor once
+	private boolean mFirstSetup = true;
+
+	// set when the tag rejected a request, the next connection starts from scratch
+	private volatile boolean mServicesStale;
+
+	// GATT requests of the current connection, created when it is configured
+	private volatile GattQueue mQueue;
+
+	// the sensors of the tag and how they are running on the current connection, scheduler thread only
+	private List<Sensor> mSensors = new ArrayList<Sensor>();
+	private final int[] mModes = new int[SensorRegistry.all().size()];
+	private final long[] mPeriods = new long[SensorRegistry.all().size()];
+	// config left in calibration mode, which keeps the sensor powered until it is written again
+	private final boolean[] mCalibrating = new boolean[SensorRegistry.all().size()];
+
+	private Object mPollTimer;
+	private int mPollCount;
+
+	/*
+	 * frameLog may be null. The session starts when connect() is called.
+	 */
+	public TagSession(BleDriver driver, String address, String name, int slot, FrameSink sink,
+			TaskScheduler scheduler, FrameLogWriter frameLog, TagCache cache, SamplingPolicy sampling,
+			Metrics metrics, Callback callback) {
+		mDriver = driver;
+		mAddress = address;
+		mName = name;
+		mSlot = slot;
+		mSink = sink;
+		mScheduler = scheduler;
+		mFrameLog = frameLog;
+		mCache = cache;
+		mSampling = sampling;
+		mMetrics = metrics;
+		mReconnects = metrics.counter("reconnects." + address);
+		mCallback = callback;
+		mLifecycle = new ConnectionLifecycle(scheduler, mActions);
+		mLinkPolicy = new LinkPolicy(scheduler, metrics);
+	}
+
+	public String getAddress() {
+		return mAddress;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	// index of this session in the sink
+	public int getSlot() {
+		return mSlot;
+	}
+
+	public int getState() {
+		return mLifecycle.getState();
+	}
+
+	// how this session's link is tuned, change it before connect()
+	public LinkPolicy getLinkPolicy() {
+		return mLinkPolicy;
+	}
+
+	public void connect() {
+		LOG.info("Connecting to " + mName + " " + mAddress);
+		mLifecycle.start();
+	}
+
+	public void disconnect() {
+		mLifecycle.close();
+		mSink.reset(mSlot);
+	}
+
+	// a scan heard the tag, a lost one is reconnected to right away
+	public void onSeen() {
+		mLifecycle.onSeen();
+	}
+
+	/*
+	 * Queue the whole setup of the tag at once. The queue sends one request at a time,
+	 * so nothing here waits on the previous callback, and a lost callback is retried
+	 * instead of stalling the sequence. With the calibrations already known, only the
+	 * sensors and their notifications have to be enabled again.
+	 */
+	private void enqueueSetup(GattQueue queue, boolean calibrated, boolean initialRead) {
+		Arrays.fill(mCalibrating, false);
+		if (!calibrated) {
+			// calibrations first, frames of those sensors can't be decoded without them
+			for (Sensor sensor : mSensors) {
+				if (!sensor.needsCalibration()) continue;
+				queue.enqueue(GattOperation.write(sensor.getService(), sensor.getConfig(), sensor.getCalibrationMode()));
+				queue.enqueue(GattOperation.read(sensor.getService(), sensor.getCalibration()));
+				mCalibrating[sensor.getIndex()] = true;
+			}
+		}
+
+		// the tag forgot everything when the link dropped, so all sensors start from off
+		Arrays.fill(mModes, SamplingPolicy.OFF);
+		Arrays.fill(mPeriods, 0);
+		for (Sensor sensor : mSensors) {
+			enqueueSampling(queue, sensor);
+		}
+
+		if (initialRead) {
+			// initial values, so the first reading doesn't wait for a notification period
+			for (Sensor sensor : mSensors) {
+				if (mModes[sensor.getIndex()] == SamplingPolicy.OFF) continue;
+				queue.enqueue(GattOperation.read(sensor.getService(), sensor.getData()));
+			}
+		}
+	}
+
+	/*
+	 * Bring a sensor from how it runs on the tag to what the SamplingPolicy wants,
+	 * with as few requests as it takes.
+	 */
+	private void enqueueSampling(GattQueue queue, Sensor sensor) {
+		int i = sensor.getIndex();
+		int mode = mSampling.getMode(sensor);
+		long period = mSampling.getPeriod(sensor);
+		int was = mModes[i];
+		if (mode == was && period == mPeriods[i] && !mCalibrating[i]) return;
+
+		UUID service = sensor.getService();
+		if (mode == SamplingPolicy.OFF) {
+			// off includes a sensor only switched on to read its calibration
+			if (was == SamplingPolicy.NOTIFY) {
+				queue.enqueue(GattOperation.disableNotification(service, sensor.getData()));
+			}
+			queue.enqueue(GattOperation.write(service, sensor.getConfig(), sensor.getDisable()));
+		} else {
+			// older firmware has no period characteristic and runs at its default
+			if (period != mPeriods[i] && mLink.hasCharacteristic(service, sensor.getPeriod())) {
+				queue.enqueue(GattOperation.write(service, sensor.getPeriod(), sensor.encodePeriod(period)));
+			}
+			if (was == SamplingPolicy.OFF || mCalibrating[i]) {
+				queue.enqueue(GattOperation.write(service, sensor.getConfig(), sensor.getEnable()));
+			}
+			if (mode == SamplingPolicy.NOTIFY && was != SamplingPolicy.NOTIFY) {
+				queue.enqueue(GattOperation.enableNotification(service, sensor.getData()));
+			} else if (mode == SamplingPolicy.POLL && was == SamplingPolicy.NOTIFY) {
+				queue.enqueue(GattOperation.disableNotification(service, sensor.getData()));
+			}
+		}
+		mModes[i] = mode;
+		mPeriods[i] = period;
+		mCalibrating[i] = false;
+	}
+
+	// the policy changed how a sensor should run
+	public void onSamplingChanged(Sensor sensor) {
+		GattQueue queue = mQueue;
+		if (queue == null || !mSensors.contains(sensor)) {
+			// not configured yet, the setup will pick it up
+			return;
+		}
+		enqueueSampling(queue, sensor);
+		schedulePoll();
+	}
+
+	private void schedulePoll() {
+		cancelPoll();
+		long tick = mSampling.getPollTick();
+		if (tick > 0 && mQueue != null) {
+			mPollTimer = mScheduler.schedule(mPoll, tick);
+		}
+	}
+
+	private void cancelPoll() {
+		if (mPollTimer != null) {
+			mScheduler.cancel(mPollTimer);
+			mPollTimer = null;
+		}
+	}
+
+	/*
+	 * Reads the polled sensors that are due, all in one go so the link
+	 * wakes up once for them.
+	 */
+	private final Runnable mPoll = new Runnable() {
+		@Override
+		public void run() {
+			mPollTimer = null;
+			GattQueue queue = mQueue;
+			if (queue == null) return;
+
+			mPollCount++;
+			for (Sensor sensor : mSensors) {
+				int ticks = mSampling.getPollTicks(sensor);
+				if (ticks > 0 && mPollCount % ticks == 0 && mModes[sensor.getIndex()] == SamplingPolicy.POLL) {
+					queue.enqueue(GattOperation.read(sensor.getService(), sensor.getData()));
+				}
+			}
+			schedulePoll();
+		}
+	};
+
+	// run a lifecycle event on the scheduler's thread
+	private void post(Runnable event) {
+		mScheduler.schedule(event, 0);
+	}
+
+	private final ConnectionLifecycle.Actions mActions = new ConnectionLifecycle.Actions() {
+		@Override
+		public void connect(boolean reuse) {
+			mCallback.onProgress(TagSession.this, "Connecting to " + mName + "...");
+			if (reuse && mLink != null && !mServicesStale) {
+				// the old link still knows the tag's services
+				if (mLink.reconnect()) return;
+			}
+			closeLink();
+			mServicesStale = false;
+
+			// a fresh callback, so events of the old link are told apart and ignored
+			mLinkCallback = new LinkCallback();
+			mLink = mDriver.connect(mAddress, mLinkCallback);
+			if (mLink == null) {
+				post(mFailure);
+			}
+		}
+
+		@Override
+		public void discoverServices() {
+			mCallback.onProgress(TagSession.this, "Discovering Services...");
+			if (mLink != null) mLinkPolicy.onSetup(mLink);
+			if (mLink == null || !mLink.discoverServices()) {
+				post(mFailure);
+			}
+		}
+
+		@Override
+		public void configure() {
+			mCallback.onProgress(TagSession.this, "Enabling sensors...");
+			/*
+			 * with services known, we start over with a fresh queue and
+			 * work through the sensors we need to enable.
+			 */
+			if (mQueue != null) {
+				mQueue.clear();
+			}
+			GattQueue queue = new GattQueue(mLink, mScheduler, mQueueListener);
+			queue.setMetrics(mMetrics);
+			mQueue = queue;
+			mLinkPolicy.onSetup(mLink);
+			mLinkPolicy.requestMtu(queue);
+
+			if (mCache.updateLayout(mAddress, layoutOf(mLink))) {
+				LOG.info(mAddress + " has other characteristics than before, reading its calibrations again");
+			}
+
+			List<Sensor> sensors = new ArrayList<Sensor>();
+			boolean calibrated = true;
+			for (Sensor sensor : SensorRegistry.all()) {
+				if (!mLink.hasCharacteristic(sensor.getService(), sensor.getData())) {
+					LOG.fine(mAddress + " has no " + sensor);
+					continue;
+				}
+				sensors.add(sensor);
+				if (!sensor.needsCalibration()) continue;
+
+				byte[] calibration = mCache.getCalibration(mAddress, sensor);
+				if (calibration != null) {
+					// as if it had just been read, for the decoder and for the frame log
+					logFrame(sensor.getCalibration(), calibration);
+					mSink.onFrame(mSlot, sensor.getCalibrationKind(), calibration, System.nanoTime());
+				} else {
+					calibrated = false;
+				}
+			}
+			mSensors = sensors;
+			enqueueSetup(queue, calibrated, mFirstSetup || !calibrated);
+			mFirstSetup = false;
+			schedulePoll();
+		}
+
+		@Override
+		public void disconnect(boolean close) {
+			cancelPoll();
+			mLinkPolicy.onDisconnected();
+			if (mQueue != null) {
+				mQueue.clear();
+				mQueue = null;
+			}
+			if (close) {
+				closeLink();
+			} else if (mLink != null) {
+				mLink.disconnect();
+			}
+		}
+
+		@Override
+		public void onStateChanged(int state) {
+			LOG.fine(mAddress + " " + ConnectionLifecycle.name(state)
+					+ (state == ConnectionLifecycle.BACKOFF ? " #" + mLifecycle.getAttempts() : ""));
+			if (state == ConnectionLifecycle.STREAMING) {
+				mWasStreaming = true;
+				LOG.info(mAddress + " all sensors enabled");
+				mCache.remember(mAddress, mName, System.currentTimeMillis());
+				mLinkPolicy.onStreaming();
+				mCallback.onReady(TagSession.this);
+			} else if (state == ConnectionLifecycle.BACKOFF) {
+				mReconnects.increment();
+				// If at any point we disconnect, clear this tag's values and tell the ui.
+				mSink.reset(mSlot);
+				if (mWasStreaming) {
+					mWasStreaming = false;
+					mCallback.onDisconnected(TagSession.this);
+				}
+			}
+		}
+
+		private void closeLink() {
+			if (mLink != null) {
+				mLink.disconnect();
+				mLink.close();
+				mLink = null;
+				mLinkCallback = null;
+			}
+		}
+	};
+
+	private final Runnable mFailure = new Runnable() {
+		@Override
+		public void run() {
+			mLifecycle.onFailure();
+		}
+	};
+
+	private final Runnable mConfigured = new Runnable() {
+		@Override
+		public void run() {
+			mLifecycle.onConfigured();
+		}
+	};
+
+	private final GattQueue.Listener mQueueListener = new GattQueue.Listener() {
+		@Override
+		public void onOperationComplete(GattOperation operation, int status) {
+			if (operation.getType() == GattOperation.MTU) {
+				// a tag that can't do more keeps the default
+				return;
+			}
+			if (status == GattLink.GATT_SUCCESS) {
+				mLinkPolicy.onRoundTrip((System.nanoTime() - operation.startedNanos) / 1000000);
+			} else {
+				LOG.warning(mAddress + " " + operation + " failed with status " + status);
+				// maybe the services changed under a reused link, start from scratch
+				mServicesStale = true;
+				post(mFailure);
+			}
+		}
+
+		@Override
+		public void onOperationFailed(GattOperation operation) {
+			LOG.warning(mAddress + " " + operation + " timed out");
+			if (operation.getType() == GattOperation.MTU) return;
+			post(mFailure);
+		}
+
+		@Override
+		public void onQueueIdle() {
+			post(mConfigured);
+		}
+	};
+
+	/*
+	 * Which characteristics the tag has: the data of each sensor at its index, and
+	 * its period 16 bits higher. Different firmware has a different layout.
+	 */
+	static int layoutOf(GattLink link) {
+		int layout = 0;
+		for (Sensor sensor : SensorRegistry.all()) {
+			int i = sensor.getIndex();
+			if (link.hasCharacteristic(sensor.getService(), sensor.getData())) layout |= 1 << i;
+			if (link.hasCharacteristic(sensor.getService(), sensor.getPeriod())) layout |= 1 << (16 + i);
+		}
+		return layout;
+	}
+
+	private void logFrame(UUID characteristic, byte[] value) {
+		if (mFrameLog != null) {
+			// raw bytes are kept, so they can be decoded again later with new calibration math
+			mFrameLog.append(System.currentTimeMillis(), mAddress, characteristic, value);
+		}
+	}
+
+	/*
+	 * Events of one link, on any thread. Lifecycle events are posted to the
+	 * scheduler's thread and dropped there if the link was replaced meanwhile.
+	 */
+	private final class LinkCallback implements GattLink.Callback {
+
+		@Override
+		public void onConnected(final boolean servicesKnown) {
+			LOG.fine(mAddress + " connected");
+			post(new Runnable() {
+				@Override
+				public void run() {
+					if (mLinkCallback == LinkCallback.this) mLifecycle.onConnected(servicesKnown);
+				}
+			});
+		}
+
+		@Override
+		public void onDisconnected(final boolean failed) {
+			LOG.fine(mAddress + (failed ? " connection failed" : " disconnected"));
+			post(new Runnable() {
+				@Override
+				public void run() {
+					if (mLinkCallback != LinkCallback.this) return;
+					// the tag went away, or never came, the lifecycle gets it back
+					if (failed) {
+						mLifecycle.onFailure();
+					} else {
+						mLifecycle.onDisconnected();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void onServicesDiscovered(final boolean success) {
+			post(new Runnable() {
+				@Override
+				public void run() {
+					if (mLinkCallback == LinkCallback.this) mLifecycle.onServicesDiscovered(success);
+				}
+			});
+		}
+
+		@Override
+		public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+			// for each read, pass the data on to decode and update the display
+			if (status == GattLink.GATT_SUCCESS && value != null) {
+				dispatchValue(characteristic, value);
+			}
+			GattQueue queue = mQueue;
+			if (queue != null) {
+				queue.onCharacteristicRead(characteristic, status);
+			}
+		}
+
+		@Override
+		public void onCharacteristicWrite(UUID characteristic, int status) {
+			GattQueue queue = mQueue;
+			if (queue != null) {
+				queue.onCharacteristicWrite(characteristic, status);
+			}
+		}
+
+		@Override
+		public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+			GattQueue queue = mQueue;
+			if (queue != null) {
+				queue.onDescriptorWrite(characteristic, descriptor, status);
+			}
+		}
+
+		@Override
+		public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+			/*
+			 * After notifications are enabled, all updates from the device on characteristic
+			 * value changes will be posted here. Similar to read, we hand this on to decode.
+			 */
+			mLinkPolicy.onNotification();
+			dispatchValue(characteristic, value);
+		}
+
+		@Override
+		public void onMtuChanged(int mtu, int status) {
+			mLinkPolicy.onMtuChanged(mtu, status);
+			GattQueue queue = mQueue;
+			if (queue != null) {
+				queue.onMtuChanged(mtu, status);
+			}
+		}
+
+		private void dispatchValue(UUID characteristic, byte[] value) {
+			long received = System.nanoTime();
+			logFrame(characteristic, value);
+
+			// one map lookup, whatever the number of sensors
+			int kind = SensorRegistry.kindOf(characteristic);
+			if (SensorRegistry.isCalibration(kind)) {
+				// the calibration never changes, later connections skip reading it
+				mCache.putCalibration(mAddress, SensorRegistry.sensorOf(kind), value);
+			}
+			if (kind != 0) {
+				mSink.onFrame(mSlot, kind, value, received);
+			}
+		}
+	}
+}
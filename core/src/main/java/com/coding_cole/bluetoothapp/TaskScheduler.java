@@ -0,0 +1,13 @@
+package com.coding_cole.bluetoothapp;
+
+/*
+ * Delayed execution, so time based logic in :core can run on an Android Handler
+ * in the app and on a manually advanced clock in tests.
+ */
+public interface TaskScheduler {
+
+	// run task once after delayMillis, returns a handle for cancel()
+	Object schedule(Runnable task, long delayMillis);
+
+	void cancel(Object handle);
+}
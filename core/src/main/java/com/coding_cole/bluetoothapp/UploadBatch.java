@@ -0,0 +1,234 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Readings collected for one upload, and their wire format.
+ *
+ * Readings are grouped into series by device and channel, and each series is
+ * stored as deltas from the previous reading, which keeps a steady 1 Hz series
+ * at two or three bytes per reading before the whole thing is gzipped:
+ *
+ *   header:   'S' 'T' 'U' 'B', u8 version
+ *   devices:  varint count, then per device: varint length, address (UTF-8)
+ *   series:   varint count, then per series:
+ *               varint device index, varint channel, varint readings,
+ *               zigzag varint first time (ms), zigzag varint time deltas,
+ *               zigzag varint first value, zigzag varint value deltas
+ *
+ * Values are sent in thousandths, finer than any of the sensors resolve.
+ * Readings are kept in growing primitive arrays, so adding one only allocates
+ * when the arrays have to grow. Not thread safe.
+ */
+public final class UploadBatch {
+
+	static final byte[] MAGIC = {'S', 'T', 'U', 'B'};
+	static final int VERSION = 1;
+
+	public static final String CONTENT_TYPE = "application/x-sensortag-batch";
+
+	// values go out as integer multiples of 1 / VALUE_SCALE
+	public static final double VALUE_SCALE = 1000;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/*
+	 * Called for every reading of a decoded batch.
+	 */
+	public interface Visitor {
+		void onReading(String device, int channel, long timestamp, double value);
+	}
+
+	private final Map<String, Integer> mDeviceIds = new HashMap<String, Integer>();
+	private final List<String> mDevices = new ArrayList<String>();
+
+	private int mSize;
+	private int[] mDeviceIndex = new int[256];
+	private int[] mChannels = new int[256];
+	private long[] mTimes = new long[256];
+	private long[] mValues = new long[256];
+	private long mFirstTime;
+
+	public void add(String device, int channel, long timestamp, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) return;
+
+		Integer id = mDeviceIds.get(device);
+		if (id == null) {
+			id = mDevices.size();
+			mDeviceIds.put(device, id);
+			mDevices.add(device);
+		}
+		if (mSize == mTimes.length) {
+			int capacity = mSize * 2;
+			mDeviceIndex = Arrays.copyOf(mDeviceIndex, capacity);
+			mChannels = Arrays.copyOf(mChannels, capacity);
+			mTimes = Arrays.copyOf(mTimes, capacity);
+			mValues = Arrays.copyOf(mValues, capacity);
+		}
+		if (mSize == 0) mFirstTime = timestamp;
+		mDeviceIndex[mSize] = id;
+		mChannels[mSize] = channel;
+		mTimes[mSize] = timestamp;
+		mValues[mSize] = Math.round(value * VALUE_SCALE);
+		mSize++;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	// time of the first reading added
+	public long getFirstTime() {
+		return mFirstTime;
+	}
+
+	public void clear() {
+		mSize = 0;
+		mDeviceIds.clear();
+		mDevices.clear();
+	}
+
+	// the gzipped payload
+	public byte[] encode() throws IOException {
+		// series in order of first appearance, readings of a series in order of arrival
+		Map<Long, List<Integer>> series = new HashMap<Long, List<Integer>>();
+		List<Long> order = new ArrayList<Long>();
+		for (int i = 0; i < mSize; i++) {
+			Long key = ((long) mDeviceIndex[i] << 32) | mChannels[i];
+			List<Integer> readings = series.get(key);
+			if (readings == null) {
+				readings = new ArrayList<Integer>();
+				series.put(key, readings);
+				order.add(key);
+			}
+			readings.add(i);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(mSize * 3 + 64);
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(MAGIC);
+		out.write(VERSION);
+		writeVarint(out, mDevices.size());
+		for (String device : mDevices) {
+			byte[] address = device.getBytes(UTF_8);
+			writeVarint(out, address.length);
+			out.write(address);
+		}
+		writeVarint(out, order.size());
+		for (Long key : order) {
+			List<Integer> readings = series.get(key);
+			int first = readings.get(0);
+			writeVarint(out, mDeviceIndex[first]);
+			writeVarint(out, mChannels[first]);
+			writeVarint(out, readings.size());
+			long previous = 0;
+			for (int i : readings) {
+				writeVarint(out, zigzag(mTimes[i] - previous));
+				previous = mTimes[i];
+			}
+			previous = 0;
+			for (int i : readings) {
+				writeVarint(out, zigzag(mValues[i] - previous));
+				previous = mValues[i];
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	// read a payload made by encode(), returns the number of readings
+	public static int decode(byte[] payload, Visitor visitor) throws IOException {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			readFully(in, magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not an upload batch");
+			}
+			int version = in.read();
+			if (version != VERSION) {
+				throw new IOException("Unsupported batch version " + version);
+			}
+
+			String[] devices = new String[(int) readVarint(in)];
+			for (int i = 0; i < devices.length; i++) {
+				byte[] address = new byte[(int) readVarint(in)];
+				readFully(in, address);
+				devices[i] = new String(address, UTF_8);
+			}
+
+			int total = 0;
+			long seriesCount = readVarint(in);
+			for (long s = 0; s < seriesCount; s++) {
+				String device = devices[(int) readVarint(in)];
+				int channel = (int) readVarint(in);
+				long[] times = new long[(int) readVarint(in)];
+				long previous = 0;
+				for (int i = 0; i < times.length; i++) {
+					times[i] = previous += unzigzag(readVarint(in));
+				}
+				previous = 0;
+				for (int i = 0; i < times.length; i++) {
+					previous += unzigzag(readVarint(in));
+					visitor.onReading(device, channel, times[i], previous / VALUE_SCALE);
+				}
+				total += times.length;
+			}
+			return total;
+		} finally {
+			in.close();
+		}
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static void writeVarint(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) throw new IOException("Truncated batch");
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static void readFully(InputStream in, byte[] buffer) throws IOException {
+		int read = 0;
+		while (read < buffer.length) {
+			int n = in.read(buffer, read, buffer.length - read);
+			if (n < 0) throw new IOException("Truncated batch");
+			read += n;
+		}
+	}
+}
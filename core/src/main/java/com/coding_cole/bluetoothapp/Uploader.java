@@ -0,0 +1,414 @@
+package com.coding_cole.bluetoothapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/*
+ * Sends readings to a collector over HTTP, in batches.
+ *
+ * Readings are collected into an UploadBatch until it holds enough of them or
+ * its first reading is old enough, then the batch is encoded and written to a
+ * spool directory, and the spool is sent oldest first, one POST per batch. A
+ * batch is deleted once the collector took it, so while offline the spool just
+ * grows (up to a limit, then the oldest batches go), and a new Uploader on the
+ * same directory carries on where the last one stopped. Failed sends are tried
+ * again with a growing delay.
+ *
+ * Delivery is at least once: a batch whose response got lost is sent again.
+ * Every POST carries the batch's file name in X-Batch-Id, so the collector can
+ * drop duplicates.
+ *
+ * Sealing batches into the spool runs on the executor, network I/O on the
+ * network executor, so a POST waiting on a slow collector holds up neither the
+ * readings nor the disk. Only the timers run on the scheduler. add() seals on
+ * the caller's thread when the batch is full, it is meant to be called on the
+ * executor. Thread safe.
+ */
+public final class Uploader {
+
+	public static final int DEFAULT_MAX_READINGS = 5000;
+	public static final long DEFAULT_MAX_AGE_MS = 60 * 1000;
+	public static final long DEFAULT_MAX_SPOOL_BYTES = 16 * 1024 * 1024;
+
+	public static final long FIRST_RETRY_MS = 5 * 1000;
+	public static final long MAX_RETRY_MS = 10 * 60 * 1000;
+
+	static final String SPOOL_SUFFIX = ".batch";
+	static final String BATCH_ID_HEADER = "X-Batch-Id";
+
+	private static final int TIMEOUT_MS = 15 * 1000;
+
+	private static final FilenameFilter SPOOLED = new FilenameFilter() {
+		@Override
+		public boolean accept(File dir, String name) {
+			return name.endsWith(SPOOL_SUFFIX);
+		}
+	};
+
+	private final URL mEndpoint;
+	private final File mSpool;
+	private final TaskScheduler mScheduler;
+	private final Executor mExecutor;
+	private final Executor mNetwork;
+
+	private int mMaxReadings = DEFAULT_MAX_READINGS;
+	private long mMaxAge = DEFAULT_MAX_AGE_MS;
+	private long mMaxSpoolBytes = DEFAULT_MAX_SPOOL_BYTES;
+
+	// guarded by this
+	private final UploadBatch mBatch = new UploadBatch();
+	private long mSequence;
+	private Object mAgeTimer;
+	private Object mRetryTimer;
+	private long mRetryDelay;
+	private boolean mSending;
+	private boolean mClosed;
+
+	private long mSentBatches;
+	private long mSentBytes;
+	private long mSpooledReadings;
+	private long mFailures;
+	private long mDiscarded;
+
+	public Uploader(URL endpoint, File spool, TaskScheduler scheduler, Executor executor, Executor network) {
+		mEndpoint = endpoint;
+		mSpool = spool;
+		mScheduler = scheduler;
+		mExecutor = executor;
+		mNetwork = network;
+	}
+
+	// seal a batch at this many readings
+	public synchronized Uploader setMaxReadings(int readings) {
+		mMaxReadings = readings;
+		return this;
+	}
+
+	// seal a batch this long after its first reading
+	public synchronized Uploader setMaxAge(long millis) {
+		mMaxAge = millis;
+		return this;
+	}
+
+	// spool size beyond which the oldest batches are dropped
+	public synchronized Uploader setMaxSpoolBytes(long bytes) {
+		mMaxSpoolBytes = bytes;
+		return this;
+	}
+
+	/*
+	 * Pick up the spool left by an earlier run and send it.
+	 */
+	public void start() throws IOException {
+		if (!mSpool.isDirectory() && !mSpool.mkdirs()) {
+			throw new IOException("Can't create " + mSpool);
+		}
+		synchronized (this) {
+			for (File file : spooled()) {
+				mSequence = Math.max(mSequence, sequenceOf(file) + 1);
+			}
+		}
+		send();
+	}
+
+	public synchronized void add(String device, int channel, long timestamp, double value) {
+		if (mClosed) return;
+		mBatch.add(device, channel, timestamp, value);
+		if (mBatch.size() == 1 && mAgeTimer == null) {
+			mAgeTimer = mScheduler.schedule(mSealOld, mMaxAge);
+		}
+		if (mBatch.size() >= mMaxReadings) {
+			sealAndSend();
+		}
+	}
+
+	/*
+	 * Readings are stamped with the time since boot, the collector wants wall clock
+	 * time: clockOffset is what to add to get it, System.currentTimeMillis() less
+	 * the time since boot.
+	 */
+	public void add(Reading reading, long clockOffset) {
+		int[] channels = reading.sensor.getChannels();
+		for (int i = 0; i < channels.length; i++) {
+			add(reading.device, channels[i], reading.timestamp + clockOffset, reading.values[i]);
+		}
+	}
+
+	// spool what has been collected so far and send it
+	public void flush() {
+		mExecutor.execute(mSeal);
+	}
+
+	/*
+	 * Spool what has been collected so far and stop, what didn't go out is sent
+	 * by the next Uploader. Readings the executor has yet to add go in too.
+	 */
+	public void close() {
+		mExecutor.execute(mClose);
+	}
+
+	// batches waiting in the spool
+	public int getPending() {
+		return spooled().length;
+	}
+
+	public synchronized long getSentBatches() {
+		return mSentBatches;
+	}
+
+	public synchronized long getSentBytes() {
+		return mSentBytes;
+	}
+
+	// readings sealed into the spool
+	public synchronized long getSpooledReadings() {
+		return mSpooledReadings;
+	}
+
+	public synchronized long getFailures() {
+		return mFailures;
+	}
+
+	// batches the collector refused or the spool had no room for
+	public synchronized long getDiscarded() {
+		return mDiscarded;
+	}
+
+	private void sealAndSend() {
+		if (seal()) send();
+	}
+
+	// encode the open batch into the spool, returns false if there was nothing to write
+	private boolean seal() {
+		if (mAgeTimer != null) {
+			mScheduler.cancel(mAgeTimer);
+			mAgeTimer = null;
+		}
+		if (mBatch.isEmpty()) return false;
+
+		int readings = mBatch.size();
+		File file = new File(mSpool, String.format("%012d", mSequence++) + SPOOL_SUFFIX);
+		File temp = new File(mSpool, file.getName() + ".tmp");
+		try {
+			byte[] payload = mBatch.encode();
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(payload);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				throw new IOException("Can't rename " + temp);
+			}
+		} catch (IOException e) {
+			// the disk is full or gone, there is nowhere to keep these
+			temp.delete();
+			mDiscarded++;
+			mBatch.clear();
+			return false;
+		}
+		mBatch.clear();
+		mSpooledReadings += readings;
+		trimSpool();
+		return true;
+	}
+
+	// drop the oldest batches until the spool fits, never the one just written
+	private void trimSpool() {
+		File[] files = spooled();
+		long bytes = 0;
+		for (File file : files) {
+			bytes += file.length();
+		}
+		for (int i = 0; i < files.length - 1 && bytes > mMaxSpoolBytes; i++) {
+			bytes -= files[i].length();
+			if (files[i].delete()) mDiscarded++;
+		}
+	}
+
+	private void send() {
+		synchronized (this) {
+			if (mSending || mRetryTimer != null || mClosed) return;
+			mSending = true;
+		}
+		mNetwork.execute(mSend);
+	}
+
+	private File[] spooled() {
+		File[] files = mSpool.listFiles(SPOOLED);
+		if (files == null) return new File[0];
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static long sequenceOf(File file) {
+		String name = file.getName();
+		try {
+			return Long.parseLong(name.substring(0, name.length() - SPOOL_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void cancelTimers() {
+		if (mAgeTimer != null) {
+			mScheduler.cancel(mAgeTimer);
+			mAgeTimer = null;
+		}
+		if (mRetryTimer != null) {
+			mScheduler.cancel(mRetryTimer);
+			mRetryTimer = null;
+		}
+	}
+
+	/*
+	 * POST one batch, returns the response code.
+	 */
+	private int post(String id, byte[] payload) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) mEndpoint.openConnection();
+		try {
+			connection.setConnectTimeout(TIMEOUT_MS);
+			connection.setReadTimeout(TIMEOUT_MS);
+			connection.setDoOutput(true);
+			connection.setRequestMethod("POST");
+			connection.setFixedLengthStreamingMode(payload.length);
+			connection.setRequestProperty("Content-Type", UploadBatch.CONTENT_TYPE);
+			connection.setRequestProperty("Content-Encoding", "gzip");
+			connection.setRequestProperty(BATCH_ID_HEADER, id);
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(payload);
+			} finally {
+				out.close();
+			}
+			int code = connection.getResponseCode();
+			// read the body out, so the connection can be kept alive for the next batch
+			InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				byte[] buffer = new byte[512];
+				while (in.read(buffer) >= 0) {
+				}
+				in.close();
+			}
+			return code;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < data.length) {
+				int n = in.read(data, read, data.length - read);
+				if (n < 0) throw new IOException("Short read of " + file);
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	private static boolean retryable(int code) {
+		// the collector may take it later; anything else in 4xx it never will
+		return code >= 500 || code == 408 || code == 429;
+	}
+
+	private final Runnable mSend = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				File[] files = spooled();
+				if (files.length == 0) break;
+				File file = files[0];
+				try {
+					byte[] payload = readFile(file);
+					int code = post(file.getName(), payload);
+					if (code >= 200 && code < 300) {
+						file.delete();
+						synchronized (Uploader.this) {
+							mSentBatches++;
+							mSentBytes += payload.length;
+							mRetryDelay = 0;
+						}
+						continue;
+					}
+					if (!retryable(code)) {
+						file.delete();
+						synchronized (Uploader.this) {
+							mDiscarded++;
+						}
+						continue;
+					}
+				} catch (IOException e) {
+					// offline, or the collector is down
+				}
+				synchronized (Uploader.this) {
+					mFailures++;
+					mSending = false;
+					mRetryDelay = mRetryDelay == 0 ? FIRST_RETRY_MS : Math.min(MAX_RETRY_MS, mRetryDelay * 2);
+					if (!mClosed) {
+						mRetryTimer = mScheduler.schedule(mRetry, mRetryDelay);
+					}
+				}
+				return;
+			}
+			synchronized (Uploader.this) {
+				mSending = false;
+			}
+		}
+	};
+
+	private final Runnable mRetry = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (Uploader.this) {
+				mRetryTimer = null;
+			}
+			send();
+		}
+	};
+
+	// on the scheduler, the sealing itself is left to the executor
+	private final Runnable mSealOld = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (Uploader.this) {
+				mAgeTimer = null;
+			}
+			mExecutor.execute(mSeal);
+		}
+	};
+
+	private final Runnable mSeal = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (Uploader.this) {
+				sealAndSend();
+			}
+		}
+	};
+
+	private final Runnable mClose = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (Uploader.this) {
+				seal();
+				mClosed = true;
+				cancelTimers();
+			}
+		}
+	};
+}
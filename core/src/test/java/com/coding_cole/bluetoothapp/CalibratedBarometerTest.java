@@ -0,0 +1,60 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The folded barometer conversion must track the reference formulas in {@link SensorTagData}.
+ */
+public class CalibratedBarometerTest {
+
+	private static final int[][] CALIBRATIONS = {
+			{0xB4CB, 0x0C62, 0x83C3, 0x1271, 0x003C, -2298, -11765, -738},
+			{0xFFFF, 0xFFFF, 0xFFFF, 0xFFFF, 32767, 32767, 32767, 32767},
+			{0, 0, 0, 0, -32768, -32768, -32768, -32768}
+	};
+
+	@Test
+	public void convert_matchesReference() {
+		double[] out = new double[2];
+
+		for (int[] c : CALIBRATIONS) {
+			CalibratedBarometer barometer = CalibratedBarometer.fromCoefficients(c);
+
+			for (int t_r = -32768; t_r <= 32767; t_r += 127) {
+				for (int p_r = 0; p_r <= 65535; p_r += 1021) {
+					barometer.convert(t_r, p_r, out);
+
+					assertClose(SensorTagData.barTemp(t_r, c), out[CalibratedBarometer.TEMPERATURE]);
+					assertClose(SensorTagData.barometer(t_r, p_r, c), out[CalibratedBarometer.PRESSURE]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void fromCalibration_readsRawBytes() {
+		byte[] calibration = {
+				(byte) 0xCB, (byte) 0xB4, (byte) 0x62, (byte) 0x0C, (byte) 0xC3, (byte) 0x83, (byte) 0x71, (byte) 0x12,
+				(byte) 0x3C, (byte) 0x00, (byte) 0x06, (byte) 0xF7, (byte) 0x0B, (byte) 0xD2, (byte) 0x1E, (byte) 0xFD
+		};
+		byte[] payload = {(byte) 0x00, (byte) 0x19, (byte) 0xC1, (byte) 0xC3};
+		double[] out = new double[2];
+
+		CalibratedBarometer.fromCalibration(calibration, 0).convert(payload, 0, out);
+
+		assertClose(SensorTagData.extractBarTemp(payload, 0, CALIBRATIONS[0]), out[CalibratedBarometer.TEMPERATURE]);
+		assertClose(SensorTagData.extractBarometer(payload, 0, CALIBRATIONS[0]), out[CalibratedBarometer.PRESSURE]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fromCoefficients_rejectsShortArray() {
+		CalibratedBarometer.fromCoefficients(new int[4]);
+	}
+
+	private static void assertClose(double expected, double actual) {
+		double tolerance = Math.max(Math.abs(expected) * 1e-12, 1e-12);
+		assertEquals(expected, actual, tolerance);
+	}
+}
@@ -0,0 +1,98 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ChartTraceTest {
+
+	@Test
+	public void columns_keepMinAndMax() {
+		SampleRing ring = new SampleRing(1024);
+		// ten columns of 100 ms, a sample every 10 ms with one spike
+		for (int t = 0; t < 1000; t += 10) {
+			ring.add(t, t == 550 ? 50 : 1);
+		}
+		ChartTrace trace = new ChartTrace(10, 1000);
+		assertTrue(trace.update(ring, 999));
+		assertEquals(1, trace.getLow(), 0);
+		assertEquals(50, trace.getHigh(), 0);
+
+		// 0..50 over 0..100 px: the spike is a bar in column 5, up to the top
+		float[] lines = trace.lines(0, 0, 100, 100, 0, 50);
+		boolean spike = false;
+		for (int i = 0; i < trace.count(); i += 4) {
+			if (lines[i] == 55 && lines[i + 2] == 55 && Math.min(lines[i + 1], lines[i + 3]) == 0) spike = true;
+		}
+		assertTrue(spike);
+		// nine joins and one bar
+		assertEquals(10 * 4, trace.count());
+	}
+
+	@Test
+	public void update_onlyWhenSomethingMoved() {
+		SampleRing ring = new SampleRing(64);
+		ring.add(100, 1);
+		ChartTrace trace = new ChartTrace(10, 1000);
+		assertTrue(trace.update(ring, 150));
+		assertFalse(trace.update(ring, 199));
+		// scrolled by a column
+		assertTrue(trace.update(ring, 200));
+		ring.add(210, 2);
+		assertTrue(trace.update(ring, 220));
+		assertEquals(2, trace.getHigh(), 0);
+	}
+
+	@Test
+	public void incrementalUpdates_matchAFullRead() {
+		SampleRing ring = new SampleRing(4096);
+		ChartTrace live = new ChartTrace(50, 5000);
+		for (int t = 0; t < 20000; t += 7) {
+			ring.add(t, Math.sin(t / 300.0) + (t % 1000 == 0 ? 3 : 0));
+			if (t % 16 < 7) live.update(ring, t);
+		}
+		live.update(ring, 20000);
+		ChartTrace full = new ChartTrace(50, 5000);
+		full.update(ring, 20000);
+
+		assertEquals(full.getLow(), live.getLow(), 0);
+		assertEquals(full.getHigh(), live.getHigh(), 0);
+		float[] expected = Arrays.copyOf(full.lines(0, 0, 500, 100, -2, 4), full.count());
+		float[] actual = Arrays.copyOf(live.lines(0, 0, 500, 100, -2, 4), live.count());
+		assertArrayEquals(expected, actual, 0);
+	}
+
+	@Test
+	public void oldSamples_scrollOff() {
+		SampleRing ring = new SampleRing(64);
+		ring.add(0, 10);
+		ring.add(5000, 1);
+		ChartTrace trace = new ChartTrace(10, 1000);
+		trace.update(ring, 5000);
+		assertEquals(1, trace.getLow(), 0);
+		assertEquals(1, trace.getHigh(), 0);
+
+		trace.update(ring, 7000);
+		assertTrue(Double.isNaN(trace.getHigh()));
+		trace.lines(0, 0, 100, 100, 0, 10);
+		assertEquals(0, trace.count());
+	}
+
+	@Test
+	public void gaps_areNotJoined() {
+		SampleRing ring = new SampleRing(64);
+		ring.add(1000, 1);
+		ring.add(1000 + ChartTrace.MAX_GAP_MS + 4000, 2);
+		ChartTrace trace = new ChartTrace(100, 200000);
+		trace.update(ring, 100000);
+		trace.lines(0, 0, 100, 100, 0, 2);
+		assertEquals(0, trace.count());
+
+		ring.add(90000, 3);
+		trace.update(ring, 100000);
+		trace.lines(0, 0, 100, 100, 0, 3);
+		assertEquals(4, trace.count());
+	}
+}
@@ -0,0 +1,163 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConnectionLifecycleTest {
+
+	private ManualScheduler mScheduler;
+	private ConnectionLifecycle mLifecycle;
+	private final List<String> mCalls = new ArrayList<String>();
+
+	@Before
+	public void setUp() {
+		mScheduler = new ManualScheduler();
+		mLifecycle = new ConnectionLifecycle(mScheduler, new ConnectionLifecycle.Actions() {
+			@Override
+			public void connect(boolean reuse) {
+				mCalls.add(reuse ? "reconnect" : "connect");
+			}
+
+			@Override
+			public void discoverServices() {
+				mCalls.add("discover");
+			}
+
+			@Override
+			public void configure() {
+				mCalls.add("configure");
+			}
+
+			@Override
+			public void disconnect(boolean close) {
+				mCalls.add(close ? "close" : "disconnect");
+			}
+
+			@Override
+			public void onStateChanged(int state) {
+			}
+		});
+	}
+
+	private void stream(boolean servicesKnown) {
+		mLifecycle.onConnected(servicesKnown);
+		if (!servicesKnown) mLifecycle.onServicesDiscovered(true);
+		mLifecycle.onConfigured();
+		assertEquals(ConnectionLifecycle.STREAMING, mLifecycle.getState());
+	}
+
+	@Test
+	public void firstConnection_discoversServices() {
+		mLifecycle.start();
+		stream(false);
+		assertEquals("[connect, discover, configure]", mCalls.toString());
+		assertEquals(0, mScheduler.pending());
+	}
+
+	@Test
+	public void drop_reconnectsRightAwayWithoutDiscovery() {
+		mLifecycle.start();
+		stream(false);
+		mCalls.clear();
+
+		mLifecycle.onDisconnected();
+		assertEquals(ConnectionLifecycle.BACKOFF, mLifecycle.getState());
+		mScheduler.advance(0);
+		assertEquals(ConnectionLifecycle.CONNECTING, mLifecycle.getState());
+		stream(true);
+		assertEquals("[reconnect, configure]", mCalls.toString());
+		assertEquals(0, mLifecycle.getAttempts());
+	}
+
+	@Test
+	public void failures_backOffExponentially() {
+		mLifecycle.start();
+		long[] expected = {0, 250, 500, 1000, 2000};
+		for (long wait : expected) {
+			mLifecycle.onFailure();
+			assertEquals(ConnectionLifecycle.BACKOFF, mLifecycle.getState());
+			if (wait > 0) {
+				mScheduler.advance(wait - 1);
+				assertEquals(ConnectionLifecycle.BACKOFF, mLifecycle.getState());
+				mScheduler.advance(1);
+			} else {
+				mScheduler.advance(0);
+			}
+			assertEquals(ConnectionLifecycle.CONNECTING, mLifecycle.getState());
+		}
+		// the first reconnect reuses the link, later ones open a new one
+		assertEquals("reconnect", mCalls.get(2));
+		assertEquals("connect", mCalls.get(mCalls.size() - 1));
+
+		assertEquals(ConnectionLifecycle.MAX_BACKOFF_MS, ConnectionLifecycle.backoff(40));
+	}
+
+	@Test
+	public void slowReuse_fallsBackToAFreshLinkQuickly() {
+		mLifecycle.start();
+		stream(false);
+		mCalls.clear();
+
+		mLifecycle.onDisconnected();
+		mScheduler.advance(0);
+		assertEquals("[reconnect]", mCalls.toString());
+
+		// the reused link is still connecting in the background, give up on it
+		mScheduler.advance(ConnectionLifecycle.REUSE_TIMEOUT_MS);
+		assertEquals(ConnectionLifecycle.BACKOFF, mLifecycle.getState());
+		mScheduler.advance(ConnectionLifecycle.backoff(2));
+		assertEquals("[reconnect, disconnect, connect]", mCalls.toString());
+		assertTrue(mScheduler.now() < 2000);
+		stream(false);
+	}
+
+	@Test
+	public void seen_cutsTheBackoffShort() {
+		mLifecycle.start();
+		for (int i = 0; i < 4; i++) {
+			mLifecycle.onFailure();
+			mScheduler.advance(ConnectionLifecycle.MAX_BACKOFF_MS);
+		}
+		mLifecycle.onFailure();
+		assertEquals(ConnectionLifecycle.BACKOFF, mLifecycle.getState());
+
+		mLifecycle.onSeen();
+		assertEquals(ConnectionLifecycle.CONNECTING, mLifecycle.getState());
+		// the backoff timer is gone, only the connect timeout is left
+		assertEquals(1, mScheduler.pending());
+
+		// and it means nothing while connected
+		mLifecycle.onSeen();
+		assertEquals(ConnectionLifecycle.CONNECTING, mLifecycle.getState());
+	}
+
+	@Test
+	public void stuckStep_timesOut() {
+		mLifecycle.start();
+		mLifecycle.onConnected(false);
+		mScheduler.advance(ConnectionLifecycle.SETUP_TIMEOUT_MS);
+		assertEquals(ConnectionLifecycle.CONNECTING, mLifecycle.getState());
+		assertTrue(mCalls.contains("disconnect"));
+	}
+
+	@Test
+	public void close_stopsReconnecting() {
+		mLifecycle.start();
+		stream(false);
+		mLifecycle.onDisconnected();
+		mLifecycle.close();
+		mScheduler.advance(60 * 1000);
+		assertEquals(ConnectionLifecycle.CLOSED, mLifecycle.getState());
+		assertEquals("close", mCalls.get(mCalls.size() - 1));
+
+		// late events of the old link change nothing
+		mLifecycle.onConnected(true);
+		mLifecycle.onConfigured();
+		assertEquals(ConnectionLifecycle.CLOSED, mLifecycle.getState());
+	}
+}
@@ -0,0 +1,100 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeadbandFilterTest {
+
+	private static final int HUMIDITY = SensorRegistry.HUMIDITY.getDataKind();
+	private static final int BAROMETER = SensorRegistry.BAROMETER.getDataKind();
+
+	private DeadbandFilter mFilter;
+	private final double[] mValues = new double[Channel.COUNT];
+
+	@Before
+	public void setUp() {
+		mFilter = new DeadbandFilter(2)
+				.filter(SensorRegistry.HUMIDITY, 10000)
+				.filter(SensorRegistry.BAROMETER, 10000)
+				.deadband(Channel.HUMIDITY, 0.5, 0)
+				.deadband(Channel.PRESSURE, 0, 1);
+	}
+
+	private boolean humidity(int slot, double value, long now) {
+		mValues[Channel.HUMIDITY] = value;
+		return mFilter.isSignificant(slot, SensorRegistry.HUMIDITY, mValues, now);
+	}
+
+	@Test
+	public void repeatedFrames_areDuplicatesUntilTheHeartbeat() {
+		byte[] frame = {1, 2, 3, 4};
+		assertFalse(mFilter.isDuplicate(0, HUMIDITY, frame, 0));
+		assertTrue(humidity(0, 40, 0));
+
+		assertTrue(mFilter.isDuplicate(0, HUMIDITY, frame.clone(), 1000));
+		// other slots and sensors have their own
+		assertFalse(mFilter.isDuplicate(1, HUMIDITY, frame, 1000));
+		assertFalse(mFilter.isDuplicate(0, BAROMETER, frame, 1000));
+
+		assertFalse(mFilter.isDuplicate(0, HUMIDITY, frame, 10000));
+		assertTrue(humidity(0, 40, 10000));
+		assertTrue(mFilter.isDuplicate(0, HUMIDITY, frame, 11000));
+		assertFalse(mFilter.isDuplicate(0, HUMIDITY, new byte[]{1, 2, 3, 5}, 12000));
+	}
+
+	@Test
+	public void absoluteDeadband_measuresFromTheLastValuePassed() {
+		assertTrue(humidity(0, 40, 0));
+		assertFalse(humidity(0, 40.3, 1000));
+		assertFalse(humidity(0, 39.6, 2000));
+		// a slow drift adds up
+		assertTrue(humidity(0, 40.5, 3000));
+		assertFalse(humidity(0, 40.9, 4000));
+		assertTrue(humidity(0, 41.0, 5000));
+	}
+
+	@Test
+	public void percentDeadband_anyChannelPasses() {
+		mValues[Channel.TEMPERATURE] = 20;
+		mValues[Channel.PRESSURE] = 30;
+		assertTrue(mFilter.isSignificant(0, SensorRegistry.BAROMETER, mValues, 0));
+
+		// pressure within 1 %, temperature has no deadband so any change goes
+		mValues[Channel.PRESSURE] = 30.2;
+		assertFalse(mFilter.isSignificant(0, SensorRegistry.BAROMETER, mValues, 1000));
+		mValues[Channel.TEMPERATURE] = 20.01;
+		assertTrue(mFilter.isSignificant(0, SensorRegistry.BAROMETER, mValues, 2000));
+		// every channel of a frame that passed is the new reference
+		mValues[Channel.PRESSURE] = 30.5;
+		assertFalse(mFilter.isSignificant(0, SensorRegistry.BAROMETER, mValues, 3000));
+		mValues[Channel.PRESSURE] = 30.6;
+		assertTrue(mFilter.isSignificant(0, SensorRegistry.BAROMETER, mValues, 3000));
+	}
+
+	@Test
+	public void heartbeat_passesSteadyValues() {
+		assertTrue(humidity(0, 40, 0));
+		assertFalse(humidity(0, 40, 9999));
+		assertTrue(humidity(0, 40, 10000));
+		assertFalse(humidity(0, 40, 10001));
+	}
+
+	@Test
+	public void reset_andUnfilteredSensors_passEverything() {
+		assertTrue(humidity(0, 40, 0));
+		mFilter.reset(0);
+		assertTrue(humidity(0, 40, 1));
+
+		byte[] frame = new byte[6];
+		int kind = SensorRegistry.IR_TEMPERATURE.getDataKind();
+		assertFalse(mFilter.isDuplicate(0, kind, frame, 0));
+		assertFalse(mFilter.isDuplicate(0, kind, frame, 0));
+		assertTrue(mFilter.isSignificant(0, SensorRegistry.IR_TEMPERATURE, mValues, 0));
+		// calibrations are never held back
+		int calibration = SensorRegistry.BAROMETER.getCalibrationKind();
+		assertFalse(mFilter.isDuplicate(0, calibration, frame, 0));
+		assertFalse(mFilter.isDuplicate(0, calibration, frame, 0));
+	}
+}
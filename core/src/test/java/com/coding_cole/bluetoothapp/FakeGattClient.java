@@ -0,0 +1,51 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Records the calls a {@link GattQueue} makes, tests answer them through the queue.
+ */
+class FakeGattClient implements GattClient {
+
+	final List<String> calls = new ArrayList<String>();
+
+	// make the next start calls fail
+	int refuse;
+
+	@Override
+	public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+		return record("write " + characteristic);
+	}
+
+	@Override
+	public boolean readCharacteristic(UUID service, UUID characteristic) {
+		return record("read " + characteristic);
+	}
+
+	@Override
+	public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+		calls.add("notify " + characteristic + " " + enable);
+		return true;
+	}
+
+	@Override
+	public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+		return record("descriptor " + characteristic);
+	}
+
+	@Override
+	public boolean requestMtu(int mtu) {
+		return record("mtu " + mtu);
+	}
+
+	private boolean record(String call) {
+		calls.add(call);
+		if (refuse > 0) {
+			refuse--;
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,137 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class FrameLogTest {
+
+	private static final UUID HUMIDITY = UUID.fromString("f000aa21-0451-4000-b000-000000000000");
+	private static final UUID PRESSURE = UUID.fromString("f000aa41-0451-4000-b000-000000000000");
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws Exception {
+		File dir = mFolder.newFolder();
+		FrameLogWriter writer = new FrameLogWriter(dir);
+		writer.start();
+		writer.append(1000, "AA:BB", HUMIDITY, new byte[]{1, 2, 3, 4});
+		writer.append(1100, "CC:DD", PRESSURE, new byte[]{5, 6, 7, 8});
+		writer.append(1050, "AA:BB", PRESSURE, new byte[]{9});
+		writer.close();
+
+		List<File> segments = FrameLog.segments(dir);
+		assertEquals(1, segments.size());
+
+		FrameLog.Reader reader = new FrameLog.Reader(segments.get(0));
+		FrameLog.Frame frame = new FrameLog.Frame();
+
+		assertTrue(reader.next(frame));
+		assertEquals(1000, frame.timestamp);
+		assertEquals("AA:BB", frame.device);
+		assertEquals(HUMIDITY, frame.characteristic);
+		assertArrayEquals(new byte[]{1, 2, 3, 4}, frame.copyValue());
+
+		assertTrue(reader.next(frame));
+		assertEquals("CC:DD", frame.device);
+		assertEquals(PRESSURE, frame.characteristic);
+
+		// time going backwards is kept as is
+		assertTrue(reader.next(frame));
+		assertEquals(1050, frame.timestamp);
+		assertArrayEquals(new byte[]{9}, frame.copyValue());
+
+		assertFalse(reader.next(frame));
+		reader.close();
+
+		assertTrue("small on disk", segments.get(0).length() < FrameLog.HEADER_BYTES + 3 * 12 + 2 * 20 + 2 * 10);
+	}
+
+	@Test
+	public void rollsSegmentsBySize() throws Exception {
+		File dir = mFolder.newFolder();
+		FrameLogWriter writer = new FrameLogWriter(dir, 4096, 1024, 10, 1000);
+		writer.start();
+		for (int i = 0; i < 1000; i++) {
+			while (!writer.append(i, "AA:BB", HUMIDITY, new byte[]{(byte) i, 0, 0, 0})) {
+				Thread.sleep(1);
+			}
+		}
+		writer.close();
+
+		List<File> segments = FrameLog.segments(dir);
+		assertTrue(segments.size() > 1);
+
+		// every segment defines its own devices, and frames come back in order
+		FrameLog.Frame frame = new FrameLog.Frame();
+		int expected = 0;
+		for (File segment : segments) {
+			FrameLog.Reader reader = new FrameLog.Reader(segment);
+			while (reader.next(frame)) {
+				assertEquals(expected, frame.timestamp);
+				assertEquals("AA:BB", frame.device);
+				assertEquals((byte) expected, frame.value[0]);
+				expected++;
+			}
+			reader.close();
+		}
+		assertEquals(1000, expected);
+		assertEquals(1000, writer.getAppended());
+	}
+
+	@Test
+	public void fullBuffer_dropsInsteadOfBlocking() throws Exception {
+		File dir = mFolder.newFolder();
+		// never started, nothing drains the buffer
+		FrameLogWriter writer = new FrameLogWriter(dir, 64, 1024, 10, 1000);
+
+		int accepted = 0;
+		for (int i = 0; i < 10; i++) {
+			if (writer.append(i, "AA:BB", HUMIDITY, new byte[4])) accepted++;
+		}
+		writer.close();
+
+		assertEquals(2, accepted);
+		assertEquals(8, writer.getDropped());
+	}
+
+	@Test
+	public void truncatedSegment_readsCompleteRecords() throws Exception {
+		File dir = mFolder.newFolder();
+		FrameLogWriter writer = new FrameLogWriter(dir);
+		writer.append(1, "AA:BB", HUMIDITY, new byte[]{1, 2, 3, 4});
+		writer.append(2, "AA:BB", HUMIDITY, new byte[]{5, 6, 7, 8});
+		writer.close();
+
+		File segment = FrameLog.segments(dir).get(0);
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(file.length() - 2);
+		file.close();
+
+		FrameLog.Reader reader = new FrameLog.Reader(segment);
+		FrameLog.Frame frame = new FrameLog.Frame();
+		assertTrue(reader.next(frame));
+		assertFalse(reader.next(frame));
+		reader.close();
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void rejectsOtherFiles() throws Exception {
+		File file = mFolder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[]{'n', 'o', 'p', 'e', 1, 0, 0, 0, 0, 0, 0, 0, 0});
+		out.close();
+
+		new FrameLog.Reader(file);
+	}
+}
@@ -0,0 +1,222 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattQueueTest {
+
+	private static final UUID SERVICE = UUID.fromString("f000aa40-0451-4000-b000-000000000000");
+	private static final UUID CONFIG = UUID.fromString("f000aa42-0451-4000-b000-000000000000");
+	private static final UUID DATA = UUID.fromString("f000aa41-0451-4000-b000-000000000000");
+
+	private FakeGattClient mClient;
+	private ManualScheduler mScheduler;
+	private GattQueue mQueue;
+
+	private final List<GattOperation> mCompleted = new ArrayList<GattOperation>();
+	private final List<GattOperation> mFailed = new ArrayList<GattOperation>();
+	private int mIdle;
+
+	@Before
+	public void setUp() {
+		mClient = new FakeGattClient();
+		mScheduler = new ManualScheduler();
+		mQueue = new GattQueue(mClient, mScheduler, new GattQueue.Listener() {
+			@Override
+			public void onOperationComplete(GattOperation operation, int status) {
+				mCompleted.add(operation);
+			}
+
+			@Override
+			public void onOperationFailed(GattOperation operation) {
+				mFailed.add(operation);
+			}
+
+			@Override
+			public void onQueueIdle() {
+				mIdle++;
+			}
+		}, 1000, 1);
+	}
+
+	@Test
+	public void runsOneOperationAtATime() {
+		mQueue.enqueue(GattOperation.write(SERVICE, CONFIG, new byte[]{1}));
+		mQueue.enqueue(GattOperation.read(SERVICE, DATA));
+		mQueue.enqueue(GattOperation.enableNotification(SERVICE, DATA));
+
+		assertEquals(Arrays.asList("write " + CONFIG), mClient.calls);
+
+		mQueue.onCharacteristicWrite(CONFIG, 0);
+		assertEquals(Arrays.asList("write " + CONFIG, "read " + DATA), mClient.calls);
+
+		mQueue.onCharacteristicRead(DATA, 0);
+		mQueue.onDescriptorWrite(DATA, GattOperation.CONFIG_DESCRIPTOR, 0);
+
+		assertEquals(Arrays.asList("write " + CONFIG, "read " + DATA, "notify " + DATA + " true", "descriptor " + DATA),
+				mClient.calls);
+		assertEquals(3, mCompleted.size());
+		assertEquals(1, mIdle);
+		assertTrue(mQueue.isIdle());
+		assertEquals(0, mScheduler.pending());
+	}
+
+	@Test
+	public void mtuRequest_completesLikeAnyOperation() {
+		mQueue.enqueue(GattOperation.requestMtu(247));
+		mQueue.enqueue(GattOperation.read(SERVICE, DATA));
+		assertEquals(Arrays.asList("mtu 247"), mClient.calls);
+
+		// a late read answer doesn't complete the exchange
+		mQueue.onCharacteristicRead(DATA, 0);
+		assertEquals(0, mCompleted.size());
+
+		mQueue.onMtuChanged(23, 0);
+		assertEquals(GattOperation.MTU, mCompleted.get(0).getType());
+		assertEquals(Arrays.asList("mtu 247", "read " + DATA), mClient.calls);
+	}
+
+	@Test
+	public void lostCallback_retriesThenFails() {
+		GattOperation read = GattOperation.read(SERVICE, DATA);
+		mQueue.enqueue(read);
+		mQueue.enqueue(GattOperation.write(SERVICE, CONFIG, new byte[]{1}));
+
+		mScheduler.advance(1000);
+		assertEquals(Arrays.asList("read " + DATA, "read " + DATA), mClient.calls);
+
+		mScheduler.advance(1000);
+		assertEquals(Arrays.asList(read), mFailed);
+
+		// the queue moved on to the next operation
+		assertEquals("write " + CONFIG, mClient.calls.get(2));
+	}
+
+	@Test
+	public void lateCallback_isIgnored() {
+		mQueue.enqueue(GattOperation.read(SERVICE, DATA));
+		mScheduler.advance(1000);
+		mQueue.onCharacteristicRead(DATA, 0);
+
+		// the retried read completed, a second late callback must not complete anything
+		mQueue.onCharacteristicRead(DATA, 0);
+
+		assertEquals(1, mCompleted.size());
+		assertTrue(mQueue.isIdle());
+	}
+
+	@Test
+	public void refusedStart_isRetriedShortly() {
+		mClient.refuse = 1;
+		mQueue.enqueue(GattOperation.write(SERVICE, CONFIG, new byte[]{1}));
+
+		mScheduler.advance(GattQueue.START_RETRY_DELAY_MS);
+		assertEquals(2, mClient.calls.size());
+
+		mQueue.onCharacteristicWrite(CONFIG, 0);
+		assertEquals(1, mCompleted.size());
+		assertTrue(mFailed.isEmpty());
+	}
+
+	@Test
+	public void busyStack_doesNotUseUpTheRetries() {
+		// refused for 750 ms, longer than the queue's retries would last at the first delay
+		mClient.refuse = 4;
+		mQueue.enqueue(GattOperation.write(SERVICE, CONFIG, new byte[]{1}));
+		mQueue.enqueue(GattOperation.read(SERVICE, DATA));
+
+		mScheduler.advance(GattQueue.START_RETRY_DELAY_MS * 15 - 1);
+		assertEquals(4, mClient.calls.size());
+		mScheduler.advance(1);
+		assertEquals(5, mClient.calls.size());
+		assertTrue(mFailed.isEmpty());
+
+		// the timeout retry is still there
+		mScheduler.advance(1000);
+		assertEquals(6, mClient.calls.size());
+		mQueue.onCharacteristicWrite(CONFIG, 0);
+		assertEquals(1, mCompleted.size());
+		assertEquals("read " + DATA, mClient.calls.get(6));
+		assertTrue(mFailed.isEmpty());
+	}
+
+	@Test
+	public void stackBusyForGood_failsTheOperation() {
+		mClient.refuse = Integer.MAX_VALUE;
+		mQueue.enqueue(GattOperation.write(SERVICE, CONFIG, new byte[]{1}));
+		mScheduler.advance(10000);
+		assertEquals(GattQueue.MAX_START_REFUSALS, mClient.calls.size());
+		assertEquals(1, mFailed.size());
+		assertTrue(mQueue.isIdle());
+	}
+
+	@Test
+	public void synchronousClient_drainsWithoutRecursion() {
+		final GattQueue[] queue = new GattQueue[1];
+		GattClient client = new FakeGattClient() {
+			@Override
+			public boolean readCharacteristic(UUID service, UUID characteristic) {
+				queue[0].onCharacteristicRead(characteristic, 0);
+				return true;
+			}
+		};
+		final int[] completed = new int[1];
+		queue[0] = new GattQueue(client, mScheduler, new GattQueue.Listener() {
+			@Override
+			public void onOperationComplete(GattOperation operation, int status) {
+				completed[0]++;
+			}
+
+			@Override
+			public void onOperationFailed(GattOperation operation) {
+			}
+
+			@Override
+			public void onQueueIdle() {
+			}
+		});
+
+		for (int i = 0; i < 10000; i++) {
+			queue[0].enqueue(GattOperation.read(SERVICE, DATA));
+		}
+
+		assertEquals(10000, completed[0]);
+		assertEquals(0, mScheduler.pending());
+	}
+
+	@Test
+	public void clear_dropsPending() {
+		mQueue.enqueue(GattOperation.read(SERVICE, DATA));
+		mQueue.enqueue(GattOperation.write(SERVICE, CONFIG, new byte[]{1}));
+
+		mQueue.clear();
+		mScheduler.advance(5000);
+
+		assertTrue(mQueue.isIdle());
+		assertEquals(1, mClient.calls.size());
+		assertTrue(mFailed.isEmpty());
+	}
+
+	@Test
+	public void metrics_recordLatencyTimeoutsAndFailures() {
+		Metrics metrics = new Metrics();
+		mQueue.setMetrics(metrics);
+
+		mQueue.enqueue(GattOperation.write(SERVICE, CONFIG, new byte[]{1}));
+		mQueue.onCharacteristicWrite(CONFIG, 0);
+		mQueue.enqueue(GattOperation.read(SERVICE, DATA));
+		mScheduler.advance(2000);
+
+		assertEquals(1, metrics.histogram("gatt.write").getCount());
+		assertEquals(0, metrics.histogram("gatt.read").getCount());
+		assertEquals(2, metrics.counter("gatt.timeouts").get());
+		assertEquals(1, metrics.counter("gatt.failures").get());
+	}
+}
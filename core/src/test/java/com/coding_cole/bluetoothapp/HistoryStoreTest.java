@@ -0,0 +1,198 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HistoryStoreTest {
+
+	private static final String TAG = "B0:B4:48:00:00:01";
+
+	// a Monday, in wall clock milliseconds
+	private static final long START = 1760918400000L;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private final List<Long> mTimes = new ArrayList<Long>();
+	private final List<Double> mValues = new ArrayList<Double>();
+
+	private final SampleBlock.Visitor mCollect = new SampleBlock.Visitor() {
+		@Override
+		public void onSample(long time, double value) {
+			mTimes.add(time);
+			mValues.add(value);
+		}
+	};
+
+	@Test
+	public void block_roundTripsAwkwardSamples() {
+		SampleBlock block = new SampleBlock(SampleBlock.DEFAULT_BYTES);
+		long[] times = {-5, 0, 0, 1000, 1999, 3000, 3000 + (1L << 40), Long.MAX_VALUE / 2};
+		double[] values = {0, -0.0, Double.NaN, 1e300, -1e-300, 22.5, 22.5, Double.MIN_VALUE};
+		for (int i = 0; i < times.length; i++) {
+			assertTrue(block.add(times[i], values[i]));
+		}
+		SampleBlock.decode(block.buffer(), 0, block.count(), Long.MIN_VALUE, Long.MAX_VALUE, mCollect);
+		assertEquals(times.length, mTimes.size());
+		for (int i = 0; i < times.length; i++) {
+			assertEquals(times[i], (long) mTimes.get(i));
+			assertEquals(Double.doubleToLongBits(values[i]), Double.doubleToLongBits(mValues.get(i)));
+		}
+	}
+
+	@Test
+	public void block_fillsUpToItsSize() {
+		SampleBlock block = new SampleBlock(256);
+		Random random = new Random(1);
+		int added = 0;
+		while (block.add(added * 1000L + random.nextInt(100), random.nextDouble())) {
+			added++;
+		}
+		assertTrue(block.size() <= 256);
+		assertEquals(added, SampleBlock.decode(block.buffer(), 0, block.count(), 0, Long.MAX_VALUE, mCollect));
+	}
+
+	@Test
+	public void week_compressesAndQueriesQuickly() throws Exception {
+		File dir = mFolder.newFolder();
+		HistoryStore store = new HistoryStore(dir).setPrecision(Channel.HUMIDITY, 7);
+		store.open();
+
+		// a week of humidity once a second, with a little jitter and noise
+		Random random = new Random(7);
+		double humidity = 45;
+		int samples = 7 * 24 * 3600;
+		for (int i = 0; i < samples; i++) {
+			humidity = Math.max(20, Math.min(80, humidity + random.nextGaussian() * 0.02));
+			store.add(TAG, Channel.HUMIDITY, START + i * 1000L + random.nextInt(20), humidity);
+		}
+		store.flush();
+		double perSample = (double) store.sizeBytes() / samples;
+		assertTrue("bytes per sample " + perSample, perSample < 3);
+
+		// reopened, so the index comes from the disk
+		store = new HistoryStore(dir);
+		store.open();
+		long week = 7 * HistoryStore.DAY_MS;
+		SampleRing.Stats stats = new SampleRing.Stats();
+		long started = System.nanoTime();
+		assertTrue(store.aggregate(TAG, Channel.HUMIDITY, START, START + week, stats));
+		long aggregateMillis = (System.nanoTime() - started) / 1000000;
+		assertEquals(samples, stats.count);
+		assertTrue(stats.min >= 20 && stats.max <= 80);
+		assertTrue("aggregate took " + aggregateMillis + " ms", aggregateMillis < 500);
+
+		started = System.nanoTime();
+		final long[] count = new long[1];
+		store.read(TAG, Channel.HUMIDITY, START, START + week, new SampleBlock.Visitor() {
+			@Override
+			public void onSample(long time, double value) {
+				count[0]++;
+			}
+		});
+		long readMillis = (System.nanoTime() - started) / 1000000;
+		assertEquals(samples, count[0]);
+		assertTrue("read took " + readMillis + " ms", readMillis < 2000);
+	}
+
+	@Test
+	public void read_returnsTheRangeAcrossDaysAndTheOpenBlock() throws Exception {
+		HistoryStore store = new HistoryStore(mFolder.newFolder(), 128);
+		store.open();
+		for (int i = 0; i < 100; i++) {
+			// one sample an hour, across five days
+			store.add(TAG, Channel.PRESSURE, START + i * 3600 * 1000L, i);
+		}
+		assertEquals(30, store.read(TAG, Channel.PRESSURE, START + 10 * 3600 * 1000L, START + 40 * 3600 * 1000L,
+				mCollect));
+		assertEquals(10, mValues.get(0), 0);
+		assertEquals(39, mValues.get(29), 0);
+
+		// the newest samples are still in the open block
+		mValues.clear();
+		store.read(TAG, Channel.PRESSURE, START + 99 * 3600 * 1000L, Long.MAX_VALUE, mCollect);
+		assertEquals(1, mValues.size());
+		assertEquals(0, store.read(TAG, Channel.HUMIDITY, 0, Long.MAX_VALUE, mCollect));
+		assertEquals(0, store.read("nobody", Channel.PRESSURE, 0, Long.MAX_VALUE, mCollect));
+	}
+
+	@Test
+	public void aggregate_matchesTheSamples() throws Exception {
+		HistoryStore store = new HistoryStore(mFolder.newFolder(), 128);
+		store.open();
+		for (int i = 0; i < 1000; i++) {
+			store.add(TAG, Channel.TEMPERATURE, START + i * 1000L, i % 100);
+		}
+		SampleRing.Stats stats = new SampleRing.Stats();
+		assertTrue(store.aggregate(TAG, Channel.TEMPERATURE, START + 150 * 1000L, START + 750 * 1000L, stats));
+		assertEquals(600, stats.count);
+		assertEquals(0, stats.min, 0);
+		assertEquals(99, stats.max, 0);
+		assertEquals(49.5, stats.mean, 1e-9);
+		assertEquals(START + 150 * 1000L, stats.firstTime);
+		assertEquals(START + 749 * 1000L, stats.lastTime);
+		assertFalse(store.aggregate(TAG, Channel.TEMPERATURE, 0, START, stats));
+	}
+
+	@Test
+	public void valueFilter_skipsBlocksOutOfRange() throws Exception {
+		HistoryStore store = new HistoryStore(mFolder.newFolder(), 128);
+		store.open();
+		for (int i = 0; i < 1000; i++) {
+			store.add(TAG, Channel.HUMIDITY, START + i * 1000L, i < 500 ? 40 : 60);
+		}
+		store.flush();
+		int visited = store.read(TAG, Channel.HUMIDITY, 0, Long.MAX_VALUE, 55, 100, mCollect);
+		assertTrue(visited >= 500 && visited < 1000);
+		assertEquals(60, mValues.get(mValues.size() - 1), 0);
+	}
+
+	@Test
+	public void tornBlock_isCutOffOnOpen() throws Exception {
+		File dir = mFolder.newFolder();
+		HistoryStore store = new HistoryStore(dir, 128);
+		store.open();
+		for (int i = 0; i < 200; i++) {
+			store.add(TAG, Channel.HUMIDITY, START + i * 1000L, i);
+		}
+		store.close();
+
+		File file = new File(new File(new File(dir, TAG.replace(':', '-')), String.valueOf(Channel.HUMIDITY)),
+				START / HistoryStore.DAY_MS + ".blocks");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		store = new HistoryStore(dir, 128);
+		store.open();
+		int kept = store.read(TAG, Channel.HUMIDITY, 0, Long.MAX_VALUE, mCollect);
+		assertTrue(kept > 100 && kept < 200);
+		// and writing goes on after what was kept
+		store.add(TAG, Channel.HUMIDITY, START + 500 * 1000L, 500);
+		store.flush();
+		mValues.clear();
+		assertEquals(kept + 1, store.read(TAG, Channel.HUMIDITY, 0, Long.MAX_VALUE, mCollect));
+	}
+
+	@Test
+	public void retention_dropsOldDays() throws Exception {
+		HistoryStore store = new HistoryStore(mFolder.newFolder()).setRetentionDays(3);
+		store.open();
+		for (int day = 0; day < 10; day++) {
+			store.add(TAG, Channel.HUMIDITY, START + day * HistoryStore.DAY_MS, day);
+		}
+		store.flush();
+		store.read(TAG, Channel.HUMIDITY, 0, Long.MAX_VALUE, mCollect);
+		assertEquals(4, mValues.size());
+		assertEquals(6, mValues.get(0), 0);
+	}
+}
@@ -0,0 +1,204 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class LinkPolicyTest {
+
+	private ManualScheduler mScheduler;
+	private LinkPolicy mPolicy;
+	private final List<Integer> mPriorities = new ArrayList<Integer>();
+
+	// only takes priorities, the policy doesn't touch the rest
+	private final GattLink mLink = new GattLink() {
+		@Override
+		public String getAddress() {
+			return "5A:1D:00:00:00:01";
+		}
+
+		@Override
+		public boolean reconnect() {
+			return false;
+		}
+
+		@Override
+		public boolean discoverServices() {
+			return false;
+		}
+
+		@Override
+		public boolean requestConnectionPriority(int priority) {
+			mPriorities.add(priority);
+			return true;
+		}
+
+		@Override
+		public boolean hasCharacteristic(UUID service, UUID characteristic) {
+			return false;
+		}
+
+		@Override
+		public void disconnect() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+			return false;
+		}
+
+		@Override
+		public boolean readCharacteristic(UUID service, UUID characteristic) {
+			return false;
+		}
+
+		@Override
+		public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+			return false;
+		}
+
+		@Override
+		public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+			return false;
+		}
+
+		@Override
+		public boolean requestMtu(int mtu) {
+			return false;
+		}
+	};
+
+	@Before
+	public void setUp() {
+		mScheduler = new ManualScheduler();
+		mPolicy = new LinkPolicy(mScheduler, new Metrics());
+	}
+
+	// notifications at a steady rate for one look of the policy
+	private void stream(double perSecond) {
+		int count = (int) Math.round(perSecond * LinkPolicy.EVALUATE_MS / 1000);
+		for (int i = 0; i < count; i++) {
+			mPolicy.onNotification();
+		}
+		mScheduler.advance(LinkPolicy.EVALUATE_MS);
+	}
+
+	@Test
+	public void setup_runsAtHighPriorityUntilStreaming() {
+		mPolicy.onSetup(mLink);
+		mPolicy.onSetup(mLink);
+		assertEquals(Arrays.asList(GattLink.PRIORITY_HIGH), mPriorities);
+
+		mPolicy.onStreaming();
+		assertEquals(GattLink.PRIORITY_BALANCED, mPolicy.getPriority());
+	}
+
+	@Test
+	public void slowStream_stepsDownAfterTwoLooks() {
+		mPolicy.onSetup(mLink);
+		mPolicy.onStreaming();
+
+		stream(2);
+		assertEquals(GattLink.PRIORITY_BALANCED, mPolicy.getPriority());
+		stream(2);
+		assertEquals(GattLink.PRIORITY_LOW_POWER, mPolicy.getPriority());
+
+		// and stays there
+		stream(2);
+		stream(2);
+		assertEquals(GattLink.PRIORITY_LOW_POWER, mPolicy.getPriority());
+		assertEquals(3, mPriorities.size());
+	}
+
+	@Test
+	public void fastStream_stepsUpAtOnce() {
+		mPolicy.onSetup(mLink);
+		mPolicy.onStreaming();
+		stream(2);
+		stream(2);
+		assertEquals(GattLink.PRIORITY_LOW_POWER, mPolicy.getPriority());
+
+		stream(LinkPolicy.capacity(1) + 1);
+		assertEquals(GattLink.PRIORITY_HIGH, mPolicy.getPriority());
+
+		// a rate the balanced interval carries, down one step at a time
+		stream(LinkPolicy.capacity(0) + 1);
+		stream(LinkPolicy.capacity(0) + 1);
+		assertEquals(GattLink.PRIORITY_BALANCED, mPolicy.getPriority());
+		stream(LinkPolicy.capacity(0) + 1);
+		stream(LinkPolicy.capacity(0) + 1);
+		assertEquals(GattLink.PRIORITY_BALANCED, mPolicy.getPriority());
+	}
+
+	@Test
+	public void slowRequests_shortenTheInterval() {
+		mPolicy.onSetup(mLink);
+		mPolicy.onStreaming();
+		stream(1);
+		stream(1);
+		assertEquals(GattLink.PRIORITY_LOW_POWER, mPolicy.getPriority());
+
+		mPolicy.onRoundTrip(LinkPolicy.DEFAULT_MAX_LATENCY_MS + 100);
+		stream(1);
+		assertEquals(GattLink.PRIORITY_BALANCED, mPolicy.getPriority());
+
+		// 300 ms on this interval would be too slow on the longer one
+		for (int i = 0; i < 4; i++) {
+			mPolicy.onRoundTrip(300);
+			stream(1);
+		}
+		assertEquals(GattLink.PRIORITY_BALANCED, mPolicy.getPriority());
+	}
+
+	@Test
+	public void disconnect_stopsLookingAndStartsOver() {
+		mPolicy.onSetup(mLink);
+		mPolicy.onStreaming();
+		mPolicy.onDisconnected();
+		assertEquals(0, mScheduler.pending());
+
+		stream(100);
+		mPolicy.onSetup(mLink);
+		assertEquals(GattLink.PRIORITY_HIGH, mPolicy.getPriority());
+		assertEquals(3, mPriorities.size());
+	}
+
+	@Test
+	public void mtu_notAskedAgainOfATagThatKeepsTheDefault() {
+		FakeGattClient client = new FakeGattClient();
+		GattQueue queue = new GattQueue(client, mScheduler, new GattQueue.Listener() {
+			@Override
+			public void onOperationComplete(GattOperation operation, int status) {
+			}
+
+			@Override
+			public void onOperationFailed(GattOperation operation) {
+			}
+
+			@Override
+			public void onQueueIdle() {
+			}
+		});
+		mPolicy.onSetup(mLink);
+		mPolicy.requestMtu(queue);
+		mPolicy.requestMtu(queue);
+		assertEquals(Arrays.asList("mtu " + LinkPolicy.DEFAULT_MTU), client.calls);
+
+		mPolicy.onMtuChanged(GattOperation.DEFAULT_MTU, GattLink.GATT_SUCCESS);
+		queue.onMtuChanged(GattOperation.DEFAULT_MTU, GattLink.GATT_SUCCESS);
+		mPolicy.onDisconnected();
+		mPolicy.onSetup(mLink);
+		mPolicy.requestMtu(queue);
+		assertEquals(1, client.calls.size());
+	}
+}
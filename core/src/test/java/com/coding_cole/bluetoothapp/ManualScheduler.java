@@ -0,0 +1,59 @@
+package com.coding_cole.bluetoothapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link TaskScheduler} driven by hand from tests.
+ */
+class ManualScheduler implements TaskScheduler {
+
+	private static class Task {
+		final Runnable runnable;
+		final long due;
+
+		Task(Runnable runnable, long due) {
+			this.runnable = runnable;
+			this.due = due;
+		}
+	}
+
+	private final List<Task> mTasks = new ArrayList<Task>();
+	private long mNow;
+
+	@Override
+	public Object schedule(Runnable task, long delayMillis) {
+		Task t = new Task(task, mNow + delayMillis);
+		mTasks.add(t);
+		return t;
+	}
+
+	@Override
+	public void cancel(Object handle) {
+		mTasks.remove(handle);
+	}
+
+	long now() {
+		return mNow;
+	}
+
+	int pending() {
+		return mTasks.size();
+	}
+
+	// move the clock forward, running everything that falls due in order
+	void advance(long millis) {
+		long end = mNow + millis;
+		while (true) {
+			Task next = null;
+			for (Task t : mTasks) {
+				if (t.due <= end && (next == null || t.due < next.due)) next = t;
+			}
+			if (next == null) break;
+			mTasks.remove(next);
+			mNow = next.due;
+			next.runnable.run();
+		}
+		mNow = end;
+	}
+}
@@ -0,0 +1,65 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+	private final Metrics mMetrics = new Metrics();
+
+	@Test
+	public void counter_isSharedByName() {
+		mMetrics.counter("scan.advertisements").increment();
+		mMetrics.counter("scan.advertisements").add(4);
+		assertEquals(5, mMetrics.counter("scan.advertisements").get());
+		assertSame(mMetrics.counter("a"), mMetrics.counter("a"));
+	}
+
+	@Test
+	public void histogram_percentilesWithinABucket() {
+		Metrics.Histogram h = mMetrics.histogram("decode.latency");
+		// 90 fast ones around 50 us, 10 slow ones around 5 ms
+		for (int i = 0; i < 90; i++) h.record(50000 + i);
+		for (int i = 0; i < 10; i++) h.record(5000000 + i);
+
+		assertEquals(100, h.getCount());
+		assertEquals(5000009, h.getMax());
+		long p50 = h.getPercentile(0.5);
+		assertTrue(p50 >= 50089 && p50 < 2 * 50089);
+		long p99 = h.getPercentile(0.99);
+		assertTrue(p99 >= 5000000 && p99 <= 5000009);
+		assertEquals((90 * 50044.5 + 10 * 5000004.5) / 100, h.getMean(), 1e-6);
+	}
+
+	@Test
+	public void histogram_emptyAndZero() {
+		Metrics.Histogram h = mMetrics.histogram("x");
+		assertEquals(0, h.getPercentile(0.5));
+		h.record(0);
+		h.record(-5);
+		assertEquals(2, h.getCount());
+		assertEquals(0, h.getPercentile(1));
+	}
+
+	@Test
+	public void dump_listsEverythingAndResetZeroes() {
+		mMetrics.counter("b.counter").add(3);
+		mMetrics.histogram("a.histogram").record(2000000);
+		mMetrics.gauge("c.gauge", new Metrics.Gauge() {
+			@Override
+			public long get() {
+				return 42;
+			}
+		});
+
+		String dump = mMetrics.dump();
+		assertTrue(dump, dump.contains("b.counter"));
+		assertTrue(dump, dump.matches("(?s).*c\\.gauge\\s+42\\n.*"));
+		assertTrue(dump, dump.matches("(?s).*a\\.histogram\\s+1 .*max 2\\.000\\n.*"));
+
+		mMetrics.reset();
+		assertEquals(0, mMetrics.counter("b.counter").get());
+		assertEquals(0, mMetrics.histogram("a.histogram").getCount());
+	}
+}
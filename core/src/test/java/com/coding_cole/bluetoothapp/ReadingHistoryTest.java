@@ -0,0 +1,32 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReadingHistoryTest {
+
+	@Test
+	public void rings_getTheFullCapacityWhileTheBudgetLasts() {
+		long ring = 4096L * SampleRing.BYTES_PER_SAMPLE;
+		ReadingHistory history = new ReadingHistory(4096, 2 * ring + ring / 2);
+
+		history.add("AA:BB", Channel.HUMIDITY, 0, 40);
+		history.add("AA:BB", Channel.PRESSURE, 0, 30);
+		assertEquals(4096, history.get("AA:BB", Channel.HUMIDITY).capacity());
+		assertEquals(4096, history.get("AA:BB", Channel.PRESSURE).capacity());
+		assertNull(history.get("AA:BB", Channel.ACCEL_X));
+		assertEquals(2 * ring, history.memoryBytes());
+
+		// what is left of the budget, then the least
+		history.add("CC:DD", Channel.HUMIDITY, 0, 40);
+		assertEquals(2048, history.get("CC:DD", Channel.HUMIDITY).capacity());
+		history.add("CC:DD", Channel.PRESSURE, 0, 30);
+		assertEquals(ReadingHistory.MIN_CAPACITY, history.get("CC:DD", Channel.PRESSURE).capacity());
+
+		// a device that goes gives its memory back
+		history.remove("AA:BB");
+		history.add("EE:FF", Channel.HUMIDITY, 0, 40);
+		assertEquals(4096, history.get("EE:FF", Channel.HUMIDITY).capacity());
+	}
+}
@@ -0,0 +1,142 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReadingStreamTest {
+
+	// runs the drains only when told to, like a busy consumer thread
+	private static class ManualExecutor implements Executor {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+
+		void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+
+	private final ReadingStream mStream = new ReadingStream();
+	private final ManualExecutor mExecutor = new ManualExecutor();
+	private final List<Reading> mReceived = new ArrayList<Reading>();
+
+	private final ReadingStream.Subscriber mSubscriber = new ReadingStream.Subscriber() {
+		@Override
+		public void onReading(Reading reading) {
+			mReceived.add(reading);
+		}
+	};
+
+	private static double[] humidity(double value) {
+		double[] values = new double[Channel.COUNT];
+		values[Channel.HUMIDITY] = value;
+		return values;
+	}
+
+	@Test
+	public void dropOldest_keepsTheNewest() {
+		ReadingStream.Subscription subscription = mStream.subscribe(ReadingStream.ALL, 3,
+				ReadingStream.DROP_OLDEST, mExecutor, mSubscriber);
+		for (int i = 0; i < 10; i++) {
+			mStream.publish("AA", SensorRegistry.HUMIDITY, i, humidity(i));
+		}
+		// one drain scheduled, however many readings came in
+		assertEquals(1, mExecutor.tasks.size());
+		assertEquals(3, subscription.getBuffered());
+
+		mExecutor.runAll();
+		assertEquals(3, mReceived.size());
+		assertEquals(7, mReceived.get(0).timestamp);
+		assertEquals(9.0, mReceived.get(2).get(Channel.HUMIDITY), 0);
+		assertEquals(7, subscription.getDropped());
+	}
+
+	@Test
+	public void conflate_keepsLatestPerDeviceAndSensor() {
+		ReadingStream.Subscription subscription = mStream.subscribe(ReadingStream.ALL, 8,
+				ReadingStream.CONFLATE, mExecutor, mSubscriber);
+		for (int i = 0; i < 10; i++) {
+			mStream.publish("AA", SensorRegistry.HUMIDITY, i, humidity(i));
+			mStream.publish("BB", SensorRegistry.HUMIDITY, i, humidity(-i));
+		}
+		mExecutor.runAll();
+		assertEquals(2, mReceived.size());
+		assertEquals("AA", mReceived.get(0).device);
+		assertEquals(9, mReceived.get(0).timestamp);
+		assertEquals(-9.0, mReceived.get(1).get(Channel.HUMIDITY), 0);
+		assertEquals(18, subscription.getDropped());
+	}
+
+	@Test
+	public void filter_skipsOtherReadings() {
+		mStream.subscribe(ReadingStream.filter("BB", null), 4, ReadingStream.DROP_OLDEST, mExecutor, mSubscriber);
+		mStream.publish("AA", SensorRegistry.HUMIDITY, 1, humidity(1));
+		mStream.publish("BB", SensorRegistry.HUMIDITY, 2, humidity(2));
+		mExecutor.runAll();
+		assertEquals(1, mReceived.size());
+		assertEquals("BB", mReceived.get(0).device);
+		// not a channel of the sensor
+		assertTrue(Double.isNaN(mReceived.get(0).get(Channel.PRESSURE)));
+	}
+
+	@Test
+	public void block_holdsThePublisherBack() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Long> received = new ArrayList<Long>();
+		ExecutorService consumer = Executors.newSingleThreadExecutor();
+		ReadingStream.Subscription subscription = mStream.subscribe(ReadingStream.ALL, 2, ReadingStream.BLOCK, consumer,
+				new ReadingStream.Subscriber() {
+					@Override
+					public void onReading(Reading reading) {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						synchronized (received) {
+							received.add(reading.timestamp);
+						}
+					}
+				});
+
+		final CountDownLatch published = new CountDownLatch(1);
+		Thread publisher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 100; i++) {
+					mStream.publish("AA", SensorRegistry.HUMIDITY, i, humidity(i));
+				}
+				published.countDown();
+			}
+		});
+		publisher.start();
+
+		// one reading with the consumer, two buffered, the publisher waits
+		assertFalse(published.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(2, subscription.getBuffered());
+
+		release.countDown();
+		assertTrue(published.await(5, TimeUnit.SECONDS));
+		consumer.shutdown();
+		assertTrue(consumer.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(100, received.size());
+		assertEquals(0, subscription.getDropped());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (long) received.get(i));
+		}
+	}
+}
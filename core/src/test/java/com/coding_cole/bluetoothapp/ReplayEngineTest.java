@@ -0,0 +1,150 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ReplayEngineTest {
+
+	private static final int HUMIDITY_DATA = SensorRegistry.HUMIDITY.getDataKind();
+	private static final int PRESSURE_DATA = SensorRegistry.BAROMETER.getDataKind();
+	private static final int PRESSURE_CAL = SensorRegistry.BAROMETER.getCalibrationKind();
+
+	private static final byte[] CALIBRATION = {
+			(byte) 0xCB, (byte) 0xB4, (byte) 0x62, (byte) 0x0C, (byte) 0xC3, (byte) 0x83, (byte) 0x71, (byte) 0x12,
+			(byte) 0x3C, (byte) 0x00, (byte) 0x06, (byte) 0xF7, (byte) 0x0B, (byte) 0xD2, (byte) 0x1E, (byte) 0xFD
+	};
+
+	private static final int FRAMES = 3000;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	/*
+	 * Two tags, calibration sent once at the start, small segments so most
+	 * barometer frames are in segments without a calibration of their own.
+	 */
+	private File record() throws Exception {
+		File dir = mFolder.newFolder();
+		FrameLogWriter writer = new FrameLogWriter(dir, 256 * 1024, 4096, 10, 1000);
+		writer.append(0, "AA", SensorTagGatt.PRESSURE_CAL_CHAR, CALIBRATION);
+		writer.append(0, "BB", SensorTagGatt.PRESSURE_CAL_CHAR, CALIBRATION);
+		for (int i = 0; i < FRAMES; i++) {
+			String device = i % 2 == 0 ? "AA" : "BB";
+			int raw = 0x6000 + i;
+			writer.append(i, device, SensorTagGatt.HUMIDITY_DATA_CHAR,
+					new byte[]{0, 0, (byte) raw, (byte) (raw >> 8)});
+			writer.append(i, device, SensorTagGatt.PRESSURE_DATA_CHAR,
+					new byte[]{0x00, 0x19, (byte) 0xC1, (byte) (0xC3 - i % 16)});
+		}
+		// never started, so close() writes everything out on this thread
+		writer.close();
+		assertEquals(0, writer.getDropped());
+		assertTrue(FrameLog.segments(dir).size() > 4);
+		return dir;
+	}
+
+	@Test
+	public void parallelReplay_matchesLiveDecode() throws Exception {
+		File dir = record();
+
+		// what the live path decodes, one tag at a time in order
+		TagDecoder decoder = new TagDecoder();
+		TagReadings readings = new TagReadings();
+		decoder.decode(PRESSURE_CAL, CALIBRATION, 0, readings);
+		double humiditySum = 0;
+		double pressureSum = 0;
+		for (int i = 0; i < FRAMES; i += 2) {
+			int raw = 0x6000 + i;
+			decoder.decode(HUMIDITY_DATA, new byte[]{0, 0, (byte) raw, (byte) (raw >> 8)}, i, readings);
+			humiditySum += readings.get(Channel.HUMIDITY);
+			decoder.decode(PRESSURE_DATA, new byte[]{0x00, 0x19, (byte) 0xC1, (byte) (0xC3 - i % 16)}, i, readings);
+			pressureSum += readings.get(Channel.PRESSURE);
+		}
+
+		final AtomicLong sunk = new AtomicLong();
+		ReplayEngine engine = new ReplayEngine(4);
+		ReplayEngine.Summary summary = engine.replay(dir, new ReplayEngine.Sink() {
+			@Override
+			public void onReading(String device, int channel, long timestamp, double value) {
+				sunk.incrementAndGet();
+			}
+		});
+
+		assertEquals(2 + 2 * FRAMES, summary.frames);
+		assertEquals(2 * FRAMES, summary.decoded);
+		assertEquals(0, summary.skipped);
+		assertEquals(3 * FRAMES, sunk.get());
+
+		ReplayEngine.Totals humidity = summary.get("AA", Channel.HUMIDITY);
+		ReplayEngine.Totals pressure = summary.get("AA", Channel.PRESSURE);
+		assertEquals(FRAMES / 2, humidity.count);
+		assertEquals(FRAMES / 2, pressure.count);
+		assertEquals(humiditySum / (FRAMES / 2), humidity.mean(), 1e-9);
+		assertEquals(pressureSum / (FRAMES / 2), pressure.mean(), 1e-9);
+		assertEquals(0, humidity.firstTime);
+		assertEquals(FRAMES - 2, humidity.lastTime);
+
+		StringWriter csv = new StringWriter();
+		summary.write(csv);
+		assertTrue(csv.toString().contains("BB,temperature," + FRAMES / 2 + ","));
+	}
+
+	@Test
+	public void withoutCalibration_pressureIsSkipped() throws Exception {
+		File dir = mFolder.newFolder();
+		FrameLogWriter writer = new FrameLogWriter(dir);
+		writer.append(0, "AA", SensorTagGatt.PRESSURE_DATA_CHAR, new byte[]{0x00, 0x19, (byte) 0xC1, (byte) 0xC3});
+		writer.append(1, "AA", SensorTagGatt.HUMIDITY_DATA_CHAR, new byte[]{0, 0, 0, 0x60});
+		writer.append(2, "AA", SensorTagGatt.HUMIDITY_DATA_CHAR, new byte[]{0, 0});
+		writer.close();
+
+		ReplayEngine.Summary summary = new ReplayEngine(2).replay(dir, null);
+		assertEquals(3, summary.frames);
+		assertEquals(1, summary.decoded);
+		assertEquals(2, summary.skipped);
+	}
+
+	@Test
+	public void calibrationOverride_replacesRecordedOne() throws Exception {
+		File dir = record();
+		int[] c = {0xB4CB, 0x0C62, 0x83C3, 0x1271, 0x003C, -2298, -11765, -700};
+
+		ReplayEngine engine = new ReplayEngine(2);
+		engine.setCalibration("BB", CalibratedBarometer.fromCoefficients(c));
+		ReplayEngine.Summary summary = engine.replay(dir, null);
+
+		ReplayEngine.Totals recorded = summary.get("AA", Channel.PRESSURE);
+		ReplayEngine.Totals replaced = summary.get("BB", Channel.PRESSURE);
+		assertEquals(recorded.count, replaced.count);
+		double max = Double.NEGATIVE_INFINITY;
+		// BB sends the odd frames
+		for (int k = 1; k < 16; k += 2) {
+			max = Math.max(max, SensorTagData.barometer(0x1900, (0xC3 - k) << 8 | 0xC1, c));
+		}
+		assertEquals(max, replaced.max, 1e-9);
+		assertNotEquals(recorded.max, replaced.max, 1e-6);
+	}
+
+	@Test
+	public void scaledRealTime_decodesTheSameFrames() throws Exception {
+		File dir = record();
+
+		ReplayEngine engine = new ReplayEngine(1);
+		ReplayEngine.Summary full = engine.replay(dir, null);
+
+		// 3 s of recording at 100x
+		engine.setSpeed(100);
+		ReplayEngine.Summary paced = engine.replay(dir, null);
+
+		assertEquals(full.decoded, paced.decoded);
+		assertEquals(full.get("BB", Channel.PRESSURE).mean(), paced.get("BB", Channel.PRESSURE).mean(), 1e-9);
+		assertTrue(paced.elapsedNanos >= 25000000L);
+	}
+}
@@ -0,0 +1,141 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleRingTest {
+
+	@Test
+	public void capacity_roundsUpToPowerOfTwo() {
+		assertEquals(8, new SampleRing(5).capacity());
+		assertEquals(8, new SampleRing(8).capacity());
+		assertEquals(8 * SampleRing.BYTES_PER_SAMPLE, new SampleRing(8).memoryBytes());
+		assertEquals(36000, SampleRing.capacityFor(3600 * 1000, 10));
+	}
+
+	@Test
+	public void snapshot_keepsNewestAfterWrap() {
+		SampleRing ring = new SampleRing(8);
+		for (int i = 0; i < 20; i++) {
+			ring.add(i, i * 10);
+		}
+
+		long[] times = new long[16];
+		double[] values = new double[16];
+		int n = ring.snapshot(times, values);
+
+		// one slot is held back for the sample being written
+		assertEquals(7, n);
+		assertEquals(13, times[0]);
+		assertEquals(190, values[n - 1], 0);
+		assertEquals(19, ring.lastTime());
+	}
+
+	@Test
+	public void snapshotSince_startsAtTime() {
+		SampleRing ring = new SampleRing(16);
+		for (int i = 0; i < 10; i++) {
+			ring.add(i * 100, i);
+		}
+
+		long[] times = new long[16];
+		double[] values = new double[16];
+		int n = ring.snapshotSince(650, times, values);
+
+		assertEquals(3, n);
+		assertEquals(700, times[0]);
+	}
+
+	@Test
+	public void window_aggregates() {
+		SampleRing ring = new SampleRing(16);
+		double[] samples = {5, 1, 9, 3, 7};
+		for (int i = 0; i < samples.length; i++) {
+			ring.add(i * 10, samples[i]);
+		}
+		SampleRing.Stats stats = new SampleRing.Stats();
+
+		assertTrue(ring.window(10, 40, stats));
+		assertEquals(3, stats.count);
+		assertEquals(1, stats.min, 0);
+		assertEquals(9, stats.max, 0);
+		assertEquals(13 / 3.0, stats.mean, 1e-12);
+		assertEquals(10, stats.firstTime);
+		assertEquals(30, stats.lastTime);
+
+		assertFalse(ring.window(100, 200, stats));
+		assertEquals(0, stats.count);
+	}
+
+	@Test
+	public void concurrentReaders_neverSeeTornSamples() throws Exception {
+		final SampleRing ring = new SampleRing(64);
+		final long total = 2000000;
+		final boolean[] failed = new boolean[1];
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long[] times = new long[32];
+				double[] values = new double[32];
+				while (ring.count() < total) {
+					int n = ring.snapshot(times, values);
+					for (int i = 0; i < n; i++) {
+						// the writer stores value == time, and times are consecutive
+						if (values[i] != times[i] || (i > 0 && times[i] != times[i - 1] + 1)) {
+							failed[0] = true;
+						}
+					}
+				}
+			}
+		});
+		reader.start();
+		for (long i = 0; i < total; i++) {
+			ring.add(i, i);
+		}
+		reader.join();
+
+		assertFalse(failed[0]);
+	}
+
+	@Test
+	public void lappedReaders_retryInsteadOfReturningOverwrittenSamples() throws Exception {
+		// a reader wanting the whole ring is lapped by nearly every write
+		final SampleRing ring = new SampleRing(8);
+		final long total = 2000000;
+		final boolean[] failed = new boolean[1];
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long[] times = new long[8];
+				double[] values = new double[8];
+				SampleRing.Stats stats = new SampleRing.Stats();
+				while (ring.count() < total) {
+					int n = ring.snapshot(times, values);
+					for (int i = 0; i < n; i++) {
+						if (values[i] != times[i] || (i > 0 && times[i] != times[i - 1] + 1)) {
+							failed[0] = true;
+						}
+					}
+					// the mean of consecutive values is the middle of the first and last
+					if (ring.window(0, Long.MAX_VALUE, stats)) {
+						if (stats.min != stats.firstTime || stats.max != stats.lastTime
+								|| stats.mean != (stats.firstTime + stats.lastTime) / 2.0
+								|| stats.count != stats.lastTime - stats.firstTime + 1) {
+							failed[0] = true;
+						}
+					}
+				}
+			}
+		});
+		reader.start();
+		for (long i = 0; i < total; i++) {
+			ring.add(i, i);
+		}
+		reader.join();
+
+		assertFalse(failed[0]);
+	}
+}
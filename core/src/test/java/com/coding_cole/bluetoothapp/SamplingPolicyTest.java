@@ -0,0 +1,77 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SamplingPolicyTest {
+
+	private SamplingPolicy mPolicy;
+	private final List<Sensor> mChanges = new ArrayList<Sensor>();
+
+	@Before
+	public void setUp() {
+		mPolicy = new SamplingPolicy(new SamplingPolicy.Listener() {
+			@Override
+			public void onSamplingChanged(Sensor sensor) {
+				mChanges.add(sensor);
+			}
+		});
+	}
+
+	@Test
+	public void unrequestedSensors_areOff() {
+		for (Sensor sensor : SensorRegistry.all()) {
+			assertEquals(SamplingPolicy.OFF, mPolicy.getMode(sensor));
+		}
+		assertEquals(0, mPolicy.getPollTick());
+	}
+
+	@Test
+	public void fastestRequest_setsThePeriod() {
+		Sensor humidity = SensorRegistry.HUMIDITY;
+		mPolicy.request(humidity, 1000, false);
+		SamplingPolicy.Request live = mPolicy.request(humidity, 250, true);
+		assertEquals(SamplingPolicy.NOTIFY, mPolicy.getMode(humidity));
+		assertEquals(250, mPolicy.getPeriod(humidity));
+
+		mPolicy.cancel(live);
+		assertEquals(1000, mPolicy.getPeriod(humidity));
+
+		// within what the sensor can do
+		mPolicy.request(SensorRegistry.IR_TEMPERATURE, 50, true);
+		assertEquals(300, mPolicy.getPeriod(SensorRegistry.IR_TEMPERATURE));
+		assertEquals(4, mChanges.size());
+
+		// the same again changes nothing
+		mPolicy.request(humidity, 1000, false);
+		assertEquals(4, mChanges.size());
+	}
+
+	@Test
+	public void slowLogging_isPolledTogether() {
+		Sensor humidity = SensorRegistry.HUMIDITY;
+		Sensor barometer = SensorRegistry.BAROMETER;
+		mPolicy.request(humidity, 60 * 1000, false);
+		mPolicy.request(barometer, 5 * 60 * 1000, false);
+
+		assertEquals(SamplingPolicy.POLL, mPolicy.getMode(humidity));
+		assertEquals(Sensor.MAX_PERIOD_MS, mPolicy.getPeriod(humidity));
+		assertEquals(60 * 1000, mPolicy.getPollTick());
+		assertEquals(1, mPolicy.getPollTicks(humidity));
+		assertEquals(5, mPolicy.getPollTicks(barometer));
+
+		// someone watching switches back to notifications
+		SamplingPolicy.Request live = mPolicy.request(humidity, 1000, true);
+		assertEquals(SamplingPolicy.NOTIFY, mPolicy.getMode(humidity));
+		assertEquals(0, mPolicy.getPollInterval(humidity));
+		assertEquals(5 * 60 * 1000, mPolicy.getPollTick());
+
+		mPolicy.cancel(live);
+		assertEquals(SamplingPolicy.POLL, mPolicy.getMode(humidity));
+	}
+}
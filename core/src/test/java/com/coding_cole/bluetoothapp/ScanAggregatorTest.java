@@ -0,0 +1,106 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScanAggregatorTest {
+
+	private ManualScheduler mScheduler;
+	private ScanAggregator<String> mAggregator;
+	private final List<List<ScanAggregator.Entry<String>>> mUpdates = new ArrayList<List<ScanAggregator.Entry<String>>>();
+	private int mFiltered;
+
+	@Before
+	public void setUp() {
+		mScheduler = new ManualScheduler();
+		mAggregator = new ScanAggregator<String>(mScheduler,
+				new ScanAggregator.Filter<String>() {
+					@Override
+					public boolean accept(String name) {
+						mFiltered++;
+						return "SensorTag".equals(name);
+					}
+				},
+				new ScanAggregator.Listener<String>() {
+					@Override
+					public void onDevicesChanged(List<ScanAggregator.Entry<String>> devices) {
+						mUpdates.add(devices);
+					}
+				}, 250, 0.5);
+	}
+
+	@Test
+	public void repeatedAdvertisements_updateOnce() {
+		for (int i = 0; i < 1000; i++) {
+			mAggregator.onAdvertisement("AA", "SensorTag", -60, mScheduler.now());
+			mAggregator.onAdvertisement("BB", "Phone", -40, mScheduler.now());
+		}
+		mScheduler.advance(1000);
+
+		assertEquals(1, mUpdates.size());
+		assertEquals(1, mUpdates.get(0).size());
+		assertEquals("AA", mUpdates.get(0).get(0).address);
+		// each address went through the filter once
+		assertEquals(2, mFiltered);
+	}
+
+	@Test
+	public void newDevices_areThrottled() {
+		mAggregator.onAdvertisement("AA", "SensorTag", -60, mScheduler.now());
+		mScheduler.advance(0);
+		assertEquals(1, mUpdates.size());
+
+		// two more tags right after, both land in one update after the interval
+		mAggregator.onAdvertisement("BB", "SensorTag", -50, mScheduler.now());
+		mScheduler.advance(10);
+		mAggregator.onAdvertisement("CC", "SensorTag", -70, mScheduler.now());
+		mScheduler.advance(100);
+		assertEquals(1, mUpdates.size());
+
+		mScheduler.advance(200);
+		assertEquals(2, mUpdates.size());
+		List<ScanAggregator.Entry<String>> devices = mUpdates.get(1);
+		assertEquals(3, devices.size());
+		assertEquals("BB", devices.get(0).address);
+		assertEquals("CC", devices.get(2).address);
+	}
+
+	@Test
+	public void rssiIsSmoothed() {
+		mAggregator.onAdvertisement("AA", "SensorTag", -80, 0);
+		mAggregator.onAdvertisement("AA", "SensorTag", -60, 5);
+		ScanAggregator.Entry<String> entry = mAggregator.get("AA");
+		assertEquals(-70, entry.getRssi(), 1e-9);
+		assertEquals(5, entry.getLastSeen());
+		assertSame(entry, mAggregator.get(entry.id));
+	}
+
+	@Test
+	public void rejectedDevice_isRetriedLater() {
+		mAggregator.onAdvertisement("AA", null, -60, 0);
+		mAggregator.onAdvertisement("AA", null, -60, 100);
+		assertEquals(1, mFiltered);
+
+		// the name showed up with a later scan response
+		assertTrue(mAggregator.onAdvertisement("AA", "SensorTag", -60, ScanAggregator.REJECT_RETRY_MS + 1));
+		assertEquals(2, mFiltered);
+	}
+
+	@Test
+	public void expire_removesStaleDevices() {
+		mAggregator.onAdvertisement("AA", "SensorTag", -60, 0);
+		mAggregator.onAdvertisement("BB", "SensorTag", -60, 500);
+		mScheduler.advance(1000);
+
+		assertEquals(1, mAggregator.expire(400, mScheduler.now()));
+		mScheduler.advance(1000);
+		List<ScanAggregator.Entry<String>> last = mUpdates.get(mUpdates.size() - 1);
+		assertEquals(1, last.size());
+		assertEquals("BB", last.get(0).address);
+	}
+}
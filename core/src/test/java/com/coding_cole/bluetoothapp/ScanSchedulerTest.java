@@ -0,0 +1,110 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScanSchedulerTest {
+
+	private ManualScheduler mScheduler;
+	private ScanScheduler mScans;
+	private final List<Long> mStarts = new ArrayList<Long>();
+	private final List<Collection<String>> mAddresses = new ArrayList<Collection<String>>();
+	private int mScanMode;
+	private boolean mScanning;
+
+	@Before
+	public void setUp() {
+		mScheduler = new ManualScheduler();
+		mScans = new ScanScheduler(mScheduler, new ScanScheduler.Scanner() {
+			@Override
+			public void startScan(int mode, Collection<String> addresses) {
+				assertFalse(mScanning);
+				mScanning = true;
+				mScanMode = mode;
+				mStarts.add(mScheduler.now());
+				mAddresses.add(addresses);
+			}
+
+			@Override
+			public void stopScan() {
+				assertTrue(mScanning);
+				mScanning = false;
+			}
+		}, new ScanScheduler.Listener() {
+			@Override
+			public void onScanStateChanged(int mode, boolean scanning) {
+				assertEquals(mScanning, scanning);
+			}
+		});
+	}
+
+	@Test
+	public void burst_fallsBackToLowPowerWhenNothingNew() {
+		mScans.setMode(ScanScheduler.MODE_BURST);
+		assertTrue(mScanning);
+		assertEquals(ScanScheduler.MODE_BURST, mScanMode);
+
+		// keeps bursting while tags show up
+		for (int i = 0; i < 5; i++) {
+			mScans.onNewDevice();
+			mScheduler.advance(7500);
+		}
+		assertEquals(ScanScheduler.MODE_BURST, mScans.getMode());
+
+		mScheduler.advance(2 * 7500);
+		assertEquals(ScanScheduler.MODE_LOW_POWER, mScans.getMode());
+		assertEquals(ScanScheduler.MODE_LOW_POWER, mScanMode);
+	}
+
+	@Test
+	public void lowPower_backsOffAndResets() {
+		mScans.setMode(ScanScheduler.MODE_LOW_POWER);
+		mScheduler.advance(2000);
+		assertFalse(mScanning);
+		assertEquals(30000, mScans.getIdleMillis());
+
+		mScheduler.advance(30000 + 2000);
+		assertEquals(60000, mScans.getIdleMillis());
+
+		// found something, back to the shortest gap
+		mScheduler.advance(60000);
+		mScans.onNewDevice();
+		mScheduler.advance(2000);
+		assertEquals(15000, mScans.getIdleMillis());
+
+		// never more than five starts in any 30 s
+		mScans.setMode(ScanScheduler.MODE_BURST);
+		for (int i = 0; i < 20; i++) {
+			mScans.onNewDevice();
+			mScheduler.advance(1000);
+		}
+		for (int i = 5; i < mStarts.size(); i++) {
+			assertTrue(mStarts.get(i) - mStarts.get(i - 5) >= 30000);
+		}
+	}
+
+	@Test
+	public void hunt_scansForAddressesUntilStopped() {
+		mScans.hunt(Arrays.asList("AA", "BB"));
+		assertEquals(ScanScheduler.MODE_RECONNECT, mScanMode);
+		assertEquals(Arrays.asList("AA", "BB"), new ArrayList<String>(mAddresses.get(0)));
+
+		mScheduler.advance(10 * 60 * 1000);
+		assertEquals(ScanScheduler.MODE_RECONNECT, mScans.getMode());
+		assertTrue(mScans.getIdleMillis() <= 60000);
+
+		mScans.stop();
+		assertFalse(mScanning);
+		int starts = mStarts.size();
+		mScheduler.advance(10 * 60 * 1000);
+		assertEquals(starts, mStarts.size());
+		assertEquals(0, mScheduler.pending());
+	}
+}
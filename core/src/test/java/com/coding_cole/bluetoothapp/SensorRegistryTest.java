@@ -0,0 +1,63 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SensorRegistryTest {
+
+	@Test
+	public void kinds_mapBackToTheirSensors() {
+		Set<Integer> kinds = new HashSet<Integer>();
+		Set<Integer> channels = new HashSet<Integer>();
+		for (Sensor sensor : SensorRegistry.all()) {
+			assertEquals(sensor.getDataKind(), SensorRegistry.kindOf(sensor.getData()));
+			assertSame(sensor, SensorRegistry.sensorOf(sensor.getDataKind()));
+			assertFalse(SensorRegistry.isCalibration(sensor.getDataKind()));
+			assertTrue(kinds.add(sensor.getDataKind()));
+			if (sensor.needsCalibration()) {
+				assertEquals(sensor.getCalibrationKind(), SensorRegistry.kindOf(sensor.getCalibration()));
+				assertTrue(SensorRegistry.isCalibration(sensor.getCalibrationKind()));
+				assertTrue(kinds.add(sensor.getCalibrationKind()));
+			}
+			for (int channel : sensor.getChannels()) {
+				assertTrue(channels.add(channel));
+			}
+		}
+		// every channel is fed by exactly one sensor
+		assertEquals(Channel.COUNT, channels.size());
+
+		assertEquals(0, SensorRegistry.kindOf(SensorTagGatt.PRESSURE_CONFIG_CHAR));
+		assertEquals(0, SensorRegistry.kindOf(UUID.randomUUID()));
+		assertNull(SensorRegistry.sensorOf(0));
+	}
+
+	@Test
+	public void motionSensors_decodeAllAxes() {
+		TagDecoder decoder = new TagDecoder();
+		TagReadings readings = new TagReadings();
+
+		assertTrue(decoder.decode(SensorRegistry.ACCELEROMETER.getDataKind(), new byte[]{64, -64, 32}, 1, readings));
+		assertEquals(1.0, readings.get(Channel.ACCEL_X), 0);
+		assertEquals(-1.0, readings.get(Channel.ACCEL_Y), 0);
+		assertEquals(-0.5, readings.get(Channel.ACCEL_Z), 0);
+
+		assertTrue(decoder.decode(SensorRegistry.GYROSCOPE.getDataKind(), new byte[]{0x00, 0x10, 0x00, 0x20, 0, 0}, 2, readings));
+		assertEquals(62.5, readings.get(Channel.GYRO_X), 0);
+		assertEquals(-31.25, readings.get(Channel.GYRO_Y), 0);
+		assertEquals(0, readings.get(Channel.GYRO_Z), 0);
+
+		// 25 C on the die, nothing warmer in view
+		assertTrue(decoder.decode(SensorRegistry.IR_TEMPERATURE.getDataKind(), new byte[]{0, 0, (byte) 0x80, 0x0C}, 3, readings));
+		assertEquals(25.0, readings.get(Channel.IR_AMBIENT), 0);
+		assertEquals(25.0, readings.get(Channel.IR_OBJECT), 5.0);
+
+		// sensors that didn't send anything are untouched
+		assertTrue(Double.isNaN(readings.get(Channel.MAG_X)));
+		assertTrue(Double.isNaN(readings.get(Channel.HUMIDITY)));
+	}
+}
@@ -0,0 +1,73 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding of raw SensorTag payloads, run on the host without a device.
+ */
+public class SensorTagDataTest {
+
+	// calibration block as reported by a real tag
+	private static final byte[] CALIBRATION = {
+			(byte) 0xCB, (byte) 0xB4, (byte) 0x62, (byte) 0x0C, (byte) 0xC3, (byte) 0x83, (byte) 0x71, (byte) 0x12,
+			(byte) 0x3C, (byte) 0x00, (byte) 0x06, (byte) 0xF7, (byte) 0x0B, (byte) 0xD2, (byte) 0x1E, (byte) 0xFD
+	};
+
+	@Test
+	public void shortAtOffset_interpretsUpperByteSign() {
+		byte[] value = {(byte) 0xFE, (byte) 0xFF, (byte) 0x34, (byte) 0x12};
+
+		assertEquals(-2, SensorTagData.shortSignedAtOffset(value, 0));
+		assertEquals(0xFFFE, SensorTagData.shortUnsignedAtOffset(value, 0));
+		assertEquals(0x1234, SensorTagData.shortSignedAtOffset(value, 2));
+		assertEquals(0x1234, SensorTagData.shortUnsignedAtOffset(value, 2));
+	}
+
+	@Test
+	public void calibrationCoefficients_signedAndUnsigned() {
+		int[] c = new int[8];
+		SensorTagData.extractCalibrationCoefficients(CALIBRATION, 0, c);
+
+		assertArrayEquals(new int[]{0xB4CB, 0x0C62, 0x83C3, 0x1271, 0x003C, (short) 0xF706, (short) 0xD20B, (short) 0xFD1E}, c);
+	}
+
+	@Test
+	public void byteBuffer_matchesByteArray() {
+		byte[] payload = {0x00, 0x00, (byte) 0x9C, (byte) 0xE2, (byte) 0x5C, (byte) 0x66, (byte) 0x80, (byte) 0x7A};
+		ByteBuffer buffer = ByteBuffer.wrap(payload);
+		int[] c = new int[8];
+		SensorTagData.extractCalibrationCoefficients(CALIBRATION, 0, c);
+
+		assertEquals(SensorTagData.extractHumidity(payload, 4), SensorTagData.extractHumidity(buffer, 4), 0);
+		assertEquals(SensorTagData.extractHumAmbientTemp(payload, 4), SensorTagData.extractHumAmbientTemp(buffer, 4), 0);
+		assertEquals(SensorTagData.extractBarTemp(payload, 2, c), SensorTagData.extractBarTemp(buffer, 2, c), 0);
+		assertEquals(SensorTagData.extractBarometer(payload, 2, c), SensorTagData.extractBarometer(buffer, 2, c), 0);
+	}
+
+	@Test
+	public void humidity_clearsStatusBits() {
+		// raw humidity 0x7A83 with both status bits set, 31360 once they are cleared
+		byte[] payload = {(byte) 0x5C, (byte) 0x66, (byte) 0x83, (byte) 0x7A};
+
+		assertEquals(-6f + 125f * (31360 / 65535f), SensorTagData.extractHumidity(payload, 0), 1e-6);
+		assertEquals(-46.85 + 175.72 / 65536 * 0x665C, SensorTagData.extractHumAmbientTemp(payload, 0), 1e-9);
+	}
+
+	@Test
+	public void barometer_inInchesOfMercury() {
+		int[] c = new int[8];
+		SensorTagData.extractCalibrationCoefficients(CALIBRATION, 0, c);
+		// t_r = 0x1900, p_r = 0xC3C1
+		byte[] payload = {(byte) 0x00, (byte) 0x19, (byte) 0xC1, (byte) 0xC3};
+
+		double temp = SensorTagData.extractBarTemp(payload, 0, c);
+		double pressure = SensorTagData.extractBarometer(payload, 0, c);
+
+		assertEquals(20.75, temp, 0.01);
+		assertEquals(29.9, pressure, 0.1);
+	}
+}
@@ -0,0 +1,215 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SimulatedSensorTagTest {
+
+	private ManualScheduler mScheduler;
+	private SimulatedBleDriver mDriver;
+	private SamplingPolicy mSampling;
+	private final List<TagDecoder> mDecoders = new ArrayList<TagDecoder>();
+	private final List<TagReadings> mReadings = new ArrayList<TagReadings>();
+	private int mFrames;
+	private int mReady;
+	private int mDisconnects;
+
+	// decodes every tag's frames like the pipeline does
+	private final FrameSink mSink = new FrameSink() {
+		@Override
+		public void onFrame(int slot, int kind, byte[] value, long receivedNanos) {
+			if (mDecoders.get(slot).decode(kind, value, receivedNanos, mReadings.get(slot))) mFrames++;
+		}
+
+		@Override
+		public void reset(int slot) {
+			mReadings.get(slot).clear();
+		}
+	};
+
+	private final TagSession.Callback mCallback = new TagSession.Callback() {
+		@Override
+		public void onProgress(TagSession session, String message) {
+		}
+
+		@Override
+		public void onReady(TagSession session) {
+			mReady++;
+		}
+
+		@Override
+		public void onDisconnected(TagSession session) {
+			mDisconnects++;
+		}
+	};
+
+	@Before
+	public void setUp() {
+		mScheduler = new ManualScheduler();
+		mDriver = new SimulatedBleDriver(mScheduler, 42);
+		mSampling = new SamplingPolicy(new SamplingPolicy.Listener() {
+			@Override
+			public void onSamplingChanged(Sensor sensor) {
+			}
+		});
+		mSampling.request(SensorRegistry.HUMIDITY, 1000, true);
+		mSampling.request(SensorRegistry.BAROMETER, 1000, true);
+	}
+
+	private TagSession session(SimulatedSensorTag tag) {
+		int slot = mDecoders.size();
+		mDecoders.add(new TagDecoder());
+		mReadings.add(new TagReadings());
+		TagSession session = new TagSession(mDriver, tag.getAddress(), SimulatedSensorTag.NAME, slot, mSink,
+				mScheduler, null, new TagCache(), mSampling, new Metrics(), mCallback);
+		session.connect();
+		return session;
+	}
+
+	@Test
+	public void session_streamsRealisticReadings() {
+		SimulatedSensorTag tag = mDriver.addTag("5A:1D:00:00:00:01").setEnvironment(40, 21, 100000);
+		TagSession session = session(tag);
+		mScheduler.advance(2000);
+
+		assertEquals(ConnectionLifecycle.STREAMING, session.getState());
+		assertEquals(1, mReady);
+		assertEquals(1000, tag.getPeriod(SensorRegistry.HUMIDITY));
+		assertTrue(tag.isNotifying(SensorRegistry.BAROMETER));
+
+		mScheduler.advance(10000);
+		TagReadings readings = mReadings.get(0);
+		assertEquals(40, readings.get(Channel.HUMIDITY), 1);
+		assertEquals(21, readings.get(Channel.TEMPERATURE), 0.5);
+		assertEquals(100000 * CalibratedBarometer.PASCAL_TO_HG, readings.get(Channel.PRESSURE), 0.01);
+		// every notification, after the first value of each sensor was read
+		assertEquals(tag.getSent() + 2, mFrames);
+		assertTrue(mFrames >= 20);
+	}
+
+	@Test
+	public void session_tunesTheLinkFromSetupToSteadyStream() {
+		SimulatedSensorTag tag = mDriver.addTag("5A:1D:00:00:00:01").setMaxMtu(LinkPolicy.DEFAULT_MTU);
+		TagSession session = session(tag);
+		mScheduler.advance(20);
+		assertEquals(GattLink.PRIORITY_HIGH, tag.getPriority());
+
+		mScheduler.advance(500);
+		assertEquals(ConnectionLifecycle.STREAMING, session.getState());
+		assertEquals(LinkPolicy.DEFAULT_MTU, tag.getMtu());
+		assertEquals(LinkPolicy.DEFAULT_MTU, session.getLinkPolicy().getMtu());
+
+		// two notifications a second fit the longest interval
+		mScheduler.advance(2 * LinkPolicy.EVALUATE_MS);
+		assertEquals(GattLink.PRIORITY_LOW_POWER, tag.getPriority());
+	}
+
+	@Test
+	public void sensorOff_isPoweredDownAfterReadingItsCalibration() {
+		mSampling = new SamplingPolicy(new SamplingPolicy.Listener() {
+			@Override
+			public void onSamplingChanged(Sensor sensor) {
+			}
+		});
+		mSampling.request(SensorRegistry.HUMIDITY, 1000, true);
+		SimulatedSensorTag tag = mDriver.addTag("5A:1D:00:00:00:01");
+		TagSession session = session(tag);
+		mScheduler.advance(2000);
+
+		assertEquals(ConnectionLifecycle.STREAMING, session.getState());
+		assertTrue(mDecoders.get(0).isCalibrated());
+		assertTrue(tag.isPowered(SensorRegistry.HUMIDITY));
+		assertFalse(tag.isPowered(SensorRegistry.BAROMETER));
+	}
+
+	@Test
+	public void droppedLink_sessionReconnectsAndStreamsAgain() {
+		SimulatedSensorTag tag = mDriver.addTag("5A:1D:00:00:00:01");
+		TagSession session = session(tag);
+		mScheduler.advance(5000);
+		int frames = mFrames;
+
+		tag.dropLink();
+		assertFalse(tag.isConnected());
+		mScheduler.advance(2000);
+
+		assertEquals(ConnectionLifecycle.STREAMING, session.getState());
+		assertEquals(1, mDisconnects);
+		assertEquals(2, mReady);
+		mScheduler.advance(5000);
+		assertTrue(mFrames >= frames + 8);
+	}
+
+	@Test
+	public void refusedConnections_backOffUntilTheTagAnswers() {
+		SimulatedSensorTag tag = mDriver.addTag("5A:1D:00:00:00:01").refuseConnections(3);
+		TagSession session = session(tag);
+		mScheduler.advance(500);
+		assertEquals(0, mReady);
+
+		mScheduler.advance(10000);
+		assertEquals(ConnectionLifecycle.STREAMING, session.getState());
+		assertEquals(1, mReady);
+	}
+
+	@Test
+	public void drops_loseFramesInBursts() {
+		SimulatedSensorTag tag = mDriver.addTag("5A:1D:00:00:00:01").setDrops(0.1, 3).setJitter(50);
+		session(tag);
+		mScheduler.advance(1000 * 1000);
+
+		// a burst of three is lost for every nine sent on average
+		double lost = (double) tag.getDropped() / (tag.getSent() + tag.getDropped());
+		assertEquals(0.25, lost, 0.05);
+		assertEquals(tag.getSent() + 2, mFrames);
+	}
+
+	@Test
+	public void scan_reportsTagsThatAreNotConnected() {
+		final Set<String> seen = new HashSet<String>();
+		mDriver.setScanCallback(new BleDriver.ScanCallback() {
+			@Override
+			public void onAdvertisement(String address, String name, int rssi) {
+				seen.add(address);
+			}
+		});
+		List<SimulatedSensorTag> tags = mDriver.addTags(5);
+		session(tags.get(0));
+		mScheduler.advance(1000);
+
+		mDriver.startScan(ScanScheduler.MODE_BURST, new ArrayList<String>());
+		mScheduler.advance(SimulatedBleDriver.DEFAULT_ADVERTISING_INTERVAL_MS);
+		mDriver.stopScan();
+		assertEquals(4, seen.size());
+		assertFalse(seen.contains(tags.get(0).getAddress()));
+	}
+
+	@Test
+	public void manyTags_allStream() {
+		List<TagSession> sessions = new ArrayList<TagSession>();
+		for (SimulatedSensorTag tag : mDriver.addTags(200)) {
+			tag.setJitter(20).setDrops(0.01, 1);
+			sessions.add(session(tag));
+		}
+		mScheduler.advance(60 * 1000);
+
+		long sent = 0;
+		for (int i = 0; i < sessions.size(); i++) {
+			assertEquals(ConnectionLifecycle.STREAMING, sessions.get(i).getState());
+			assertEquals(45, mReadings.get(i).get(Channel.HUMIDITY), 2);
+		}
+		for (SimulatedSensorTag tag : mDriver.getTags()) {
+			sent += tag.getSent();
+		}
+		assertEquals(sent + 200 * 2, mFrames);
+		// two sensors a second for about a minute each
+		assertTrue(mFrames > 200 * 2 * 55);
+	}
+}
@@ -0,0 +1,130 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/*
+ * Time from starting the app to the first reading of every tag, on simulated
+ * tags with a realistic link latency: a first start that has to read each tag's
+ * calibration, against a later one that connects to the known tags straight
+ * from the saved TagCache.
+ */
+public class StartupBenchmarkTest {
+
+	// as many as can be connected at once
+	private static final int TAGS = 7;
+
+	// per GATT round trip at the balanced priority, typical of a busy connection interval
+	private static final long LATENCY_MS = 30;
+
+	// the same at the high priority the setup runs at, about a quarter of it
+	private static final long SETUP_LATENCY_MS = LATENCY_MS / 4;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	/*
+	 * Start collecting from every tag the cache knows, or from all tags of the
+	 * driver if it knows none, and return when each tag's first reading arrived.
+	 */
+	private long[] start(TagCache cache) {
+		final ManualScheduler scheduler = new ManualScheduler();
+		SimulatedBleDriver driver = new SimulatedBleDriver(scheduler, 42);
+		driver.addTags(TAGS);
+		for (SimulatedSensorTag tag : driver.getTags()) {
+			tag.setLatency(LATENCY_MS);
+		}
+
+		SamplingPolicy sampling = new SamplingPolicy(new SamplingPolicy.Listener() {
+			@Override
+			public void onSamplingChanged(Sensor sensor) {
+			}
+		});
+		sampling.request(SensorRegistry.HUMIDITY, 1000, true);
+		sampling.request(SensorRegistry.BAROMETER, 1000, true);
+
+		final long[] first = new long[TAGS];
+		Arrays.fill(first, -1);
+		final List<TagDecoder> decoders = new ArrayList<TagDecoder>();
+		final List<TagReadings> readings = new ArrayList<TagReadings>();
+		FrameSink sink = new FrameSink() {
+			@Override
+			public void onFrame(int slot, int kind, byte[] value, long receivedNanos) {
+				if (decoders.get(slot).decode(kind, value, receivedNanos, readings.get(slot)) && first[slot] < 0) {
+					first[slot] = scheduler.now();
+				}
+			}
+
+			@Override
+			public void reset(int slot) {
+			}
+		};
+		TagSession.Callback callback = new TagSession.Callback() {
+			@Override
+			public void onProgress(TagSession session, String message) {
+			}
+
+			@Override
+			public void onReady(TagSession session) {
+			}
+
+			@Override
+			public void onDisconnected(TagSession session) {
+			}
+		};
+
+		List<String> addresses = new ArrayList<String>();
+		for (TagCache.Tag tag : cache.getKnown()) {
+			addresses.add(tag.address);
+		}
+		if (addresses.isEmpty()) {
+			// the first start: the tags are picked from a scan
+			for (SimulatedSensorTag tag : driver.getTags()) {
+				addresses.add(tag.getAddress());
+			}
+		}
+		// all at once, like SessionManager.connectKnown()
+		for (int slot = 0; slot < addresses.size(); slot++) {
+			decoders.add(new TagDecoder());
+			readings.add(new TagReadings());
+			new TagSession(driver, addresses.get(slot), SimulatedSensorTag.NAME, slot, sink, scheduler, null, cache,
+					sampling, new Metrics(), callback).connect();
+		}
+		scheduler.advance(10000);
+		return first;
+	}
+
+	private static long last(long[] times) {
+		long last = 0;
+		for (long time : times) {
+			assertTrue("a tag never sent a reading", time >= 0);
+			last = Math.max(last, time);
+		}
+		return last;
+	}
+
+	@Test
+	public void knownTags_firstReadingSoonerThanOnFirstStart() throws IOException {
+		TagCache cache = new TagCache();
+		long cold = last(start(cache));
+
+		File file = new File(mFolder.getRoot(), "tags");
+		cache.save(file);
+		TagCache loaded = TagCache.load(file);
+		assertEquals(TAGS, loaded.getKnown().size());
+		long warm = last(start(loaded));
+
+		// the two calibration requests of each tag are skipped, the tags set up side by side
+		assertTrue("first start " + cold + " ms, known tags " + warm + " ms",
+				cold - warm >= 2 * SETUP_LATENCY_MS);
+	}
+}
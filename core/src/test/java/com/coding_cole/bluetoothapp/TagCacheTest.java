@@ -0,0 +1,77 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagCacheTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private static final byte[] CALIBRATION = {1, 2, 3, 4, 5, 6, 7, 8};
+
+	@Test
+	public void saveAndLoad_keepsKnownTagsMostRecentFirst() throws IOException {
+		TagCache cache = new TagCache();
+		cache.remember("A", "SensorTag", 1000);
+		cache.remember("B", "SensorTag 2", 2000);
+		cache.putCalibration("A", SensorRegistry.BAROMETER, CALIBRATION);
+		cache.updateLayout("A", 0x10003);
+		// seen but never streamed, not connected to on start
+		cache.putCalibration("C", SensorRegistry.BAROMETER, CALIBRATION);
+		assertTrue(cache.isDirty());
+
+		File file = new File(mFolder.getRoot(), "tags");
+		cache.save(file);
+		assertFalse(cache.isDirty());
+		TagCache loaded = TagCache.load(file);
+		assertFalse(loaded.isDirty());
+
+		List<TagCache.Tag> known = loaded.getKnown();
+		assertEquals(2, known.size());
+		assertEquals("B", known.get(0).address);
+		assertEquals("SensorTag 2", known.get(0).getName());
+		assertEquals(1000, known.get(1).getLastUsed());
+		assertEquals(0x10003, loaded.getLayout("A"));
+		assertArrayEquals(CALIBRATION, loaded.getCalibration("A", SensorRegistry.BAROMETER));
+		assertArrayEquals(CALIBRATION, loaded.getCalibration("C", SensorRegistry.BAROMETER));
+		assertNull(loaded.getCalibration("B", SensorRegistry.BAROMETER));
+	}
+
+	@Test
+	public void load_missingFileIsEmpty() throws IOException {
+		TagCache cache = TagCache.load(new File(mFolder.getRoot(), "none"));
+		assertTrue(cache.getKnown().isEmpty());
+	}
+
+	@Test(expected = IOException.class)
+	public void load_rejectsOtherFiles() throws IOException {
+		File file = mFolder.newFile("tags");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] {'n', 'o', 'p', 'e', 0, 0, 0, 1});
+		out.close();
+		TagCache.load(file);
+	}
+
+	@Test
+	public void changedLayout_dropsCalibrations() {
+		TagCache cache = new TagCache();
+		cache.putCalibration("A", SensorRegistry.BAROMETER, CALIBRATION);
+		// the first layout seen only fills in what we didn't know
+		assertFalse(cache.updateLayout("A", 0x3));
+		assertFalse(cache.updateLayout("A", 0x3));
+		assertNotNull(cache.getCalibration("A", SensorRegistry.BAROMETER));
+
+		// other firmware, maybe other calibrations
+		assertTrue(cache.updateLayout("A", 0x10003));
+		assertNull(cache.getCalibration("A", SensorRegistry.BAROMETER));
+	}
+}
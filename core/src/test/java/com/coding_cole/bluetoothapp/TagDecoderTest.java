@@ -0,0 +1,66 @@
+package com.coding_cole.bluetoothapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TagDecoderTest {
+
+	private static final int HUMIDITY_DATA = SensorRegistry.HUMIDITY.getDataKind();
+	private static final int PRESSURE_DATA = SensorRegistry.BAROMETER.getDataKind();
+	private static final int PRESSURE_CAL = SensorRegistry.BAROMETER.getCalibrationKind();
+
+	private static final byte[] CALIBRATION = {
+			(byte) 0xCB, (byte) 0xB4, (byte) 0x62, (byte) 0x0C, (byte) 0xC3, (byte) 0x83, (byte) 0x71, (byte) 0x12,
+			(byte) 0x3C, (byte) 0x00, (byte) 0x06, (byte) 0xF7, (byte) 0x0B, (byte) 0xD2, (byte) 0x1E, (byte) 0xFD
+	};
+	private static final byte[] PRESSURE = {(byte) 0x00, (byte) 0x19, (byte) 0xC1, (byte) 0xC3};
+	private static final byte[] HUMIDITY = {(byte) 0x5C, (byte) 0x66, (byte) 0x80, (byte) 0x7A};
+
+	@Test
+	public void pressure_waitsForCalibration() {
+		TagDecoder decoder = new TagDecoder();
+		TagReadings readings = new TagReadings();
+
+		assertFalse(decoder.decode(PRESSURE_DATA, PRESSURE, 1, readings));
+		assertTrue(Double.isNaN(readings.get(Channel.PRESSURE)));
+
+		assertFalse(decoder.decode(PRESSURE_CAL, CALIBRATION, 2, readings));
+		assertTrue(decoder.decode(PRESSURE_DATA, PRESSURE, 3, readings));
+		assertEquals(20.75, readings.get(Channel.TEMPERATURE), 0.01);
+		assertEquals(29.9, readings.get(Channel.PRESSURE), 0.1);
+		assertEquals(3, readings.timestamp);
+	}
+
+	@Test
+	public void truncatedFrames_areIgnored() {
+		TagDecoder decoder = new TagDecoder();
+		TagReadings readings = new TagReadings();
+
+		assertFalse(decoder.decode(HUMIDITY_DATA, new byte[] {HUMIDITY[0], HUMIDITY[1]}, 1, readings));
+		assertFalse(decoder.decode(HUMIDITY_DATA, new byte[0], 2, readings));
+		assertFalse(decoder.decode(HUMIDITY_DATA, null, 3, readings));
+		assertTrue(Double.isNaN(readings.get(Channel.HUMIDITY)));
+
+		// a short calibration doesn't count as one
+		assertFalse(decoder.decode(PRESSURE_CAL, new byte[8], 4, readings));
+		assertFalse(decoder.isCalibrated());
+		decoder.decode(PRESSURE_CAL, CALIBRATION, 5, readings);
+		assertFalse(decoder.decode(PRESSURE_DATA, new byte[3], 6, readings));
+		assertTrue(decoder.decode(PRESSURE_DATA, PRESSURE, 7, readings));
+	}
+
+	@Test
+	public void reset_dropsCalibration() {
+		TagDecoder decoder = new TagDecoder();
+		TagReadings readings = new TagReadings();
+		decoder.decode(PRESSURE_CAL, CALIBRATION, 1, readings);
+
+		decoder.reset();
+
+		assertFalse(decoder.isCalibrated());
+		assertFalse(decoder.decode(PRESSURE_DATA, PRESSURE, 2, readings));
+		assertTrue(decoder.decode(HUMIDITY_DATA, HUMIDITY, 3, readings));
+		assertEquals(SensorTagData.extractHumidity(HUMIDITY, 0), readings.get(Channel.HUMIDITY), 0);
+	}
+}
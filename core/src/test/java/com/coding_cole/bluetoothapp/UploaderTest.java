@@ -0,0 +1,254 @@
+package com.coding_cole.bluetoothapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class UploaderTest {
+
+	private static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private final ManualScheduler mScheduler = new ManualScheduler();
+	private final List<byte[]> mReceived = Collections.synchronizedList(new ArrayList<byte[]>());
+	private final List<String> mIds = Collections.synchronizedList(new ArrayList<String>());
+	private volatile int mStatus = 200;
+	private HttpServer mServer;
+	private URL mEndpoint;
+	private File mSpool;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		mServer.createContext("/batches", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				InputStream in = exchange.getRequestBody();
+				byte[] buffer = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) >= 0) body.write(buffer, 0, n);
+				int status = mStatus;
+				if (status == 200) {
+					assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+					mReceived.add(body.toByteArray());
+					mIds.add(exchange.getRequestHeaders().getFirst(Uploader.BATCH_ID_HEADER));
+				}
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+			}
+		});
+		mServer.start();
+		mEndpoint = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/batches");
+		mSpool = new File(mFolder.getRoot(), "upload");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop(0);
+	}
+
+	@Test
+	public void batch_roundTripsReadings() throws IOException {
+		UploadBatch batch = new UploadBatch();
+		for (int i = 0; i < 500; i++) {
+			batch.add("AA:BB", Channel.HUMIDITY, 1000000L + i * 1000, 40 + (i % 7) * 0.125);
+			batch.add("CC:DD", Channel.PRESSURE, 1000000L + i * 1000 + 3, 1013.25 - i * 0.001);
+		}
+		batch.add("AA:BB", Channel.TEMPERATURE, 5, Double.NaN);
+		assertEquals(1000, batch.size());
+
+		byte[] payload = batch.encode();
+		// the deltas of steady series squeeze well below a byte per reading
+		assertTrue("payload is " + payload.length + " bytes", payload.length < 1000);
+
+		final List<String> decoded = new ArrayList<String>();
+		int count = UploadBatch.decode(payload, new UploadBatch.Visitor() {
+			@Override
+			public void onReading(String device, int channel, long timestamp, double value) {
+				decoded.add(device + " " + channel + " " + timestamp + " " + value);
+			}
+		});
+		assertEquals(1000, count);
+		assertEquals("AA:BB " + Channel.HUMIDITY + " 1000000 40.0", decoded.get(0));
+		assertEquals("AA:BB " + Channel.HUMIDITY + " 1001000 40.125", decoded.get(1));
+		assertEquals("CC:DD " + Channel.PRESSURE + " 1000003 1013.25", decoded.get(500));
+		assertEquals("CC:DD " + Channel.PRESSURE + " 1499003 1012.751", decoded.get(999));
+	}
+
+	@Test
+	public void upload_sendsFullBatches() throws IOException {
+		Uploader uploader = new Uploader(mEndpoint, mSpool, mScheduler, DIRECT, DIRECT).setMaxReadings(100);
+		uploader.start();
+		for (int i = 0; i < 250; i++) {
+			uploader.add("AA:BB", Channel.HUMIDITY, i * 1000, i);
+		}
+		assertEquals(2, mReceived.size());
+		assertEquals(100, count(mReceived.get(0)));
+
+		uploader.flush();
+		assertEquals(3, mReceived.size());
+		assertEquals(50, count(mReceived.get(2)));
+		assertEquals(3, uploader.getSentBatches());
+		assertEquals(0, uploader.getPending());
+		assertEquals(3, new HashSet<String>(mIds).size());
+	}
+
+	@Test
+	public void upload_sealsBatchesByAge() throws IOException {
+		Uploader uploader = new Uploader(mEndpoint, mSpool, mScheduler, DIRECT, DIRECT).setMaxAge(30000);
+		uploader.start();
+		uploader.add("AA:BB", Channel.HUMIDITY, 0, 41);
+		mScheduler.advance(29999);
+		assertEquals(0, mReceived.size());
+		mScheduler.advance(1);
+		assertEquals(1, mReceived.size());
+		assertEquals(0, mScheduler.pending());
+	}
+
+	@Test
+	public void upload_sealsOnTheExecutor() throws IOException {
+		final List<Runnable> queued = new ArrayList<Runnable>();
+		Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queued.add(command);
+			}
+		};
+		Uploader uploader = new Uploader(mEndpoint, mSpool, mScheduler, executor, DIRECT).setMaxAge(30000);
+		uploader.start();
+		uploader.add("AA:BB", Channel.HUMIDITY, 0, 41);
+
+		// the timer only hands the work over, the scheduler's thread doesn't touch the disk
+		mScheduler.advance(30000);
+		assertEquals(0, uploader.getSpooledReadings());
+		assertEquals(1, queued.size());
+		queued.remove(0).run();
+		assertEquals(1, mReceived.size());
+
+		uploader.add("AA:BB", Channel.HUMIDITY, 1000, 42);
+		uploader.flush();
+		assertEquals(1, uploader.getSpooledReadings());
+		queued.remove(0).run();
+		assertEquals(2, mReceived.size());
+	}
+
+	@Test
+	public void upload_sendsWallClockTime() throws IOException {
+		Uploader uploader = new Uploader(mEndpoint, mSpool, mScheduler, DIRECT, DIRECT);
+		uploader.start();
+		// stamped 5 s and 6 s after boot, and the phone booted at 1500000000000
+		long offset = 1500000000000L;
+		uploader.add(new Reading("AA:BB", SensorRegistry.HUMIDITY, 5000, new double[]{41}), offset);
+		uploader.add(new Reading("AA:BB", SensorRegistry.HUMIDITY, 6000, new double[]{42}), offset);
+		uploader.flush();
+
+		assertEquals(1, mReceived.size());
+		final List<Long> times = new ArrayList<Long>();
+		UploadBatch.decode(mReceived.get(0), new UploadBatch.Visitor() {
+			@Override
+			public void onReading(String device, int channel, long timestamp, double value) {
+				times.add(timestamp);
+			}
+		});
+		assertEquals(2, times.size());
+		assertEquals(1500000005000L, (long) times.get(0));
+		assertEquals(1500000006000L, (long) times.get(1));
+	}
+
+	@Test
+	public void upload_spoolsWhileDownAndResumes() throws IOException {
+		mStatus = 503;
+		Uploader uploader = new Uploader(mEndpoint, mSpool, mScheduler, DIRECT, DIRECT).setMaxReadings(10);
+		uploader.start();
+		for (int i = 0; i < 30; i++) {
+			uploader.add("AA:BB", Channel.HUMIDITY, i * 1000, i);
+		}
+		assertEquals(3, uploader.getPending());
+		assertEquals(1, uploader.getFailures());
+
+		// still down, the retries back off
+		mScheduler.advance(Uploader.FIRST_RETRY_MS);
+		assertEquals(2, uploader.getFailures());
+		mScheduler.advance(Uploader.FIRST_RETRY_MS);
+		assertEquals(2, uploader.getFailures());
+		mScheduler.advance(Uploader.FIRST_RETRY_MS);
+		assertEquals(3, uploader.getFailures());
+		uploader.add("AA:BB", Channel.HUMIDITY, 30000, 30);
+		uploader.close();
+		assertEquals(4, uploader.getPending());
+		assertEquals(0, mScheduler.pending());
+
+		// a new run picks up the spool, oldest first
+		mStatus = 200;
+		Uploader resumed = new Uploader(mEndpoint, mSpool, mScheduler, DIRECT, DIRECT);
+		resumed.start();
+		assertEquals(0, resumed.getPending());
+		assertEquals(4, mReceived.size());
+		assertEquals(1, count(mReceived.get(3)));
+		final List<Long> times = new ArrayList<Long>();
+		for (byte[] payload : mReceived) {
+			UploadBatch.decode(payload, new UploadBatch.Visitor() {
+				@Override
+				public void onReading(String device, int channel, long timestamp, double value) {
+					times.add(timestamp);
+				}
+			});
+		}
+		for (int i = 0; i < times.size(); i++) {
+			assertEquals(i * 1000L, (long) times.get(i));
+		}
+
+		// new batches go after the resumed ones
+		resumed.add("AA:BB", Channel.HUMIDITY, 31000, 31);
+		resumed.flush();
+		assertTrue(mIds.get(4).compareTo(mIds.get(3)) > 0);
+	}
+
+	@Test
+	public void upload_dropsRejectedBatches() throws IOException {
+		mStatus = 400;
+		Uploader uploader = new Uploader(mEndpoint, mSpool, mScheduler, DIRECT, DIRECT);
+		uploader.start();
+		uploader.add("AA:BB", Channel.HUMIDITY, 0, 41);
+		uploader.flush();
+		assertEquals(0, uploader.getPending());
+		assertEquals(1, uploader.getDiscarded());
+		assertEquals(0, mScheduler.pending());
+	}
+
+	private static int count(byte[] payload) throws IOException {
+		return UploadBatch.decode(payload, new UploadBatch.Visitor() {
+			@Override
+			public void onReading(String device, int channel, long timestamp, double value) {
+			}
+		});
+	}
+}